@@ -385,8 +385,10 @@ public class Archiver
       ret &= addEntry( zos, TDFile.getTopoDroidFile(pathname), pathname );
       // TDLog.v("ZIP archive post-manifest returns " + ret );
 
-      pathname = TDPath.getSqlFile( );
-      app_data.dumpToFile( pathname, TDInstance.sid );
+      // pathname = TDPath.getSqlFile( );
+      // app_data.dumpToFile( pathname, TDInstance.sid );
+      pathname = TDPath.getDumpFile( );
+      ret &= app_data.dumpToBinaryFile( pathname, TDInstance.sid );
       ret &= addEntry( zos, TDFile.getTopoDroidFile(pathname), pathname );
       // TDLog.v("ZIP archive post-sqlite returns " + ret );
 
@@ -447,7 +449,8 @@ public class Archiver
     } finally {
       if ( zos != null ) try { zos.close(); } catch ( IOException e ) { TDLog.Error("ZIP 6 close error"); }
       if ( pfd != null ) TDsafUri.closeFileDescriptor( pfd );
-      TDFile.deleteFile( TDPath.getSqlFile() );
+      // TDFile.deleteFile( TDPath.getSqlFile() );
+      TDFile.deleteFile( TDPath.getDumpFile() );
     }
     // TDLog.v("ZIP archive returns " + ret );
     return ret;
@@ -706,10 +709,14 @@ public class Archiver
           zin = zip.getInputStream( ze );
           // TDLog.Log( TDLog.LOG_ZIP, "Zip entry " + nr_entry + " \"" + ze.getName() + "\"" );
           boolean sql = false;
+          boolean dump = false; // binary dump
           pathname = null;
           if ( ze.getName().equals( "survey.sql" ) ) {
             pathname = TDPath.getSqlFile();
             sql = true;
+          } else if ( ze.getName().equals( "survey.dat" ) ) {
+            pathname = TDPath.getDumpFile();
+            dump = true;
           // /* FIXME_SKETCH_3D *
           // } else if ( ze.getName().endsWith( TDPath.TH3 ) ) {
           //   pathname = TDPath.getTh3File( ze.getName() );
@@ -756,6 +763,10 @@ public class Archiver
                 TDLog.v( "ZIP 7 sqlfile " + pathname + " DB version " + mManifestDbVersion );
                 sql_success = ( app_data.loadFromFile( pathname, mManifestDbVersion ) >= 0 );
                 TDFile.deleteFile( pathname );
+              } else if ( dump ) {
+                TDLog.v( "ZIP 7 dumpfile " + pathname + " DB version " + mManifestDbVersion );
+                sql_success = ( app_data.loadFromBinaryFile( pathname ) >= 0 );
+                TDFile.deleteFile( pathname );
               }
             } else {
               TDFile.deleteFile( pathname );
@@ -859,10 +870,14 @@ public class Archiver
           // TDLog.Log( TDLog.LOG_ZIP, "Zip file entry " + nr_entry + " \"" + ze.getName() + "\"");
           // TDLog.v( "ZIP 8 file entry " + nr_entry + " \"" + ze.getName() + "\"");
           boolean sql = false;
+          boolean dump = false; // binary dump
           pathname = null;
           if ( ze.getName().equals( "survey.sql" ) ) {
             pathname = TDPath.getSqlFile();
             sql = true;
+          } else if ( ze.getName().equals( "survey.dat" ) ) {
+            pathname = TDPath.getDumpFile();
+            dump = true;
           } else if ( ze.getName().endsWith( TDPath.TDR ) ) {
             pathname = TDPath.getTdrFile( ze.getName() );
           // } else if ( ze.getName().endsWith( TDPath.TDR3 ) ) {
@@ -904,6 +919,9 @@ public class Archiver
                 // TDLog.Log( TDLog.LOG_ZIP, "Zip sqlfile \"" + pathname + "\" DB version " + mManifestDbVersion );
                 if ( app_data.loadFromFile( pathname, mManifestDbVersion ) < 0 ) ok_manifest = -5;
                 TDFile.deleteFile( pathname );
+              } else if ( dump ) {
+                if ( app_data.loadFromBinaryFile( pathname ) < 0 ) ok_manifest = -5;
+                TDFile.deleteFile( pathname );
               }
             }
           }
@@ -146,7 +146,12 @@ public class DBlock
   /** get the reduced flag (lowest three bits)
    * @return the reduced flag
    */
-  public int  getReducedFlag() { return (int)(0x07 & mFlag); } // survey-surface-duplicate-commented part of the flag
+  public int  getReducedFlag() { return getReducedFlag( mFlag ); }
+
+  /** @return the reduced flag (lowest three bits)
+   * @param flag   block flag
+   */
+  public static int getReducedFlag( long flag ) { return (int)(0x07 & flag); } // survey-surface-duplicate-commented part of the flag
 
   // ------------------------------------------------------------------
   // BLOCK TYPE
@@ -218,6 +223,10 @@ public class DBlock
    */
   void setTypeBlankLeg( ) { if ( mBlockType == BLOCK_BLANK ) mBlockType = BLOCK_BLANK_LEG; }
 
+  /** reset the type "BLANK_LEG" to BLANK
+   */
+  void resetTypeBlankLeg( ) { if ( mBlockType == BLOCK_BLANK_LEG ) mBlockType = BLOCK_BLANK; }
+
   /** set the type SEC_LEG
    */
   void setTypeSecLeg()  { mBlockType = BLOCK_SEC_LEG; }
@@ -268,10 +277,20 @@ public class DBlock
    */
   public boolean isBackLeg() { return mBlockType == BLOCK_BACK_LEG; }
 
+  /** return true if the given type is BACK_LEG
+   * @param t   given type
+   */
+  public static boolean isBackLeg( int t ) { return t == BLOCK_BACK_LEG; }
+
   /** return true if the block type is SEC_LEG
    */
   public boolean isSecLeg() { return mBlockType == BLOCK_SEC_LEG; }
 
+  /** return true if the given type is SEC_LEG
+   * @param t   given type
+   */
+  public static boolean isSecLeg( int t ) { return t == BLOCK_SEC_LEG; }
+
   /** return true if the block type is any LEG
    */
   public boolean isAnyLeg() { return mBlockType == BLOCK_SEC_LEG || mBlockType == BLOCK_MAIN_LEG || mBlockType == BLOCK_BACK_LEG; }
@@ -343,6 +362,26 @@ public class DBlock
        default: /* nothing */
      }
   }
+
+  /** @return the type of a new block, after setBlockName and setBlockType
+   * @param has_from  whether the block has the FROM station
+   * @param has_to    whether the block has the TO station
+   * @param leg_type  leg type
+   */
+  static int blockType( boolean has_from, boolean has_to, int leg_type )
+  {
+    switch ( leg_type ) {
+      case LegType.EXTRA:   return BLOCK_SEC_LEG;
+      case LegType.XSPLAY:  return BLOCK_X_SPLAY;
+      case LegType.BACK:    return BLOCK_BACK_LEG;
+      case LegType.HSPLAY:  return BLOCK_H_SPLAY;
+      case LegType.VSPLAY:  return BLOCK_V_SPLAY;
+      case LegType.SCAN:    return BLOCK_SCAN;
+      default: /* nothing */
+    }
+    if ( has_from ) return has_to ? BLOCK_MAIN_LEG : BLOCK_SPLAY;
+    return has_to ? BLOCK_SPLAY : BLOCK_BLANK;
+  }
   
   /** return the color (from the block-type)
    */
@@ -693,62 +732,74 @@ public class DBlock
   /** @return the relative angle [in radians] between this block and another block (normal mode)
    * @param b  the other block
    */
-  public float relativeAngle( DBlock b )
+  public float relativeAngle( DBlock b ) { return relativeAngle( mBearing, mClino, b.mBearing, b.mClino ); }
+
+  /** @return the relative angle [in radians] between two shots (normal mode)
+   * @param b1   bearing of the first shot
+   * @param c1   clino of the first shot
+   * @param b2   bearing of the second shot
+   * @param c2   clino of the second shot
+   */
+  public static float relativeAngle( float b1, float c1, float b2, float c2 )
   {
     float cc, sc, cb, sb;
-    cc = TDMath.cosd( mClino );
-    sc = TDMath.sind( mClino );
-    cb = TDMath.cosd( mBearing ); 
-    sb = TDMath.sind( mBearing ); 
+    cc = TDMath.cosd( c1 );
+    sc = TDMath.sind( c1 );
+    cb = TDMath.cosd( b1 ); 
+    sb = TDMath.sind( b1 ); 
     TDVector v1 = new TDVector( cc * sb, cc * cb, sc );
-    cc = TDMath.cosd( b.mClino );
-    sc = TDMath.sind( b.mClino );
-    cb = TDMath.cosd( b.mBearing ); 
-    sb = TDMath.sind( b.mBearing ); 
+    cc = TDMath.cosd( c2 );
+    sc = TDMath.sind( c2 );
+    cb = TDMath.cosd( b2 ); 
+    sb = TDMath.sind( b2 ); 
     TDVector v2 = new TDVector( cc * sb, cc * cb, sc );
     return (v1.minus(v2)).Length(); // approximation: 2 * asin( dv/2 );
   }
 
-  /** @return true if the relative distance between this block and the another block is smaller that CloseDistance setting (normal mode)
-   * @param b  the other block
-   * @note blocks are in normal mode
+  /** @return true if the relative distance between two shots is smaller that CloseDistance setting (normal mode)
+   * @param l1   length of the first shot
+   * @param b1   bearing of the first shot
+   * @param c1   clino of the first shot
+   * @param l2   length of the second shot
+   * @param b2   bearing of the second shot
+   * @param c2   clino of the second shot
    */
-  private boolean checkRelativeDistance( DBlock b )
+  private static boolean checkRelativeDistance( float l1, float b1, float c1, float l2, float b2, float c2 )
   {
     float cc, sc, cb, sb;
-    float alen = mLength;
-    cc = TDMath.cosd( mClino );
-    sc = TDMath.sind( mClino );
-    cb = TDMath.cosd( mBearing ); 
-    sb = TDMath.sind( mBearing ); 
-    TDVector v1 = new TDVector( alen * cc * sb, alen * cc * cb, alen * sc );
-    float blen = b.mLength;
-    cc = TDMath.cosd( b.mClino );
-    sc = TDMath.sind( b.mClino );
-    cb = TDMath.cosd( b.mBearing ); 
-    sb = TDMath.sind( b.mBearing ); 
-    TDVector v2 = new TDVector( blen * cc * sb, blen * cc * cb, blen * sc );
+    cc = TDMath.cosd( c1 );
+    sc = TDMath.sind( c1 );
+    cb = TDMath.cosd( b1 ); 
+    sb = TDMath.sind( b1 ); 
+    TDVector v1 = new TDVector( l1 * cc * sb, l1 * cc * cb, l1 * sc );
+    cc = TDMath.cosd( c2 );
+    sc = TDMath.sind( c2 );
+    cb = TDMath.cosd( b2 ); 
+    sb = TDMath.sind( b2 ); 
+    TDVector v2 = new TDVector( l2 * cc * sb, l2 * cc * cb, l2 * sc );
     float d = (v1.minus(v2)).Length();
-    return ( d/alen + d/blen < TDSetting.mCloseDistance );
+    return ( d/l1 + d/l2 < TDSetting.mCloseDistance );
   }
 
-  /** @return true if the relative distance between this block and the another block is smaller that CloseDistance setting (diving mode)
-   * @param b  the other block
-   * @note blocks are in diving mode
+  /** @return true if the relative distance between two shots is smaller that CloseDistance setting (diving mode)
+   * @param l1   length of the first shot
+   * @param b1   bearing of the first shot
+   * @param d1   depth of the first shot
+   * @param l2   length of the second shot
+   * @param b2   bearing of the second shot
+   * @param d2   depth of the second shot
    */
-  private boolean checkRelativeDistanceDiving( DBlock b )
+  private static boolean checkRelativeDistanceDiving( float l1, float b1, float d1, float l2, float b2, float d2 )
   {
     float cb, sb;
-    float alen = mLength;
-    cb = TDMath.cosd( mBearing ); 
-    sb = TDMath.sind( mBearing ); 
-    TDVector v1 = new TDVector( alen * sb, alen * cb, mDepth );
-    float blen = b.mLength;
-    cb = TDMath.cosd( b.mBearing ); 
-    sb = TDMath.sind( b.mBearing ); 
-    TDVector v2 = new TDVector( blen * sb, blen * cb, b.mDepth );
+    cb = TDMath.cosd( b1 ); 
+    sb = TDMath.sind( b1 ); 
+    TDVector v1 = new TDVector( l1 * sb, l1 * cb, d1 );
+    cb = TDMath.cosd( b2 ); 
+    sb = TDMath.sind( b2 ); 
+    TDVector v2 = new TDVector( l2 * sb, l2 * cb, d2 );
     float d = (v1.minus(v2)).Length();
-    return ( d/alen + d/blen < TDSetting.mCloseDistance );
+    return ( d/l1 + d/l2 < TDSetting.mCloseDistance );
   }
 
   /** @return true if this shot is within relative distance from another shot
@@ -757,7 +808,23 @@ public class DBlock
   public boolean isRelativeDistance( DBlock b )
   {
     if ( b == null ) return false;
-    return ( TDInstance.datamode == SurveyInfo.DATAMODE_DIVING )? checkRelativeDistanceDiving( b ) : checkRelativeDistance( b );
+    return isRelativeDistance( mLength, mBearing, mClino, mDepth, b.mLength, b.mBearing, b.mClino, b.mDepth );
+  }
+
+  /** @return true if a shot is within relative distance from another shot
+   * @param l1   length of the first shot
+   * @param b1   bearing of the first shot
+   * @param c1   clino of the first shot (normal mode)
+   * @param d1   depth of the first shot (diving mode)
+   * @param l2   length of the second shot
+   * @param b2   bearing of the second shot
+   * @param c2   clino of the second shot (normal mode)
+   * @param d2   depth of the second shot (diving mode)
+   */
+  public static boolean isRelativeDistance( float l1, float b1, float c1, float d1, float l2, float b2, float c2, float d2 )
+  {
+    return ( TDInstance.datamode == SurveyInfo.DATAMODE_DIVING )? checkRelativeDistanceDiving( l1, b1, d1, l2, b2, d2 )
+                                                               : checkRelativeDistance( l1, b1, c1, l2, b2, c2 );
   }
 
   // -------------------------------------------------------------
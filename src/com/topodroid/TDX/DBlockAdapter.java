@@ -14,6 +14,7 @@ package com.topodroid.TDX;
 import com.topodroid.utils.TDLog;
 import com.topodroid.utils.TDColor;
 import com.topodroid.utils.TDString;
+import com.topodroid.utils.TDStatus;
 import com.topodroid.prefs.TDSetting;
 
 import android.annotation.SuppressLint;
@@ -37,6 +38,7 @@ import android.view.KeyEvent;
 
 import java.util.List;
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.Locale;
 
 class DBlockAdapter extends ArrayAdapter< DBlock >
@@ -53,6 +55,11 @@ class DBlockAdapter extends ArrayAdapter< DBlock >
   private final boolean diving;
   private SearchResult mSearch;
 
+  private ArrayList< DBlock > mShots = null; // cached NORMAL shots, in order of ID
+  private long mShotsSid     = -1L; // survey of the cached shots
+  private long mShotsVersion = -1L; // shots version of the cached shots
+  private int  mShotsDatamode;      // data mode of the cached shots
+
   /** cstr
    * @param ctx     context
    * @param parent  parent window
@@ -292,22 +299,17 @@ class DBlockAdapter extends ArrayAdapter< DBlock >
     return true;
   }
 
-  /** revise the data-blocks with the given list of photos
-   * @param photos   list of photos
+  /** revise the data-blocks with the media of the shots
+   * @param media   shot media, by shot ID
    * @note called by ShotWindow::updateShotlist
    */  
-  void reviseBlockWithPhotos( List< PhotoInfo > photos )
+  void reviseBlockWithMedia( HashMap< Long, ShotMedia > media )
   {
     int size = getCount();
     for ( int pos=START; pos < size; ++pos ) {
       DBlock b = (DBlock)( getItem( pos ) );
-      b.mWithPhoto = false; 
-      for ( PhotoInfo p : photos ) { // mark block with p.shotid
-        if ( b.mId == p.shotid ) { 
-          b.mWithPhoto = true;
-          break;
-        }
-      }
+      ShotMedia m = media.get( b.mId );
+      b.mWithPhoto = ( m != null && m.hasPhoto() );
     }
   }
 
@@ -382,6 +384,64 @@ class DBlockAdapter extends ArrayAdapter< DBlock >
     // return mItems.subList( k, size );
   }
 
+  /** @return the NORMAL shots of a survey
+   * @param data   database helper
+   * @param sid    survey ID
+   * @note the shots are cached: only the shots that have changed since the last call are read from the database.
+   *       The returned list is the cache, and must not be modified
+   */
+  List< DBlock > getShots( DataHelper data, long sid )
+  {
+    ShotListDelta delta = null;
+    if ( mShots != null && mShotsSid == sid && mShotsDatamode == TDInstance.datamode ) {
+      delta = data.selectShotsChangedSince( sid, mShotsVersion );
+    }
+    if ( delta == null ) { // reload all the shots
+      mShotsVersion  = data.getShotsVersion( sid ); // before reading the shots
+      mShots         = new ArrayList<>( data.selectAllShots( sid, TDStatus.NORMAL ) );
+      mShotsSid      = sid;
+      mShotsDatamode = TDInstance.datamode;
+      // TDLog.v( "SHOT cache reload " + mShots.size() + " version " + mShotsVersion );
+    } else if ( ! delta.isEmpty() ) {
+      for ( Long id : delta.dropped ) {
+        int pos = indexOfShot( id );
+        if ( pos >= 0 ) mShots.remove( pos );
+      }
+      for ( DBlock blk : delta.blocks ) {
+        int pos = indexOfShot( blk.mId );
+        if ( pos >= 0 ) {
+          mShots.set( pos, blk );
+        } else {
+          mShots.add( -pos-1, blk );
+        }
+      }
+      mShotsVersion = delta.version;
+      // TDLog.v( "SHOT cache delta " + delta.blocks.size() + "/" + delta.dropped.size() + " version " + mShotsVersion );
+    }
+    return mShots;
+  }
+
+  /** @return the index of a cached shot, or (-insertion_index - 1) if the shot is not cached
+   * @param id   shot ID
+   */
+  private int indexOfShot( long id )
+  {
+    int lo = 0;
+    int hi = mShots.size() - 1;
+    while ( lo <= hi ) {
+      int mid = ( lo + hi ) >>> 1;
+      long mid_id = mShots.get( mid ).mId;
+      if ( mid_id < id ) {
+        lo = mid + 1;
+      } else if ( mid_id > id ) {
+        hi = mid - 1;
+      } else {
+        return mid;
+      }
+    }
+    return -lo - 1;
+  }
+
   /** @return the block at the given position
    * @param pos   block position
    */
@@ -36,6 +36,10 @@ import java.io.FileReader;
 import java.io.BufferedReader;
 import java.io.FileWriter;
 import java.io.PrintWriter;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
 import java.io.StringWriter;
 
 import android.content.Context;
@@ -43,7 +47,6 @@ import android.content.ContentValues;
 import android.database.Cursor;
 import android.database.SQLException;
 import android.database.DataSetObservable;
-import android.database.DatabaseUtils.InsertHelper;
 import android.database.sqlite.SQLiteDatabase;
 // import android.database.sqlite.SQLiteOpenHelper;
 import android.database.sqlite.SQLiteStatement;
@@ -56,6 +59,7 @@ import java.util.Set;
 import java.util.TreeSet;
 import java.util.Locale;
 import java.util.HashMap;
+import java.util.concurrent.Callable;
 
 
 public class DataHelper extends DataSetObservable
@@ -70,6 +74,7 @@ public class DataHelper extends DataSetObservable
   private static final String PHOTO_TABLE  = "photos";
   private static final String SENSOR_TABLE = "sensors";
   private static final String AUDIO_TABLE  = "audios";
+  private static final String STATS_TABLE  = "survey_stats";
 
   private final static String WHERE_ID          = "id=?";
   private final static String WHERE_SID         = "surveyId=?";
@@ -86,6 +91,7 @@ public class DataHelper extends DataSetObservable
   private final static String WHERE_SID_START   = "surveyId=? AND start=?";
 
   private SQLiteDatabase myDB = null;
+  private DataWriter     mWriter = null; // single writer of the shot writes, of the write helpers, of import and restore
   private long           myNextId;   // id of next shot
   private long           myNextCId;  // id of next calib-data
 
@@ -124,11 +130,11 @@ public class DataHelper extends DataSetObservable
   // private SQLiteStatement updatePhotoStmt = null;
   // private SQLiteStatement updateSensorStmt = null;
 
-  private SQLiteStatement transferShotStmt = null; // on-demand compile
+  // private SQLiteStatement transferShotStmt = null; // on-demand compile
   // private SQLiteStatement transferSensorStmt = null;
   // private SQLiteStatement transferPhotoStmt = null;
   // private SQLiteStatement transferFixedStmt = null;
-  private SQLiteStatement transferPlotStmt = null;  // on-demand compile
+  // private SQLiteStatement transferPlotStmt = null;  // on-demand compile
   private SQLiteStatement transferSketchStmt = null;  // on-demand compile
   // private SQLiteStatement transferStationStmt = null;
 
@@ -153,6 +159,14 @@ public class DataHelper extends DataSetObservable
     { "id", "fStation", "tStation", "distance", "bearing", "clino", "acceleration", "magnetic", "dip",  // 0 .. 8
       "extend", "flag", "leg", "comment", "type", "millis", "color", "stretch" // 9 .. 16
     };
+  static final private String[] mReductionFields = // shot fields for the data reduction
+    { "id", "fStation", "tStation", "distance", "bearing", "clino", "extend", "stretch", "flag", "leg", // 0 .. 9
+      "comment", "type", "color", "acceleration", "magnetic", "dip", "millis" // 10 .. 16
+    };
+  static final private String[] mShotStatusFields = // shot fields followed by the status
+    { "id", "fStation", "tStation", "distance", "bearing", "clino", "acceleration", "magnetic", "dip",  // 0 .. 8
+      "extend", "flag", "leg", "comment", "type", "millis", "color", "stretch", "status" // 9 .. 17
+    };
   static final private String[] mShotRawDataFields =
     { "id", "fStation", "tStation", "distance", "bearing", "clino", "roll", "acceleration", "magnetic", "dip",
       "type", "millis", "address", "extend", "flag", "leg", "status", "comment"
@@ -179,6 +193,28 @@ public class DataHelper extends DataSetObservable
 
   static final private String[] mStationFields = { "name", "comment", "flag", "presentation" };
 
+  static final private String[] mStatsFields =
+    { "count_splay", "count_leg", "length_leg", "count_surface", "length_surface", "count_duplicate", "length_duplicate", // 0 .. 6
+      "nr_mgd", "sum_g", "sum_m", "sum_d", "sum_g2", "sum_m2", "sum_d2", // 7 .. 13
+      "legs_version", "ext_length", "plan_length", "count_station", "count_loop", "count_component" // 14 .. 19
+    };
+
+  // tables of the binary dump, with the column types (the survey table must be the first)
+  // N.B. the shot color is not dumped, as in the sql dump
+  static final private SurveyDump.Table[] mDumpTables = {
+    new SurveyDump.Table( SURVEY_TABLE,
+      new String[] { "name", "day", "team", "declination", "comment", "init_station", "xsections", "datamode", "extend" }, "SSSDSSLLL" ),
+    new SurveyDump.Table( AUDIO_TABLE, new String[] { "id", "shotId", "date" }, "LLS" ),
+    new SurveyDump.Table( PHOTO_TABLE, new String[] { "id", "shotId", "status", "title", "date", "comment", "camera" }, "LLLSSSL" ),
+    new SurveyDump.Table( PLOT_TABLE, mPlotFieldsFull, "LSLLSSDDDDDSSLLDDDD" ),
+    new SurveyDump.Table( SHOT_TABLE,
+      new String[] { "id", "fStation", "tStation", "distance", "bearing", "clino", "roll", "acceleration", "magnetic", "dip",
+                     "extend", "flag", "leg", "status", "comment", "type", "millis", "stretch", "address" }, "LSSDDDDDDDLLLLSLLDS" ),
+    new SurveyDump.Table( FIXED_TABLE, mFixedFields, "LSDDDDSLLSDDDL" ),
+    new SurveyDump.Table( STATION_TABLE, mStationFields, "SSLS" ),
+    new SurveyDump.Table( SENSOR_TABLE, new String[] { "id", "shotId", "status", "title", "date", "comment", "type", "value" }, "LLLSSSSS" )
+  };
+
   // private DataListenerSet mListeners; // IF_COSURVEY
 
   // ----------------------------------------------------------------------
@@ -216,7 +252,12 @@ public class DataHelper extends DataSetObservable
    */
   void closeDatabase()
   {
+    if ( mWriter != null ) {
+      mWriter.close();
+      mWriter = null;
+    }
     if ( myDB == null ) return;
+    closeShotStatements();
     myDB.close();
     myDB = null;
   }
@@ -234,11 +275,14 @@ public class DataHelper extends DataSetObservable
       // TDLog.v( "DB open: app already has database " + db_name );
       return;
     }
+    if ( mWriter == null ) mWriter = new DataWriter();
     try {
       // TDLog.v("DB ... try to open RW " + db_name);
       myDB = SQLiteDatabase.openDatabase( db_name, null, SQLiteDatabase.OPEN_READWRITE );
       if ( myDB != null ) {
         checkUpgrade();
+        enableWriteAheadLog();
+        DistoXOpenHelper.analyzeIfNeeded( myDB );
         return;
       }
     } catch ( SQLiteException e ) {
@@ -253,6 +297,7 @@ public class DataHelper extends DataSetObservable
         // TDLog.v( "DB opened: create tables");
         DistoXOpenHelper.createTables( myDB );
         myDB.setVersion( TDVersion.DATABASE_VERSION );
+        enableWriteAheadLog();
       } else {
         TDLog.Error( "ERROR DB failed open/create" );
       }
@@ -262,6 +307,17 @@ public class DataHelper extends DataSetObservable
     }
   }
 
+  /** enable the write-ahead log, so that the reads do not wait for the writes, and the writes do not wait for the reads
+   */
+  private void enableWriteAheadLog()
+  {
+    try {
+      if ( ! myDB.enableWriteAheadLogging() ) TDLog.e( "DB: write-ahead log not enabled" );
+    } catch ( IllegalStateException e ) {
+      TDLog.Error( "ERROR DB write-ahead log: " + e.getMessage() );
+    }
+  }
+
   /** check if the database need upgrading - in case upgrade it
    */
   private void checkUpgrade()
@@ -549,19 +605,81 @@ public class DataHelper extends DataSetObservable
     } finally { myDB.endTransaction(); }
   }
 
+  /** station graph of the legs, for the counts of stations, loops and components
+   */
+  private static class StationGraph
+  {
+    private final HashMap< String, Integer > mIndex = new HashMap<>(); // station index, by name
+    private int[] mParent = new int[ 64 ]; // union-find parents, by station index
+    int nrLoop = 0;
+    int nrComponent = 0;
+
+    /** @return the number of stations
+     */
+    int nrStation() { return mIndex.size(); }
+
+    /** add a leg
+     * @param f   FROM station
+     * @param t   TO station
+     * @note a leg between two new stations makes a new component, even if it is a loop on a station
+     */
+    void addLeg( String f, String t )
+    {
+      boolean fresh = ! mIndex.containsKey( f ) && ! mIndex.containsKey( t );
+      int fi = root( index( f ) );
+      int ti = root( index( t ) );
+      if ( fi != ti ) {
+        mParent[ ti ] = fi;
+        -- nrComponent;
+      } else if ( ! fresh ) {
+        ++ nrLoop;
+      }
+    }
+
+    /** @return the index of a station, added if new
+     * @param name   station name
+     */
+    private int index( String name )
+    {
+      Integer k = mIndex.get( name );
+      if ( k == null ) {
+        k = mIndex.size();
+        if ( k == mParent.length ) {
+          int[] parent = new int[ 2 * k ];
+          System.arraycopy( mParent, 0, parent, 0, k );
+          mParent = parent;
+        }
+        mParent[ k ] = k;
+        mIndex.put( name, k );
+        ++ nrComponent;
+      }
+      return k;
+    }
+
+    /** @return the root of the component of a station
+     * @param k   station index
+     */
+    private int root( int k )
+    {
+      while ( mParent[ k ] != k ) {
+        mParent[ k ] = mParent[ mParent[ k ] ]; // path halving
+        k = mParent[ k ];
+      }
+      return k;
+    }
+  }
+
   /** @return the survey data statistics
-   * @param sid   survey ID
+   * @param sid         survey ID
+   * @param histograms  whether to load the G, M, dip of the shots, for the histograms
+   * @note the counts, the lengths, and the G, M, dip sums are kept by the survey stats table.
+   *       The leg stats (stations, loops, components, extended and plan lengths) are cached in the table at the
+   *       shots version of the survey, and are computed from the legs after the shots have changed.
+   *       In diving mode the leg stats, counts and lengths included, are computed from the legs with the station depths.
    */
-  SurveyStat getSurveyStat( long sid )
+  SurveyStat getSurveyStat( long sid, boolean histograms )
   {
     // TDLog.Log( TDLog.LOG_DB, "Get Survey Stat sid " + sid );
-    HashMap< String, Integer > map = new HashMap< String, Integer >();
-    int n0 = 0;
-    int nc = 0;
-    int ne = 0;
-    int nl = 0;
-    int nv = 0;
-
     SurveyStat stat = new SurveyStat();
     stat.id = sid;
     stat.lengthLeg  = 0.0f;
@@ -587,11 +705,64 @@ public class DataHelper extends DataSetObservable
     if ( myDB == null ) return stat;
 
     int datamode = getSurveyDataMode( sid );
-    String[] args = new String[1];
-    args[0] = Long.toString( sid );
+    long version = getShotsVersion( sid ); // before the stats
+    String[] args = new String[] { Long.toString( sid ) };
+    boolean cached = false;
 
-    Cursor cursor; // = null;
-    if ( datamode == 0 ) {
+    Cursor cursor = myDB.query( STATS_TABLE, mStatsFields, WHERE_SID, args, null, null, null );
+    if (cursor.moveToFirst()) {
+      stat.countSplay = (int)( cursor.getLong(0) );
+      if ( datamode == 0 ) {
+        stat.countLeg        = (int)( cursor.getLong(1) );
+        stat.lengthLeg       = (float)( cursor.getDouble(2) );
+        stat.countSurface    = (int)( cursor.getLong(3) );
+        stat.lengthSurface   = (float)( cursor.getDouble(4) );
+        stat.countDuplicate  = (int)( cursor.getLong(5) );
+        stat.lengthDuplicate = (float)( cursor.getDouble(6) );
+        int nrMGD = (int)( cursor.getLong(7) );
+        stat.nrMGD = nrMGD;
+        if ( nrMGD > 0 ) {
+          double g = cursor.getDouble(8) / nrMGD;
+          double m = cursor.getDouble(9) / nrMGD;
+          double d = cursor.getDouble(10) / nrMGD;
+          stat.averageG = (float)g;
+          stat.averageM = (float)m;
+          stat.averageD = (float)d;
+          stat.stddevG  = (float)Math.sqrt( Math.max( 0, cursor.getDouble(11) / nrMGD - g * g ) );
+          stat.stddevM  = (float)Math.sqrt( Math.max( 0, cursor.getDouble(12) / nrMGD - m * m ) );
+          stat.stddevD  = (float)Math.sqrt( Math.max( 0, cursor.getDouble(13) / nrMGD - d * d ) );
+          stat.stddevM  *= 100/stat.averageM;
+          stat.stddevG  *= 100/stat.averageG;
+        }
+        if ( version >= 0 && cursor.getLong(14) == version ) {
+          stat.extLength      = (float)( cursor.getDouble(15) );
+          stat.planLength     = (float)( cursor.getDouble(16) );
+          stat.countStation   = (int)( cursor.getLong(17) );
+          stat.countLoop      = (int)( cursor.getLong(18) );
+          stat.countComponent = (int)( cursor.getLong(19) );
+          cached = true;
+        }
+      }
+    }
+    if ( /* cursor != null && */ !cursor.isClosed()) cursor.close();
+
+    if ( ! cached ) {
+      if ( datamode == 0 ) {
+        selectLegStats( sid, stat );
+        ContentValues cv = new ContentValues();
+        cv.put( "legs_version",    version );
+        cv.put( "ext_length",      stat.extLength );
+        cv.put( "plan_length",     stat.planLength );
+        cv.put( "count_station",   stat.countStation );
+        cv.put( "count_loop",      stat.countLoop );
+        cv.put( "count_component", stat.countComponent );
+        doUpdate( STATS_TABLE, cv, WHERE_SID, args, "stats legs" );
+      } else {
+        selectDivingLegStats( sid, stat );
+      }
+    }
+
+    if ( histograms && stat.nrMGD > 0 ) {
       // cursor = myDB.query( SHOT_TABLE,
       //     		   new String[] { "flag", "acceleration", "magnetic", "dip" },
       //                      "surveyId=? AND status=0 AND acceleration > 1 ",
@@ -607,224 +778,95 @@ public class DataHelper extends DataSetObservable
         do {
           float a = (float)( cursor.getDouble(1) );
           if ( a > 0.1f ) {
-            float m = (float)( cursor.getDouble(2) );
-            float d = (float)( cursor.getDouble(3) );
-            stat.averageM += m;
-            stat.averageG += a;
-            stat.averageD += d;
-            stat.stddevM  += m * m;
-            stat.stddevG  += a * a;
-            stat.stddevD  += d * d;
             stat.G[nrMGD]  = a;
-            stat.M[nrMGD]  = m;
-            stat.D[nrMGD]  = d;
+            stat.M[nrMGD]  = (float)( cursor.getDouble(2) );
+            stat.D[nrMGD]  = (float)( cursor.getDouble(3) );
             ++nrMGD;
           }
         } while ( cursor.moveToNext() );
-        stat.nrMGD = nrMGD;
-        if ( nrMGD > 0 ) {
-          stat.averageM /= nrMGD;
-          stat.averageG /= nrMGD;
-          stat.averageD /= nrMGD;
-          stat.stddevM   = (float)Math.sqrt( stat.stddevM / nrMGD - stat.averageM * stat.averageM );
-          stat.stddevG   = (float)Math.sqrt( stat.stddevG / nrMGD - stat.averageG * stat.averageG );
-          stat.stddevD   = (float)Math.sqrt( stat.stddevD / nrMGD - stat.averageD * stat.averageD );
-          stat.stddevM  *= 100/stat.averageM;
-          stat.stddevG  *= 100/stat.averageG;
-        }
       }
       if ( /* cursor != null && */ !cursor.isClosed()) cursor.close();
+      stat.nrMGD = nrMGD;
     }
+    return stat;
+  }
 
-    // count components
-    if ( datamode == 0 ) {
-      // cursor = myDB.query( SHOT_TABLE,
-      //                      new String[] { "flag", "distance", "fStation", "tStation", "clino", "extend" },
-      //                      "surveyId=? AND status=0 AND fStation!=\"\" AND tStation!=\"\" ", 
-      //                      new String[] { Long.toString(sid) },
-      //                      null, null, null );
-      cursor = myDB.rawQuery( qSurveysStat2, args );
-      if (cursor.moveToFirst()) {
-        do {
+  /** compute the leg stats of a survey, in normal mode: extended and plan lengths, stations, loops, components
+   * @param sid    survey ID
+   * @param stat   survey stats
+   */
+  private void selectLegStats( long sid, SurveyStat stat )
+  {
+    StationGraph graph = new StationGraph();
+    // cursor = myDB.query( SHOT_TABLE,
+    //                      new String[] { "flag", "distance", "fStation", "tStation", "clino", "extend" },
+    //                      "surveyId=? AND status=0 AND fStation!=\"\" AND tStation!=\"\" ", 
+    //                      new String[] { Long.toString(sid) },
+    //                      null, null, null );
+    Cursor cursor = myDB.rawQuery( qSurveysStat2, new String[] { Long.toString(sid) } );
+    if (cursor.moveToFirst()) {
+      do {
+        if ( cursor.getLong(0) == 0 ) { // NORMAL SHOT
           float len = (float)( cursor.getDouble(1) );
-          switch ( (int)(cursor.getLong(0)) ) {
-            case 0: // NORMAL SHOT
-              ++ stat.countLeg;
-              stat.lengthLeg += len;
-              if ( cursor.getLong(5) == 0 ) {
-                stat.extLength += len * Math.abs( Math.sin( cursor.getDouble(4)*TDMath.DEG2RAD ) );
-              } else {
-                stat.extLength += len;
-              }
-              stat.planLength += (float)( len * Math.cos( cursor.getDouble(4)*TDMath.DEG2RAD ) );
-              break;
-            case 1: // SURFACE SHOT
-              ++ stat.countSurface;
-              stat.lengthSurface += len;
-              break;
-            case 2: // DUPLICATE SHOT
-              ++ stat.countDuplicate;
-              stat.lengthDuplicate += len;
-              break;
-          }
-          String f = cursor.getString(2);
-          String t = cursor.getString(3);
-          ++ ne;
-          if ( map.containsKey( f ) ) {
-            Integer fi = map.get( f );
-            if ( map.containsKey( t ) ) {
-              Integer ti = map.get( t );
-              if ( fi.equals( ti ) ) {
-                ++ nl;
-              } else { // merge 
-                for ( String k : map.keySet() ) {
-                  if ( map.get( k ).equals( ti ) ) {
-                    map.put(k, fi );
-                  }
-                }
-                -- nc;
-              }
-            } else {
-              map.put( t, fi );
-              ++ nv;
-            }
+          if ( cursor.getLong(5) == 0 ) {
+            stat.extLength += len * Math.abs( Math.sin( cursor.getDouble(4)*TDMath.DEG2RAD ) );
           } else {
-            if ( map.containsKey( t ) ) {
-              Integer ti = map.get( t );
-              map.put( f, ti );
-              ++ nv;
-            } else {
-              ++ n0;
-              Integer fi = Integer.valueOf( n0 );
-              map.put( t, fi );
-              map.put( f, fi );
-              nv += 2;
-              ++ nc;
-            }
+            stat.extLength += len;
           }
-
-        } while ( cursor.moveToNext() );
-      }
-      if ( /* cursor != null && */ !cursor.isClosed()) cursor.close();
-    } else {
-      // // select s1.flag, s1.distance, s1.fStation, s1.tStation, s1.clino-s2.clino, "extent" 
-      // //        from shots as s1 inner join shots as s2 on s1.tStation = s2.fStation
-      // //        where s1.surveyId=? and s2.surveyId=? and s1.tStation != ""
-      // //
-      // HashMap< String, Float > depths = new HashMap< String, Float >();
-      // // cursor = myDB.query( SHOT_TABLE,
-      // //                      new String[] { "fStation", "clino" },
-      // //                      "surveyId=? AND status=0 AND fStation!=\"\" AND tStation!=\"\" ", 
-      // //                      new String[] { Long.toString(sid) },
-      // //                      null, null, null );
-      // cursor = myDB.rawQuery( qSurveysStat3, args );
-      // if (cursor.moveToFirst()) {
-      //   do {
-      //     String station = cursor.getString(0);
-      //     float  depth   = (float)(cursor.getDouble(1));
-      //     // depths.putIfAbsent( station, new Float(depth) );
-      //     if ( ! depths.containsKey(station) ) depths.put( station, new Float(depth) );
-      //   } while ( cursor.moveToNext() );
-      // }
-      // if ( /* cursor != null && */ !cursor.isClosed()) cursor.close();
-
-      // // select s.flag, s.distance, s.fStation, s.tStation, s.clino, z.clino, s.extend 
-      // //        from shots as s join shots as z on z.fStation=s.tStation
-      // //        where s.surveyId=? AND z.surveyId=? AND s.fStation!="" AND s.tStation!="" AND s.status=0
-      // // cursor = myDB.query( SHOT_TABLE,
-      // //                      new String[] { "flag", "distance", "fStation", "tStation", "clino", "extend" },
-      // //                      "surveyId=? AND status=0 AND fStation!=\"\" AND tStation!=\"\" ", 
-      // //                      new String[] { Long.toString(sid) },
-      // //                      null, null, null );
-      // cursor = myDB.rawQuery( qSurveysStat4, args );
-
-      cursor = myDB.rawQuery( qjShots, new String[] { Long.toString(sid), Long.toString(sid) } );
-      if (cursor.moveToFirst()) {
-        do {
-          String f = cursor.getString(2);
-          String t = cursor.getString(3);
-          float len = (float)( cursor.getDouble(1) );
-          switch ( (int)(cursor.getLong(0)) ) {
-            case 0: // NORMAL SHOT
-              ++ stat.countLeg;
-              stat.lengthLeg += len;
-	      // if ( depths.containsKey( t ) ) {
-	        // float dep = (float)( cursor.getDouble(4) ) - depths.get( t ).floatValue();
-	        float dep = (float)( cursor.getDouble(4) - cursor.getDouble(5) );
-                if ( cursor.getLong(6) == 0 ) {
-                  stat.extLength += Math.abs( dep );
-                } else {
-                  stat.extLength += len;
-                }
-		if ( len > dep ) stat.planLength += (float)( Math.sqrt( len*len - dep*dep ) );
-	      // }
-              break;
-            case 1: // SURFACE SHOT
-              ++ stat.countSurface;
-              stat.lengthSurface += len;
-              break;
-            case 2: // DUPLICATE SHOT
-              ++ stat.countDuplicate;
-              stat.lengthDuplicate += len;
-              break;
-          }
-          ++ ne;
-          if ( map.containsKey( f ) ) {
-            Integer fi = map.get( f );
-            if ( map.containsKey( t ) ) {
-              Integer ti = map.get( t );
-              if ( fi.equals( ti ) ) {
-                ++ nl;
-              } else { // merge 
-                for ( String k : map.keySet() ) {
-                  if ( map.get( k ).equals( ti ) ) {
-                    map.put(k, fi );
-                  }
-                }
-                -- nc;
-              }
-            } else {
-              map.put( t, fi );
-              ++ nv;
-            }
-          } else {
-            if ( map.containsKey( t ) ) {
-              Integer ti = map.get( t );
-              map.put( f, ti );
-              ++ nv;
-            } else {
-              ++ n0;
-              Integer fi = Integer.valueOf( n0 );
-              map.put( t, fi );
-              map.put( f, fi );
-              nv += 2;
-              ++ nc;
-            }
-          }
-
-        } while ( cursor.moveToNext() );
-      }
-      if ( /* cursor != null && */ !cursor.isClosed()) cursor.close();
+          stat.planLength += (float)( len * Math.cos( cursor.getDouble(4)*TDMath.DEG2RAD ) );
+        }
+        graph.addLeg( cursor.getString(2), cursor.getString(3) );
+      } while ( cursor.moveToNext() );
     }
+    if ( /* cursor != null && */ !cursor.isClosed()) cursor.close();
+    stat.countStation   = graph.nrStation();
+    stat.countLoop      = graph.nrLoop;
+    stat.countComponent = graph.nrComponent;
+  }
 
-    stat.countStation = map.size();
-    stat.countLoop = nl;
-    stat.countComponent = nc;
-    // TDLog.Log( TDLog.LOG_DB, "Get Survey Stats NV " + nv + " NE " + ne + " NL " + nl + " NC " + nc);
-
-    // cursor = myDB.query( SHOT_TABLE,
-    //                      new String[] { "count()" },
-    //                      "surveyId=? AND status=0 AND flag=0 AND fStation!=\"\" AND tStation=\"\" ",
-    //                      new String[] { Long.toString(sid) },
-    //                      null,  // groupBy
-    //                      null,  // having
-    //                      null ); // order by
-    cursor = myDB.rawQuery( qSurveysStat5, args );
+  /** compute the leg stats of a survey, in diving mode: counts and lengths, stations, loops, components
+   * @param sid    survey ID
+   * @param stat   survey stats
+   * @note the depth of the TO station is the depth of a shot from it
+   */
+  private void selectDivingLegStats( long sid, SurveyStat stat )
+  {
+    StationGraph graph = new StationGraph();
+    // select s.flag, s.distance, s.fStation, s.tStation, s.clino, z.clino, s.extend 
+    //        from shots as s join shots as z on z.fStation=s.tStation
+    //        where s.surveyId=? AND z.surveyId=? AND s.fStation!="" AND s.tStation!="" AND s.status=0
+    Cursor cursor = myDB.rawQuery( qjShots, new String[] { Long.toString(sid), Long.toString(sid) } );
     if (cursor.moveToFirst()) {
-      stat.countSplay = (int)( cursor.getLong(0) );
+      do {
+        float len = (float)( cursor.getDouble(1) );
+        switch ( (int)(cursor.getLong(0)) ) {
+          case 0: // NORMAL SHOT
+            ++ stat.countLeg;
+            stat.lengthLeg += len;
+            float dep = (float)( cursor.getDouble(4) - cursor.getDouble(5) );
+            if ( cursor.getLong(6) == 0 ) {
+              stat.extLength += Math.abs( dep );
+            } else {
+              stat.extLength += len;
+            }
+            if ( len > dep ) stat.planLength += (float)( Math.sqrt( len*len - dep*dep ) );
+            break;
+          case 1: // SURFACE SHOT
+            ++ stat.countSurface;
+            stat.lengthSurface += len;
+            break;
+          case 2: // DUPLICATE SHOT
+            ++ stat.countDuplicate;
+            stat.lengthDuplicate += len;
+            break;
+        }
+        graph.addLeg( cursor.getString(2), cursor.getString(3) );
+      } while ( cursor.moveToNext() );
     }
     if ( /* cursor != null && */ !cursor.isClosed()) cursor.close();
-    return stat;
+    stat.countStation   = graph.nrStation();
+    stat.countLoop      = graph.nrLoop;
+    stat.countComponent = graph.nrComponent;
   }
 
   // --------------------------------------------------------------------
@@ -1015,19 +1057,23 @@ public class DataHelper extends DataSetObservable
    * @param cv     content-value set of the update
    * @param msg    message (for error reporting)
    */
-  private boolean doUpdateSurvey( long sid, ContentValues cv, String msg )
-  {
-    if ( myDB == null ) return false;
-    try {
-      myDB.beginTransaction();
-      myDB.update( SURVEY_TABLE, cv, "id=?", new String[]{ Long.toString(sid) } );
-      myDB.setTransactionSuccessful();
-      return true;
-    } catch ( SQLiteDiskIOException e )  { handleDiskIOError( e );
-    } catch ( SQLiteException e1 )       { logError(msg, e1 ); 
-    } catch ( IllegalStateException e2 ) { logError(msg, e2 );
-    } finally { myDB.endTransaction(); }
-    return false;
+  private boolean doUpdateSurvey( final long sid, final ContentValues cv, final String msg )
+  {
+    return mWriter.call( new Callable< Boolean >() {
+      @Override public Boolean call() {
+        if ( myDB == null ) return false;
+        try {
+          myDB.beginTransaction();
+          myDB.update( SURVEY_TABLE, cv, "id=?", new String[]{ Long.toString(sid) } );
+          myDB.setTransactionSuccessful();
+          return true;
+        } catch ( SQLiteDiskIOException e )  { handleDiskIOError( e );
+        } catch ( SQLiteException e1 )       { logError(msg, e1 ); 
+        } catch ( IllegalStateException e2 ) { logError(msg, e2 );
+        } finally { myDB.endTransaction(); }
+        return false;
+      }
+    }, Boolean.FALSE );
   }
 
   /** perform a table update
@@ -1037,19 +1083,23 @@ public class DataHelper extends DataSetObservable
    * @param msg    message (for error reporting)
    * @return true if successful
    */
-  private boolean doUpdate( String table, ContentValues cv, long sid, long id, String msg )
-  {
-    boolean ret = false;
-    try {
-      myDB.beginTransaction();
-      myDB.update( table, cv, WHERE_SID_ID, new String[]{ Long.toString(sid), Long.toString(id) } );
-      myDB.setTransactionSuccessful();
-      ret = true;
-    } catch ( SQLiteDiskIOException e )  { handleDiskIOError( e );
-    } catch ( SQLiteException e1 )       { logError(msg, e1 );
-    } catch ( IllegalStateException e2 ) { logError(msg, e2 );
-    } finally { myDB.endTransaction(); }
-    return ret;
+  private boolean doUpdate( final String table, final ContentValues cv, final long sid, final long id, final String msg )
+  {
+    return mWriter.call( new Callable< Boolean >() {
+      @Override public Boolean call() {
+        boolean ret = false;
+        try {
+          myDB.beginTransaction();
+          myDB.update( table, cv, WHERE_SID_ID, new String[]{ Long.toString(sid), Long.toString(id) } );
+          myDB.setTransactionSuccessful();
+          ret = true;
+        } catch ( SQLiteDiskIOException e )  { handleDiskIOError( e );
+        } catch ( SQLiteException e1 )       { logError(msg, e1 );
+        } catch ( IllegalStateException e2 ) { logError(msg, e2 );
+        } finally { myDB.endTransaction(); }
+        return ret;
+      }
+    }, Boolean.FALSE );
   }
 
   /** perform a table update
@@ -1059,16 +1109,21 @@ public class DataHelper extends DataSetObservable
    * @param args   where args
    * @param msg    message (for error reporting)
    */
-  private void doUpdate( String table, ContentValues cv, String where, String[] args, String msg )
-  {
-    try {
-      myDB.beginTransaction();
-      myDB.update( table, cv, where, args );
-      myDB.setTransactionSuccessful();
-    } catch ( SQLiteDiskIOException e )  { handleDiskIOError( e );
-    } catch ( SQLiteException e1 )       { logError(msg, e1 );
-    } catch ( IllegalStateException e2 ) { logError(msg, e2 );
-    } finally { myDB.endTransaction(); }
+  private void doUpdate( final String table, final ContentValues cv, final String where, final String[] args, final String msg )
+  {
+    mWriter.call( new Callable< Boolean >() {
+      @Override public Boolean call() {
+        try {
+          myDB.beginTransaction();
+          myDB.update( table, cv, where, args );
+          myDB.setTransactionSuccessful();
+        } catch ( SQLiteDiskIOException e )  { handleDiskIOError( e );
+        } catch ( SQLiteException e1 )       { logError(msg, e1 );
+        } catch ( IllegalStateException e2 ) { logError(msg, e2 );
+        } finally { myDB.endTransaction(); }
+        return Boolean.TRUE;
+      }
+    }, Boolean.FALSE );
   }
 
   /** perform a table insert
@@ -1077,19 +1132,23 @@ public class DataHelper extends DataSetObservable
    * @param msg    message (for error reporting)
    * @return true if successful
    */
-  private boolean doInsert( String table, ContentValues cv, String msg )
-  {
-    boolean ret = false;
-    try { 
-      myDB.beginTransaction();
-      myDB.insert( table, null, cv ); 
-      myDB.setTransactionSuccessful();
-      ret = true;
-    } catch ( SQLiteDiskIOException e )  { handleDiskIOError( e );
-    } catch ( SQLiteException e1 )       { logError(msg, e1 ); 
-    } catch ( IllegalStateException e2 ) { logError(msg, e2 );
-    } finally { myDB.endTransaction(); }
-    return ret;
+  private boolean doInsert( final String table, final ContentValues cv, final String msg )
+  {
+    return mWriter.call( new Callable< Boolean >() {
+      @Override public Boolean call() {
+        boolean ret = false;
+        try { 
+          myDB.beginTransaction();
+          myDB.insert( table, null, cv ); 
+          myDB.setTransactionSuccessful();
+          ret = true;
+        } catch ( SQLiteDiskIOException e )  { handleDiskIOError( e );
+        } catch ( SQLiteException e1 )       { logError(msg, e1 ); 
+        } catch ( IllegalStateException e2 ) { logError(msg, e2 );
+        } finally { myDB.endTransaction(); }
+        return ret;
+      }
+    }, Boolean.FALSE );
   }
 
   /** perform a SQL statement
@@ -1097,12 +1156,129 @@ public class DataHelper extends DataSetObservable
    * @param msg    message (for error reporting)
    * @return true if successful
    */
-  private boolean doExecSQL( StringWriter sw, String msg )
+  private boolean doExecSQL( final StringWriter sw, final String msg )
+  {
+    return mWriter.call( new Callable< Boolean >() {
+      @Override public Boolean call() {
+        boolean ret = false;
+        try {
+          myDB.beginTransaction();
+          myDB.execSQL( sw.toString() );
+          myDB.setTransactionSuccessful();
+          ret = true;
+        } catch ( SQLiteDiskIOException e )  { handleDiskIOError( e );
+        } catch ( SQLiteException e1 )       { logError(msg, e1 );
+        } catch ( IllegalStateException e2 ) { logError(msg, e2 );
+        } finally { myDB.endTransaction(); }
+        return ret;
+      }
+    }, Boolean.FALSE );
+  }
+
+  /** execute a "shot" SQL
+   * @param id   shot ID, used for error reporting
+   * @param sw   SQL statement
+   * @return true if successful
+   */
+  private boolean doExecShotSQL( long id, StringWriter sw ) { return doExecSQL( sw, "sht " + id ); }
+
+  // ----------------------------------------------------------------------
+  // SHOT STATEMENTS: compiled on demand, then only bound and executed
+
+  private static final int STMT_SHOT_NAME             =  0;
+  private static final int STMT_SHOT_NAME_LEG         =  1;
+  private static final int STMT_SHOT_NAME_DATA        =  2;
+  private static final int STMT_SHOT_NAME_DATA_CMT    =  3;
+  private static final int STMT_SHOT_NAME_DATA_STATUS =  4;
+  private static final int STMT_SHOT_NAME_DATA_CMT_STATUS = 5;
+  private static final int STMT_SHOT_DBC              =  6;
+  private static final int STMT_SHOT_LEG              =  7;
+  private static final int STMT_SHOT_EXTEND           =  8;
+  private static final int STMT_SHOT_FLAG             =  9;
+  private static final int STMT_SHOT_LEG_FLAG         = 10;
+  private static final int STMT_SHOT_COMMENT          = 11;
+  private static final int STMT_SHOT_COLOR            = 12;
+  private static final int STMT_SHOT_AMDR             = 13;
+  private static final int STMT_SHOT_AMDR_BACK        = 14;
+  private static final int STMT_SHOT_INSERT           = 15;
+  private static final int STMT_SHOT_STATUS           = 16;
+
+  private static final String[] mShotSql = {
+    "UPDATE shots SET fStation=?, tStation=? WHERE surveyId=? AND id=?",
+    "UPDATE shots SET fStation=?, tStation=?, leg=? WHERE surveyId=? AND id=?",
+    "UPDATE shots SET fStation=?, tStation=?, extend=?, flag=?, leg=? WHERE surveyId=? AND id=?",
+    "UPDATE shots SET fStation=?, tStation=?, extend=?, flag=?, leg=?, comment=? WHERE surveyId=? AND id=?",
+    "UPDATE shots SET fStation=?, tStation=?, extend=?, flag=?, leg=?, status=? WHERE surveyId=? AND id=?",
+    "UPDATE shots SET fStation=?, tStation=?, extend=?, flag=?, leg=?, comment=?, status=? WHERE surveyId=? AND id=?",
+    "UPDATE shots SET distance=?, bearing=?, clino=? WHERE surveyId=? AND id=?",
+    "UPDATE shots SET leg=? WHERE surveyId=? AND id=?",
+    "UPDATE shots SET extend=?, stretch=? WHERE surveyId=? AND id=?",
+    "UPDATE shots SET flag=? WHERE surveyId=? AND id=?",
+    "UPDATE shots SET leg=?, flag=? WHERE surveyId=? AND id=?",
+    "UPDATE shots SET comment=? WHERE surveyId=? AND id=?",
+    "UPDATE shots SET color=? WHERE surveyId=? AND id=?",
+    "UPDATE shots SET acceleration=?, magnetic=?, dip=?, roll=? WHERE surveyId=? AND id=?",
+    "UPDATE shots SET acceleration=?, magnetic=?, dip=?, roll=?, type=-1 WHERE surveyId=? AND id=?",
+    ShotInsert.sql( 1 ),
+    "UPDATE shots SET status=? WHERE surveyId=? AND id=?"
+  };
+
+  private final SQLiteStatement[] mShotStmt = new SQLiteStatement[ mShotSql.length ]; // lock for binding and executing, taken only on the writer
+
+  /** @return the compiled shot statement
+   * @param k   statement index
+   * @note must be called on the writer, with the lock on mShotStmt
+   */
+  private SQLiteStatement shotStatement( int k )
+  {
+    SQLiteStatement stmt = mShotStmt[k];
+    if ( stmt == null ) {
+      stmt = myDB.compileStatement( mShotSql[k] );
+      mShotStmt[k] = stmt;
+    }
+    return stmt;
+  }
+
+  /** release the compiled shot statements
+   */
+  private void closeShotStatements()
+  {
+    synchronized ( mShotStmt ) {
+      for ( int k = 0; k < mShotStmt.length; ++k ) {
+        if ( mShotStmt[k] != null ) {
+          mShotStmt[k].close();
+          mShotStmt[k] = null;
+        }
+      }
+    }
+  }
+
+  /** bind a string value, or null
+   * @param stmt   statement
+   * @param k      value index (1-based)
+   * @param value  value
+   */
+  private static void bindText( SQLiteStatement stmt, int k, String value )
+  {
+    if ( value == null ) {
+      stmt.bindNull( k );
+    } else {
+      stmt.bindString( k, value );
+    }
+  }
+
+  /** execute a bound shot statement
+   * @param stmt   statement
+   * @param msg    message (for error reporting)
+   * @return true if successful
+   * @note must be called on the writer, with the lock on mShotStmt
+   */
+  private boolean doShotStatement( SQLiteStatement stmt, String msg )
   {
     boolean ret = false;
     try {
       myDB.beginTransaction();
-      myDB.execSQL( sw.toString() );
+      stmt.execute();
       myDB.setTransactionSuccessful();
       ret = true;
     } catch ( SQLiteDiskIOException e )  { handleDiskIOError( e );
@@ -1112,12 +1288,87 @@ public class DataHelper extends DataSetObservable
     return ret;
   }
 
-  /** execute a "shot" SQL
-   * @param id   shot ID, used for error reporting
-   * @param sw   SQL statement
+  /** bind and execute a shot statement, on the database writer
+   * @param k      statement index
+   * @param values statement values: String, Number, or null
+   * @param msg    message (for error reporting)
    * @return true if successful
    */
-  private boolean doExecShotSQL( long id, StringWriter sw ) { return doExecSQL( sw, "sht " + id ); }
+  private boolean doShotStatement( final int k, final Object[] values, final String msg )
+  {
+    return mWriter.call( new Callable< Boolean >() {
+      @Override public Boolean call() {
+        synchronized ( mShotStmt ) {
+          SQLiteStatement stmt = shotStatement( k );
+          for ( int j = 0; j < values.length; ++j ) {
+            Object value = values[j];
+            if ( value == null ) {
+              stmt.bindNull( j+1 );
+            } else if ( value instanceof String ) {
+              stmt.bindString( j+1, (String)value );
+            } else if ( value instanceof Double || value instanceof Float ) {
+              stmt.bindDouble( j+1, ((Number)value).doubleValue() );
+            } else {
+              stmt.bindLong( j+1, ((Number)value).longValue() );
+            }
+          }
+          return doShotStatement( stmt, msg );
+        }
+      }
+    }, Boolean.FALSE );
+  }
+
+  /** bind the values of a shot insert
+   * @param stmt   insert statement
+   * @note the arguments are the table columns
+   */
+  private static void bindShotInsert( SQLiteStatement stmt, long sid, long id, long millis, long color, String from, String to,
+                          double d, double b, double c, double r, double acc, double mag, double dip,
+                          long extend, double stretch, long flag, long leg, long status, long shot_type, String comment, String addr )
+  {
+    stmt.bindLong(    1, sid );
+    stmt.bindLong(    2, id );
+    bindText( stmt,   3, from );
+    bindText( stmt,   4, to );
+    stmt.bindDouble(  5, d );
+    stmt.bindDouble(  6, b );
+    stmt.bindDouble(  7, c );
+    stmt.bindDouble(  8, r );
+    stmt.bindDouble(  9, acc );
+    stmt.bindDouble( 10, mag );
+    stmt.bindDouble( 11, dip );
+    stmt.bindLong(   12, extend );
+    stmt.bindLong(   13, flag );
+    stmt.bindLong(   14, leg );
+    stmt.bindLong(   15, status );
+    bindText( stmt,  16, comment );
+    stmt.bindLong(   17, shot_type );
+    stmt.bindLong(   18, millis );
+    stmt.bindLong(   19, color );
+    stmt.bindDouble( 20, stretch );
+    bindText( stmt,  21, addr );
+  }
+
+  /** insert a shot
+   * @param msg    message (for error reporting)
+   * @return true if successful
+   * @note the other arguments are the table columns
+   */
+  private boolean doInsertShotStatement( final long sid, final long id, final long millis, final long color, final String from, final String to,
+                          final double d, final double b, final double c, final double r, final double acc, final double mag, final double dip,
+                          final long extend, final double stretch, final long flag, final long leg, final long status, final long shot_type,
+                          final String comment, final String addr, final String msg )
+  {
+    return mWriter.call( new Callable< Boolean >() {
+      @Override public Boolean call() {
+        synchronized ( mShotStmt ) {
+          SQLiteStatement stmt = shotStatement( STMT_SHOT_INSERT );
+          bindShotInsert( stmt, sid, id, millis, color, from, to, d, b, c, r, acc, mag, dip, extend, stretch, flag, leg, status, shot_type, comment, addr );
+          return doShotStatement( stmt, msg );
+        }
+      }
+    }, Boolean.FALSE );
+  }
 
   /** update the "status" field
    * @param table    table
@@ -1125,18 +1376,23 @@ public class DataHelper extends DataSetObservable
    * @param sid      survey ID
    * @param status   new status
    */
-  private void updateStatus( String table, long id, long sid, long status )
+  private void updateStatus( final String table, final long id, final long sid, final long status )
   {
-    ContentValues cv = new ContentValues();
-    cv.put( "status", status );
-    try {
-      myDB.beginTransaction();
-      myDB.update( table, cv, WHERE_SID_ID, new String[]{ Long.toString(sid), Long.toString(id) } );
-      myDB.setTransactionSuccessful();
-    } catch ( SQLiteDiskIOException e )  {  handleDiskIOError( e );
-    } catch (SQLiteException e1 )        { logError(table + " update " + id, e1 ); 
-    } catch ( IllegalStateException e2 ) { logError(table + " update " + id, e2 );
-    } finally { myDB.endTransaction(); }
+    mWriter.call( new Callable< Boolean >() {
+      @Override public Boolean call() {
+        ContentValues cv = new ContentValues();
+        cv.put( "status", status );
+        try {
+          myDB.beginTransaction();
+          myDB.update( table, cv, WHERE_SID_ID, new String[]{ Long.toString(sid), Long.toString(id) } );
+          myDB.setTransactionSuccessful();
+        } catch ( SQLiteDiskIOException e )  {  handleDiskIOError( e );
+        } catch (SQLiteException e1 )        { logError(table + " update " + id, e1 ); 
+        } catch ( IllegalStateException e2 ) { logError(table + " update " + id, e2 );
+        } finally { myDB.endTransaction(); }
+        return Boolean.TRUE;
+      }
+    }, Boolean.FALSE );
   }
 
   // UNUSED
@@ -1228,6 +1484,7 @@ public class DataHelper extends DataSetObservable
       myDB.delete( PLOT_TABLE,    WHERE_SID, clause );
       myDB.delete( FIXED_TABLE,   WHERE_SID, clause );
       myDB.delete( SHOT_TABLE,    WHERE_SID, clause );
+      myDB.delete( STATS_TABLE,   WHERE_SID, clause );
       myDB.delete( STATION_TABLE, WHERE_SID, clause );
       myDB.delete( SURVEY_TABLE, "id=?", clause );
       myDB.setTransactionSuccessful();
@@ -1237,6 +1494,7 @@ public class DataHelper extends DataSetObservable
       myDB.endTransaction();
       // myDB.setLockingEnabled( true );
     }
+    TDNumCache.clear(); // the survey ID can be reused with the same shots version
   }
   
   // --------------------------------------------------------------------
@@ -1256,29 +1514,13 @@ public class DataHelper extends DataSetObservable
   // this is an update of a manual-shot data
   void updateShotDistanceBearingClino( long id, long sid, float d, float b, float c )
   {
-    // updateShotDBCStmt.bindDouble(  1, d );
-    // updateShotDBCStmt.bindDouble(  2, b );
-    // updateShotDBCStmt.bindDouble(  3, c );
-    // updateShotDBCStmt.bindLong(   4, sid );     // WHERE
-    // updateShotDBCStmt.bindLong(   5, id );
-    // updateShotDBCStmt.execute();
-
-    StringWriter sw = new StringWriter();
-    PrintWriter pw = new PrintWriter( sw );
-    pw.format( Locale.US,
-               "UPDATE shots SET distance=%.6f, bearing=%.4f, clino=%.4f WHERE surveyId=%d AND id=%d",
-               d, b, c, sid, id );
-    doExecShotSQL( id, sw );
+    if ( myDB == null ) return;
+    doShotStatement( STMT_SHOT_DBC, new Object[] { d, b, c, sid, id }, "sht " + id ); // WHERE sid, id
   }
 
   void updateShotDepthBearingDistance( long id, long sid, float p, float b, float d )
   {
-    StringWriter sw = new StringWriter();
-    PrintWriter pw = new PrintWriter( sw );
-    pw.format( Locale.US,
-               "UPDATE shots SET distance=%.6f, bearing=%.4f, clino=%.4f WHERE surveyId=%d AND id=%d",
-               d, b, p, sid, id );
-    doExecShotSQL( id, sw );
+    updateShotDistanceBearingClino( id, sid, d, b, p ); // the depth is stored in the clino
   }
 
   int updateShotNameAndData( long id, long sid, String fStation, String tStation,
@@ -1289,20 +1531,13 @@ public class DataHelper extends DataSetObservable
 
     if ( tStation == null ) tStation = TDString.EMPTY;
 
-    StringWriter sw = new StringWriter();
-    PrintWriter pw = new PrintWriter( sw );
     if ( comment != null ) {
       // TDLog.v("DB update shot. id " + id + " extend " + extend + " leg " + leg + " comment <" + comment + ">" );
-      pw.format( Locale.US,
-        "UPDATE shots SET fStation=\"%s\", tStation=\"%s\", extend=%d, flag=%d, leg=%d, comment=\"%s\" WHERE surveyId=%d AND id=%d",
-        fStation, tStation, extend, flag, leg, comment, sid, id );
+      doShotStatement( STMT_SHOT_NAME_DATA_CMT, new Object[] { fStation, tStation, extend, flag, leg, comment, sid, id }, "sht " + id );
     } else {
       // TDLog.v("DB update shot. id " + id + " extend " + extend + " leg " + leg );
-      pw.format( Locale.US,
-        "UPDATE shots SET fStation=\"%s\", tStation=\"%s\", extend=%d, flag=%d, leg=%d WHERE surveyId=%d AND id=%d",
-        fStation, tStation, extend, flag, leg, sid, id );
+      doShotStatement( STMT_SHOT_NAME_DATA, new Object[] { fStation, tStation, extend, flag, leg, sid, id }, "sht " + id );
     }
-    doExecShotSQL( id, sw );
 
     // TDLog.v("DB update shot " + fStation + " " + tStation + " success " + success );
     return 0;
@@ -1314,18 +1549,11 @@ public class DataHelper extends DataSetObservable
     if ( myDB == null ) return -1;
     // if ( makesCycle( id, sid, fStation, tStation ) ) return -2;
     if ( tStation == null ) tStation = TDString.EMPTY;
-    StringWriter sw = new StringWriter();
-    PrintWriter pw = new PrintWriter( sw );
     if ( comment != null ) {
-      pw.format( Locale.US,
-        "UPDATE shots SET fStation=\"%s\", tStation=\"%s\", extend=%d, flag=%d, leg=%d, comment=\"%s\", status=%d WHERE surveyId=%d AND id=%d",
-        fStation, tStation, extend, flag, leg, comment, status, sid, id );
+      doShotStatement( STMT_SHOT_NAME_DATA_CMT_STATUS, new Object[] { fStation, tStation, extend, flag, leg, comment, status, sid, id }, "sht " + id );
     } else {
-      pw.format( Locale.US,
-        "UPDATE shots SET fStation=\"%s\", tStation=\"%s\", extend=%d, flag=%d, leg=%d, status=%d WHERE surveyId=%d AND id=%d",
-        fStation, tStation, extend, flag, leg, status, sid, id );
+      doShotStatement( STMT_SHOT_NAME_DATA_STATUS, new Object[] { fStation, tStation, extend, flag, leg, status, sid, id }, "sht " + id );
     }
-    doExecShotSQL( id, sw );
     return 0;
   }
 
@@ -1409,11 +1637,7 @@ public class DataHelper extends DataSetObservable
     if ( myDB == null ) return;
     if ( fStation == null ) fStation = TDString.EMPTY;
     if ( tStation == null ) tStation = TDString.EMPTY;
-    StringWriter sw = new StringWriter();
-    PrintWriter pw = new PrintWriter( sw );
-    pw.format( Locale.US, "UPDATE shots SET fStation=\"%s\", tStation=\"%s\" WHERE surveyId=%d AND id=%d",
-               fStation, tStation, sid, id );
-    doExecShotSQL( id, sw );
+    doShotStatement( STMT_SHOT_NAME, new Object[] { fStation, tStation, sid, id }, "sht " + id );
   }
 
   // used internally to merge to next leg
@@ -1422,43 +1646,101 @@ public class DataHelper extends DataSetObservable
     if ( myDB == null ) return;
     if ( fStation == null ) fStation = TDString.EMPTY;
     if ( tStation == null ) tStation = TDString.EMPTY;
-    StringWriter sw = new StringWriter();
-    PrintWriter pw = new PrintWriter( sw );
-    pw.format( Locale.US, "UPDATE shots SET fStation=\"%s\", tStation=\"%s\", leg=%d WHERE surveyId=%d AND id=%d",
-               fStation, tStation, leg, sid, id );
-    doExecShotSQL( id, sw );
+    doShotStatement( STMT_SHOT_NAME_LEG, new Object[] { fStation, tStation, leg, sid, id }, "sht " + id );
+  }
+
+  /** write a batch of shot updates, in a single transaction
+   * @param sid     survey ID
+   * @param batch   shot updates
+   * @return true if successful
+   */
+  boolean updateShots( final long sid, final ShotUpdateBatch batch )
+  {
+    if ( myDB == null ) return false;
+    return mWriter.call( new Callable< Boolean >() {
+      @Override public Boolean call() {
+        boolean ret = false;
+        synchronized ( mShotStmt ) {
+          try {
+            myDB.beginTransaction();
+            for ( ShotUpdateBatch.Update u : batch.getUpdates() ) {
+              SQLiteStatement stmt;
+              int k = 1;
+              switch ( u.type ) {
+                case ShotUpdateBatch.NAME:
+                  stmt = shotStatement( STMT_SHOT_NAME );
+                  stmt.bindString( k++, ( u.from == null )? TDString.EMPTY : u.from );
+                  stmt.bindString( k++, ( u.to   == null )? TDString.EMPTY : u.to );
+                  break;
+                case ShotUpdateBatch.EXTEND:
+                  stmt = shotStatement( STMT_SHOT_EXTEND );
+                  stmt.bindLong(   k++, u.value1 );
+                  stmt.bindDouble( k++, u.stretch );
+                  break;
+                case ShotUpdateBatch.LEG:
+                  stmt = shotStatement( STMT_SHOT_LEG );
+                  stmt.bindLong( k++, u.value1 );
+                  break;
+                case ShotUpdateBatch.LEG_FLAG:
+                  stmt = shotStatement( STMT_SHOT_LEG_FLAG );
+                  stmt.bindLong( k++, u.value1 );
+                  stmt.bindLong( k++, u.value2 );
+                  break;
+                default: // ShotUpdateBatch.STATUS
+                  stmt = shotStatement( STMT_SHOT_STATUS );
+                  stmt.bindLong( k++, u.value1 );
+              }
+              stmt.bindLong( k++, sid );
+              stmt.bindLong( k,   u.id );
+              stmt.execute();
+            }
+            myDB.setTransactionSuccessful();
+            ret = true;
+          } catch ( SQLiteDiskIOException e ) { handleDiskIOError( e );
+          } catch ( SQLiteException e ) { logError("update shots batch failed", e );
+          } finally { myDB.endTransaction(); }
+        }
+        return ret;
+      }
+    }, Boolean.FALSE );
   }
 
-  void updateShotsName( List< DBlock > blks, long sid )
+  void updateShotsName( final List< DBlock > blks, final long sid )
   {
     if ( myDB == null ) return;
-    try {
-      myDB.beginTransaction();
-      for ( DBlock blk : blks ) {
-        String from = blk.mFrom;
-        String to   = blk.mTo;
-        if ( from == null ) from = TDString.EMPTY;
-        if ( to   == null ) to   = TDString.EMPTY;
-        StringWriter sw = new StringWriter();
-        PrintWriter pw = new PrintWriter( sw );
-        pw.format( Locale.US, "UPDATE shots SET fStation=\"%s\", tStation=\"%s\" WHERE surveyId=%d AND id=%d", from, to, sid, blk.mId );
-        myDB.execSQL( sw.toString() );
+    mWriter.call( new Callable< Boolean >() {
+      @Override public Boolean call() {
+        synchronized ( mShotStmt ) {
+          try {
+            myDB.beginTransaction();
+            SQLiteStatement stmt = shotStatement( STMT_SHOT_NAME );
+            for ( DBlock blk : blks ) {
+              String from = blk.mFrom;
+              String to   = blk.mTo;
+              if ( from == null ) from = TDString.EMPTY;
+              if ( to   == null ) to   = TDString.EMPTY;
+              stmt.bindString( 1, from );
+              stmt.bindString( 2, to );
+              stmt.bindLong(   3, sid );
+              stmt.bindLong(   4, blk.mId );
+              stmt.execute();
+            }
+            myDB.setTransactionSuccessful();
+          } catch ( SQLiteDiskIOException e ) { handleDiskIOError( e );
+          } catch ( SQLiteException e ) { logError("update shots name failed", e );
+          } finally { myDB.endTransaction(); }
+        }
+        return Boolean.TRUE;
       }
-      myDB.setTransactionSuccessful();
-    } catch ( SQLiteDiskIOException e ) { handleDiskIOError( e );
-    } catch ( SQLiteException e ) { logError("update shots name failed", e );
-    } finally { myDB.endTransaction(); }
+    }, Boolean.FALSE );
   }
 
   // "leg" flag: 0 splay, 1 leg, 2 x-splay
   void updateShotLeg( long id, long sid, long leg )
   {
     // TDLog.v( "A1 update shot leg. id " + id + " leg " + leg ); 
-    // if ( myDB == null ) return;
-    StringWriter sw = new StringWriter();
-    PrintWriter pw = new PrintWriter( sw );
-    pw.format( Locale.US, "UPDATE shots SET leg=%d WHERE surveyId=%d AND id=%d", leg, sid, id );
-    doExecSQL( sw, "sht leg" );
+    if ( myDB == null ) return;
+    doShotStatement( STMT_SHOT_LEG, new Object[] { leg, sid, id }, "sht leg" );
   }
 
   // void updateShotLeg( long id, long sid, long leg )
@@ -1488,39 +1770,28 @@ public class DataHelper extends DataSetObservable
 
   void updateShotExtend( long id, long sid, long extend, float stretch )
   {
-    // if ( myDB == null ) return;
-
-    StringWriter sw = new StringWriter();
-    PrintWriter pw = new PrintWriter( sw );
-    pw.format( Locale.US, "UPDATE shots SET extend=%d, stretch=%.2f WHERE surveyId=%d AND id=%d", extend, stretch, sid, id );
-    doExecShotSQL( id, sw );
+    if ( myDB == null ) return;
+    doShotStatement( STMT_SHOT_EXTEND, new Object[] { extend, stretch, sid, id }, "sht " + id );
   }
 
   void updateShotFlag( long id, long sid, long flag )
   {
-    StringWriter sw = new StringWriter();
-    PrintWriter pw = new PrintWriter( sw );
-    pw.format( Locale.US, "UPDATE shots SET flag=%d WHERE surveyId=%d AND id=%d", flag, sid, id );
-    doExecShotSQL( id, sw );
+    if ( myDB == null ) return;
+    doShotStatement( STMT_SHOT_FLAG, new Object[] { flag, sid, id }, "sht " + id );
   }
 
   void updateShotLegFlag( long id, long sid, long leg, long flag )
   {
     // TDLog.v( "A2 update shot leg/flag. id " + id + " leg " + leg + " flag " + flag ); 
-    StringWriter sw = new StringWriter();
-    PrintWriter pw = new PrintWriter( sw );
-    pw.format( Locale.US, "UPDATE shots SET leg=%d, flag=%d WHERE surveyId=%d AND id=%d", leg, flag, sid, id );
-    doExecShotSQL( id, sw );
+    if ( myDB == null ) return;
+    doShotStatement( STMT_SHOT_LEG_FLAG, new Object[] { leg, flag, sid, id }, "sht " + id );
   }
 
   public void updateShotComment( long id, long sid, String comment )
   {
-    // if ( myDB == null ) return;
+    if ( myDB == null ) return;
     if ( comment == null ) comment = TDString.EMPTY;
-    StringWriter sw = new StringWriter();
-    PrintWriter pw = new PrintWriter( sw );
-    pw.format( Locale.US, "UPDATE shots SET comment=\"%s\" WHERE surveyId=%d AND id=%d", comment, sid, id );
-    doExecShotSQL( id, sw );
+    doShotStatement( STMT_SHOT_COMMENT, new Object[] { comment, sid, id }, "sht " + id );
   }
 
   // void updateShotStatus( long id, long sid, long status )
@@ -1552,78 +1823,29 @@ public class DataHelper extends DataSetObservable
     updateStatus( SHOT_TABLE, id, sid, TDStatus.NORMAL );
   }
   
-  // called by the importXXXTask's
-  public long insertImportShots( long sid, long id, ArrayList< ParserShot > shots )
+  /** insert the imported shots
+   * @param sid    survey ID
+   * @param id     ID of the first shot
+   * @param shots  imported shots
+   * @return the ID after the last shot, or -1 if the insert failed
+   * @note called by the importXXXTask's
+   *       the shots are inserted by the database writer in a single transaction, so that the import is all or nothing
+   */
+  public long insertImportShots( final long sid, long id, final ArrayList< ParserShot > shots )
   {
     // if ( myDB == null ) return -1L;
-    long millis = 0L;
-    long color  = 0L;
-
-    InsertHelper ih = new InsertHelper( myDB, SHOT_TABLE ); // DEPRECATED API-17
-    final int surveyIdCol = ih.getColumnIndex( "surveyId" );
-    final int idCol       = ih.getColumnIndex( "id" );
-    final int fStationCol = ih.getColumnIndex( "fStation" );
-    final int tStationCol = ih.getColumnIndex( "tStation" );
-    final int distanceCol = ih.getColumnIndex( "distance" );
-    final int bearingCol  = ih.getColumnIndex( "bearing" );
-    final int clinoCol    = ih.getColumnIndex( "clino" );
-    final int rollCol     = ih.getColumnIndex( "roll" );
-    final int accelerationCol = ih.getColumnIndex( "acceleration" );
-    final int magneticCol = ih.getColumnIndex( "magnetic" );
-    final int dipCol      = ih.getColumnIndex( "dip" );
-    final int extendCol   = ih.getColumnIndex( "extend" );
-    final int flagCol     = ih.getColumnIndex( "flag" );
-    final int legCol      = ih.getColumnIndex( "leg" );
-    final int statusCol   = ih.getColumnIndex( "status" );
-    final int commentCol  = ih.getColumnIndex( "comment" );
-    final int typeCol     = ih.getColumnIndex( "type" );
-    final int millisCol   = ih.getColumnIndex( "millis" );
-    final int colorCol    = ih.getColumnIndex( "color" );
-    final int stretchCol  = ih.getColumnIndex( "stretch" );
-    final int addressCol  = ih.getColumnIndex( "address" );
-    try {
-      // myDB.execSQL("PRAGMA synchronous=OFF");
-      // myDB.setLockingEnabled( false );
-      myDB.beginTransaction();
-      for ( ParserShot s : shots ) {
-        ih.prepareForInsert();
-        ih.bind( surveyIdCol, sid );
-        ih.bind( idCol, id );
-        ih.bind( fStationCol, s.from );
-        ih.bind( tStationCol, s.to);
-        ih.bind( distanceCol, s.len );
-        ih.bind( bearingCol, s.ber );
-        ih.bind( clinoCol, s.cln );
-        ih.bind( rollCol, s.rol);
-        ih.bind( accelerationCol, 0.0);
-        ih.bind( magneticCol, 0.0);
-        ih.bind( dipCol, 0.0);
-        ih.bind( extendCol, s.extend );
-        ih.bind( flagCol, s.duplicate ? DBlock.FLAG_DUPLICATE 
-                        : s.surface ? DBlock.FLAG_SURFACE 
-                        // : s.commented ? DBlock.FLAG_COMMENTED // ParserShots are not "commented"
-                        // : s.backshot ? DBlock.FLAG_BACKSHOT
-                        : 0 );
-        ih.bind( legCol, s.leg );
-        ih.bind( statusCol, 0 );
-        ih.bind( commentCol, s.comment );
-        ih.bind( typeCol, 0 ); // parser shot are not-modifiable
-        ih.bind( millisCol, millis );
-        ih.bind( colorCol, color );
-	ih.bind( stretchCol, 0.0 );
-	ih.bind( stretchCol, "" );
-        ih.execute();
-        ++id;
-      }
-      myDB.setTransactionSuccessful();
-    } catch ( SQLiteDiskIOException e ) { handleDiskIOError( e );
-    } catch (SQLiteException e ) { logError("parser shot insert", e);
-    } finally {
-      ih.close(); // FIXME this was before endTransaction
-      myDB.endTransaction();
-      // myDB.setLockingEnabled( true );
-      // myDB.execSQL("PRAGMA synchronous=NORMAL");
-    }
+    final long id0 = id;
+    // long millis_start = System.currentTimeMillis();
+    Boolean ok = mWriter.call( new Callable< Boolean >() {
+      @Override public Boolean call() { return insertImportTransaction( sid, id0, shots ); }
+    }, Boolean.FALSE );
+    if ( ! ok ) return -1L;
+    id += shots.size();
+    mWriter.call( new Callable< Boolean >() {
+      @Override public Boolean call() { return DistoXOpenHelper.analyzeIfNeeded( myDB ); }
+    }, Boolean.FALSE );
+    // long millis_import = System.currentTimeMillis() - millis_start;
+    // TDLog.Log( TDLog.LOG_DB, "import " + nr + " shots in " + millis_import + " ms" );
     /* ---- IF_COSURVEY
     if ( mListeners != null ) {
       // synchronized( mListeners )
@@ -1645,6 +1867,58 @@ public class DataHelper extends DataSetObservable
     return id;
   }
   
+  /** insert the imported shots, in a single transaction
+   * @param sid    survey ID
+   * @param id     ID of the first shot
+   * @param shots  imported shots
+   * @return true if successful
+   * @note the shots are inserted ShotInsert.BATCH rows per statement
+   */
+  private boolean insertImportTransaction( long sid, long id, ArrayList< ParserShot > shots )
+  {
+    long millis = 0L;
+    long color  = 0L;
+    boolean ret = false;
+
+    int nr = shots.size();
+    int tail = nr % ShotInsert.BATCH; // rows of the last statement
+    SQLiteStatement batch = null;
+    SQLiteStatement last  = null;
+    try {
+      // myDB.execSQL("PRAGMA synchronous=OFF");
+      // myDB.setLockingEnabled( false );
+      myDB.beginTransaction();
+      if ( nr >= ShotInsert.BATCH ) batch = myDB.compileStatement( ShotInsert.sql( ShotInsert.BATCH ) );
+      if ( tail > 0 ) last = myDB.compileStatement( ShotInsert.sql( tail ) );
+      ShotInsert.insertImportShots( insertStatement( batch ), insertStatement( last ), sid, id, shots, 0, nr, millis, color );
+      myDB.setTransactionSuccessful();
+      ret = true;
+    } catch ( SQLiteDiskIOException e ) { handleDiskIOError( e );
+    } catch (SQLiteException e ) { logError("parser shot insert", e);
+    } finally {
+      if ( batch != null ) batch.close();
+      if ( last  != null ) last.close();
+      myDB.endTransaction();
+      // myDB.setLockingEnabled( true );
+      // myDB.execSQL("PRAGMA synchronous=NORMAL");
+    }
+    return ret;
+  }
+
+  /** @return the shot insert statement on a compiled statement, or null
+   * @param stmt   compiled statement
+   */
+  private static ShotInsert.Statement insertStatement( final SQLiteStatement stmt )
+  {
+    if ( stmt == null ) return null;
+    return new ShotInsert.Statement() {
+      @Override public void bindLong( int pos, long value ) { stmt.bindLong( pos, value ); }
+      @Override public void bindDouble( int pos, double value ) { stmt.bindDouble( pos, value ); }
+      @Override public void bindText( int pos, String value ) { DataHelper.bindText( stmt, pos, value ); }
+      @Override public void executeInsert() { stmt.executeInsert(); }
+    };
+  }
+
   // called by the importXXXTask's
   public long insertImportShotsDiving( long sid, long id, ArrayList< ParserShot > shots )
   {
@@ -1740,6 +2014,61 @@ public class DataHelper extends DataSetObservable
     return doSimpleInsertShot( sid, id, System.currentTimeMillis()/1000, 0L, d, b, c, r, extend, 0.0, 0L, status, 0L, addr );
   }
 
+  /** @return the ID for a new shot
+   * @param sid    survey ID
+   * @param id     requested shot ID, or -1 for the next ID
+   * @param unique whether to use the next ID if the requested ID is already present
+   */
+  long allocShotId( long sid, long id, boolean unique )
+  {
+    if ( unique && id >= 0 && hasShotId( sid, id ) ) id = -1L;
+    if ( id == -1L ) {
+      ++ myNextId;
+      id = myNextId;
+    } else {
+      myNextId = id;
+    }
+    return id;
+  }
+
+  /** insert the downloaded shots, in a single transaction, by the database writer
+   * @param rows   downloaded shots
+   * @return true if successful
+   */
+  boolean insertShots( final List< ShotIngest.Row > rows )
+  {
+    if ( myDB == null ) return false;
+    return mWriter.call( new Callable< Boolean >() {
+      @Override public Boolean call() { return doInsertShots( rows ); }
+    }, Boolean.FALSE );
+  }
+
+  /** insert the downloaded shots, in a single transaction
+   * @param rows   downloaded shots
+   * @return true if successful
+   */
+  private boolean doInsertShots( List< ShotIngest.Row > rows )
+  {
+    boolean ret = false;
+    synchronized ( mShotStmt ) {
+      try {
+        myDB.beginTransaction();
+        SQLiteStatement stmt = shotStatement( STMT_SHOT_INSERT );
+        for ( ShotIngest.Row row : rows ) {
+          bindShotInsert( stmt, row.sid, row.id, row.millis, 0L, "", "", row.d, row.b, row.c, row.r, row.acc, row.mag, row.dip,
+                          row.extend, 0.0, DBlock.FLAG_SURVEY, row.leg, row.status, row.shot_type, row.comment, row.addr );
+          stmt.execute();
+        }
+        myDB.setTransactionSuccessful();
+        ret = true;
+      } catch ( SQLiteDiskIOException e ) { handleDiskIOError( e );
+      } catch ( SQLiteException e1 )       { logError("downloaded shots insert", e1 );
+      } catch ( IllegalStateException e2 ) { logError("downloaded shots insert", e2 );
+      } finally { myDB.endTransaction(); }
+    }
+    return ret;
+  }
+
   /** insert a shot copying from a dblock (except surveyId and Id)
    * @param sid    survey ID
    * @param blk    dblock
@@ -1750,10 +2079,9 @@ public class DataHelper extends DataSetObservable
     if ( myDB == null ) return -1L;
     ++ myNextId;
     // 0L = color, 0 = status
-    ContentValues cv = makeShotContentValues( sid, myNextId, blk.mTime, 0L, blk.mFrom, blk.mTo, 
+    doInsertShotStatement( sid, myNextId, blk.mTime, 0L, blk.mFrom, blk.mTo, 
                          blk.mLength, blk.mBearing, blk.mClino, blk.mRoll, blk.mMagnetic, blk.mAcceleration, blk.mDip, 
-                         blk.mExtend, blk.getStretch(), blk.mFlag, blk.getLegType(), 0, blk.mShotType, blk.mComment, blk.getAddress() );
-    doInsert( SHOT_TABLE, cv, "dblock insert" );
+                         blk.mExtend, blk.getStretch(), blk.mFlag, blk.getLegType(), 0, blk.mShotType, blk.mComment, blk.getAddress(), "dblock insert" );
     return myNextId;
   }
 
@@ -1797,90 +2125,63 @@ public class DataHelper extends DataSetObservable
     //            color, sid, id );
     // myDB.execSQL( sw.toString() );
 
-    ContentValues cv = new ContentValues();
-    cv.put("color", color );
-    doUpdate( SHOT_TABLE, cv, sid, id, "sht color" );
-
-    // if ( updateShotColorStmt == null ) {
-    //   updateShotColorStmt   =
-    //     myDB.compileStatement( "UPDATE shots SET color=? WHERE surveyId=? AND id=?" );
-    // }
-    // updateShotColorStmt.bindLong( 1, color );
-    // updateShotColorStmt.bindLong( 2, sid );
-    // updateShotColorStmt.bindLong( 3, id );
-    // doStatement( updateShotColorStmt, "Color" );
-    // return doStatement( updateShotColorStmt, "Color" );
+    if ( myDB == null ) return;
+    doShotStatement( STMT_SHOT_COLOR, new Object[] { color, sid, id }, "sht color" );
   }
 
-  void updateShotsColor( List< DBlock > blks, long sid, int color )
+  void updateShotsColor( final List< DBlock > blks, final long sid, final int color )
   {
     if ( myDB == null ) return;
-    try {
-      myDB.beginTransaction();
-      String stmt = "UPDATE shots SET color=" + color + " WHERE surveyId=" + sid + " AND id=";
-      for ( DBlock blk : blks ) {
-        myDB.execSQL( stmt + blk.mId );
+    mWriter.call( new Callable< Boolean >() {
+      @Override public Boolean call() {
+        synchronized ( mShotStmt ) {
+          try {
+            myDB.beginTransaction();
+            SQLiteStatement stmt = shotStatement( STMT_SHOT_COLOR );
+            for ( DBlock blk : blks ) {
+              stmt.bindLong( 1, color );
+              stmt.bindLong( 2, sid );
+              stmt.bindLong( 3, blk.mId );
+              stmt.execute();
+            }
+            myDB.setTransactionSuccessful();
+          } catch ( SQLiteDiskIOException e ) { handleDiskIOError( e );
+          } catch (SQLiteException e) { logError("update shots color", e);
+          } finally { myDB.endTransaction(); }
+        }
+        return Boolean.TRUE;
       }
-      myDB.setTransactionSuccessful();
-    } catch ( SQLiteDiskIOException e ) { handleDiskIOError( e );
-    } catch (SQLiteException e) { logError("update shots color", e);
-    } finally { myDB.endTransaction(); }
+    }, Boolean.FALSE );
   }
 
   public void updateShotAMDR( long id, long sid, double acc, double mag, double dip, double r, boolean backshot )
-  {
-    // if ( myDB == null ) return;
-
-    StringWriter sw = new StringWriter();
-    PrintWriter pw  = new PrintWriter( sw );
-    if ( backshot ) { // shot type = -1
-      pw.format( Locale.US,
-               "UPDATE shots SET acceleration=%.6f, magnetic=%.6f, dip=%.4f, roll=%.6f, type=-1 WHERE surveyId=%d AND id=%d",
-               acc, mag, dip, r, sid, id );
-    } else { // shot type = 0 (default)
-      pw.format( Locale.US,
-               "UPDATE shots SET acceleration=%.6f, magnetic=%.6f, dip=%.4f, roll=%.6f WHERE surveyId=%d AND id=%d",
-               acc, mag, dip, r, sid, id );
-    }
-    doExecSQL( sw, "sht AMDR" );
-/*
-    if ( updateShotAMDRStmt == null ) {
-      updateShotAMDRStmt   =
-        myDB.compileStatement( "UPDATE shots SET acceleration=?, magnetic=?, dip=?, roll=? WHERE surveyId=? AND id=?" );
-    }
-
-    updateShotAMDRStmt.bindDouble( 1, acc );
-    updateShotAMDRStmt.bindDouble( 2, mag );
-    updateShotAMDRStmt.bindDouble( 3, dip );
-    updateShotAMDRStmt.bindDouble( 4, r );
-    updateShotAMDRStmt.bindLong( 5, sid );
-    updateShotAMDRStmt.bindLong( 6, id );
-    doStatement( updateShotAMDRStmt, "AMDR" );
-    // return doStatement( updateShotAMDRStmt, "AMDR" );
-*/
-  }
-
-  /** transfer plots, at a given station, from a survey to another
-   * @param old_survey_name   name of the source survey
-   * @param new_survey_name   name of the target survey
-   * @param sid               ID of the target survey
-   * @param old_sid           ID of the source survey
-   * @param station           plot origin station
-   */
-  private void transferPlots( String old_survey_name, String new_survey_name, long sid, long old_sid, String station )
   {
     if ( myDB == null ) return;
-    List< PlotInfo > plots = selectPlotsAtStation( old_sid, station );
-    for ( PlotInfo plot : plots ) {
-      transferPlot( sid, old_sid, plot.id );
-      // TDFile.renameFile( TDPath.getTh2File( old_survey_name + "-" + plot.name + ".th2" ),
-      //                    TDPath.getTh2File( new_survey_name + "-" + plot.name + ".th2" ) );
-
-      TDFile.renameFile( TDPath.getTdrFile( old_survey_name + "-" + plot.name + ".tdr" ),
-                         TDPath.getTdrFile( new_survey_name + "-" + plot.name + ".tdr" ) );
-    }
+    // backshot: shot type = -1, otherwise shot type = 0 (default)
+    doShotStatement( backshot ? STMT_SHOT_AMDR_BACK : STMT_SHOT_AMDR, new Object[] { acc, mag, dip, r, sid, id }, "sht AMDR" );
   }
 
+  // /** transfer plots, at a given station, from a survey to another
+  //  * @param old_survey_name   name of the source survey
+  //  * @param new_survey_name   name of the target survey
+  //  * @param sid               ID of the target survey
+  //  * @param old_sid           ID of the source survey
+  //  * @param station           plot origin station
+  //  */
+  // private void transferPlots( String old_survey_name, String new_survey_name, long sid, long old_sid, String station )
+  // {
+  //   if ( myDB == null ) return;
+  //   List< PlotInfo > plots = selectPlotsAtStation( old_sid, station );
+  //   for ( PlotInfo plot : plots ) {
+  //     transferPlot( sid, old_sid, plot.id );
+  //     // TDFile.renameFile( TDPath.getTh2File( old_survey_name + "-" + plot.name + ".th2" ),
+  //     //                    TDPath.getTh2File( new_survey_name + "-" + plot.name + ".th2" ) );
+
+  //     TDFile.renameFile( TDPath.getTdrFile( old_survey_name + "-" + plot.name + ".tdr" ),
+  //                        TDPath.getTdrFile( new_survey_name + "-" + plot.name + ".tdr" ) );
+  //   }
+  // }
+
   /* FIXME_SKETCH_3D *
   private void transferSketches( String old_survey_name, String new_survey_name, long sid, long old_sid, String station )
   {
@@ -1899,128 +2200,128 @@ public class DataHelper extends DataSetObservable
    * @param sid     target survey ID
    * @param old_sid source survey ID
    * @param old_id  ID of first shot of the source survey that is transferred
+   * @note the fixeds, the stations and the plots at the stations of the transferred shots are also transferred
    */
   void transferShots( long sid, long old_sid, long old_id )
   {
     if ( myDB == null ) return;
-    SurveyInfo old_survey = selectSurveyInfo( old_sid );
-    SurveyInfo new_survey = selectSurveyInfo( sid );
-    long max_old_id = maxId( SHOT_TABLE, old_sid );
-    // TDLog.v("max shot ID " + max_old_id );
-
-    // // transfer shots could be as simple as 
-    // long delta_id =  maxId( SHOT_TABLE, sid ) + 1 - old_id;
-    // transferShotStmt = myDB.compileStatement( "UPDATE shots SET surveyId=" + sid + ", id=(id+" + delta_id + ") where surveyId=" + old_sid + " and idi>=" + old_id );
-    // // however care must be taken about fixeds, photos, audios and plots
+    if ( moveShots( old_sid, old_id, sid, true ) ) myNextId = maxId( SHOT_TABLE, sid ) - 1;
+  }
 
-    ContentValues vals0 = new ContentValues();
-    vals0.put( "surveyId", sid );
-    String[] where0 = new String[2];
-    where0[0] = Long.toString( old_sid );
+  // stations of the shots of a survey from a given ID on
+  private static final String qMovedStations =
+    "SELECT fStation FROM shots WHERE surveyId=? AND id>=? AND fStation!='' UNION SELECT tStation FROM shots WHERE surveyId=? AND id>=? AND tStation!=''";
 
-    Set<String> stations = new TreeSet<>();
+  /** move the shots of a survey, from a given ID on, to another survey, with their sensors, photos and audios
+   * @param old_sid   source survey ID
+   * @param old_id    ID of the first moved shot
+   * @param sid       target survey ID
+   * @param stations  whether to move also the fixeds, the stations and the plots at the stations of the moved shots
+   * @return true if successful
+   * @note the rows are moved by a single UPDATE per table, in a single transaction (see ShotMove for the ID remapping).
+   *       The photo, audio and plot files are renamed after the transaction.
+   */
+  private boolean moveShots( long old_sid, long old_id, long sid, boolean stations )
+  {
+    if ( myDB == null ) return false;
+    SurveyInfo old_survey = selectSurveyInfo( old_sid );
+    SurveyInfo new_survey = selectSurveyInfo( sid );
+    if ( old_survey == null || new_survey == null ) return false;
+    String[] args = new String[] { Long.toString( old_sid ), Long.toString( old_id ) };
+
+    ShotMove.Tables tables = moveTables();
+    ShotMove move = new ShotMove( tables, old_sid, old_id, sid );
+    ArrayList< Long > photos = selectMoveIds( "SELECT id FROM photos WHERE surveyId=? AND shotId>=?", args );
+    ArrayList< Long > audios = selectMoveIds( "SELECT shotId FROM audios WHERE surveyId=? AND shotId>=?", args ); // audio files are named by shot ID
+    ArrayList< String > plots = new ArrayList<>();
+    if ( stations ) {
+      Cursor cursor = myDB.rawQuery( "SELECT name FROM plots WHERE surveyId=? AND start IN ( " + qMovedStations + " )",
+                                     new String[] { args[0], args[0], args[1], args[0], args[1] } );
+      if (cursor.moveToFirst()) {
+        do plots.add( cursor.getString(0) ); while (cursor.moveToNext());
+      }
+      if ( /* cursor != null && */ !cursor.isClosed()) cursor.close();
+    }
 
+    boolean ret = false;
     try {
       myDB.beginTransaction();
-      ContentValues cv = new ContentValues();
-      cv.put( "surveyId", sid );
-      for ( ; old_id < max_old_id; ++old_id ) {
-        DBlock blk = selectShot( old_id, old_sid );
-        if ( blk == null ) {
-          TDLog.Error("null block at ID " + old_id );
-          continue;
-        }
-        if ( transferShotStmt == null ) {
-          // TDLog.v("compile transfer stmt");
-          transferShotStmt = myDB.compileStatement( "UPDATE shots SET surveyId=?, id=? where surveyId=? and id=?" );
-        }
-        // TDLog.v("transfer shot ID " + old_id + " to " + myNextId );
-        transferShotStmt.bindLong(1, sid);
-        transferShotStmt.bindLong(2, myNextId);
-        transferShotStmt.bindLong(3, old_sid);
-        transferShotStmt.bindLong(4, old_id);
-        transferShotStmt.execute();
-        
-        // transfer fixeds, stations, plots and sketches
-        // UPDATE fixeds SET surveyId=? where surveyId=? and station=\"?\" 
-        //  sid, old_sid, blk.mFrom
-        // TODO FIXME cross-sections 
-        if ( blk.mFrom.length() > 0 ) stations.add( blk.mFrom );
-        if ( blk.mTo.length() > 0 ) stations.add( blk.mTo );
-
-        cv.put( "shotId",   myNextId );
-        String[] where = new String[2];
-        where[0] = Long.toString( old_sid );
-        List< SensorInfo > sensors = selectSensorsAtShot( old_sid, old_id ); // transfer sensors
-        // TDLog.v("sensors " + sensors.size() );
-        if ( sensors.size() > 0 ) for ( SensorInfo sensor : sensors ) {
-          where[1] = Long.toString( sensor.id );
-          myDB.update( SENSOR_TABLE, cv, WHERE_SID_ID, where );
-        }
+      move.move( tables, stations );
+      myDB.setTransactionSuccessful();
+      ret = true;
+    } catch ( SQLiteDiskIOException e )  { handleDiskIOError( e );
+    } catch ( SQLiteException e1 )       { logError("move shots", e1 );
+    } catch ( IllegalStateException e2 ) { logError("move shots", e2 );
+    } finally { myDB.endTransaction(); }
+    if ( ! ret ) return false;
 
-        AudioInfo audio = getAudio( old_sid, old_id ); // transfer audio
-        if ( audio != null ) {
-          // TDLog.v("audio");
-          where[1] = Long.toString( audio.fileIdx );
-          myDB.update( AUDIO_TABLE, cv, WHERE_SID_SHOTID, where );
-          String oldname = TDPath.getSurveyWavFile( old_survey.name, Long.toString(audio.fileIdx) );
-          String newname = TDPath.getSurveyWavFile( new_survey.name, Long.toString(audio.fileIdx) );
-          TDFile.renameFile( oldname, newname );
-        }
+    for ( Long id : photos ) {
+      TDFile.renameFile( TDPath.getSurveyJpgFile( old_survey.name, Long.toString( id ) ),
+                         TDPath.getSurveyJpgFile( new_survey.name, Long.toString( id + move.photoOffset ) ) );
+    }
+    for ( Long id : audios ) {
+      TDFile.renameFile( TDPath.getSurveyWavFile( old_survey.name, Long.toString( id ) ),
+                         TDPath.getSurveyWavFile( new_survey.name, Long.toString( id + move.shotOffset ) ) );
+    }
+    for ( String plot : plots ) {
+      // TDFile.renameFile( TDPath.getTh2File( old_survey.name + "-" + plot + ".th2" ),
+      //                    TDPath.getTh2File( new_survey.name + "-" + plot + ".th2" ) );
+      TDFile.renameFile( TDPath.getTdrFile( old_survey.name + "-" + plot + ".tdr" ),
+                         TDPath.getTdrFile( new_survey.name + "-" + plot + ".tdr" ) );
+    }
+    return true;
+  }
 
-        List< PhotoInfo > photos = selectPhotoAtShot( old_sid, old_id ); // transfer photos
-        // TDLog.v("photos " + photos.size( ) );
-        if ( photos.size() > 0 ) for ( PhotoInfo photo : photos ) {
-          where[1] = Long.toString( photo.id );
-          myDB.update( PHOTO_TABLE, cv, WHERE_SID_ID, where );
-          String oldname = TDPath.getSurveyJpgFile( old_survey.name, Long.toString(photo.id) );
-          String newname = TDPath.getSurveyJpgFile( new_survey.name, Long.toString(photo.id) );
-          TDFile.renameFile( oldname, newname );
-        }
+  /** @return the survey tables of the shot move, on the database
+   */
+  private ShotMove.Tables moveTables()
+  {
+    return new ShotMove.Tables() {
+      @Override public long maxId( String table, long sid ) { return DataHelper.this.maxId( table, sid ); }
 
-        ++ myNextId;
+      @Override public long minId( String table, long sid, long id )
+      {
+        long ret = -1;
+        Cursor cursor = myDB.rawQuery( "SELECT min(id) FROM " + table + " WHERE surveyId=? AND shotId>=?",
+                                       new String[] { Long.toString( sid ), Long.toString( id ) } );
+        if ( cursor.moveToFirst() && ! cursor.isNull(0) ) ret = cursor.getLong(0);
+        if ( /* cursor != null && */ !cursor.isClosed()) cursor.close();
+        return ret;
       }
 
-      // NOTE transfer fixeds and plots was done for each shot considering blk.mFrom (and same for blk.mTo)
-      // now the following code is replaced by a for-loop over the stations at the end
-      //
-      // if ( blk.mFrom.length() > 0 ) {
-      //   List< FixedInfo > fixeds = selectFixedAtStation( old_sid, blk.mFrom ); 
-      //   for ( FixedInfo fixed : fixeds ) {
-      //     where0[1] = Long.toString( fixed.id );
-      //     myDB.update( FIXED_TABLE, vals0, WHERE_SID_ID, where0 );
-      //   }
-      //   where0[1] = blk.mFrom;
-      //   myDB.update( STATION_TABLE, vals0, WHERE_SID_NAME, where0 );
-      //   transferPlots( old_survey.name, new_survey.name, sid, old_sid, blk.mFrom );
-      //   // transferSketches( old_survey.name, new_survey.name, sid, old_sid, blk.mFrom ); // FIXME_SKETCH_3D
-      // }
+      @Override public void moveStationRows( String table, String column, long old_sid, long old_id, long sid )
+      {
+        myDB.execSQL( "UPDATE " + table + " SET surveyId=? WHERE surveyId=? AND " + column + " IN ( " + qMovedStations + " )",
+                      new Object[] { sid, old_sid, old_sid, old_id, old_sid, old_id } );
+      }
 
-      // TDLog.v("transfer stations " + stations.size() );
-      for ( String st : stations ) {
-        // if ( transferShotFixedStmt == null ) {
-        //   transferShotFixedStmt = myDB.compileStatement( "UPDATE fixeds SET surveyId=? where surveyId=? and station=\"?\"" );
-        // }
-        // transferShotFixedStmt.bindLong(1, sid);
-        // transferShotFixedStmt.bindLong(2, old_sid);
-        // transferShotFixedStmt.bindString(2, blk.mFrom);
-        // transferShotFixedStmt.execute();
-
-        List< FixedInfo > fixeds = selectFixedAtStation( old_sid, st );
-        for ( FixedInfo fixed : fixeds ) {
-          where0[1] = Long.toString( fixed.id );
-          myDB.update( FIXED_TABLE, vals0, WHERE_SID_ID, where0 );
-        }
-        where0[1] = st;
-        myDB.update( STATION_TABLE, vals0, WHERE_SID_NAME, where0 );
+      @Override public void moveShotRows( String table, long old_sid, long old_id, long sid, long offset, long shot_offset )
+      {
+        myDB.execSQL( "UPDATE " + table + " SET surveyId=?, id=id+?, shotId=shotId+? WHERE surveyId=? AND shotId>=?",
+                      new Object[] { sid, offset, shot_offset, old_sid, old_id } );
+      }
 
-        transferPlots( old_survey.name, new_survey.name, sid, old_sid, st );
-        // transferSketches( old_survey.name, new_survey.name, sid, old_sid, st ); // FIXME_SKETCH_3D
+      @Override public void moveShots( long old_sid, long old_id, long sid, long offset )
+      {
+        myDB.execSQL( "UPDATE shots SET surveyId=?, id=id+? WHERE surveyId=? AND id>=?",
+                      new Object[] { sid, offset, old_sid, old_id } );
       }
-      myDB.setTransactionSuccessful();
-    } catch ( SQLiteDiskIOException e ) { handleDiskIOError( e );
-    } catch (SQLiteException e) { logError("transfer shots", e);
-    } finally { myDB.endTransaction(); }
+    };
+  }
+
+  /** @return the values of the first column of a query
+   * @param query   query
+   * @param args    query arguments
+   */
+  private ArrayList< Long > selectMoveIds( String query, String[] args )
+  {
+    ArrayList< Long > ret = new ArrayList<>();
+    Cursor cursor = myDB.rawQuery( query, args );
+    if (cursor.moveToFirst()) {
+      do ret.add( cursor.getLong(0) ); while (cursor.moveToNext());
+    }
+    if ( /* cursor != null && */ !cursor.isClosed()) cursor.close();
+    return ret;
   }
 
   long insertManualShotAt( long sid, long at, long millis, long color, double d, double b, double c, double r,
@@ -2030,30 +2331,9 @@ public class DataHelper extends DataSetObservable
     // TDLog.v("DB manual insert shot at " + at + " d " + d + " b " + b + " c " + c );
     shiftShotsId( sid, at );
     ++ myNextId;
-    ContentValues cv = new ContentValues();
-    cv.put( "surveyId", sid );
-    cv.put( "id",       at );
-    cv.put( "fStation", "" ); // from );
-    cv.put( "tStation", "" ); // to );
-    cv.put( "distance", d );
-    cv.put( "bearing",  b );
-    cv.put( "clino",    c );
-    cv.put( "roll",     r );
-    cv.put( "acceleration", 0.0 );
-    cv.put( "magnetic", 0.0 );
-    cv.put( "dip",      0.0 );
-    cv.put( "extend",   extend );
-    cv.put( "flag",     DBlock.FLAG_SURVEY ); // flag );
-    cv.put( "leg",      leg ); // LegType.NORMAL ); // leg );
-    cv.put( "status",   TDStatus.NORMAL ); // status );
-    cv.put( "comment",  "" ); // comment );
-    cv.put( "type",     type ); 
-    cv.put( "millis",   millis );
-    cv.put( "color",    color );
-    cv.put( "stretch",  stretch );
-    cv.put( "address",  "" );
-
-    doInsert( SHOT_TABLE, cv, "insert at" );
+    // from = "", to = "", acc = mag = dip = 0, flag = SURVEY, status = NORMAL, comment = "", address = ""
+    doInsertShotStatement( sid, at, millis, color, "", "", d, b, c, r, 0.0, 0.0, 0.0,
+		    extend, stretch, DBlock.FLAG_SURVEY, leg, TDStatus.NORMAL, type, "", "", "insert at" );
     return at;
   }
 
@@ -2145,9 +2425,8 @@ public class DataHelper extends DataSetObservable
       myNextId = id;
     }
     if (addr == null) addr = "";
-    ContentValues cv = makeShotContentValues( sid, id, millis, color, "", "", d, b, c, r, 0.0, 0.0, 0.0,
-		    extend, stretch, DBlock.FLAG_SURVEY, leg, status, shot_type, "", addr );
-    doInsert( SHOT_TABLE, cv, "simple insert" );
+    doInsertShotStatement( sid, id, millis, color, "", "", d, b, c, r, 0.0, 0.0, 0.0,
+		    extend, stretch, DBlock.FLAG_SURVEY, leg, status, shot_type, "", addr, "simple insert" );
     return id;
   }
 
@@ -2165,9 +2444,8 @@ public class DataHelper extends DataSetObservable
       myNextId = id;
     }
     if (addr == null) addr = "";
-    ContentValues cv = makeShotContentValues( sid, id, millis, color, "", "", d, b, c, r, mag, acc, dip,
-		    extend, stretch, DBlock.FLAG_SURVEY, leg, status, shot_type, comment, addr );
-    doInsert( SHOT_TABLE, cv, "complete insert" );
+    doInsertShotStatement( sid, id, millis, color, "", "", d, b, c, r, mag, acc, dip,
+		    extend, stretch, DBlock.FLAG_SURVEY, leg, status, shot_type, comment, addr, "complete insert" );
     return id;
   }
 
@@ -2365,6 +2643,11 @@ public class DataHelper extends DataSetObservable
   // private static String qShotPhoto    = "select id, shotId, title, date, comment from photos where surveyId=? AND shotId=? ";
   private static final String qjShotPhoto   =
     "select p.id, s.id, p.title, s.fStation, s.tStation, p.date, p.comment, p.camera from photos as p join shots as s on p.shotId=s.id where p.surveyId=? AND s.surveyId=? AND p.shotId=? ";
+  private static final String qShotMedia    = // the status is compared in the tables, where it has integer affinity
+    "select shotId, sum( photo ), sum( audio ), sum( sensor ) from ( "
+  + "select shotId, status=? as photo, 0 as audio, 0 as sensor from photos where surveyId=? UNION ALL "
+  + "select shotId, 0, 1, 0 from audios where surveyId=? UNION ALL "
+  + "select shotId, 0, 0, status=? from sensors where surveyId=? ) group by shotId ";
 
   private static final String qFirstStation = "select fStation from shots where surveyId=? AND fStation!=\"\" AND tStation!=\"\" limit 1 ";
   private static final String qHasStation   = "select id, fStation, tStation from shots where surveyId=? and ( fStation=? or tStation=? ) order by id ";
@@ -2631,6 +2914,27 @@ public class DataHelper extends DataSetObservable
     return list;
   }
 
+  /** @return the media of the shots of a survey, by shot ID, in a single query
+   * @param sid     survey ID
+   * @param status  status of the counted photos and sensors
+   * @note a shot has an entry if it has any photo, audio or sensor, whatever the status
+   */
+  HashMap< Long, ShotMedia > selectShotMedia( long sid, long status )
+  {
+    HashMap< Long, ShotMedia > ret = new HashMap<>();
+    if ( myDB == null ) return ret;
+    String s_sid = Long.toString( sid );
+    String s_status = Long.toString( status );
+    Cursor cursor = myDB.rawQuery( qShotMedia, new String[] { s_status, s_sid, s_sid, s_status, s_sid } );
+    if (cursor.moveToFirst()) {
+      do {
+        ret.put( cursor.getLong(0), new ShotMedia( cursor.getInt(1), cursor.getInt(2), cursor.getInt(3) ) );
+      } while (cursor.moveToNext());
+    }
+    if ( /* cursor != null && */ !cursor.isClosed()) cursor.close();
+    return ret;
+  }
+
   List< PhotoInfo > selectPhotoAtShot( long sid, long shotid )
   {
     List< PhotoInfo > list = new ArrayList<>();
@@ -3763,6 +4067,122 @@ public class DataHelper extends DataSetObservable
     return list;
   }
 
+  /** select the normal shots of a survey, for the data reduction
+   * @param sid     surveyId
+   * @return the shots, in columns
+   */
+  ShotColumns selectReductionShots( long sid )
+  {
+    boolean diving = ( TDInstance.datamode == SurveyInfo.DATAMODE_DIVING );
+    if ( myDB == null ) return new ShotColumns( sid, 0, diving );
+    Cursor cursor = myDB.query(SHOT_TABLE, mReductionFields,
+                    WHERE_SID_STATUS, new String[]{ Long.toString(sid), Long.toString( TDStatus.NORMAL ) },
+                    null, null, "id" );
+    ShotColumns cols = new ShotColumns( sid, cursor.getCount(), diving );
+    for ( int k = 0; k < cols.size && cursor.moveToNext(); ++k ) {
+      cols.id[k]      = cursor.getLong(0);
+      cols.setStations( k, cursor.getString(1), cursor.getString(2), (int)cursor.getLong(9) );
+      cols.length[k]  = (float)( cursor.getDouble(3) );
+      cols.bearing[k] = (float)( cursor.getDouble(4) );
+      cols.clino[k]   = (float)( cursor.getDouble(5) );
+      cols.extend[k]  = (int)( cursor.getLong(6) );
+      cols.stretch[k] = (float)( cursor.getDouble(7) );
+      cols.flag[k]    = cursor.getLong(8);
+      cols.setExtra( k, cursor.getString(10), (int)cursor.getLong(11), (int)cursor.getLong(12),
+                     (float)( cursor.getDouble(13) ), (float)( cursor.getDouble(14) ), (float)( cursor.getDouble(15) ), cursor.getLong(16) );
+    }
+    if ( /* cursor != null && */ !cursor.isClosed()) cursor.close();
+    return cols;
+  }
+
+  /** select the shots that are not NORMAL, split by status
+   * @param sid       surveyId
+   * @param deleted   [output] deleted shots
+   * @param overshoot [output] overshoot shots
+   * @param check     [output] check shots
+   * @param blunder   [output] blunder shots, or null to skip them
+   */
+  void selectNonNormalShots( long sid, List< DBlock > deleted, List< DBlock > overshoot, List< DBlock > check, List< DBlock > blunder )
+  {
+    if ( myDB == null ) return;
+    Cursor cursor = myDB.query(SHOT_TABLE, mShotStatusFields,
+                    "surveyId=? AND status>0", new String[]{ Long.toString(sid) },
+                    null, null, "id" );
+    if (cursor.moveToFirst()) {
+      do {
+        List< DBlock > list = null;
+        switch ( (int)cursor.getLong(17) ) {
+          case TDStatus.DELETED:   list = deleted;   break;
+          case TDStatus.OVERSHOOT: list = overshoot; break;
+          case TDStatus.CHECK:     list = check;     break;
+          case TDStatus.BLUNDER:   list = blunder;   break;
+        }
+        if ( list != null ) {
+          DBlock block = new DBlock();
+          fillBlock( sid, block, cursor );
+          list.add( block );
+        }
+      } while (cursor.moveToNext());
+    }
+    if ( /* cursor != null && */ !cursor.isClosed()) cursor.close();
+  }
+
+  /** @return the shots version of a survey, or -1 if the survey does not exist
+   * @param sid     surveyId
+   * @note the version must be read before the shots
+   */
+  long getShotsVersion( long sid )
+  {
+    long ret = -1L;
+    if ( myDB == null ) return ret;
+    Cursor cursor = myDB.query( SURVEY_TABLE, new String[] { "shot_version" },
+                    "id=?", new String[]{ Long.toString(sid) },
+                    null, null, null );
+    if (cursor.moveToFirst()) ret = cursor.getLong(0);
+    if ( /* cursor != null && */ !cursor.isClosed()) cursor.close();
+    return ret;
+  }
+
+  /** select the shots that have changed after a given version
+   * @param sid     surveyId
+   * @param version shots version
+   * @return the changed shots, or null if the changes cannot be listed (a shot has been removed)
+   */
+  ShotListDelta selectShotsChangedSince( long sid, long version )
+  {
+    if ( myDB == null ) return null;
+    long current = -1L;
+    long reset   = -1L;
+    Cursor cursor = myDB.query( SURVEY_TABLE, new String[] { "shot_version", "shot_reset" },
+                    "id=?", new String[]{ Long.toString(sid) },
+                    null, null, null );
+    if (cursor.moveToFirst()) {
+      current = cursor.getLong(0);
+      reset   = cursor.getLong(1);
+    }
+    if ( /* cursor != null && */ !cursor.isClosed()) cursor.close();
+    if ( current < version || reset > version ) return null;
+
+    ShotListDelta delta = new ShotListDelta( current );
+    if ( current == version ) return delta;
+    cursor = myDB.query(SHOT_TABLE, mShotStatusFields,
+                    "surveyId=? AND version>?", new String[]{ Long.toString(sid), Long.toString(version) },
+                    null, null, "id" );
+    if (cursor.moveToFirst()) {
+      do {
+        if ( cursor.getLong(17) == TDStatus.NORMAL ) {
+          DBlock block = new DBlock();
+          fillBlock( sid, block, cursor );
+          delta.blocks.add( block );
+        } else {
+          delta.dropped.add( cursor.getLong(0) );
+        }
+      } while (cursor.moveToNext());
+    }
+    if ( /* cursor != null && */ !cursor.isClosed()) cursor.close();
+    return delta;
+  }
+
   /** get the export shots
    * @param sid     surveyId
    * @param status  shot status
@@ -4501,25 +4921,25 @@ public class DataHelper extends DataSetObservable
   //   try { transferStationStmt.execute(); } catch (SQLiteException e ) { logError("...", e);  }
   // }
   
-  /** transfer a plot from one survey to another
-   * @param sid      ID of the target survey
-   * @param old_sid  ID of the source survey
-   * @param pid      plot ID
-   * @note myDB is checked non-null before transfer methods are called
-   */
-  private void transferPlot( long sid, long old_sid, long pid )
-  {
-    if ( transferPlotStmt == null ) {
-      transferPlotStmt = myDB.compileStatement( "UPDATE plots set surveyId=? WHERE surveyId=? AND id=?" );
-    }
-    transferPlotStmt.bindLong( 1, sid );
-    transferPlotStmt.bindLong( 2, old_sid );
-    transferPlotStmt.bindLong( 3, pid );
-    try {
-      transferPlotStmt.execute();
-    } catch ( SQLiteDiskIOException e ) { handleDiskIOError( e );
-    } catch (SQLiteException e ) { logError("plot transf", e); }
-  }
+  // /** transfer a plot from one survey to another
+  //  * @param sid      ID of the target survey
+  //  * @param old_sid  ID of the source survey
+  //  * @param pid      plot ID
+  //  * @note myDB is checked non-null before transfer methods are called
+  //  */
+  // private void transferPlot( long sid, long old_sid, long pid )
+  // {
+  //   if ( transferPlotStmt == null ) {
+  //     transferPlotStmt = myDB.compileStatement( "UPDATE plots set surveyId=? WHERE surveyId=? AND id=?" );
+  //   }
+  //   transferPlotStmt.bindLong( 1, sid );
+  //   transferPlotStmt.bindLong( 2, old_sid );
+  //   transferPlotStmt.bindLong( 3, pid );
+  //   try {
+  //     transferPlotStmt.execute();
+  //   } catch ( SQLiteDiskIOException e ) { handleDiskIOError( e );
+  //   } catch (SQLiteException e ) { logError("plot transf", e); }
+  // }
 
   // /** transfer a sketch from one survey to another
   //  * @param sid      ID of the target survey
@@ -4759,25 +5179,15 @@ public class DataHelper extends DataSetObservable
     return id - 1L; // decrement
   }
   
+  /** move the shots of a survey, from a given ID on, to another survey, with their sensors, photos and audios
+   * @param old_sid   source survey ID
+   * @param old_id    ID of the first moved shot
+   * @param new_sid   target survey ID
+   * @return true if successful
+   */
   boolean moveShotsBetweenSurveys( long old_sid, long old_id, long new_sid )
   {
-    boolean ret = false;
-    long offset = getLastShotId( new_sid ) + 1 - old_id;
-    // update shots set id=id+offset, surveyId=new_sid where surveyId=old_sid && id >= old_id;
-    StringWriter sw = new StringWriter();
-    PrintWriter  pw = new PrintWriter( sw );
-    pw.format( Locale.US, "UPDATE shots SET id=id+%d, surveyId=%d WHERE surveyId=%d AND id>=%d", offset, new_sid, old_sid, old_id );
-    // TDLog.v("DB " + sw.toString() );
-    try {
-      myDB.beginTransaction();
-      myDB.execSQL( sw.toString() );
-      myDB.setTransactionSuccessful();
-      ret = true;
-    } catch ( SQLiteDiskIOException e )  { handleDiskIOError( e );
-    } catch ( SQLiteException e1 )       { logError("move shots", e1 );
-    } catch ( IllegalStateException e2 ) { logError("move shots", e2 );
-    } finally { myDB.endTransaction(); }
-    return ret;
+    return moveShots( old_sid, old_id, new_sid, false );
   }
 
   long getLastShotId( long sid )
@@ -5574,11 +5984,26 @@ public class DataHelper extends DataSetObservable
      }
    }
 
+   /** load survey data from a sql file, by the database writer
+    * @param filename    name of the sql file
+    * @param db_version  current database version
+    */
+   long loadFromFile( final String filename, final int db_version )
+   {
+     return mWriter.call( new Callable< Long >() {
+       @Override public Long call() {
+         long sid = doLoadFromFile( filename, db_version );
+         if ( sid >= 0 ) DistoXOpenHelper.analyzeIfNeeded( myDB );
+         return sid;
+       }
+     }, -1L );
+   }
+
    /** load survey data from a sql file
     * @param filename    name of the sql file
     * @param db_version  current database version
     */
-   long loadFromFile( String filename, int db_version )
+   private long doLoadFromFile( String filename, int db_version )
    {
      boolean success = false; // whether the load is successful
      long sid = -1;
@@ -5828,6 +6253,170 @@ public class DataHelper extends DataSetObservable
      return (success ? sid : -sid );
    }
 
+   /** dump survey data to a binary file
+    * @param filename    name of the binary file
+    * @param sid         survey ID
+    * @return true if successful
+    */
+   boolean dumpToBinaryFile( String filename, long sid )
+   {
+     if ( myDB == null ) return false;
+     boolean ret = false;
+     OutputStream os = null;
+     String[] args = new String[] { Long.toString( sid ) };
+     try {
+       TDPath.checkPath( filename );
+       os = new BufferedOutputStream( TDFile.getFileOutputStream( filename ) ); // DistoX-SAF
+       SurveyDump.Writer writer = new SurveyDump.Writer( os, TDVersion.DATABASE_VERSION );
+       for ( SurveyDump.Table table : mDumpTables ) {
+         writer.beginTable( table );
+         Cursor cursor = myDB.query( table.name, table.columns, ( table == mDumpTables[0] )? "id=?" : "surveyId=?", args, null, null, null );
+         try {
+           int nr = table.columns.length;
+           while ( cursor.moveToNext() ) {
+             for ( int k = 0; k < nr; ++k ) {
+               switch ( table.types[k] ) {
+                 case SurveyDump.LONG:   writer.putLong( cursor.getLong( k ) ); break;
+                 case SurveyDump.DOUBLE: writer.putDouble( cursor.getDouble( k ) ); break;
+                 default:                writer.putString( cursor.getString( k ) );
+               }
+             }
+             writer.endRow();
+           }
+         } finally {
+           if ( ! cursor.isClosed() ) cursor.close();
+         }
+         writer.endTable();
+       }
+       writer.finish();
+       ret = true;
+     } catch ( SQLiteException e ) { logError( "binary dump", e );
+     } catch ( IOException e ) { TDLog.Error( "binary dump " + filename + " " + e.getMessage() );
+     } finally {
+       if ( os != null ) try { os.close(); } catch ( IOException e ) { ret = false; }
+     }
+     return ret;
+   }
+
+   /** load survey data from a binary file, by the database writer
+    * @param filename    name of the binary file
+    * @return survey ID if successful, minus survey ID otherwise
+    */
+   long loadFromBinaryFile( final String filename )
+   {
+     return mWriter.call( new Callable< Long >() {
+       @Override public Long call() {
+         long sid = doLoadFromBinaryFile( filename );
+         if ( sid >= 0 ) DistoXOpenHelper.analyzeIfNeeded( myDB );
+         return sid;
+       }
+     }, -1L );
+   }
+
+   /** load survey data from a binary file
+    * @param filename    name of the binary file
+    * @return survey ID if successful, minus survey ID otherwise
+    * @note the columns are matched by name: the columns of the dump that are not in the current tables are skipped,
+    *       those of the current tables that are not in the dump get their default values
+    */
+   private long doLoadFromBinaryFile( String filename )
+   {
+     if ( myDB == null ) return -1;
+     boolean success = false; // whether the load is successful
+     long sid = -1;
+     InputStream is = null;
+     try {
+       is = new BufferedInputStream( TDFile.getFileInputStream( filename ) ); // DistoX-SAF
+       SurveyDump.Reader reader = new SurveyDump.Reader( is );
+       SurveyDump.Table table = reader.nextTable();
+       if ( table == null || ! SURVEY_TABLE.equals( table.name ) || ! reader.nextRow() ) throw new IOException( "missing survey" );
+       int kname = table.indexOf( "name" );
+       int kmode = table.indexOf( "datamode" );
+       if ( kname < 0 || table.types[kname] != SurveyDump.STRING ) throw new IOException( "missing survey name" );
+       int datamode = ( kmode >= 0 && table.types[kmode] == SurveyDump.LONG )? (int)reader.longs[kmode] : SurveyInfo.DATAMODE_NORMAL;
+       sid = setSurvey( reader.strings[kname], datamode );
+
+       ContentValues cv = new ContentValues();
+       int[] index = dumpColumns( mDumpTables[0], table );
+       for ( int k = 0; k < index.length; ++k ) {
+         if ( index[k] < 0 || k == kname || k == kmode ) continue;
+         switch ( table.types[k] ) {
+           case SurveyDump.LONG:   cv.put( table.columns[k], reader.longs[k] ); break;
+           case SurveyDump.DOUBLE: cv.put( table.columns[k], reader.doubles[k] ); break;
+           default:                cv.put( table.columns[k], reader.strings[k] );
+         }
+       }
+       while ( reader.nextRow() ) { } // a dump has a single survey
+
+       try {
+         myDB.beginTransaction();
+         if ( cv.size() > 0 ) myDB.update( SURVEY_TABLE, cv, "id=?", new String[]{ Long.toString(sid) } );
+         while ( ( table = reader.nextTable() ) != null ) {
+           SurveyDump.Table known = null;
+           for ( int j = 1; j < mDumpTables.length; ++j ) if ( mDumpTables[j].name.equals( table.name ) ) known = mDumpTables[j];
+           if ( known == null ) { // unknown table: skip its rows
+             while ( reader.nextRow() ) { }
+             continue;
+           }
+           index = dumpColumns( known, table );
+           StringBuilder sql1 = new StringBuilder( "INSERT INTO " ).append( table.name ).append( " ( surveyId" );
+           StringBuilder sql2 = new StringBuilder( " ) VALUES ( ?" );
+           for ( int k = 0; k < index.length; ++k ) {
+             if ( index[k] < 0 ) continue;
+             sql1.append( ", " ).append( table.columns[k] );
+             sql2.append( ", ?" );
+           }
+           SQLiteStatement stmt = myDB.compileStatement( sql1.append( sql2 ).append( " )" ).toString() );
+           try {
+             while ( reader.nextRow() ) {
+               stmt.bindLong( 1, sid );
+               int pos = 2;
+               for ( int k = 0; k < index.length; ++k ) {
+                 if ( index[k] < 0 ) continue;
+                 switch ( table.types[k] ) {
+                   case SurveyDump.LONG:   stmt.bindLong( pos, reader.longs[k] ); break;
+                   case SurveyDump.DOUBLE: stmt.bindDouble( pos, reader.doubles[k] ); break;
+                   default:
+                     if ( reader.strings[k] == null ) { stmt.bindNull( pos ); } else { stmt.bindString( pos, reader.strings[k] ); }
+                 }
+                 ++ pos;
+               }
+               stmt.executeInsert();
+             }
+           } finally {
+             stmt.close();
+           }
+         }
+         myDB.setTransactionSuccessful();
+         success = true;
+       } catch ( SQLiteDiskIOException e )  { handleDiskIOError( e );
+       } catch ( SQLiteException e1 )       { logError("survey load", e1 ); 
+       } catch ( IllegalStateException e2 ) { logError("survey load", e2 );
+       } finally { myDB.endTransaction(); }
+     } catch ( IOException e ) { 
+       TDLog.Error( "binary load " + filename + " " + e.getMessage() );
+     } finally {
+       if ( is != null ) try { is.close(); } catch ( IOException e ) { }
+     }
+     return (success ? sid : -sid );
+   }
+
+   /** match the columns of a dump table to the known columns
+    * @param known   known table
+    * @param table   dump table
+    * @return for each column of the dump table the index of the known column, or -1 if the column is not known
+    *         or its type differs
+    */
+   private static int[] dumpColumns( SurveyDump.Table known, SurveyDump.Table table )
+   {
+     int[] index = new int[ table.columns.length ];
+     for ( int k = 0; k < index.length; ++k ) {
+       int j = known.indexOf( table.columns[k] );
+       index[k] = ( j >= 0 && known.types[j] == table.types[k] )? j : -1;
+     }
+     return index;
+   }
+
    // ----------------------------------------------------------------------
   private ContentValues makeStationContentValues( long sid, String name, String comment, long flag, String presentation )
   {
@@ -6128,6 +6717,8 @@ public class DataHelper extends DataSetObservable
   private static class DistoXOpenHelper // extends SQLiteOpenHelper
   {
      private static final String create_table = "CREATE TABLE IF NOT EXISTS ";
+     private static final String create_index = "CREATE INDEX IF NOT EXISTS ";
+     private static final String create_trigger = "CREATE TRIGGER IF NOT EXISTS ";
 
      // DistoXOpenHelper(Context context, String db_name ) 
      // {
@@ -6175,7 +6766,9 @@ public class DataHelper extends DataSetObservable
             +   " init_station TEXT, "  // initial station
             +   " xsections INTEGER, "  // whether xsections are shared or private
             +   " datamode INTEGER, "   // datamode: normal or diving
-            +   " extend INTEGER "      // ???
+            +   " extend INTEGER, "     // ???
+            +   " shot_version INTEGER default 0, " // version of the last change of the survey shots
+            +   " shot_reset INTEGER default 0 "    // version of the last removal of a survey shot
             +   ")"
           );
 
@@ -6201,7 +6794,8 @@ public class DataHelper extends DataSetObservable
             +   " millis INTEGER, "   // timestamp
             +   " color INTEGER, "     // custom color
             +   " stretch REAL default 0, " // extend stretch, default ExtendType.STRETCH_NONE
-            +   " address TEXT default \"\" " // distox address
+            +   " address TEXT default \"\", " // distox address
+            +   " version INTEGER default 0 " // survey shots version of the last change of the shot
             // +   " surveyId REFERENCES " + SURVEY_TABLE + "(id)"
             // +   " ON DELETE CASCADE "
             +   ")"
@@ -6353,6 +6947,10 @@ public class DataHelper extends DataSetObservable
           //   + " END;"
           // );
 
+          createIndexes( db ); // the index statistics are collected when the tables have data: see analyzeIfNeeded
+          createShotVersions( db );
+          createSurveyStats( db );
+
           db.setTransactionSuccessful();
           db.endTransaction();
         // } catch ( SQLiteDiskIOException e ) { handleDiskIOError( e );
@@ -6362,6 +6960,190 @@ public class DataHelper extends DataSetObservable
         }
      }
 
+     /** create the indexes of the survey tables
+      * @param db   database
+      * @note the queries select the rows of a survey by ID, by station name, or by shot ID.
+      *       The (surveyId, status, id) index serves also the "order by id" of the shot lists.
+      *       The tables have no primary key, because old databases may have duplicate rows.
+      */
+     private static void createIndexes( SQLiteDatabase db )
+     {
+       db.execSQL( create_index + "shots_sid_id ON "        + SHOT_TABLE    + " ( surveyId, id )" );
+       db.execSQL( create_index + "shots_sid_from ON "      + SHOT_TABLE    + " ( surveyId, fStation )" );
+       db.execSQL( create_index + "shots_sid_to ON "        + SHOT_TABLE    + " ( surveyId, tStation )" );
+       db.execSQL( create_index + "shots_sid_status ON "    + SHOT_TABLE    + " ( surveyId, status, id )" );
+       db.execSQL( create_index + "plots_sid_id ON "        + PLOT_TABLE    + " ( surveyId, id )" );
+       db.execSQL( create_index + "plots_sid_name ON "      + PLOT_TABLE    + " ( surveyId, name )" );
+       db.execSQL( create_index + "photos_sid_id ON "       + PHOTO_TABLE   + " ( surveyId, id )" );
+       db.execSQL( create_index + "photos_sid_shot ON "     + PHOTO_TABLE   + " ( surveyId, shotId )" );
+       db.execSQL( create_index + "sensors_sid_id ON "      + SENSOR_TABLE  + " ( surveyId, id )" );
+       db.execSQL( create_index + "sensors_sid_shot ON "    + SENSOR_TABLE  + " ( surveyId, shotId )" );
+       db.execSQL( create_index + "audios_sid_id ON "       + AUDIO_TABLE   + " ( surveyId, id )" );
+       db.execSQL( create_index + "audios_sid_shot ON "     + AUDIO_TABLE   + " ( surveyId, shotId )" );
+       db.execSQL( create_index + "stations_sid_name ON "   + STATION_TABLE + " ( surveyId, name )" );
+       db.execSQL( create_index + "fixeds_sid_id ON "       + FIXED_TABLE   + " ( surveyId, id )" );
+       db.execSQL( create_index + "fixeds_sid_station ON "  + FIXED_TABLE   + " ( surveyId, station )" );
+     }
+
+     private static final long ANALYZE_MIN_SHOTS = 500; // number of shots for the first index statistics
+
+     /** collect the index statistics, if the database has none and it has enough shots
+      * @param db   database
+      * @return true if the statistics have been collected
+      * @note ANALYZE on the empty tables of a new database collects no statistics, and without statistics the
+      *       planner does not use the station indexes: the statistics are collected at the first opening, or
+      *       import, with ANALYZE_MIN_SHOTS shots
+      */
+     static boolean analyzeIfNeeded( SQLiteDatabase db )
+     {
+       try {
+         if ( longQuery( db, "SELECT count() FROM sqlite_master WHERE type='table' AND name='sqlite_stat1'" ) > 0
+           && longQuery( db, "SELECT count() FROM sqlite_stat1 WHERE tbl='" + SHOT_TABLE + "'" ) > 0 ) return false;
+         if ( longQuery( db, "SELECT count() FROM " + SHOT_TABLE ) < ANALYZE_MIN_SHOTS ) return false;
+         db.execSQL( "ANALYZE" );
+         return true;
+       } catch ( SQLiteException e ) {
+         TDLog.Error( "ERROR DB analyze: " + e.getMessage() );
+       }
+       return false;
+     }
+
+     /** @return the value of a query that returns a single number
+      * @param db    database
+      * @param query query
+      */
+     private static long longQuery( SQLiteDatabase db, String query )
+     {
+       long ret = 0;
+       Cursor cursor = db.rawQuery( query, null );
+       if (cursor.moveToFirst()) ret = cursor.getLong(0);
+       if ( /* cursor != null && */ !cursor.isClosed()) cursor.close();
+       return ret;
+     }
+
+     /** create the triggers that keep the shots versions, and the index of the shot versions
+      * @param db   database
+      * @note each write of a shot increments the shots version of the survey, and sets the version of the shot.
+      *       The removal of a shot (delete, move to another survey, change of ID) sets also the reset version
+      *       of the survey, because the removed shot cannot be listed among the changed shots.
+      */
+     private static void createShotVersions( SQLiteDatabase db )
+     {
+       String bump    = " UPDATE " + SURVEY_TABLE + " SET shot_version=shot_version+1 WHERE id=NEW.surveyId; ";
+       String version = " UPDATE " + SHOT_TABLE + " SET version=IFNULL( ( SELECT shot_version FROM " + SURVEY_TABLE + " WHERE id=NEW.surveyId ), 0 ) WHERE rowid=NEW.rowid; ";
+       String reset   = " UPDATE " + SURVEY_TABLE + " SET shot_version=shot_version+1, shot_reset=shot_version+1 WHERE id=OLD.surveyId";
+       db.execSQL( create_trigger + "shots_version_insert AFTER INSERT ON " + SHOT_TABLE
+                 + " BEGIN" + bump + version + "END" );
+       db.execSQL( create_trigger + "shots_version_update AFTER UPDATE ON " + SHOT_TABLE + " WHEN NEW.version IS OLD.version"
+                 + " BEGIN" + bump + version + reset + " AND ( OLD.surveyId<>NEW.surveyId OR OLD.id<>NEW.id ); END" );
+       db.execSQL( create_trigger + "shots_version_delete AFTER DELETE ON " + SHOT_TABLE
+                 + " BEGIN" + reset + "; END" );
+       db.execSQL( create_index + "shots_sid_version ON " + SHOT_TABLE + " ( surveyId, version )" );
+     }
+
+     /** @return the SQL condition of a NORMAL leg with a given flag
+      * @param r     row prefix ("NEW.", "OLD.", or empty)
+      * @param flag  leg flag: 0 leg, 1 surface, 2 duplicate
+      */
+     private static String statsLeg( String r, int flag )
+     {
+       return r + "status=0 AND " + r + "fStation!='' AND " + r + "tStation!='' AND " + r + "flag=" + flag;
+     }
+
+     /** @return the SQL values of the survey stats of a shot, in the order of the sum columns of the survey stats table
+      * @param r     row prefix ("NEW.", "OLD.", or empty)
+      * @param sum   SQL sum function (SUM), or empty for a single row
+      */
+     private static String[] statsValues( String r, String sum )
+     {
+       String splay = r + "status=0 AND " + r + "flag=0 AND " + r + "fStation!='' AND " + r + "tStation=''";
+       String mgd   = r + "status=0 AND " + r + "acceleration>1";
+       String[] ret = new String[ 14 ];
+       ret[0] = "CASE WHEN " + splay + " THEN 1 ELSE 0 END";
+       for ( int flag = 0; flag < 3; ++ flag ) {
+         ret[1+2*flag] = "CASE WHEN " + statsLeg( r, flag ) + " THEN 1 ELSE 0 END";
+         ret[2+2*flag] = "CASE WHEN " + statsLeg( r, flag ) + " THEN IFNULL( " + r + "distance, 0 ) ELSE 0 END";
+       }
+       ret[7] = "CASE WHEN " + mgd + " THEN 1 ELSE 0 END";
+       String[] mgd_fields = { "acceleration", "magnetic", "dip" };
+       for ( int k = 0; k < 3; ++ k ) {
+         String value = "IFNULL( " + r + mgd_fields[k] + ", 0 )";
+         ret[8+k]  = "CASE WHEN " + mgd + " THEN " + value + " ELSE 0 END";
+         ret[11+k] = "CASE WHEN " + mgd + " THEN " + value + "*" + value + " ELSE 0 END";
+       }
+       for ( int k = 0; k < 14; ++ k ) ret[k] = sum + "( " + ret[k] + " )";
+       return ret;
+     }
+
+     /** @return the SQL statements to add or subtract a shot to the survey stats
+      * @param r    row ("NEW" or "OLD")
+      * @param op   operation ("+" or "-")
+      */
+     private static String statsUpdate( String r, String op )
+     {
+       String[] values = statsValues( r + ".", "" );
+       StringBuilder sb = new StringBuilder();
+       sb.append( " INSERT OR IGNORE INTO " ).append( STATS_TABLE ).append( " ( surveyId ) VALUES ( " ).append( r ).append( ".surveyId );" );
+       sb.append( " UPDATE " ).append( STATS_TABLE ).append( " SET " );
+       for ( int k = 0; k < 14; ++ k ) {
+         if ( k > 0 ) sb.append( ", " );
+         sb.append( mStatsFields[k] ).append( "=" ).append( mStatsFields[k] ).append( op ).append( values[k] );
+       }
+       sb.append( " WHERE surveyId=" ).append( r ).append( ".surveyId; " );
+       return sb.toString();
+     }
+
+     /** create the survey stats table, and the triggers that keep it, and fill it with the stats of the shots
+      * @param db   database
+      * @note each write of a shot subtracts the old row and adds the new row to the sums of the survey:
+      *       counts and lengths of the NORMAL legs by flag, count of the NORMAL splays, and the sums of G, M, dip and of
+      *       their squares over the NORMAL shots with G above 1.
+      *       The leg stats that need the legs graph or the clino (stations, loops, components, extended and plan lengths)
+      *       are cached by getSurveyStat, and are valid only if legs_version is the shots version of the survey.
+      */
+     private static void createSurveyStats( SQLiteDatabase db )
+     {
+       db.execSQL(
+           create_table + STATS_TABLE
+         + " ( surveyId INTEGER PRIMARY KEY, "
+         +   " count_splay INTEGER default 0, "
+         +   " count_leg INTEGER default 0, "
+         +   " length_leg REAL default 0, "
+         +   " count_surface INTEGER default 0, "
+         +   " length_surface REAL default 0, "
+         +   " count_duplicate INTEGER default 0, "
+         +   " length_duplicate REAL default 0, "
+         +   " nr_mgd INTEGER default 0, "
+         +   " sum_g REAL default 0, "
+         +   " sum_m REAL default 0, "
+         +   " sum_d REAL default 0, "
+         +   " sum_g2 REAL default 0, "
+         +   " sum_m2 REAL default 0, "
+         +   " sum_d2 REAL default 0, "
+         +   " legs_version INTEGER default -1, " // shots version of the cached leg stats
+         +   " ext_length REAL default 0, "
+         +   " plan_length REAL default 0, "
+         +   " count_station INTEGER default 0, "
+         +   " count_loop INTEGER default 0, "
+         +   " count_component INTEGER default 0 "
+         +   ")"
+       );
+       db.execSQL( create_trigger + "shots_stats_insert AFTER INSERT ON " + SHOT_TABLE
+                 + " BEGIN" + statsUpdate( "NEW", "+" ) + "END" );
+       db.execSQL( create_trigger + "shots_stats_update AFTER UPDATE OF "
+                 + "surveyId, fStation, tStation, distance, acceleration, magnetic, dip, flag, status ON " + SHOT_TABLE
+                 + " BEGIN" + statsUpdate( "OLD", "-" ) + statsUpdate( "NEW", "+" ) + "END" );
+       db.execSQL( create_trigger + "shots_stats_delete AFTER DELETE ON " + SHOT_TABLE
+                 + " BEGIN" + statsUpdate( "OLD", "-" ) + "END" );
+
+       StringBuilder sb = new StringBuilder();
+       sb.append( "INSERT OR REPLACE INTO " ).append( STATS_TABLE ).append( " ( surveyId" );
+       for ( int k = 0; k < 14; ++ k ) sb.append( ", " ).append( mStatsFields[k] );
+       sb.append( " ) SELECT surveyId" );
+       for ( String value : statsValues( "", "SUM" ) ) sb.append( ", " ).append( value );
+       sb.append( " FROM " ).append( SHOT_TABLE ).append( " GROUP BY surveyId" );
+       db.execSQL( sb.toString() );
+     }
 
      static void updateTables( SQLiteDatabase db, int oldVersion, int newVersion)
      {
@@ -6452,6 +7234,16 @@ public class DataHelper extends DataSetObservable
 	   case 45:
              db.execSQL( "ALTER TABLE stations ADD COLUMN presentation TEXT default NIL" ); // down
 	   case 46:
+             createIndexes( db );
+             db.execSQL( "ANALYZE" ); // index statistics: the survey ID alone is not selective when the database has many surveys
+	   case 47:
+             db.execSQL( "ALTER TABLE surveys ADD COLUMN shot_version INTEGER default 0" );
+             db.execSQL( "ALTER TABLE surveys ADD COLUMN shot_reset INTEGER default 0" );
+             db.execSQL( "ALTER TABLE shots ADD COLUMN version INTEGER default 0" );
+             createShotVersions( db );
+	   case 48:
+             createSurveyStats( db );
+	   case 49:
              // TDLog.v( "current version " + oldVersion );
            default:
              break;
@@ -0,0 +1,108 @@
+/* @file DataWriter.java
+ *
+ * @author marco corvi
+ * @date oct 2026
+ *
+ * @brief TopoDroid single-writer executor of the database
+ * --------------------------------------------------------
+ *  Copyright This software is distributed under GPL-3.0 or later
+ *  See the file COPYING.
+ * --------------------------------------------------------
+ * The writes submitted to the executor run one at a time, in order of submission, on the writer thread.
+ * A write submitted from the writer thread runs at once, so that a write can use other writes.
+ * With the write-ahead log the reads do not wait for the writer.
+ * The shot writes of DataHelper (inserts, downloaded shots, edits through the compiled shot statements),
+ * the writes through the generic update, insert and SQL helpers, the shot import and the survey restore run on the writer,
+ * and the caller waits on the future of the write. The compiled shot statements are bound and executed only on the writer.
+ * The other writes of DataHelper (plots, fixeds, photos, survey deletion ...) run on the calling thread,
+ * and the database connection serializes them with the writer.
+ */
+package com.topodroid.TDX;
+
+import com.topodroid.utils.TDLog;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+public class DataWriter
+{
+  private static final long CLOSE_WAIT = 10; // max wait of the pending writes at close [sec]
+
+  private final ExecutorService mExecutor;
+  private volatile Thread mThread = null; // writer thread
+
+  /** cstr
+   */
+  DataWriter()
+  {
+    mExecutor = Executors.newSingleThreadExecutor( new ThreadFactory() {
+      @Override public Thread newThread( Runnable r ) {
+        Thread thread = new Thread( r, "TopoDroid DB writer" );
+        thread.setDaemon( true );
+        mThread = thread;
+        return thread;
+      }
+    } );
+  }
+
+  /** @return true if the current thread is the writer thread
+   */
+  public boolean isWriterThread() { return Thread.currentThread() == mThread; }
+
+  /** submit a write
+   * @param write   write
+   * @return the future result of the write
+   * @note after the executor is closed the write runs on the current thread
+   */
+  public < T > Future< T > submit( Callable< T > write )
+  {
+    if ( ! isWriterThread() ) {
+      try {
+        return mExecutor.submit( write );
+      } catch ( RejectedExecutionException e ) {
+        TDLog.e( "DB writer: closed executor" );
+      }
+    }
+    FutureTask< T > task = new FutureTask<>( write );
+    task.run();
+    return task;
+  }
+
+  /** run a write and wait for it
+   * @param write   write
+   * @param fail    result in case of failure
+   * @return the result of the write
+   */
+  public < T > T call( Callable< T > write, T fail )
+  {
+    try {
+      return submit( write ).get();
+    } catch ( ExecutionException e ) {
+      TDLog.Error( "DB writer: failed write " + e.getCause() );
+    } catch ( InterruptedException e ) {
+      TDLog.Error( "DB writer: interrupted wait " + e.getMessage() );
+      Thread.currentThread().interrupt();
+    }
+    return fail;
+  }
+
+  /** close the executor, after the pending writes
+   */
+  void close()
+  {
+    mExecutor.shutdown();
+    try {
+      if ( ! mExecutor.awaitTermination( CLOSE_WAIT, TimeUnit.SECONDS ) ) TDLog.e( "DB writer: pending writes at close" );
+    } catch ( InterruptedException e ) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+}
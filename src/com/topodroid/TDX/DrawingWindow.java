@@ -465,6 +465,7 @@ public class DrawingWindow extends ItemDrawer
   // String getSurvey() { return TDInstance.survey; }
 
   private TDNum mNum;
+  private boolean mNumShared = false; // whether mNum is the shared reduction of the cache, that must not be modified
   private float mDecl;
   private String mFormatClosure;  // loop closure report format
   // private int nr_multi_bad;    // number of bad-sibling leg shots - TODO move to TDNum
@@ -813,6 +814,18 @@ public class DrawingWindow extends ItemDrawer
     }
   }
 
+  /** @return the reduction of the survey shots, shared by the cache
+   * @note the reduction is read-only: it is replaced by a private one before the downloaded data are appended,
+   *       or the hidden and barrier stations are changed. The references are computed reading the reduction
+   */
+  private TDNum sharedNum()
+  {
+    mNumShared = true;
+    TDNum num = TDNumCache.get( mApp_mData, mSid, mPlot1.start, mPlot1.view, mPlot1.hide, mDecl, mFormatClosure );
+    if ( num != null ) return num;
+    return new TDNum( new ArrayList< DBlock >(), mPlot1.start, mPlot1.view, mPlot1.hide, mDecl, mFormatClosure ); // survey without shots
+  }
+
   /** change the origin of the plot
    * @param station   name of the new origin
    */
@@ -821,12 +834,11 @@ public class DrawingWindow extends ItemDrawer
     if ( PlotType.isAnySection( mType ) ) return;
     mApp_mData.updatePlotOrigin( TDInstance.sid, mPid1, station );
     mApp_mData.updatePlotOrigin( TDInstance.sid, mPid2, station );
-    List< DBlock > list = mApp_mData.selectAllShots( mSid, TDStatus.NORMAL );
     String old_station = mPlot1.start;
     mPlot1.start = station;
     mPlot2.start = station;
     mMultiBad = new ArrayList< StringPair >();
-    mNum = new TDNum( list, mPlot1.start, mPlot1.view, mPlot1.hide, mDecl, mFormatClosure );
+    mNum = sharedNum();
     if ( TDSetting.mLoopClosure == TDSetting.LOOP_SELECTIVE ) setMenuImageRed( mNum.nrInaccurateLoops > 0 );
     computeReferences( mNum, mPlot2.type, mPlot2.name, mZoom, false );
     computeReferences( mNum, mPlot1.type, mPlot1.name, mZoom, false );
@@ -3372,7 +3384,7 @@ public class DrawingWindow extends ItemDrawer
       if ( list.size() > 0 ) {
         // TDLog.v( "data reduction " + list.size() + " start at " + mPlot1.start );
         mMultiBad = new ArrayList< StringPair >();
-        mNum = new TDNum( list, mPlot1.start, mPlot1.view, mPlot1.hide, mDecl, mFormatClosure );
+        mNum = sharedNum();
         if ( TDSetting.mLoopClosure == TDSetting.LOOP_SELECTIVE ) setMenuImageRed( mNum.nrInaccurateLoops > 0 );
       } else {
         mNum = null;
@@ -3664,9 +3676,8 @@ public class DrawingWindow extends ItemDrawer
     // TDLog.v("recomputeProfileReference " + ( (mLastLinePath != null)? mLastLinePath.mLineType : "null" ) );
     assert( mLastLinePath == null );
     if ( mType == PlotType.PLOT_EXTENDED ) { 
-      List< DBlock > list = mApp_mData.selectAllShots( mSid, TDStatus.NORMAL );
       mMultiBad = new ArrayList< StringPair >();
-      mNum = new TDNum( list, mPlot1.start, mPlot1.view, mPlot1.hide, mDecl, mFormatClosure );
+      mNum = sharedNum();
       if ( TDSetting.mLoopClosure == TDSetting.LOOP_SELECTIVE ) setMenuImageRed( mNum.nrInaccurateLoops > 0 );
       mDrawingSurface.clearShotsAndStations( (int)mType );
       computeReferences( mNum, (int)mType, mName, TopoDroidApp.mScaleFactor, false );
@@ -5449,7 +5460,11 @@ public class DrawingWindow extends ItemDrawer
     if ( h != 0 ) {
       // TDLog.v("clear shots and stations" );
       mDrawingSurface.clearShotsAndStations( );
-      mNum.setStationHidden( st_name, h );
+      if ( mNumShared ) {
+        mNum = sharedNum(); // with the new hiding list
+      } else {
+        mNum.setStationHidden( st_name, h );
+      }
       recomputeReferences( mNum, mZoom );
     }
   }
@@ -5513,7 +5528,11 @@ public class DrawingWindow extends ItemDrawer
     if ( h != 0 ) {
       // TDLog.v("clear shots and stations" );
       mDrawingSurface.clearShotsAndStations( );
-      mNum.setStationBarrier( st_name, h );
+      if ( mNumShared ) {
+        mNum = sharedNum(); // with the new barrier list
+      } else {
+        mNum.setStationBarrier( st_name, h );
+      }
       recomputeReferences( mNum, mZoom );
     }
   }
@@ -6393,7 +6412,8 @@ public class DrawingWindow extends ItemDrawer
     } else if ( b == mMenuImage ) { // MENU long click
       // TDLog.v("MENU LONG CLICK");
       int bad_loops = mNum.nrInaccurateLoops;
-      if ( mMultiBad.size() == 0 /* && nr_magnetic_bad == 0 */ && mNum.surveyExtend && mNum.surveyAttached && (bad_loops == 0) ) { // nr_multi_bad
+      boolean suspects = TDSetting.mLoopClosure == TDSetting.LOOP_LEAST_SQUARES && mNum.nrCompensatedLoops > 0; // suspect legs of the least-squares loops
+      if ( mMultiBad.size() == 0 /* && nr_magnetic_bad == 0 */ && mNum.surveyExtend && mNum.surveyAttached && (bad_loops == 0) && ! suspects ) { // nr_multi_bad
         onClick( view );
       } else {
         // onClick( view );
@@ -7258,9 +7278,8 @@ public class DrawingWindow extends ItemDrawer
   private void doComputeReferences( boolean reset )
   {
     // TDLog.v( "PLOT compute ref type " + mType + " reset " + reset );
-    List< DBlock > list = mApp_mData.selectAllShots( mSid, TDStatus.NORMAL );
     mMultiBad = new ArrayList< StringPair >();
-    mNum = new TDNum( list, mPlot1.start, mPlot1.view, mPlot1.hide, mDecl, mFormatClosure );
+    mNum = sharedNum();
     if ( TDSetting.mLoopClosure == TDSetting.LOOP_SELECTIVE ) setMenuImageRed( mNum.nrInaccurateLoops > 0 );
     if ( mType == (int)PlotType.PLOT_PLAN ) {
       computeReferences( mNum, mPlot2.type, mPlot2.name, TopoDroidApp.mScaleFactor, true );
@@ -7308,9 +7327,8 @@ public class DrawingWindow extends ItemDrawer
       doRestart();
       updateSplays( mApp.mSplayMode );
     } else {
-      List< DBlock > list = mApp_mData.selectAllShots( mSid, TDStatus.NORMAL );
       mMultiBad = new ArrayList< StringPair >();
-      TDNum num = new TDNum( list, mPlot1.start, mPlot1.view, mPlot1.hide, mDecl, mFormatClosure );
+      TDNum num = sharedNum();
       if ( TDSetting.mLoopClosure == TDSetting.LOOP_SELECTIVE ) setMenuImageRed( num.nrInaccurateLoops > 0 );
       recomputeReferences( num, TopoDroidApp.mScaleFactor );
       mNum = num;
@@ -7324,13 +7342,14 @@ public class DrawingWindow extends ItemDrawer
   private void incrementalUpdateDisplay( long blk_id, boolean got_leg )
   {
     if ( mType != (int)PlotType.PLOT_PLAN && ! PlotType.isProfile( mType ) ) return;
-    if ( mNum == null ) {
+    if ( mNum == null || mNumShared ) { // the downloaded data are appended to a private reduction
       List< DBlock > list = mApp_mData.selectAllShots( mSid, TDStatus.NORMAL );
       mMultiBad = new ArrayList< StringPair >();
       TDNum num = new TDNum( list, mPlot1.start, mPlot1.view, mPlot1.hide, mDecl, mFormatClosure );
       if ( TDSetting.mLoopClosure == TDSetting.LOOP_SELECTIVE ) setMenuImageRed( num.nrInaccurateLoops > 0 );
       recomputeReferences( num, TopoDroidApp.mScaleFactor );
       mNum = num;
+      mNumShared = false;
     } else {
       DBlock blk = mApp_mData.selectShot( blk_id, mSid );
       DBlock leg = got_leg ? mApp_mData.selectLastLegShot( mSid ) : null;
@@ -7348,7 +7367,9 @@ public class DrawingWindow extends ItemDrawer
           NumStation st1 = sh.from;
           NumStation st2 = sh.to;
           NumStation st0 = StationPolicy.isSurveyBackward() ? st1 : st2;
-          if ( st1.show() && st2.show() ) {
+          if ( mNum.hasMovedStations() ) { // the leg closed a loop: the stations have been moved in place
+            recomputeReferences( mNum, TopoDroidApp.mScaleFactor );
+          } else if ( st1.show() && st2.show() ) {
             // DBlock blk1 = sh.getFirstBlock(); // same as leg
             // TDLog.v("DATA " + "LEG blk " + blk.mId + " blk1 " + blk1.mId + " leg " + leg.mId );
             appendFixedLine( PlotType.PLOT_PLAN, leg, st1.e, st1.s, st2.e, st2.s, sh.getReducedExtend(), false, true );
@@ -7641,7 +7662,7 @@ public class DrawingWindow extends ItemDrawer
             if ( isProfileProjected() ) {
               azimuth = mPlot2.azimuth;
             }
-            new DrawingStatDialog( mActivity, mNum, mPlot1.start, azimuth, mApp_mData.getSurveyStat( TDInstance.sid ) ).show();
+            new DrawingStatDialog( mActivity, mNum, mPlot1.start, azimuth, mApp_mData.getSurveyStat( TDInstance.sid, false ) ).show();
           } else {
             TDToast.makeBad( R.string.no_data_reduction );
 	  }
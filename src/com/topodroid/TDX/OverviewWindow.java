@@ -19,11 +19,9 @@ import com.topodroid.utils.TDsafUri;
 import com.topodroid.utils.TDStatus;
 import com.topodroid.utils.TDColor;
 import com.topodroid.utils.TDLocale;
-import com.topodroid.utils.TDUtil;
 import com.topodroid.num.TDNum;
 import com.topodroid.num.NumStation;
-import com.topodroid.num.NumShot;
-import com.topodroid.num.NumSplay;
+import com.topodroid.num.NumColumns;
 import com.topodroid.math.Point2D;
 import com.topodroid.ui.MyButton;
 import com.topodroid.ui.MyHorizontalListView;
@@ -320,20 +318,19 @@ public class OverviewWindow extends ItemDrawer
     }
 
     List< NumStation > stations = mNum.getStations();
-    List< NumShot >    shots    = mNum.getShots();
-    List< NumSplay >   splays   = mNum.getSplays();
-    // TDLog.v( "Overview stations " + stations.size() + " shots " + shots.size() + " splays " + splays.size() );
+    NumColumns cols = mNum.getColumns(); // legs and splays
+    // TDLog.v( "Overview stations " + stations.size() + " shots " + cols.legNr + " splays " + cols.splayNr );
 
     if ( type == PlotType.PLOT_PLAN ) {
-      for ( NumShot sh : shots ) {
-        NumStation st1 = sh.from;
-        NumStation st2 = sh.to;
-        addFixedLine( sh.getFirstBlock(), st1.e, st1.s, st2.e, st2.s ); // xoff, yoff
+      for ( int k = 0; k < cols.legNr; ++k ) {
+        int i1 = cols.legFrom[k];
+        int i2 = cols.legTo[k];
+        addFixedLine( cols.legBlock[k], cols.e[i1], cols.s[i1], cols.e[i2], cols.s[i2] ); // xoff, yoff
       }
-      for ( NumSplay sp : splays ) {
-        if ( Math.abs( sp.getBlock().mClino ) < TDSetting.mSplayVertThrs ) {
-          NumStation st = sp.from;
-          addFixedSplayLine( sp.getBlock(), st.e, st.s, sp.e, sp.s ); // xoff, yoff
+      for ( int k = 0; k < cols.splayNr; ++k ) {
+        if ( Math.abs( cols.splayBlock[k].mClino ) < TDSetting.mSplayVertThrs ) {
+          int i = cols.splayFrom[k];
+          addFixedSplayLine( cols.splayBlock[k], cols.e[i], cols.s[i], cols.splayE[k], cols.splayS[k] ); // xoff, yoff
         }
       }
       for ( NumStation st : stations ) {
@@ -343,16 +340,16 @@ public class OverviewWindow extends ItemDrawer
         dst = mOverviewSurface.addDrawingStationName( null, st, DrawingUtil.toSceneX(st.e,st.s), DrawingUtil.toSceneY(st.e,st.s), true, null, null );
       }
     } else { // if ( PlotType.isProfile( type ) // FIXME OK PROFILE
-      for ( NumShot sh : shots ) {
-        if  ( ! sh.mIgnoreExtend ) {
-          NumStation st1 = sh.from;
-          NumStation st2 = sh.to;
-          addFixedLine( sh.getFirstBlock(), st1.h, st1.v, st2.h, st2.v ); // xoff, yoff
+      for ( int k = 0; k < cols.legNr; ++k ) {
+        if  ( ! cols.legIgnoreExtend[k] ) {
+          int i1 = cols.legFrom[k];
+          int i2 = cols.legTo[k];
+          addFixedLine( cols.legBlock[k], cols.h[i1], cols.v[i1], cols.h[i2], cols.v[i2] ); // xoff, yoff
         }
       } 
-      for ( NumSplay sp : splays ) {
-        NumStation st = sp.from;
-        addFixedSplayLine( sp.getBlock(), st.h, st.v, sp.h, sp.v ); // xoff, yoff
+      for ( int k = 0; k < cols.splayNr; ++k ) {
+        int i = cols.splayFrom[k];
+        addFixedSplayLine( cols.splayBlock[k], cols.h[i], cols.v[i], cols.splayH[k], cols.splayV[k] ); // xoff, yoff
       }
       for ( NumStation st : stations ) {
         DrawingStationName dst;
@@ -382,8 +379,6 @@ public class OverviewWindow extends ItemDrawer
     private Button     mMenuImage;
     private boolean onMenu;
 
-    private List< DBlock > mBlockList = null;
-  
     public float zoom() { return mZoom; }
 
 
@@ -583,14 +578,7 @@ public class OverviewWindow extends ItemDrawer
   private void doStart()
   {
     // TDLog.Log( TDLog.LOG_PLOT, "do Start " + mName1 + " " + mName2 );
-    // mBlockList = mData.selectAllLegShots( mSid, TDStatus.NORMAL );
-    mBlockList = mData.selectAllShots( mSid, TDStatus.NORMAL );
-    if ( TDUtil.isEmpty(mBlockList) ) {
-      TDToast.makeBad( R.string.few_data );
-      finish();
-    } else {
-      loadFiles( mType ); 
-    }
+    loadFiles( mType ); // the shots are read by the data reduction: loadFiles finishes if there are none
   }
 
 // ----------------------------------------------------------------------------
@@ -629,7 +617,12 @@ public class OverviewWindow extends ItemDrawer
         // mPid = plot.id;
         // NOTE Overview only for plan or extended plots
         // float decl = mData.getSurveyDeclination( mSid );
-        mNum = new TDNum( mBlockList, start, null, null, 0.0f, null ); // null formatClosure
+        mNum = TDNumCache.get( mData, mSid, start, 0.0f ); // shared reduction: not modified
+        if ( mNum == null ) { // the survey has no shots
+          TDToast.makeBad( R.string.few_data );
+          finish();
+          return;
+        }
         mStartStation = mNum.getStation( start );
         // computeReferences( (int)type, mOffset.x, mOffset.y, mZoom );
         computeReferences( (int)type, mZoom );
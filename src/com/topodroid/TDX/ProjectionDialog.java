@@ -13,12 +13,9 @@ package com.topodroid.TDX;
 
 import com.topodroid.utils.TDLog;
 import com.topodroid.utils.TDMath;
-import com.topodroid.utils.TDStatus;
-import com.topodroid.utils.TDUtil;
 import com.topodroid.num.TDNum;
 import com.topodroid.num.NumStation;
-import com.topodroid.num.NumShot;
-import com.topodroid.num.NumSplay;
+import com.topodroid.num.NumColumns;
 import com.topodroid.ui.MyDialog;
 import com.topodroid.ui.MotionEventWrap;
 import com.topodroid.prefs.TDSetting;
@@ -87,7 +84,7 @@ class ProjectionDialog extends MyDialog
   private String mFrom;
   private int  mAzimuth = 0;
 
-  private List< DBlock > mList = null;
+  private double mEc, mSc, mVc; // survey center: the survey is drawn centered
 
   private boolean mETazimuthChanged = false;
 
@@ -228,46 +225,45 @@ class ProjectionDialog extends MyDialog
     float sinp = TDMath.sind( mAzimuth );
 
     List< NumStation > stations = mNum.getStations();
-    List< NumShot > shots       = mNum.getShots();
-    List< NumSplay > splays     = mNum.getSplays();
+    NumColumns cols = mNum.getColumns(); // legs and splays
 
 
     float h1, h2, v1, v2;
     // float dx = 0; // mOffset.x;
     // float dy = 0; // mOffset.y;
-    for ( NumShot sh : shots ) {
-      NumStation st1 = sh.from;
-      NumStation st2 = sh.to;
-      if ( st1.show() && st2.show() ) {
-	double x1 = st1.e * cosp + st1.s * sinp; // - dx;
-	double x2 = st2.e * cosp + st2.s * sinp; // - dx;
-	double y1 = st1.v; // - dy;
-	double y2 = st2.v; // - dy;
+    for ( int k = 0; k < cols.legNr; ++k ) {
+      int i1 = cols.legFrom[k];
+      int i2 = cols.legTo[k];
+      if ( cols.shown[i1] && cols.shown[i2] ) {
+	double x1 = (cols.e[i1] - mEc) * cosp + (cols.s[i1] - mSc) * sinp; // - dx;
+	double x2 = (cols.e[i2] - mEc) * cosp + (cols.s[i2] - mSc) * sinp; // - dx;
+	double y1 = cols.v[i1] - mVc; // - dy;
+	double y2 = cols.v[i2] - mVc; // - dy;
         h1 = DrawingUtil.toSceneX( x1, y1 ); // CENTER_X + x1 * SCALE_FIX = 100 + x1 * 20
         h2 = DrawingUtil.toSceneX( x2, y2 ); // CENTER_Y + Y1 * SCALE_FIX = 120 + y1 * 20
         v1 = DrawingUtil.toSceneY( x1, y1 );
         v2 = DrawingUtil.toSceneY( x2, y2 );
-        addFixedLegLine( sh.getFirstBlock(), h1, v1, h2, v2 );
+        addFixedLegLine( cols.legBlock[k], h1, v1, h2, v2 );
       }
     } 
-    for ( NumSplay sp : splays ) {
-      NumStation st = sp.from;
-      if ( st.show() ) {
-	double x1 = st.e * cosp + st.s * sinp; // - dx;
-	double x2 = sp.e * cosp + sp.s * sinp; // - dx;
-	double y1 = st.v; // - dy;
-	double y2 = sp.v; // - dy;
+    for ( int k = 0; k < cols.splayNr; ++k ) {
+      int i = cols.splayFrom[k];
+      if ( cols.shown[i] ) {
+	double x1 = (cols.e[i] - mEc) * cosp + (cols.s[i] - mSc) * sinp; // - dx;
+	double x2 = (cols.splayE[k] - mEc) * cosp + (cols.splayS[k] - mSc) * sinp; // - dx;
+	double y1 = cols.v[i] - mVc; // - dy;
+	double y2 = cols.splayV[k] - mVc; // - dy;
         h1 = DrawingUtil.toSceneX( x1, y1 );
         h2 = DrawingUtil.toSceneX( x2, y2 );
         v1 = DrawingUtil.toSceneY( x1, y1 );
         v2 = DrawingUtil.toSceneY( x2, y2 );
-        addFixedSplayLine( sp.getBlock(), h1, v1, h2, v2 );
+        addFixedSplayLine( cols.splayBlock[k], h1, v1, h2, v2 );
       }
     }
     for ( NumStation st : stations ) {
       if ( st.show() ) {
-	double x1 = st.e * cosp + st.s * sinp; // - dx;
-	double y1 = st.v; // - dy;
+	double x1 = (st.e - mEc) * cosp + (st.s - mSc) * sinp; // - dx;
+	double y1 = st.v - mVc; // - dy;
         h1 = DrawingUtil.toSceneX( x1, y1 );
         v1 = DrawingUtil.toSceneY( x1, y1 );
         mProjectionSurface.addDrawingStationName( st, h1, v1 );
@@ -443,16 +439,16 @@ class ProjectionDialog extends MyDialog
   {
     // TDLog.v("PROJ set size " + w + " " + h );
     if ( w == 0 || h == 0 ) return;
-    float e1 = DrawingUtil.toSceneX( mNum.surveyEmin(), mNum.surveySmin() );  // CENTER_X + Emin * SCALE referred to upper-left corner
-    float s1 = DrawingUtil.toSceneY( mNum.surveyEmin(), mNum.surveySmin() ); 
-    float e2 = DrawingUtil.toSceneX( mNum.surveyEmax(), mNum.surveySmax() ); 
-    float s2 = DrawingUtil.toSceneY( mNum.surveyEmax(), mNum.surveySmax() ); 
+    float e1 = DrawingUtil.toSceneX( mNum.surveyEmin() - mEc, mNum.surveySmin() - mSc );  // CENTER_X + Emin * SCALE referred to upper-left corner
+    float s1 = DrawingUtil.toSceneY( mNum.surveyEmin() - mEc, mNum.surveySmin() - mSc ); 
+    float e2 = DrawingUtil.toSceneX( mNum.surveyEmax() - mEc, mNum.surveySmax() - mSc ); 
+    float s2 = DrawingUtil.toSceneY( mNum.surveyEmax() - mEc, mNum.surveySmax() - mSc ); 
 
     float de = ( e2 - e1 ) / 2; // ( Emax - Emin)/2 * SCALE
     float ds = ( s2 - s1 ) / 2;
     float dx = (float)Math.sqrt( de*de + ds*ds );
-    float v1 = DrawingUtil.toSceneY( mNum.surveyHmin(), mNum.surveyVmin() );
-    float v2 = DrawingUtil.toSceneY( mNum.surveyHmax(), mNum.surveyVmax() );
+    float v1 = DrawingUtil.toSceneY( mNum.surveyHmin(), mNum.surveyVmin() - mVc );
+    float v2 = DrawingUtil.toSceneY( mNum.surveyHmax(), mNum.surveyVmax() - mVc );
     float dy = ( v2 - v1 ) / 2;
     // mZoom = TopoDroidApp.mScaleFactor;    // canvas zoom = 19.153126, DisplayWidth = 1080, DisplayHeight = 2043
     float zoom = ( (dx > dy)? w / dx :  h / dy ) * TopoDroidApp.mScaleFactor / 100;
@@ -484,14 +480,15 @@ class ProjectionDialog extends MyDialog
    */
   synchronized private void doStart()
   {
-    mList = TopoDroidApp.mData.selectAllShots( mSid, TDStatus.NORMAL );
-    if ( TDUtil.isEmpty(mList) ) {
+    // float decl = mApp.mData.getSurveyDeclination( mSid );
+    mNum = TDNumCache.get( TopoDroidApp.mData, mSid, mFrom, 0.0f ); // shared reduction: not modified, therefore not recentered
+    if ( mNum == null ) {
       dismiss();
       TDToast.makeBad( R.string.few_data );
     } else {
-      // float decl = mApp.mData.getSurveyDeclination( mSid );
-      mNum = new TDNum( mList, mFrom, "", "", 0.0f, null ); // null formatClosure
-      mNum.recenter();
+      mEc = ( mNum.surveyEmin() + mNum.surveyEmax() ) / 2;
+      mSc = ( mNum.surveySmin() + mNum.surveySmax() ) / 2;
+      mVc = ( mNum.surveyVmin() + mNum.surveyVmax() ) / 2;
       mSeekBar.setProgress( 200 );
       if ( mProjectionSurface != null ) {
         setSize( mProjectionSurface.width(), mProjectionSurface.height() );
@@ -18,12 +18,14 @@ import com.topodroid.utils.StringPair;
 import com.topodroid.ui.MyDialog;
 import com.topodroid.num.TDNum;
 import com.topodroid.num.NumCycle;
-// import com.topodroid.prefs.TDSetting;
+import com.topodroid.num.NumBlunder;
+import com.topodroid.prefs.TDSetting;
 
-// import java.lang.ref.WeakReference;
+import java.lang.ref.WeakReference;
 // import java.util.Locale;
 import java.util.List;
 
+import android.os.AsyncTask;
 import android.os.Bundle;
 
 import android.content.Context;
@@ -50,6 +52,11 @@ public class ReductionErrorsDialog extends MyDialog
   private boolean mAttachedBad;
   private int mNrBadLoops;
   private List< NumCycle > mBadLoops;
+  private TDNum mNum;
+  private boolean mSuspects;           // whether to list the suspect legs
+  private ArrayAdapter< String > mLoopAdapter = null;
+
+  private static final int MAX_BLUNDERS = 3; // maximum number of suspect legs that are listed
 
   public ReductionErrorsDialog( Context context, // DrawingWindow parent,
                     List< StringPair > multi_bad, int magnetic_bad, TDNum num )
@@ -63,7 +70,48 @@ public class ReductionErrorsDialog extends MyDialog
     mAttachedBad = ! num.surveyAttached; // attached_bad;
     mNrBadLoops  = num.nrInaccurateLoops;
     mBadLoops    = num.getBadLoops();
-    
+    mNum         = num;
+    mSuspects    = TDSetting.mLoopClosure == TDSetting.LOOP_LEAST_SQUARES && num.nrCompensatedLoops > 0;
+  }
+
+  /** task that ranks the suspect legs off the UI thread
+   */
+  private static class BlunderTask extends AsyncTask< Void, Void, List< NumBlunder > >
+  {
+    private final WeakReference< ReductionErrorsDialog > mDialog;
+    private final TDNum mNum;
+
+    /** cstr
+     * @param dialog   reduction errors dialog
+     * @param num      data reduction
+     */
+    BlunderTask( ReductionErrorsDialog dialog, TDNum num )
+    {
+      mDialog = new WeakReference<>( dialog );
+      mNum    = num;
+    }
+
+    @Override
+    protected List< NumBlunder > doInBackground( Void ... v ) { return mNum.getBlunders(); }
+
+    @Override
+    protected void onPostExecute( List< NumBlunder > blunders )
+    {
+      ReductionErrorsDialog dialog = mDialog.get();
+      if ( dialog != null && dialog.isShowing() ) dialog.addBlunders( blunders );
+    }
+  }
+
+  /** list the most suspect legs
+   * @param blunders   suspect legs, most suspect first
+   */
+  private void addBlunders( List< NumBlunder > blunders )
+  {
+    if ( mLoopAdapter == null ) return;
+    for ( int k = 0; k < blunders.size() && k < MAX_BLUNDERS; ++k ) {
+      NumBlunder blunder = blunders.get( k );
+      mLoopAdapter.add( String.format( mContext.getResources().getString( R.string.loops_suspect ), blunder.shot.toString(), blunder.error ) );
+    }
   }
 
 // -------------------------------------------------------------------
@@ -106,12 +154,16 @@ public class ReductionErrorsDialog extends MyDialog
     ListView loopList = (ListView) findViewById( R.id.loop_list );
     if ( mNrBadLoops == 0 ) {
       badLoops.setVisibility( View.GONE );
-      loopList.setVisibility( View.GONE );
     } else {
       badLoops.setText( String.format( mContext.getResources().getString( R.string.loops_bad ), mNrBadLoops ) );
-      ArrayAdapter<String> adapter = new ArrayAdapter<>( mContext, R.layout.message );
-      for ( NumCycle cl : mBadLoops ) adapter.add( cl.toString() );
-      loopList.setAdapter( adapter );
+    }
+    if ( mNrBadLoops == 0 && ! mSuspects ) {
+      loopList.setVisibility( View.GONE );
+    } else {
+      mLoopAdapter = new ArrayAdapter<>( mContext, R.layout.message );
+      for ( NumCycle cl : mBadLoops ) mLoopAdapter.add( cl.toString() );
+      loopList.setAdapter( mLoopAdapter );
+      if ( mSuspects ) (new BlunderTask( this, mNum )).execute(); // the suspect legs are listed when they have been ranked
     }
 
     Button button_back  = (Button) findViewById( R.id.button_back );
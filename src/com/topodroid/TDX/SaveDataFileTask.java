@@ -14,14 +14,12 @@ package com.topodroid.TDX;
 import com.topodroid.utils.TDLog;
 import com.topodroid.utils.TDFile;
 import com.topodroid.utils.TDsafUri;
-import com.topodroid.utils.TDStatus;
 import com.topodroid.num.TDNum;
 import com.topodroid.prefs.TDSetting;
 import com.topodroid.dev.Device;
 
 // import java.lang.ref.WeakReference;
 
-import java.util.List;
 import android.net.Uri;
 
 import android.os.ParcelFileDescriptor;
@@ -131,14 +129,11 @@ class SaveDataFileTask extends AsyncTask<Void, Void, String >
           case TDConst.SURVEY_FORMAT_DXF:
             // bw = new BufferedWriter( (pfd != null)? TDsafUri.docFileWriter( pfd ) : new FileWriter( TDPath.getDxfFileWithExt( mSurvey ) ) );
             bw = new BufferedWriter( TDsafUri.docFileWriter( pfd ) );
-            List< DBlock > list = mData.selectAllShots( mSid, TDStatus.NORMAL );
-            if ( list.size() > 0 ) {
-              DBlock blk = list.get( 0 );
-              // TDLog.v( "SURVEY_FORMAT_DXF from " + blk.mFrom );
-              // float decl = mData.getSurveyDeclination( mSid );
-              // if ( decl >= SurveyInfo.DECLINATION_MAX ) decl = 0;
-              float decl = mInfo.getDeclination();
-              TDNum num = new TDNum( list, blk.mFrom, null, null, decl, null ); // null formatClosure
+            // float decl = mData.getSurveyDeclination( mSid );
+            // if ( decl >= SurveyInfo.DECLINATION_MAX ) decl = 0;
+            float decl = mInfo.getDeclination();
+            TDNum num = TDNumCache.get( mData, mSid, null, decl ); // start at the FROM station of the first shot
+            if ( num != null ) {
               pathname = mSurvey + ".dxf";
               ret = TDExporter.exportSurveyAsDxf( bw, mSid, mData, mInfo, num, mSurvey );
             }
@@ -0,0 +1,219 @@
+/* @file ShotColumns.java
+ *
+ * @author marco corvi
+ * @date oct 2026
+ *
+ * @brief TopoDroid columnar (array) snapshot of the shots of a survey, for the data reduction
+ * --------------------------------------------------------
+ *  Copyright This software is distributed under GPL-3.0 or later
+ *  See the file COPYING.
+ * --------------------------------------------------------
+ * The snapshot has the shot fields that the data reduction uses, and the other fields of the data blocks,
+ * in order of shot ID. The station names are stored once, and the shots refer to them by name ID.
+ * The data blocks are made on demand.
+ */
+package com.topodroid.TDX;
+
+import com.topodroid.utils.TDString;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+
+public class ShotColumns
+{
+  public final int size;         // number of shots
+  public final long[]  id;       // shot IDs
+  public final int[]   from;     // FROM station name IDs (-1 no station)
+  public final int[]   to;       // TO station name IDs (-1 no station)
+  public final float[] length;   // length [m]
+  public final float[] bearing;  // azimuth [deg]
+  public final float[] clino;    // clino [deg], or depth [m] in diving mode
+  public final int[]   extend;
+  public final float[] stretch;
+  public final long[]  flag;
+  public final int[]   type;     // block type
+  private final String[] mComment;
+  private final int[]  mShotType;
+  private final int[]  mColor;
+  private final float[] mAcc;    // acceleration
+  private final float[] mMag;    // magnetic field
+  private final float[] mDip;    // magnetic dip
+  private final long[] mTime;    // timestamp
+
+  private final long mSid;       // survey ID
+  private final boolean mDiving; // whether the clino column has the depths
+
+  private final ArrayList< String > mNames = new ArrayList<>();        // station names, by ID
+  private final HashMap< String, Integer > mNameIds = new HashMap<>(); // station name IDs, by name as stored
+
+  /** cstr
+   * @param sid     survey ID
+   * @param n       number of shots
+   * @param diving  whether the data are in diving mode
+   */
+  ShotColumns( long sid, int n, boolean diving )
+  {
+    mSid    = sid;
+    mDiving = diving;
+    size    = n;
+    id      = new long[ n ];
+    from    = new int[ n ];
+    to      = new int[ n ];
+    length  = new float[ n ];
+    bearing = new float[ n ];
+    clino   = new float[ n ];
+    extend  = new int[ n ];
+    stretch = new float[ n ];
+    flag    = new long[ n ];
+    type    = new int[ n ];
+    mComment  = new String[ n ];
+    mShotType = new int[ n ];
+    mColor    = new int[ n ];
+    mAcc      = new float[ n ];
+    mMag      = new float[ n ];
+    mDip      = new float[ n ];
+    mTime     = new long[ n ];
+  }
+
+  /** set the stations and the block type of a shot
+   * @param k     shot index
+   * @param f     FROM station, as stored
+   * @param t     TO station, as stored
+   * @param leg   leg type
+   * @note the stations are trimmed, as by DBlock.setBlockName
+   */
+  void setStations( int k, String f, String t, int leg )
+  {
+    if ( f == null || t == null ) {
+      from[k] = -1;
+      to[k]   = -1;
+    } else {
+      from[k] = nameId( f );
+      to[k]   = nameId( t );
+    }
+    type[k] = DBlock.blockType( from[k] >= 0, to[k] >= 0, leg );
+  }
+
+  /** set the other fields of a shot, that the data reduction does not use but the data block has
+   * @param k          shot index
+   * @param comment    comment
+   * @param shot_type  shot type
+   * @param color      shot color
+   * @param acc        acceleration
+   * @param mag        magnetic field
+   * @param dip        magnetic dip
+   * @param millis     timestamp
+   */
+  void setExtra( int k, String comment, int shot_type, int color, float acc, float mag, float dip, long millis )
+  {
+    mComment[k]  = ( comment == null || comment.length() == 0 )? TDString.EMPTY : comment;
+    mShotType[k] = shot_type;
+    mColor[k]    = color;
+    mAcc[k]      = acc;
+    mMag[k]      = mag;
+    mDip[k]      = dip;
+    mTime[k]     = millis;
+  }
+
+  /** @return the ID of a station name, or -1 if the name is empty
+   * @param name   station name, untrimmed
+   */
+  private int nameId( String name )
+  {
+    Integer id = mNameIds.get( name );
+    if ( id == null ) {
+      String trimmed = name.trim();
+      if ( trimmed.length() == 0 ) {
+        id = -1;
+      } else if ( trimmed.length() < name.length() ) {
+        id = nameId( trimmed );
+      } else {
+        id = mNames.size();
+        mNames.add( trimmed );
+      }
+      mNameIds.put( name, id );
+    }
+    return id;
+  }
+
+  /** @return true if the clino column has the depths (diving mode)
+   */
+  public boolean isDiving() { return mDiving; }
+
+  /** @return the number of station names
+   */
+  public int namesNr() { return mNames.size(); }
+
+  /** @return the station name of a name ID, or the empty string
+   * @param name_id  name ID
+   */
+  public String getName( int name_id ) { return ( name_id < 0 )? TDString.EMPTY : mNames.get( name_id ); }
+
+  /** @return the FROM station of a shot, or the empty string
+   * @param k   shot index
+   */
+  public String getFrom( int k ) { return getName( from[k] ); }
+
+  /** @return the TO station of a shot, or the empty string
+   * @param k   shot index
+   */
+  public String getTo( int k ) { return getName( to[k] ); }
+
+  /** @return true if the shot is a splay
+   * @param k   shot index
+   */
+  public boolean isSplay( int k ) { return DBlock.isSplay( type[k] ); }
+
+  /** @return true if the shot is a main leg
+   * @param k   shot index
+   */
+  public boolean isMainLeg( int k ) { return type[k] == DBlock.BLOCK_MAIN_LEG; }
+
+  /** @return true if the shot is a back leg
+   * @param k   shot index
+   */
+  public boolean isBackLeg( int k ) { return DBlock.isBackLeg( type[k] ); }
+
+  /** @return true if the shot is a secondary leg shot
+   * @param k   shot index
+   */
+  public boolean isSecLeg( int k ) { return DBlock.isSecLeg( type[k] ); }
+
+  /** @return true if the shot is blank
+   * @param k   shot index
+   */
+  public boolean isTypeBlank( int k ) { return DBlock.isTypeBlank( type[k] ); }
+
+  /** @return a new data block of a shot
+   * @param k   shot index
+   * @note the block has the fields set by DataHelper.fillBlock
+   */
+  public DBlock makeBlock( int k )
+  {
+    DBlock blk = new DBlock();
+    blk.setId( id[k], mSid );
+    blk.mFrom      = getFrom( k );
+    blk.mTo        = getTo( k );
+    blk.mBlockType = type[k];
+    blk.mLength    = length[k];
+    blk.mBearing   = bearing[k];
+    if ( mDiving ) {
+      blk.mClino = 0;
+      blk.mDepth = clino[k];
+    } else {
+      blk.mClino = clino[k];
+      blk.mDepth = 0;
+    }
+    blk.setExtend( extend[k], stretch[k] );
+    blk.resetFlag( flag[k] );
+    blk.mComment = mComment[k];
+    blk.setShotType( mShotType[k] );
+    blk.setPaintColor( mColor[k] );
+    blk.mAcceleration = mAcc[k];
+    blk.mMagnetic     = mMag[k];
+    blk.mDip          = mDip[k];
+    blk.mTime         = mTime[k];
+    return blk;
+  }
+
+}
@@ -0,0 +1,125 @@
+/* @file ShotIngest.java
+ *
+ * @author marco corvi
+ * @date oct 2026
+ *
+ * @brief TopoDroid writer of the shots downloaded from a device
+ * --------------------------------------------------------
+ *  Copyright This software is distributed under GPL-3.0 or later
+ *  See the file COPYING.
+ * --------------------------------------------------------
+ * Nothing is queued: the shot of a data packet, and the AMDR of a vector packet, are written to the database
+ * when the packet is handled, each in its own transaction on the database writer, and the write has returned
+ * before the packet handler returns. The listers are notified of a shot after the shot has been committed.
+ * The DistoX protocols acknowledge a packet after it has been handled, therefore a packet that the device
+ * has seen acknowledged has been committed, or its write has failed and the failure has been logged.
+ */
+package com.topodroid.TDX;
+
+import com.topodroid.utils.TDLog;
+
+import java.util.Collections;
+
+import android.os.Bundle;
+import android.os.Handler;
+import android.os.Message;
+
+public class ShotIngest
+{
+  /** downloaded shot
+   */
+  static class Row
+  {
+    final long sid;      // survey ID
+    final long id;       // shot ID
+    final long millis;   // timestamp [sec]
+    final double d, b, c, r; // distance, bearing, clino, roll
+    final double acc, mag, dip; // acceleration, magnetic field, dip
+    final long extend;
+    final long leg;      // leg type
+    final long status;
+    final long shot_type; // 0: DistoX
+    final String comment;
+    final String addr;   // device address
+
+    private Row( long sid, long id, long millis, double d, double b, double c, double r, double acc, double mag, double dip,
+                 long extend, long leg, long status, String comment, String addr )
+    {
+      this.sid     = sid;
+      this.id      = id;
+      this.millis  = millis;
+      this.d = d;
+      this.b = b;
+      this.c = c;
+      this.r = r;
+      this.acc = acc;
+      this.mag = mag;
+      this.dip = dip;
+      this.extend  = extend;
+      this.leg     = leg;
+      this.status  = status;
+      this.shot_type = 0L;
+      this.comment = comment;
+      this.addr    = addr;
+    }
+  }
+
+  /** write a shot
+   * @param sid     survey ID
+   * @param id      shot ID, or -1 for the next ID
+   * @param unique  whether to use the next ID if the shot ID is already present
+   * @param d       distance
+   * @param b       bearing
+   * @param c       clino
+   * @param r       roll
+   * @param acc     acceleration
+   * @param mag     magnetic field
+   * @param dip     magnetic dip
+   * @param extend  extend
+   * @param leg     leg type
+   * @param status  shot status
+   * @param comment shot comment
+   * @param addr    device address
+   * @param lister  lister to notify after the shot has been written, or null
+   * @return the shot ID, or -1 if the write failed
+   */
+  public long add( long sid, long id, boolean unique, double d, double b, double c, double r, double acc, double mag, double dip,
+                   long extend, long leg, long status, String comment, String addr, Handler lister )
+  {
+    DataHelper data = TopoDroidApp.mData;
+    if ( data == null ) return -1L;
+    id = data.allocShotId( sid, id, unique );
+    Row row = new Row( sid, id, System.currentTimeMillis()/1000, d, b, c, r, acc, mag, dip,
+                       extend, leg, status, ( comment == null )? "" : comment, ( addr == null )? "" : addr );
+    if ( ! data.insertShots( Collections.singletonList( row ) ) ) {
+      TDLog.e( "Shot ingest: failed write of shot " + id );
+      return -1L;
+    }
+    if ( lister != null ) {
+      Message msg = lister.obtainMessage( Lister.LIST_UPDATE );
+      Bundle bundle = new Bundle();
+      bundle.putLong( Lister.BLOCK_ID, id );
+      msg.setData( bundle );
+      lister.sendMessage( msg );
+    }
+    return id;
+  }
+
+  /** write the AMDR data of a shot
+   * @param id       shot ID
+   * @param sid      survey ID
+   * @param acc      acceleration
+   * @param mag      magnetic field
+   * @param dip      magnetic dip
+   * @param r        roll
+   * @param backshot whether the shot is a backshot
+   */
+  public void updateAMDR( long id, long sid, double acc, double mag, double dip, double r, boolean backshot )
+  {
+    if ( id < 0 ) return;
+    DataHelper data = TopoDroidApp.mData;
+    if ( data == null ) return;
+    data.updateShotAMDR( id, sid, acc, mag, dip, r, backshot );
+  }
+
+}
@@ -0,0 +1,131 @@
+/* @file ShotInsert.java
+ *
+ * @author marco corvi
+ * @date oct 2026
+ *
+ * @brief TopoDroid insert statement of the shots, and multi-row insert of the imported shots
+ * --------------------------------------------------------
+ *  Copyright This software is distributed under GPL-3.0 or later
+ *  See the file COPYING.
+ * --------------------------------------------------------
+ * The imported shots are inserted BATCH rows per statement, and the remaining rows with a last statement.
+ * This class does not depend on the database: the statements are accessed through the Statement interface.
+ */
+package com.topodroid.TDX;
+
+import com.topodroid.utils.TDString;
+import com.topodroid.inport.ParserShot;
+
+import java.util.List;
+
+class ShotInsert
+{
+  static final int BATCH = 32; // rows of an import insert: 32 * 21 variables, below the SQLite limit 999
+
+  /** columns of the shot insert statement, in the order of the bound values
+   */
+  static final String[] COLUMNS = {
+    "surveyId", "id", "fStation", "tStation", "distance", "bearing", "clino", "roll", "acceleration", "magnetic", "dip",
+    "extend", "flag", "leg", "status", "comment", "type", "millis", "color", "stretch", "address"
+  };
+
+  /** insert statement
+   */
+  interface Statement
+  {
+    void bindLong( int pos, long value );
+    void bindDouble( int pos, double value );
+    void bindText( int pos, String value ); // null value binds null
+    void executeInsert();
+  }
+
+  /** @return the SQL to insert shots
+   * @param nr   number of rows
+   */
+  static String sql( int nr )
+  {
+    StringBuilder values = new StringBuilder( "( ?" );
+    StringBuilder sb = new StringBuilder( "INSERT INTO shots ( " ).append( COLUMNS[0] );
+    for ( int k = 1; k < COLUMNS.length; ++k ) {
+      values.append( ",?" );
+      sb.append( ", " ).append( COLUMNS[k] );
+    }
+    values.append( " )" );
+    sb.append( " ) VALUES " ).append( values );
+    for ( int k = 1; k < nr; ++k ) sb.append( ", " ).append( values );
+    return sb.toString();
+  }
+
+  /** bind the values of an imported shot
+   * @param stmt   insert statement
+   * @param pos    index of the first value (1-based)
+   * @param sid    survey ID
+   * @param id     shot ID
+   * @param s      imported shot
+   * @param millis shot timestamp
+   * @param color  shot color
+   * @note the values are bound in the order of the COLUMNS
+   */
+  static void bindImportShot( Statement stmt, int pos, long sid, long id, ParserShot s, long millis, long color )
+  {
+    stmt.bindLong(   pos,      sid );
+    stmt.bindLong(   pos +  1, id );
+    stmt.bindText(   pos +  2, s.from );
+    stmt.bindText(   pos +  3, s.to );
+    stmt.bindDouble( pos +  4, s.len );
+    stmt.bindDouble( pos +  5, s.ber );
+    stmt.bindDouble( pos +  6, s.cln );
+    stmt.bindDouble( pos +  7, s.rol );
+    stmt.bindDouble( pos +  8, 0.0 ); // acceleration
+    stmt.bindDouble( pos +  9, 0.0 ); // magnetic
+    stmt.bindDouble( pos + 10, 0.0 ); // dip
+    stmt.bindLong(   pos + 11, s.extend );
+    stmt.bindLong(   pos + 12, s.duplicate ? DBlock.FLAG_DUPLICATE
+                             : s.surface ? DBlock.FLAG_SURFACE
+                             // : s.commented ? DBlock.FLAG_COMMENTED // ParserShots are not "commented"
+                             // : s.backshot ? DBlock.FLAG_BACKSHOT
+                             : 0 );
+    stmt.bindLong(   pos + 13, s.leg );
+    stmt.bindLong(   pos + 14, 0 ); // status
+    stmt.bindText(   pos + 15, s.comment );
+    stmt.bindLong(   pos + 16, 0 ); // type: parser shot are not-modifiable
+    stmt.bindLong(   pos + 17, millis );
+    stmt.bindLong(   pos + 18, color );
+    stmt.bindDouble( pos + 19, 0.0 ); // stretch
+    stmt.bindText(   pos + 20, TDString.EMPTY ); // address
+  }
+
+  /** insert imported shots
+   * @param batch  statement of BATCH rows, used if there are at least BATCH shots
+   * @param last   statement of ( k1 - k0 ) % BATCH rows, used if this is not zero
+   * @param sid    survey ID
+   * @param id     ID of the first shot
+   * @param shots  imported shots
+   * @param k0     index of the first shot
+   * @param k1     index after the last shot
+   * @param millis shots timestamp
+   * @param color  shots color
+   */
+  static void insertImportShots( Statement batch, Statement last, long sid, long id, List< ParserShot > shots, int k0, int k1, long millis, long color )
+  {
+    int nr   = k1 - k0;
+    int tail = nr % BATCH; // rows of the last statement
+    Statement stmt = ( nr >= BATCH )? batch : last;
+    int pos = 1;
+    for ( int k = 0; k < nr; ++k ) {
+      bindImportShot( stmt, pos, sid, id, shots.get( k0 + k ), millis, color );
+      ++id;
+      pos += COLUMNS.length;
+      if ( k + 1 == nr - tail ) { // end of the batches
+        stmt.executeInsert();
+        stmt = last;
+        pos = 1;
+      } else if ( pos > COLUMNS.length * BATCH ) {
+        stmt.executeInsert();
+        pos = 1;
+      }
+    }
+    if ( tail > 0 ) last.executeInsert();
+  }
+
+}
@@ -0,0 +1,34 @@
+/* @file ShotListDelta.java
+ *
+ * @author marco corvi
+ * @date oct 2026
+ *
+ * @brief TopoDroid shots of a survey that have changed after a shots version
+ * --------------------------------------------------------
+ *  Copyright This software is distributed under GPL-3.0 or later
+ *  See the file COPYING.
+ * --------------------------------------------------------
+ */
+package com.topodroid.TDX;
+
+import java.util.ArrayList;
+
+class ShotListDelta
+{
+  final long version; // shots version of the survey
+  final ArrayList< DBlock > blocks  = new ArrayList<>(); // changed NORMAL shots, in order of ID
+  final ArrayList< Long >   dropped = new ArrayList<>(); // IDs of the changed shots that are not NORMAL
+
+  /** cstr
+   * @param version   shots version of the survey
+   */
+  ShotListDelta( long version )
+  {
+    this.version = version;
+  }
+
+  /** @return true if no shot has changed
+   */
+  boolean isEmpty() { return blocks.isEmpty() && dropped.isEmpty(); }
+
+}
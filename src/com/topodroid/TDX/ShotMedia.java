@@ -0,0 +1,39 @@
+/* @file ShotMedia.java
+ *
+ * @author marco corvi
+ * @date oct 2026
+ *
+ * @brief TopoDroid media (photos, audios, sensors) of a shot
+ * --------------------------------------------------------
+ *  Copyright This software is distributed under GPL-3.0 or later
+ *  See the file COPYING.
+ * --------------------------------------------------------
+ */
+package com.topodroid.TDX;
+
+class ShotMedia
+{
+  int nrPhoto;  // number of photos, with the selected status
+  int nrAudio;  // number of audios
+  int nrSensor; // number of sensors, with the selected status
+
+  /** cstr
+   * @param photos   number of photos
+   * @param audios   number of audios
+   * @param sensors  number of sensors
+   */
+  ShotMedia( int photos, int audios, int sensors )
+  {
+    nrPhoto  = photos;
+    nrAudio  = audios;
+    nrSensor = sensors;
+  }
+
+  /** @return true if the shot has a photo
+   */
+  boolean hasPhoto() { return nrPhoto > 0; }
+
+  /** @return true if the shot has an audio
+   */
+  boolean hasAudio() { return nrAudio > 0; }
+}
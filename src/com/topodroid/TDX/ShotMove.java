@@ -0,0 +1,126 @@
+/* @file ShotMove.java
+ *
+ * @author marco corvi
+ * @date oct 2026
+ *
+ * @brief TopoDroid move of the shots of a survey, from a given ID on, to another survey
+ * --------------------------------------------------------
+ *  Copyright This software is distributed under GPL-3.0 or later
+ *  See the file COPYING.
+ * --------------------------------------------------------
+ * The moved shots get the IDs after those of the target survey, and the sensors, photos and audios of the moved
+ * shots follow them: their shotId is remapped with the shots, and their ID is shifted only if it would clash with
+ * the IDs of the target survey. The fixeds, the stations and the plots at the stations of the moved shots are
+ * moved before the shots, because they are selected through the shots of the source survey.
+ * This class does not depend on the database: the tables are accessed through the Tables interface.
+ */
+package com.topodroid.TDX;
+
+class ShotMove
+{
+  static final String SHOTS   = "shots";
+  static final String SENSORS = "sensors";
+  static final String PHOTOS  = "photos";
+  static final String AUDIOS  = "audios";
+
+  static final String[] STATION_TABLES  = { "fixeds", "stations", "plots" }; // tables of the rows at a station
+  static final String[] STATION_COLUMNS = { "station", "name", "start" };    // station column of the STATION_TABLES
+
+  /** survey tables - a move is a single UPDATE per table
+   */
+  interface Tables
+  {
+    /** @return one more than the maximum ID of the rows of a survey, 1 if there is none
+     * @param table  table
+     * @param sid    survey ID
+     */
+    long maxId( String table, long sid );
+
+    /** @return the minimum ID of the rows of a survey that refer to the shots from an ID on, -1 if there is none
+     * @param table  table (sensors, photos, audios)
+     * @param sid    survey ID
+     * @param id     ID of the first shot
+     */
+    long minId( String table, long sid, long id );
+
+    /** move the rows at the stations of the shots of a survey from an ID on
+     * @param table    table (fixeds, stations, plots)
+     * @param column   station column of the table
+     * @param old_sid  source survey ID
+     * @param old_id   ID of the first moved shot
+     * @param sid      target survey ID
+     */
+    void moveStationRows( String table, String column, long old_sid, long old_id, long sid );
+
+    /** move the rows that refer to the shots of a survey from an ID on
+     * @param table     table (sensors, photos, audios)
+     * @param old_sid   source survey ID
+     * @param old_id    ID of the first moved shot
+     * @param sid       target survey ID
+     * @param offset    row ID offset
+     * @param shot_offset  shot ID offset
+     */
+    void moveShotRows( String table, long old_sid, long old_id, long sid, long offset, long shot_offset );
+
+    /** move the shots of a survey from an ID on
+     * @param old_sid   source survey ID
+     * @param old_id    ID of the first moved shot
+     * @param sid       target survey ID
+     * @param offset    shot ID offset
+     */
+    void moveShots( long old_sid, long old_id, long sid, long offset );
+  }
+
+  final long oldSid; // source survey ID
+  final long oldId;  // ID of the first moved shot
+  final long sid;    // target survey ID
+  final long shotOffset;
+  final long sensorOffset;
+  final long photoOffset;
+  final long audioOffset;
+
+  /** cstr: compute the ID offsets of the moved rows
+   * @param tables   survey tables
+   * @param old_sid  source survey ID
+   * @param old_id   ID of the first moved shot
+   * @param sid      target survey ID
+   */
+  ShotMove( Tables tables, long old_sid, long old_id, long sid )
+  {
+    oldSid = old_sid;
+    oldId  = old_id;
+    this.sid = sid;
+    shotOffset   = tables.maxId( SHOTS, sid ) - old_id;
+    sensorOffset = offset( tables, SENSORS );
+    photoOffset  = offset( tables, PHOTOS );
+    audioOffset  = offset( tables, AUDIOS );
+  }
+
+  /** @return the ID offset of the moved rows of a table, so that they do not clash with the rows of the target survey
+   * @param tables   survey tables
+   * @param table    table (sensors, photos, audios)
+   */
+  private long offset( Tables tables, String table )
+  {
+    long min = tables.minId( table, oldSid, oldId );
+    return ( min < 0 )? 0 : Math.max( 0, tables.maxId( table, sid ) - min );
+  }
+
+  /** move the rows - the caller runs the move in a transaction
+   * @param tables    survey tables
+   * @param stations  whether to move also the fixeds, the stations and the plots at the stations of the moved shots
+   */
+  void move( Tables tables, boolean stations )
+  {
+    if ( stations ) { // before the shots are moved
+      for ( int k = 0; k < STATION_TABLES.length; ++k ) {
+        tables.moveStationRows( STATION_TABLES[k], STATION_COLUMNS[k], oldSid, oldId, sid );
+      }
+    }
+    tables.moveShotRows( SENSORS, oldSid, oldId, sid, sensorOffset, shotOffset );
+    tables.moveShotRows( PHOTOS,  oldSid, oldId, sid, photoOffset,  shotOffset );
+    tables.moveShotRows( AUDIOS,  oldSid, oldId, sid, audioOffset,  shotOffset );
+    tables.moveShots( oldSid, oldId, sid, shotOffset );
+  }
+
+}
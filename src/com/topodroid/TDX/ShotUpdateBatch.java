@@ -0,0 +1,98 @@
+/* @file ShotUpdateBatch.java
+ *
+ * @author marco corvi
+ * @date oct 2026
+ *
+ * @brief TopoDroid list of shot updates, written to the database in a single transaction
+ * --------------------------------------------------------
+ *  Copyright This software is distributed under GPL-3.0 or later
+ *  See the file COPYING.
+ * --------------------------------------------------------
+ * The updates are written in the order they have been added, so that a later update
+ * of a shot field overrides an earlier one, as if they were written one by one.
+ */
+package com.topodroid.TDX;
+
+import java.util.ArrayList;
+import java.util.List;
+
+class ShotUpdateBatch
+{
+  static final int NAME     = 0; // FROM and TO stations
+  static final int EXTEND   = 1; // extend and stretch
+  static final int LEG      = 2; // leg type
+  static final int LEG_FLAG = 3; // leg type and flag
+  static final int STATUS   = 4; // status
+
+  /** shot update
+   */
+  static class Update
+  {
+    final int    type;   // update type
+    final long   id;     // shot ID
+    final String from;   // FROM station (NAME)
+    final String to;     // TO station (NAME)
+    final long   value1; // extend (EXTEND), leg (LEG, LEG_FLAG), status (STATUS)
+    final long   value2; // flag (LEG_FLAG)
+    final double stretch; // stretch (EXTEND)
+
+    private Update( int type, long id, String from, String to, long value1, long value2, double stretch )
+    {
+      this.type    = type;
+      this.id      = id;
+      this.from    = from;
+      this.to      = to;
+      this.value1  = value1;
+      this.value2  = value2;
+      this.stretch = stretch;
+    }
+  }
+
+  private final ArrayList< Update > mUpdates = new ArrayList<>();
+
+  /** @return the updates, in the order they have been added
+   */
+  List< Update > getUpdates() { return mUpdates; }
+
+  /** @return true if there are no updates
+   */
+  boolean isEmpty() { return mUpdates.isEmpty(); }
+
+  /** clear the list of updates
+   */
+  void clear() { mUpdates.clear(); }
+
+  /** add an update of the shot stations
+   * @param id     shot ID
+   * @param from   FROM station
+   * @param to     TO station
+   */
+  void addName( long id, String from, String to ) { mUpdates.add( new Update( NAME, id, from, to, 0, 0, 0 ) ); }
+
+  /** add an update of the shot extend
+   * @param id      shot ID
+   * @param extend  extend
+   * @param stretch stretch
+   */
+  void addExtend( long id, long extend, double stretch ) { mUpdates.add( new Update( EXTEND, id, null, null, extend, 0, stretch ) ); }
+
+  /** add an update of the shot leg type
+   * @param id     shot ID
+   * @param leg    leg type
+   */
+  void addLeg( long id, long leg ) { mUpdates.add( new Update( LEG, id, null, null, leg, 0, 0 ) ); }
+
+  /** add an update of the shot leg type and flag
+   * @param id     shot ID
+   * @param leg    leg type
+   * @param flag   shot flag
+   */
+  void addLegFlag( long id, long leg, long flag ) { mUpdates.add( new Update( LEG_FLAG, id, null, null, leg, flag, 0 ) ); }
+
+  /** add an update of the shot status
+   * @param id     shot ID
+   * @param status status
+   */
+  void addStatus( long id, long status ) { mUpdates.add( new Update( STATUS, id, null, null, status, 0, 0 ) ); }
+
+}
@@ -43,6 +43,7 @@ import com.topodroid.common.ExtendType;
 import java.util.List;
 import java.util.Set;
 import java.util.ArrayList;
+import java.util.HashMap;
 // import java.util.Stack;
 import java.util.Locale;
 
@@ -395,12 +396,13 @@ public class ShotWindow extends Activity
     // TDLog.v("SHOT update display");
     // highlightBlocks( null );
     if ( mApp_mData != null && TDInstance.sid >= 0 ) {
-      List< DBlock > list = mApp_mData.selectAllShots( TDInstance.sid, TDStatus.NORMAL );
+      // List< DBlock > list = mApp_mData.selectAllShots( TDInstance.sid, TDStatus.NORMAL );
+      List< DBlock > list = mDataAdapter.getShots( mApp_mData, TDInstance.sid ); // cached shots, updated with the changed shots
       mSurveyAccuracy = new SurveyAccuracy( list ); 
       // if ( list.size() > 4 ) SurveyAccuracy.setBlocks( list );
 
-      List< PhotoInfo > photos = mApp_mData.selectAllPhotos( TDInstance.sid, TDStatus.NORMAL );
-      updateShotList( list, photos );
+      HashMap< Long, ShotMedia > media = mApp_mData.selectShotMedia( TDInstance.sid, TDStatus.NORMAL );
+      updateShotList( list, media );
       
       setTheTitle( );
     } else {
@@ -498,15 +500,15 @@ public class ShotWindow extends Activity
     }
   }
 
-  /** update the list of shot data with the photo infos
+  /** update the list of shot data with the shot media
    * @param list    list of shot data
-   * @param photos  list of photos
-   * first clear the data adapter, then fill it with the shot data, finally with the photo infos
+   * @param media   shot media, by shot ID
+   * first clear the data adapter, then fill it with the shot data, finally with the shot media
    * @note called only by updateDisplay
    */
-  private void updateShotList( List< DBlock > list, List< PhotoInfo > photos )
+  private void updateShotList( List< DBlock > list, HashMap< Long, ShotMedia > media )
   {
-    // TDLog.Log( TDLog.LOG_SHOT, "updateShotList shots " + list.size() + " photos " + photos.size() );
+    // TDLog.Log( TDLog.LOG_SHOT, "updateShotList shots " + list.size() + " media " + media.size() );
     mDataAdapter.clear();
     // mList.setAdapter( mDataAdapter );
     if ( TDUtil.isEmpty(list) ) {
@@ -514,7 +516,7 @@ public class ShotWindow extends Activity
       return;
     }
     processShotList( list );
-    mDataAdapter.reviseBlockWithPhotos( photos );
+    mDataAdapter.reviseBlockWithMedia( media );
   }
 
   /** process the list of shot data and fill the adapter for the display list
@@ -529,6 +531,7 @@ public class ShotWindow extends Activity
     boolean prev_is_leg = false;
     boolean check_recent = TDSetting.mShotRecent && mFlagLatest;
     for ( DBlock item : list ) {
+      item.resetTypeBlankLeg(); // the list blocks can be those of a previous display
       DBlock cur = item;
       // int t = cur.type();
       // TDLog.Log( TDLog.LOG_SHOT, "item " + cur.mLength + " " + cur.mBearing + " " + cur.mClino );
@@ -846,10 +849,11 @@ public class ShotWindow extends Activity
     //   (new CurrentStationDialog( this, this, mApp, mApp.getCurrentOrLastStation() )).show();
 
     } else if ( TDLevel.overBasic && p++ == pos ) { // RECOVER
-      List< DBlock > shots1 = mApp_mData.selectAllShots( TDInstance.sid, TDStatus.DELETED );
-      List< DBlock > shots2 = mApp_mData.selectAllShots( TDInstance.sid, TDStatus.OVERSHOOT );
-      List< DBlock > shots3 = mApp_mData.selectAllShots( TDInstance.sid, TDStatus.CHECK );
-      List< DBlock > shots4 = (TDLevel.overExpert && TDSetting.mBlunderShot)? mApp_mData.selectAllShots( TDInstance.sid, TDStatus.BLUNDER ) : null;
+      List< DBlock > shots1 = new ArrayList<>(); // DELETED
+      List< DBlock > shots2 = new ArrayList<>(); // OVERSHOOT
+      List< DBlock > shots3 = new ArrayList<>(); // CHECK
+      List< DBlock > shots4 = (TDLevel.overExpert && TDSetting.mBlunderShot)? new ArrayList< DBlock >() : null; // BLUNDER
+      mApp_mData.selectNonNormalShots( TDInstance.sid, shots1, shots2, shots3, shots4 );
       List< PlotInfo > plots   = mApp_mData.selectAllPlots( TDInstance.sid, TDStatus.DELETED );
       // the list of deleted plots contains an even number of items: plan-profile pairs
       if (  TDLevel.overAdvanced ) {
@@ -33,6 +33,7 @@ class StationName
   protected Context mContext;
   protected DataHelper mData;
   protected long mSid;
+  protected final ShotUpdateBatch mUpdates = new ShotUpdateBatch(); // database updates, written by commitUpdates
 
   /** cstr
    * @param ctx    context
@@ -78,6 +79,16 @@ class StationName
 
   // ----------------------------------------------------------------
 
+  /** write the shot updates of the station assignment to the database, in a single transaction
+   * @note must be called after assignStations and assignStationsAfter
+   */
+  void commitUpdates()
+  {
+    if ( mUpdates.isEmpty() ) return;
+    mData.updateShots( mSid, mUpdates );
+    mUpdates.clear();
+  }
+
   /** generate a visual/audio feedback 
    */
   protected void legFeedback( ) 
@@ -179,7 +190,7 @@ class StationName
       long extend = TDAzimuth.computeLegExtend( blk.mBearing );
       // TDLog.Log( TDLog.LOG_SHOT, blk.mId + " set extend " + extend );
       blk.setExtend( (int)extend, ExtendType.STRETCH_NONE ); 
-      mData.updateShotExtend( blk.mId, mSid, extend, ExtendType.STRETCH_NONE );
+      mUpdates.addExtend( blk.mId, extend, ExtendType.STRETCH_NONE );
     }
   }
 
@@ -192,7 +203,7 @@ class StationName
   {
     // TDLog.Log( TDLog.LOG_SHOT, blk.mId + " set fixed extend " + extend );
     blk.setExtend( (int)extend, ExtendType.STRETCH_NONE );
-    mData.updateShotExtend( blk.mId, mSid, extend, ExtendType.STRETCH_NONE );
+    mUpdates.addExtend( blk.mId, extend, ExtendType.STRETCH_NONE );
   }
 
   // ------------------------------------------------------------------------------------------------
@@ -203,7 +214,7 @@ class StationName
    * @param from    FROM station
    * @param to      TO station
    * @param is_backleg whether the shot is a back-leg
-   * @note the block name is updated into the database
+   * @note the block name is added to the database updates
    */
   protected void setBlockName( DBlock blk, String from, String to, boolean is_backleg ) 
   {
@@ -213,14 +224,14 @@ class StationName
     //   // TDLog.v("station name detect bad sibling (1)");
     //   TDToast.makeWarn( R.string.bad_sibling );
     // }
-    mData.updateShotName( blk.mId, mSid, from, to );
+    mUpdates.addName( blk.mId, from, to );
   }
 
   /** set the block stations
    * @param blk     block
    * @param from    FROM station
    * @param to      TO station
-   * @note the block name is updated into the database
+   * @note the block name is added to the database updates
    */
   protected void setBlockName( DBlock blk, String from, String to )
   {
@@ -231,7 +242,7 @@ class StationName
     //   // TDLog.v("station name detect bad sibling (2)");
     //   TDToast.makeWarn( R.string.bad_sibling );
     // }
-    mData.updateShotName( blk.mId, mSid, from, to );
+    mUpdates.addName( blk.mId, from, to );
   }
 
   // ------------------------------------------------------------------------------------------------
@@ -272,7 +283,7 @@ class StationName
    * @param blk    leg block
    * @param from    FROM station
    * @param to      TO station
-   * @note the block name is saved to the database
+   * @note the block name is added to the database updates
    */
   protected void setLegName( DBlock blk, String from, String to )
   {
@@ -289,7 +300,7 @@ class StationName
    * @param from    FROM station
    * @param to      TO station
    * @param is_backsight_shot whether the leg is backsight
-   * @note the block name is saved to the database
+   * @note the block name is added to the database updates
    */
   protected void setLegName( DBlock blk, String from, String to, boolean is_backsight_shot )
   {
@@ -303,7 +314,7 @@ class StationName
  
   /** set the block type to "secondary leg"
    * @param blk   leg secondary-block
-   * @note the block name is set and saved to the database
+   * @note the block name is set and added to the database updates
    */
   protected void setSecLegName( DBlock blk )
   {
@@ -322,28 +333,29 @@ class StationName
     // TDLog.v( "set sec leg " + blk.mId );
     // setBlockName( blk, "", "" );
     blk.setTypeSecLeg();
-    if ( update_db ) mData.updateShotLeg( blk.mId, mSid, LegType.EXTRA ); // must be done only if previous block is BLUNDER
+    if ( update_db ) mUpdates.addLeg( blk.mId, LegType.EXTRA ); // must be done only if previous block is BLUNDER
   }
 
   /** clear the block stations and set its type to "blank" and status to "blunder"
    * @param blk   blunder block
    * @note this should be called only if TDSetting.mBlunderShot is true
-   * @note the block name and blunder status are saved to the database
+   * @note the block name and blunder status are added to the database updates
    */
   protected void setBlunderName( DBlock blk ) // BLUNDER
   { 
     // if ( ! TDSetting.mBlunderShot ) return; // unnecessary
     setBlockName( blk, "", "" );
     blk.setTypeBlank();
-    mData.deleteShot( blk.mId, mSid, TDStatus.BLUNDER );
+    mUpdates.addStatus( blk.mId, TDStatus.BLUNDER );
     blk.setVisible( View.GONE );
   }
 
   /** clear the blunder status of the block record in the database
+   * @param blk   block
    */
   protected void clearBlunder( DBlock blk ) 
   {
-    mData.undeleteShot( blk.mId, mSid );
+    mUpdates.addStatus( blk.mId, TDStatus.NORMAL );
     blk.setVisible( View.VISIBLE );
   }
 
@@ -351,7 +363,7 @@ class StationName
    * @param splay  splay block
    * @param name   station 
    * @note if the DistoX is in normal mode the station is FROM, if it is backsight the station is TO
-   * @note the block name is saved to the database
+   * @note the block name is added to the database updates
    */
   protected void setSplayName( DBlock splay, String name ) 
   {
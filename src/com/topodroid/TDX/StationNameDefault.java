@@ -185,7 +185,10 @@ class StationNameDefault extends StationName
     if ( survey_stations <= 0 ) return false; // assign always false with no policy
 
     if ( TDSetting.mBlunderShot ) {
-      return (new StationNameDefaultBlunder( mContext, mData, mSid )).assignStations( list, sts );
+      StationNameDefaultBlunder blunder_name = new StationNameDefaultBlunder( mContext, mData, mSid );
+      boolean ret = blunder_name.assignStations( list, sts );
+      blunder_name.commitUpdates();
+      return ret;
     }
 
     NativeName mNativeName = new NativeName();
@@ -173,7 +173,7 @@ class StationNameTRobot extends StationName
           if ( prev == null ) {
             prev = blk;
             setSplayName( blk, ((station!=null)? station : from) ); // ALWAYS true
-            mData.updateShotName( blk.mId, mSid, blk.mFrom, blk.mTo );  // SPLAY
+            mUpdates.addName( blk.mId, blk.mFrom, blk.mTo );  // SPLAY
             // TDLog.v( blk.mId + " FROM " + blk.mFrom + " PREV null" );
           } else {
             if ( prev.isRelativeDistance( blk ) ) {
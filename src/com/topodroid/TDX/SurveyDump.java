@@ -0,0 +1,323 @@
+/* @file SurveyDump.java
+ *
+ * @author marco corvi
+ * @date oct 2026
+ *
+ * @brief TopoDroid binary survey dump (archive)
+ * --------------------------------------------------------
+ *  Copyright This software is distributed under GPL-3.0 or later
+ *  See the file COPYING.
+ * --------------------------------------------------------
+ * Format (version 1):
+ *   header: magic "TDSD", format version (int), database version (int)
+ *   tables: table name (UTF), number of columns (int), column names (UTF) and types (byte L, D, S),
+ *           then the rows, each a length-prefixed record (int length, bytes), and a zero length at the end of the table
+ *   end:    empty table name
+ * A record contains the values of the columns: integers as zigzag varints, reals as 8-byte doubles,
+ * strings as references to the string table of the table (varint: 0 null, k the k-th string), where
+ * the reference to the next string is followed by the string (varint length, UTF-8 bytes).
+ * The string table is reset at each table, so that a reader can skip the records of a table.
+ */
+package com.topodroid.TDX;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.HashMap;
+
+class SurveyDump
+{
+  static final int MAGIC   = 0x54445344; // "TDSD"
+  static final int VERSION = 1;          // format version
+
+  static final byte LONG   = 'L';
+  static final byte DOUBLE = 'D';
+  static final byte STRING = 'S';
+
+  private static final Charset UTF8 = Charset.forName( "UTF-8" );
+
+  /** table of the dump
+   */
+  static class Table
+  {
+    final String   name;    // table name
+    final String[] columns; // column names
+    final byte[]   types;   // column types
+
+    /** cstr
+     * @param name     table name
+     * @param columns  column names
+     * @param types    column types, one char per column (L, D, S)
+     */
+    Table( String name, String[] columns, String types )
+    {
+      this.name    = name;
+      this.columns = columns;
+      this.types   = types.getBytes( UTF8 );
+    }
+
+    /** @return the index of a column, or -1
+     * @param column   column name
+     */
+    int indexOf( String column )
+    {
+      for ( int k = 0; k < columns.length; ++k ) if ( columns[k].equals( column ) ) return k;
+      return -1;
+    }
+  }
+
+  /** writer of a binary dump
+   */
+  static class Writer
+  {
+    private final DataOutputStream mDos;
+    private final HashMap< String, Integer > mStrings = new HashMap<>(); // string table: string index + 1
+    private byte[] mRecord = new byte[ 256 ]; // current record
+    private int    mSize = 0;                 // size of the current record
+
+    /** cstr
+     * @param os          output stream
+     * @param db_version  database version
+     */
+    Writer( OutputStream os, int db_version ) throws IOException
+    {
+      mDos = new DataOutputStream( os );
+      mDos.writeInt( MAGIC );
+      mDos.writeInt( VERSION );
+      mDos.writeInt( db_version );
+    }
+
+    /** start a table
+     * @param table   table
+     */
+    void beginTable( Table table ) throws IOException
+    {
+      mStrings.clear();
+      mDos.writeUTF( table.name );
+      mDos.writeInt( table.columns.length );
+      for ( int k = 0; k < table.columns.length; ++k ) {
+        mDos.writeUTF( table.columns[k] );
+        mDos.writeByte( table.types[k] );
+      }
+    }
+
+    /** write a long value to the current record
+     * @param value   value
+     */
+    void putLong( long value ) { putVarint( ( value << 1 ) ^ ( value >> 63 ) ); }
+
+    /** write a double value to the current record
+     * @param value   value
+     */
+    void putDouble( double value )
+    {
+      ensure( 8 );
+      long bits = Double.doubleToLongBits( value );
+      for ( int k = 56; k >= 0; k -= 8 ) mRecord[ mSize++ ] = (byte)( bits >>> k );
+    }
+
+    /** write a string value to the current record
+     * @param value   value, possibly null
+     */
+    void putString( String value )
+    {
+      if ( value == null ) {
+        putVarint( 0 );
+        return;
+      }
+      Integer ref = mStrings.get( value );
+      if ( ref != null ) {
+        putVarint( ref );
+      } else {
+        int next = mStrings.size() + 1;
+        mStrings.put( value, next );
+        putVarint( next );
+        byte[] bytes = value.getBytes( UTF8 );
+        putVarint( bytes.length );
+        ensure( bytes.length );
+        System.arraycopy( bytes, 0, mRecord, mSize, bytes.length );
+        mSize += bytes.length;
+      }
+    }
+
+    /** write the current record
+     */
+    void endRow() throws IOException
+    {
+      mDos.writeInt( mSize );
+      mDos.write( mRecord, 0, mSize );
+      mSize = 0;
+    }
+
+    /** close the current table
+     */
+    void endTable() throws IOException { mDos.writeInt( 0 ); }
+
+    /** close the dump
+     * @note the output stream is flushed, but not closed
+     */
+    void finish() throws IOException
+    {
+      mDos.writeUTF( "" );
+      mDos.flush();
+    }
+
+    /** write an unsigned varint to the current record
+     * @param value   value
+     */
+    private void putVarint( long value )
+    {
+      ensure( 10 );
+      while ( ( value & ~0x7fL ) != 0 ) {
+        mRecord[ mSize++ ] = (byte)( ( value & 0x7f ) | 0x80 );
+        value >>>= 7;
+      }
+      mRecord[ mSize++ ] = (byte)value;
+    }
+
+    /** ensure the record has room for some more bytes
+     * @param n   number of bytes
+     */
+    private void ensure( int n )
+    {
+      if ( mSize + n > mRecord.length ) {
+        byte[] record = new byte[ Math.max( 2 * mRecord.length, mSize + n ) ];
+        System.arraycopy( mRecord, 0, record, 0, mSize );
+        mRecord = record;
+      }
+    }
+  }
+
+  /** reader of a binary dump
+   */
+  static class Reader
+  {
+    private final DataInputStream mDis;
+    private final int mDbVersion;
+    private final ArrayList< String > mStrings = new ArrayList<>(); // string table
+    private Table mTable = null;
+    private byte[] mRecord = new byte[ 256 ];
+    private int mPos;
+
+    long[]   longs;   // long values of the current row, by column
+    double[] doubles; // double values of the current row, by column
+    String[] strings; // string values of the current row, by column
+
+    /** cstr
+     * @param is   input stream
+     * @throws IOException if the stream is not a binary dump of a known version
+     */
+    Reader( InputStream is ) throws IOException
+    {
+      mDis = new DataInputStream( is );
+      if ( mDis.readInt() != MAGIC ) throw new IOException( "not a survey dump" );
+      int version = mDis.readInt();
+      if ( version < 1 || version > VERSION ) throw new IOException( "unsupported survey dump version " + version );
+      mDbVersion = mDis.readInt();
+    }
+
+    /** @return the database version of the dump
+     */
+    int getDbVersion() { return mDbVersion; }
+
+    /** @return the next table, or null at the end of the dump
+     */
+    Table nextTable() throws IOException
+    {
+      String name = mDis.readUTF();
+      if ( name.length() == 0 ) return null;
+      int nr = mDis.readInt();
+      String[] columns = new String[ nr ];
+      StringBuilder types = new StringBuilder();
+      for ( int k = 0; k < nr; ++k ) {
+        columns[k] = mDis.readUTF();
+        types.append( (char)mDis.readByte() );
+      }
+      mTable   = new Table( name, columns, types.toString() );
+      longs    = new long[ nr ];
+      doubles  = new double[ nr ];
+      strings  = new String[ nr ];
+      mStrings.clear();
+      return mTable;
+    }
+
+    /** read the next row of the current table
+     * @return false at the end of the table
+     */
+    boolean nextRow() throws IOException
+    {
+      int size = mDis.readInt();
+      if ( size == 0 ) return false;
+      if ( size > mRecord.length ) mRecord = new byte[ Math.max( size, 2 * mRecord.length ) ];
+      mDis.readFully( mRecord, 0, size );
+      mPos = 0;
+      byte[] types = mTable.types;
+      try {
+        readValues( types, size );
+      } catch ( IndexOutOfBoundsException e ) {
+        throw new IOException( "truncated record" );
+      }
+      return true;
+    }
+
+    /** decode the values of the current record
+     * @param types   column types
+     * @param size    record size
+     */
+    private void readValues( byte[] types, int size ) throws IOException
+    {
+      for ( int k = 0; k < types.length; ++k ) {
+        switch ( types[k] ) {
+          case LONG:
+            long v = getVarint();
+            longs[k] = ( v >>> 1 ) ^ -( v & 1 );
+            break;
+          case DOUBLE:
+            long bits = 0;
+            for ( int j = 0; j < 8; ++j ) bits = ( bits << 8 ) | ( mRecord[ mPos++ ] & 0xff );
+            doubles[k] = Double.longBitsToDouble( bits );
+            break;
+          case STRING:
+            int ref = (int)getVarint();
+            if ( ref == 0 ) {
+              strings[k] = null;
+            } else if ( ref <= mStrings.size() ) {
+              strings[k] = mStrings.get( ref - 1 );
+            } else if ( ref == mStrings.size() + 1 ) {
+              int len = (int)getVarint();
+              String str = new String( mRecord, mPos, len, UTF8 );
+              mPos += len;
+              mStrings.add( str );
+              strings[k] = str;
+            } else {
+              throw new IOException( "bad string reference " + ref );
+            }
+            break;
+          default:
+            throw new IOException( "bad column type " + types[k] );
+        }
+        if ( mPos > size ) throw new IOException( "truncated record" );
+      }
+    }
+
+    /** @return the next unsigned varint of the current record
+     */
+    private long getVarint()
+    {
+      long value = 0;
+      int shift = 0;
+      byte b;
+      do {
+        b = mRecord[ mPos++ ];
+        value |= (long)( b & 0x7f ) << shift;
+        shift += 7;
+      } while ( ( b & 0x80 ) != 0 );
+      return value;
+    }
+  }
+
+}
@@ -86,19 +86,10 @@ public class TDExporter
   private static final String   therion_flags_not_surface   = "   flags not surface\n";
   private static final String   extend_auto = "    # extend auto\n";
 
-  private static double mERadius = Geodetic.EARTH_A;
-  private static double mSRadius = Geodetic.EARTH_A;
-
   private static void checkShotsClino( List< DBlock > list )
   {
     if ( TDInstance.datamode == SurveyInfo.DATAMODE_DIVING ) {
-      for ( DBlock blk : list ) {
-	if ( blk.mTo != null && blk.mTo.length() > 0 && blk.mFrom != null && blk.mFrom.length() > 0 ) {
-          // sets the blocks clino
-          TDNum num = new TDNum( list, blk.mFrom, null, null, 0.0f, null ); // no declination, null formatClosure
-	  break;
-	}
-      }
+      TDNum.makeDivingClino( list ); // sets the blocks clino, no need of the data reduction
     }
   }
 
@@ -205,10 +196,20 @@ public class TDExporter
     if ( xsplay ) pw.format(" cut=\"1\"");
   }
 
-  static private void writeCsxShotAttachments( PrintWriter pw, DataHelper data, String survey, long sid, DBlock blk )
+  /** write the audio and photo attachments of a shot
+   * @param pw      output writer
+   * @param data    surveys database
+   * @param media   shot media, by shot ID: the database is queried only for the shots with media
+   * @param survey  survey name
+   * @param sid     survey ID
+   * @param blk     shot
+   */
+  static private void writeCsxShotAttachments( PrintWriter pw, DataHelper data, HashMap< Long, ShotMedia > media, String survey, long sid, DBlock blk )
   {
     long bid = blk.mId;
-    AudioInfo audio = data.getAudio( sid, bid );
+    ShotMedia shot_media = media.get( bid );
+    if ( shot_media == null ) return;
+    AudioInfo audio = shot_media.hasAudio() ? data.getAudio( sid, bid ) : null;
     List< PhotoInfo > photos = data.selectPhotoAtShot( sid, bid );
     if ( audio == null && photos.size() == 0 ) return;
     pw.format("      <attachments>\n");
@@ -321,6 +322,7 @@ public class TDExporter
     List< DBlock > dlist = data.selectAllExportShots( sid, TDStatus.NORMAL );
     List< DBlock > clist = data.selectAllExportShots( sid, TDStatus.CHECK );
     checkShotsClino( dlist );
+    HashMap< Long, ShotMedia > media = data.selectShotMedia( sid, TDStatus.NORMAL );
 
     List< FixedInfo > fixed = data.selectAllFixed( sid, TDStatus.NORMAL );
     // List< PlotInfo > plots  = data.selectAllPlots( sid, TDStatus.NORMAL );
@@ -419,7 +421,7 @@ public class TDExporter
         }
 	pw.format(" distox=\"%s\"", blk.getAddress() ); // MAC-address
         pw.format(" >\n");
-        // writeCsxShotAttachments( pw, data, survey, sid, blk ); // calib-check shots have no attachment
+        // writeCsxShotAttachments( pw, data, media, survey, sid, blk ); // calib-check shots have no attachment
         pw.format("    </segment>\n");
       }
 
@@ -467,7 +469,7 @@ public class TDExporter
               }
 	      pw.format(" distox=\"%s\"", ref_item.getAddress() ); // MAC-address
               pw.format(" >\n");
-              writeCsxShotAttachments( pw, data, survey, sid, ref_item );
+              writeCsxShotAttachments( pw, data, media, survey, sid, ref_item );
               pw.format("    </segment>\n");
               ref_item = null; 
             }
@@ -486,7 +488,7 @@ public class TDExporter
             }
 	    pw.format(" distox=\"%s\"", item.getAddress() ); // MAC-address
             pw.format(" >\n");
-            writeCsxShotAttachments( pw, data, survey, sid, item );
+            writeCsxShotAttachments( pw, data, media, survey, sid, item );
             pw.format("    </segment>\n");
           }
         } else { // with FROM station
@@ -510,7 +512,7 @@ public class TDExporter
               }
 	      pw.format(" distox=\"%s\"", ref_item.getAddress() ); // MAC-address
               pw.format(" >\n");
-              writeCsxShotAttachments( pw, data, survey, sid, ref_item );
+              writeCsxShotAttachments( pw, data, media, survey, sid, ref_item );
               pw.format("    </segment>\n");
               ref_item = null; 
             }
@@ -529,7 +531,7 @@ public class TDExporter
             }
 	    pw.format(" distox=\"%s\"", item.getAddress() ); // MAC-address
             pw.format(" >\n");
-            writeCsxShotAttachments( pw, data, survey, sid, item );
+            writeCsxShotAttachments( pw, data, media, survey, sid, item );
             pw.format("    </segment>\n");
           } else { // BOTH FROM AND TO STATIONS
             if ( leg.mCnt > 0 && ref_item != null ) {
@@ -550,7 +552,7 @@ public class TDExporter
               }
 	      pw.format(" distox=\"%s\"", ref_item.getAddress() ); // MAC-address
               pw.format(" >\n");
-              writeCsxShotAttachments( pw, data, survey, sid, ref_item );
+              writeCsxShotAttachments( pw, data, media, survey, sid, ref_item );
               pw.format("    </segment>\n");
             }
             ref_item = item;
@@ -589,7 +591,7 @@ public class TDExporter
         }
 	pw.format(" distox=\"%s\"", ref_item.getAddress() ); // MAC-address
         pw.format(" >\n");
-        writeCsxShotAttachments( pw, data, survey, sid, ref_item );
+        writeCsxShotAttachments( pw, data, media, survey, sid, ref_item );
         pw.format("    </segment>\n");
       }
       pw.format("  </segments>\n");
@@ -636,16 +638,49 @@ public class TDExporter
     float decl = data.getSurveyDeclination( sid );
     if ( decl >= SurveyInfo.DECLINATION_MAX ) decl = 0; // if unset use 0
 
-    List< TDNum > nums = getGeolocalizedData( sid, data, decl, asl_factor, ellipsoid_altitude );
-    if ( nums == null ) return null;
-    for ( TDNum num : nums ) {
-      for ( NumStation st : num.getStations() ) {
-        if ( station.equals( st.name ) ) return new GeoReference( st.e, st.s, st.v, mERadius, mSRadius, decl );
-      }
+    List< FixedInfo > fixeds = data.selectAllFixed( sid, 0 );
+    // TDLog.v( "get geoloc. data. Decl " + decl + " fixeds " + fixeds.size() );
+    if ( TDUtil.isEmpty(fixeds) ) return null;
+    for ( FixedInfo fixed : fixeds ) {
+      TDNum num = TDNumCache.get( data, sid, fixed.name, decl ); // shared reduction: not modified
+      if ( num == null ) return null; // no shots
+      // TDLog.v( "Num shots " + num.getShots().size() );
+      if ( num.getShots().size() > 0 ) {
+        NumStation st = num.getStation( station );
+        if ( st != null ) return makeGeoReference( st, fixed, asl_factor, ellipsoid_altitude, decl );
+      } 
     }
     return null;
   }
 
+  /** @return the geolocalized reference of a station
+   * @param st         station
+   * @param origin     fixed station, origin of the reduction
+   * @param asl_factor altitude factor
+   * @param ellipsoid_altitude whether to use the ellipsoid altitude
+   * @param decl       magnetic declination
+   * @note the station of the reduction is not modified
+   */
+  static private GeoReference makeGeoReference( NumStation st, FixedInfo origin, float asl_factor, boolean ellipsoid_altitude, float decl )
+  {
+    double lat = origin.lat;
+    double lng = origin.lng;
+    double alt = origin.alt;
+    double asl = ellipsoid_altitude ? origin.alt 
+                                    : origin.asl; // KML uses Geoid altitude (unless altitudeMode is set)
+    double s_radius = 1 / Geodetic.meridianRadiusExact( lat, alt );
+    double e_radius = 1 / Geodetic.parallelRadiusExact( lat, alt );
+    return new GeoReference( lng + st.e * e_radius, lat - st.s * s_radius, (asl - st.v) * asl_factor, e_radius, s_radius, decl );
+  }
+
+  /** @return the geolocalized reductions of a survey, one for each fixed station, or null if the survey has no fixed stations
+   * @param sid        survey ID
+   * @param data       database helper
+   * @param decl       magnetic declination
+   * @param asl_factor altitude factor
+   * @param ellipsoid_altitude whether to use the ellipsoid altitude
+   * @note the reductions are not taken from the cache, because the coordinates of the stations and splays are replaced
+   */
   static private List< TDNum > getGeolocalizedData( long sid, DataHelper data, float decl, float asl_factor, boolean ellipsoid_altitude )
   {
     List< FixedInfo > fixeds = data.selectAllFixed( sid, 0 );
@@ -654,36 +689,32 @@ public class TDExporter
 
     List< TDNum > nums = new ArrayList< TDNum >();
     List< DBlock > shots_data = data.selectAllExportShots( sid, 0 );
-    FixedInfo origin = null;
     for ( FixedInfo fixed : fixeds ) {
       TDNum num = new TDNum( shots_data, fixed.name, null, null, decl, null ); // null formatClosure
       // TDLog.v( "Num shots " + num.getShots().size() );
       if ( num.getShots().size() > 0 ) {
         makeGeolocalizedData( num, fixed, asl_factor, ellipsoid_altitude );
-	nums.add( num );
+        nums.add( num );
       } 
     }
-    // if ( origin == null || num == null ) return null;
     return nums;
   }
 
+  /** replace the coordinates of the stations and the splays of a reduction with the geolocalized coordinates
+   * @param num        reduction
+   * @param origin     fixed station, origin of the reduction
+   * @param asl_factor altitude factor
+   * @param ellipsoid_altitude whether to use the ellipsoid altitude
+   */
   static private void  makeGeolocalizedData( TDNum num, FixedInfo origin, float asl_factor, boolean ellipsoid_altitude )
   {
-
     double lat = origin.lat;
     double lng = origin.lng;
     double alt = origin.alt;
-    double asl = ellipsoid_altitude ? origin.alt 
+    double asl = ellipsoid_altitude ? origin.alt
                                     : origin.asl; // KML uses Geoid altitude (unless altitudeMode is set)
     double s_radius = 1 / Geodetic.meridianRadiusExact( lat, alt );
     double e_radius = 1 / Geodetic.parallelRadiusExact( lat, alt );
-    // TDLog.v( "radius S " + (s_radius / s_radius_e) + " E " + (e_radius / e_radius_a ) );
-
-    mERadius = e_radius; // save radii factors for getGeolocalizedStation
-    mSRadius = s_radius;
-
-    // TDLog.v( "st cnt " + NumStation.cnt + " size " + num.getStations().size() );
-
 
     for ( NumStation st : num.getStations() ) {
       st.s = (lat - st.s * s_radius);
@@ -1982,8 +2013,8 @@ public class TDExporter
         }
         if ( from != null ) {
           boolean do_header = true;
-          TDNum num = new TDNum( list, from, null, null, 0.0f, null ); // no declination, null formatClosure
-          List< NumBranch > branches = num.makeBranches( true );
+          TDNum num = TDNumCache.get( data, sid, from, 0.0f ); // no declination - shared reduction: not modified
+          List< NumBranch > branches = ( num == null )? new ArrayList< NumBranch >() : num.makeBranches( true );
           // TDLog.v( "Station " + from + " shots " + num.shotsNr() + " splays " + num.splaysNr()
           //               + " branches " + branches.size() );
 
@@ -2006,7 +2037,7 @@ public class TDExporter
               NumStation s2 = sh.to;
               int index = 0;
               int step = 1;
-              if ( sh.mBranchDir < 0 ) {
+              if ( branch.firstDir < 0 ) {
                 step = -1;
                 index = size - 1;
                 sh = shots.get( index );
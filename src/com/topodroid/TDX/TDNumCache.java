@@ -0,0 +1,205 @@
+/* @file TDNumCache.java
+ *
+ * @author marco corvi
+ * @date oct 2026
+ *
+ * @brief TopoDroid shared cache of survey reductions
+ * --------------------------------------------------------
+ *  Copyright This software is distributed under GPL-3.0 or later
+ *  See the file COPYING.
+ * --------------------------------------------------------
+ * A reduction is keyed by survey ID, start station, barrier and hiding lists, declination, loop-closure
+ * mode and report format, and is tagged with the shots version of the survey (surveys.shot_version,
+ * bumped by the triggers at each write of a shot of the survey): the reductions of older shots are
+ * never returned.
+ * Any change of the settings, and the deletion of a survey, clear the cache.
+ * The reduction is computed outside the lock of the cache: concurrent requests of the same key
+ * wait for the same computation, requests of other keys are not blocked.
+ * The reductions are held by weak references, except the most recently used ones, that are
+ * released when the system is low on memory.
+ * The shots version is kept by the triggers of the shots table (database version 48): a shot write
+ * that does not go through the shots table would not invalidate the cached reductions.
+ * The cached reductions are shared, and are made read-only before they are published: their mutators
+ * (append data, drop splay, set hidden or barrier stations, add closures) throw IllegalStateException.
+ * The loop closures of a cached reduction are computed with the reduction.
+ * The station coords are not checked: the callers must not change them.
+ */
+package com.topodroid.TDX;
+
+import com.topodroid.num.TDNum;
+import com.topodroid.prefs.TDSetting;
+import com.topodroid.utils.TDLog;
+
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+
+public class TDNumCache
+{
+  private static final int MAX_RECENT = 2; // number of reductions held by strong references
+
+  /** cached reduction
+   */
+  private static class Entry
+  {
+    final long version;        // shots version of the reduction
+    FutureTask< TDNum > load;  // computation of the reduction, null when completed
+    WeakReference< TDNum > num = null; // reduction, set when completed
+
+    Entry( long version, FutureTask< TDNum > load )
+    {
+      this.version = version;
+      this.load    = load;
+    }
+
+    /** @return true if the entry can be dropped
+     */
+    boolean isCleared() { return load == null && ( num == null || num.get() == null ); }
+  }
+
+  private static final HashMap< String, Entry > mCache = new HashMap<>(); // lock for the cache
+  private static final ArrayList< TDNum > mRecent = new ArrayList<>(); // most recently used reductions, the last is the most recent
+
+  /** @return the reduction of the (normal) shots of a survey, or null if the survey has no shots
+   * @param data   database helper
+   * @param sid    survey ID
+   * @param start  start station, or null for the FROM station of the first shot
+   * @param decl   magnetic declination
+   * @note the reduction is shared and must not be modified
+   */
+  static TDNum get( DataHelper data, long sid, String start, float decl )
+  {
+    return get( data, sid, start, null, null, decl, null ); // null formatClosure
+  }
+
+  /** @return the reduction of the (normal) shots of a survey, or null if the survey has no shots
+   * @param data     database helper
+   * @param sid      survey ID
+   * @param start    start station, or null for the FROM station of the first shot
+   * @param view     barriers list
+   * @param hide     hiding list
+   * @param decl     magnetic declination
+   * @param loop_fmt loop closure report format
+   * @note the reduction is shared and must not be modified
+   */
+  static TDNum get( final DataHelper data, final long sid, final String start, final String view, final String hide,
+                    final float decl, final String loop_fmt )
+  {
+    long version = data.getShotsVersion( sid ); // before reading the shots
+    if ( version < 0 ) return null;
+    String key = sid + "|" + start + "|" + view + "|" + hide + "|" + Float.floatToIntBits( decl ) + "|" + TDSetting.mLoopClosure + "|" + loop_fmt;
+    Entry entry;
+    FutureTask< TDNum > load;
+    boolean owner = false; // whether this call computes the reduction
+    synchronized ( mCache ) {
+      purge();
+      entry = mCache.get( key );
+      if ( entry != null && entry.version >= version ) {
+        TDNum num = ( entry.num == null )? null : entry.num.get();
+        if ( num != null ) return used( num );
+      }
+      if ( entry != null && entry.version >= version && entry.load != null ) {
+        load = entry.load; // wait for the computation in progress
+      } else {
+        load = new FutureTask<>( new Callable< TDNum >() {
+          @Override public TDNum call() { return reduce( data, sid, start, view, hide, decl, loop_fmt ); }
+        } );
+        entry = new Entry( version, load );
+        mCache.put( key, entry );
+        owner = true;
+      }
+    }
+    if ( owner ) load.run();
+    TDNum num = null;
+    try {
+      num = load.get();
+    } catch ( InterruptedException e ) {
+      Thread.currentThread().interrupt();
+    } catch ( ExecutionException e ) {
+      TDLog.e( "NUM cache reduction failed: " + e.getCause() );
+    }
+    synchronized ( mCache ) {
+      if ( owner ) {
+        entry.load = null;
+        if ( num != null ) {
+          entry.num = new WeakReference<>( num );
+        } else if ( mCache.get( key ) == entry ) {
+          mCache.remove( key ); // no reduction: not cached
+        }
+      }
+      return ( num == null )? null : used( num );
+    }
+  }
+
+  /** @return the reduction of the (normal) shots of a survey, or null if the survey has no shots
+   * @param data     database helper
+   * @param sid      survey ID
+   * @param start    start station, or null for the FROM station of the first shot
+   * @param view     barriers list
+   * @param hide     hiding list
+   * @param decl     magnetic declination
+   * @param loop_fmt loop closure report format
+   */
+  private static TDNum reduce( DataHelper data, long sid, String start, String view, String hide, float decl, String loop_fmt )
+  {
+    ShotColumns cols = data.selectReductionShots( sid );
+    if ( cols.size == 0 ) return null;
+    if ( start == null ) start = cols.getFrom( 0 );
+    // TDLog.v( "NUM cache miss " + sid + " " + start );
+    TDNum num = new TDNum( cols, start, view, hide, decl, loop_fmt );
+    num.setReadOnly();
+    return num;
+  }
+
+  /** mark a reduction as the most recently used
+   * @param num   reduction
+   * @return the reduction
+   * @note must be called with the lock on mCache
+   */
+  private static TDNum used( TDNum num )
+  {
+    mRecent.remove( num );
+    mRecent.add( num );
+    if ( mRecent.size() > MAX_RECENT ) mRecent.remove( 0 );
+    return num;
+  }
+
+  /** drop the entries of the reductions that have been garbage-collected
+   * @note must be called with the lock on mCache
+   */
+  private static void purge()
+  {
+    Iterator< Map.Entry< String, Entry > > it = mCache.entrySet().iterator();
+    while ( it.hasNext() ) {
+      if ( it.next().getValue().isCleared() ) it.remove();
+    }
+  }
+
+  /** release the strong references to the reductions
+   * @note the reductions remain available as long as they are used
+   */
+  static void trim()
+  {
+    synchronized ( mCache ) {
+      mRecent.clear();
+      purge();
+    }
+  }
+
+  /** clear the cache
+   * @note the computations in progress complete, but their reductions are not cached
+   */
+  public static void clear()
+  {
+    synchronized ( mCache ) {
+      mCache.clear();
+      mRecent.clear();
+    }
+  }
+
+}
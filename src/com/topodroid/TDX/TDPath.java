@@ -310,6 +310,11 @@ public class TDPath
    */
   static String getSqlFile() { return APP_SURVEY_PATH + "/survey.sql"; }
 
+  /** @return the binary dump pathname, ie, <survey>/survey.dat
+   * @note used by Archiver
+   */
+  static String getDumpFile() { return APP_SURVEY_PATH + "/survey.dat"; }
+
   /** @return the manifest file pathname, ie, <tmp>/manifest
    * @note used by Archiver, TopoDroidApp
    */
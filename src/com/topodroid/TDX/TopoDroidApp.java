@@ -557,6 +557,25 @@ public class TopoDroidApp extends Application
     thisApp = null;
   }
 
+  /** the system is low on memory: release the cached survey reductions
+   */
+  @Override
+  public void onLowMemory()
+  {
+    super.onLowMemory();
+    TDNumCache.trim();
+  }
+
+  /** the system asks to release memory
+   * @param level   memory trim level
+   */
+  @Override
+  public void onTrimMemory( int level )
+  {
+    super.onTrimMemory( level );
+    TDNumCache.trim();
+  }
+
   /** set the model of the bluetooth device
    * @param device   bluetooth device (must agree with the primary device)
    * @param model    device model
@@ -1774,19 +1793,10 @@ public class TopoDroidApp extends Application
     // TDLog.v("DATA " + "assign stations after " + blk0.Name() + " size " + list.size() + " stations " + sts.size() );
     // if ( TDSetting.mSurveyStations < 0 ) return;
     StationName.clearCurrentStation();
-    if ( StationPolicy.doTopoRobot() ) {
-      // long millis = SystemClock.uptimeMillis(); // TROBOT_MILLIS
-      // if ( millis > trobotmillis + 10000 ) {
-      //   TDToast.make( R.string.toporobot_warning );
-      //   trobotmillis = millis;
-      // }
-      return new StationNameTRobot(this, mData, TDInstance.sid ).assignStationsAfter( blk0, list, sts );
-    } else  if ( StationPolicy.doBacksight() ) {
-      return new StationNameBacksight(this, mData, TDInstance.sid ).assignStationsAfter( blk0, list, sts );
-    } else if ( StationPolicy.doTripod() ) {
-      return new StationNameTripod( this, mData, TDInstance.sid ).assignStationsAfter( blk0, list, sts );
-    } 
-    return new StationNameDefault( this, mData, TDInstance.sid ).assignStationsAfter( blk0, list, sts );
+    StationName station_name = makeStationName();
+    boolean ret = station_name.assignStationsAfter( blk0, list, sts );
+    station_name.commitUpdates(); // the shot updates are written in a single transaction
+    return ret;
   }
 
   /** called also by ShotWindow::updataBlockList
@@ -1802,19 +1812,29 @@ public class TopoDroidApp extends Application
     // TDLog.v("DATA " + "assign stations all: size " + sz + " blk[0] id " + list.get(0).mId );
 
     // if ( TDSetting.mSurveyStations < 0 ) return;
+    StationName station_name = makeStationName();
+    boolean ret = station_name.assignStations( list, sts );
+    station_name.commitUpdates(); // the shot updates are written in a single transaction
+    return ret;
+  }
+
+  /** @return the station-name assigner of the current station policy
+   */
+  private StationName makeStationName()
+  {
     if ( StationPolicy.doTopoRobot() ) {
       // long millis = SystemClock.uptimeMillis(); // TROBOT_MILLIS
       // if ( millis > trobotmillis + 10000 ) {
       //   TDToast.make( R.string.toporobot_warning );
       //   trobotmillis = millis;
       // }
-      return new StationNameTRobot(this, mData, TDInstance.sid ).assignStations( list, sts );
+      return new StationNameTRobot(this, mData, TDInstance.sid );
     } else  if ( StationPolicy.doBacksight() ) {
-      return new StationNameBacksight(this, mData, TDInstance.sid ).assignStations( list, sts );
+      return new StationNameBacksight(this, mData, TDInstance.sid );
     } else if ( StationPolicy.doTripod() ) {
-      return new StationNameTripod( this, mData, TDInstance.sid ).assignStations( list, sts );
+      return new StationNameTripod( this, mData, TDInstance.sid );
     } 
-    return new StationNameDefault( this, mData, TDInstance.sid ).assignStations( list, sts );
+    return new StationNameDefault( this, mData, TDInstance.sid );
   }
 
   // ================================================================
@@ -94,6 +94,7 @@ public class CommThread extends Thread
           doWork = false;
         } else {
           mComm.handleRegularPacket( res, mLister, mDataType );
+          mComm.acknowledgePacket(); // after the packet data have been written
         }
       }
     } else { // if ( mType == COMM_GATT ) 
@@ -19,6 +19,7 @@ import com.topodroid.prefs.TDSetting;
 import com.topodroid.TDX.TDInstance;
 import com.topodroid.TDX.TopoDroidApp;
 import com.topodroid.TDX.Lister;
+import com.topodroid.TDX.ShotIngest;
 // import com.topodroid.TDX.DBlock;
 import com.topodroid.common.ExtendType;
 import com.topodroid.common.LegType;
@@ -57,6 +58,7 @@ public class TopoDroidComm
 
   boolean mHasG = false; // whether the last received packet was G type
   long mLastShotId;   // last shot id
+  protected final ShotIngest mShotIngest = new ShotIngest(); // writer of the downloaded shots
 
   // private AtomicInteger mNrReadPackets; // FIXME_ATOMIC_INT
   protected volatile int mNrReadPackets;
@@ -109,16 +111,12 @@ public class TopoDroidComm
     // TDLog.v( "TD comm: HANDLE PACKET " + index + " " + d + " " + b + " " + c );
     int leg = ( data_type == DataType.DATA_SCAN )? LegType.SCAN : LegType.NORMAL;
     if ( comment == null ) comment = "";
-    mLastShotId = TopoDroidApp.mData.insertBricShot( TDInstance.sid, index, d, b, c, r, clino_error, azimuth_error, dip, ExtendType.EXTEND_IGNORE, leg, status, comment, TDInstance.deviceAddress() );
+    // mLastShotId = TopoDroidApp.mData.insertBricShot( TDInstance.sid, index, d, b, c, r, clino_error, azimuth_error, dip, ExtendType.EXTEND_IGNORE, leg, status, comment, TDInstance.deviceAddress() );
+    mLastShotId = mShotIngest.add( TDInstance.sid, index, true, d, b, c, r, clino_error, azimuth_error, dip, ExtendType.EXTEND_IGNORE, leg, status, comment, TDInstance.deviceAddress(), lister );
     // TopoDroidApp.mData.updateShotAMDR( mLastShotId, TDInstance.sid, clino_error, azimuth_error, dip, r, false );
     // if ( comment != null ) TopoDroidApp.mData.updateShotComment( mLastShotId, TDInstance.sid, comment );
     
-    if ( lister != null ) { // FIXME_LISTER sendMessage with mLastShotId only
-      Message msg = lister.obtainMessage( Lister.LIST_UPDATE );
-      Bundle bundle = new Bundle();
-      bundle.putLong( Lister.BLOCK_ID, mLastShotId );
-      msg.setData(bundle);
-      lister.sendMessage(msg);
+    if ( lister != null ) { // the lister is notified by the shot ingest
       if ( TDInstance.deviceType() == Device.DISTO_A3 && TDSetting.mWaitData > 10 ) {
         TDUtil.slowDown( TDSetting.mWaitData );
       }
@@ -139,13 +137,9 @@ public class TopoDroidComm
       TDLog.v( "TD comm: packet ZERO " + mNrReadPackets );
     double r = mProtocol.mRoll;
     long status = TDStatus.NORMAL;
-    mLastShotId = TopoDroidApp.mData.insertDistoXShot( TDInstance.sid, index, 0, 0, 0, r, ExtendType.EXTEND_IGNORE, status, TDInstance.deviceAddress() );
-    if ( lister != null ) { // FIXME_LISTER sendMessage with mLastShotId only
-      Message msg = lister.obtainMessage( Lister.LIST_UPDATE );
-      Bundle bundle = new Bundle();
-      bundle.putLong( Lister.BLOCK_ID, mLastShotId );
-      msg.setData(bundle);
-      lister.sendMessage(msg);
+    // mLastShotId = TopoDroidApp.mData.insertDistoXShot( TDInstance.sid, index, 0, 0, 0, r, ExtendType.EXTEND_IGNORE, status, TDInstance.deviceAddress() );
+    mLastShotId = mShotIngest.add( TDInstance.sid, index, false, 0, 0, 0, r, 0, 0, 0, ExtendType.EXTEND_IGNORE, LegType.NORMAL, status, "", TDInstance.deviceAddress(), lister );
+    if ( lister != null ) { // the lister is notified by the shot ingest
       if ( TDInstance.deviceType() == Device.DISTO_A3 && TDSetting.mWaitData > 10 ) {
         TDUtil.slowDown( TDSetting.mWaitData );
       }
@@ -174,13 +168,10 @@ public class TopoDroidComm
       // TDLog.v( "TD comm: D PACKET " + d + " " + b + " " + c );
       // NOTE type=0 shot is DistoX-type
       long status = ( d > TDSetting.mMaxShotLength )? TDStatus.OVERSHOOT : TDStatus.NORMAL;
-      mLastShotId = TopoDroidApp.mData.insertDistoXShot( TDInstance.sid, -1L, d, b, c, r, ExtendType.EXTEND_IGNORE, status, TDInstance.deviceAddress() );
-      if ( lister != null ) { // FIXME_LISTER sendMessage with mLastShotId only
-        Message msg = lister.obtainMessage( Lister.LIST_UPDATE );
-        Bundle bundle = new Bundle();
-        bundle.putLong( Lister.BLOCK_ID, mLastShotId );
-        msg.setData(bundle);
-        lister.sendMessage(msg);
+      // mLastShotId = TopoDroidApp.mData.insertDistoXShot( TDInstance.sid, -1L, d, b, c, r, ExtendType.EXTEND_IGNORE, status, TDInstance.deviceAddress() );
+      mLastShotId = mShotIngest.add( TDInstance.sid, -1L, false, d, b, c, r, 0, 0, 0, ExtendType.EXTEND_IGNORE, LegType.NORMAL, status, "", TDInstance.deviceAddress(), lister );
+      acknowledgePacket(); // the shot has been written: the device can send the next packet
+      if ( lister != null ) { // the lister is notified by the shot ingest
         if ( TDInstance.deviceType() == Device.DISTO_A3 && TDSetting.mWaitData > 10 ) {
           TDUtil.slowDown( TDSetting.mWaitData );
         }
@@ -260,7 +251,8 @@ public class TopoDroidComm
       boolean backshot = mProtocol.mBackshot;
       // TDLog.Log( TDLog.LOG_COMM, "Comm V PACKET " + mLastShotId + " " + acc + " " + mag + " " + dip + " " + roll );
       if ( TDInstance.deviceType() == Device.DISTO_X310 ) {
-        TopoDroidApp.mData.updateShotAMDR( mLastShotId, TDInstance.sid, acc, mag, dip, roll, backshot );
+        mShotIngest.updateAMDR( mLastShotId, TDInstance.sid, acc, mag, dip, roll, backshot );
+        acknowledgePacket();
         if ( TDSetting.mWaitData > 10 ) {
           TDUtil.slowDown( TDSetting.mWaitData );
         }
@@ -340,6 +332,14 @@ public class TopoDroidComm
     }
   }
 
+  /** acknowledge the last packet read by the protocol
+   * @note called after the packet has been handled, and its data written to the database
+   */
+  void acknowledgePacket()
+  {
+    if ( mProtocol != null ) mProtocol.acknowledgePacket();
+  }
+
   // -------------------------------------------------------- 
   // PROTOCOL
 
@@ -298,6 +298,11 @@ public class TopoDroidProtocol
     return DataType.PACKET_NONE;
   }
 
+  /** acknowledge the last packet read, if it has not been acknowledged yet
+   * @note default does nothing: the protocols that acknowledge the packets must override it
+   */
+  public void acknowledgePacket() { }
+
   /** write a command to the out channel
    * @param cmd command code
    * @return true if success
@@ -48,6 +48,7 @@ public class DistoXProtocol extends TopoDroidProtocol
   protected byte[] mAddr8000;     // could be used by DistoXA3Protocol.read8000 
   private byte[] mAcknowledge;
   private byte   mSeqBit;         // sequence bit: 0x00 or 0x80
+  private boolean mPendingAck = false; // whether the last packet read has still to be acknowledged
   protected byte[] mBuffer;
 
   // protected static final UUID MY_UUID = UUID.fromString( "00001101-0000-1000-8000-00805F9B34FB" );
@@ -214,6 +215,7 @@ public class DistoXProtocol extends TopoDroidProtocol
     // TDLog.Log( TDLog.LOG_PROTO, "Protocol read packet no-timeout " + (no_timeout?"true":"false") );
     // TDLog.v( "DistoX proto: read packet no-timeout " + (no_timeout?"true":"false") );
     try {
+      writeAcknowledge(); // the previous packet, if it has not been acknowledged yet
       final int max_timeout = 8;
       int timeout = 0;
       int available = 0;
@@ -251,11 +253,13 @@ public class DistoXProtocol extends TopoDroidProtocol
         { 
           // checkDataType( mBuffer[0], data_type );
           mAcknowledge[0] = (byte)(( mBuffer[0] & 0x80 ) | 0x55);
-          mOut.write( mAcknowledge, 0, 1 );
-          // if ( TDLog.LOG_PROTO ) TDLog.DoLog( "read packet byte " + String.format(" %02x", mBuffer[0] ) + " ... writing ack" );
-          if ( TDSetting.mPacketLog ) logPacket1( 1L, mAcknowledge );
+          mPendingAck = true;
         }
-        if ( ok ) return handlePacket( mBuffer );
+        if ( ok ) {
+          int res = handlePacket( mBuffer );
+          if ( res != DataType.PACKET_NONE ) return res; // acknowledged after the packet has been handled
+        }
+        writeAcknowledge(); // repeated packet, already handled, or packet with nothing to handle
       } // else timed-out with no packet
     } catch ( EOFException e ) {
       TDLog.e( "Proto read packet EOFException" + e.toString() );
@@ -270,6 +274,30 @@ public class DistoXProtocol extends TopoDroidProtocol
     return DataType.PACKET_NONE;
   }
 
+  /** acknowledge the last packet read, if it has not been acknowledged yet
+   * @note called after the packet has been handled, so that a packet is acknowledged after its data have been written
+   */
+  @Override // TopoDroidProtocol
+  public void acknowledgePacket()
+  {
+    try {
+      writeAcknowledge();
+    } catch ( IOException e ) {
+      TDLog.e( "Proto acknowledge IOException " + e.toString() );
+    }
+  }
+
+  /** write the pending acknowledge, if any
+   */
+  private void writeAcknowledge() throws IOException
+  {
+    if ( ! mPendingAck ) return;
+    mPendingAck = false;
+    mOut.write( mAcknowledge, 0, 1 );
+    // if ( TDLog.LOG_PROTO ) TDLog.DoLog( "read packet byte " + String.format(" %02x", mBuffer[0] ) + " ... writing ack" );
+    if ( TDSetting.mPacketLog ) logPacket1( 1L, mAcknowledge );
+  }
+
   /** write a command to the out channel
    * @param cmd command code
    * @return true if success
@@ -54,6 +54,7 @@ public class ImportCaveSniperTask extends ImportTask
       ArrayList< ParserShot > shots  = parser.getShots();
       // ArrayList< ParserShot > splays = parser.getSplays();
       long id = insertImportShots( sid, 1, shots ); // start id = 1
+      if ( id < 0 ) return -2L; // failed insert
     } catch ( ParserException e ) {
       // TDToast.makeBad( R.string.file_parse_fail );
     }
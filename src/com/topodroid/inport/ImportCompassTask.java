@@ -70,6 +70,7 @@ public class ImportCompassTask extends ImportTask
       } else { // SurveyInfo.DATAMODE_DIVING
         id = insertImportShotsDiving( sid, id, shots );
       }
+      if ( id < 0 ) return -2L; // failed insert
       ArrayList< ParserShot > splays = parser.getSplays();
       insertImportShots( sid, id, splays );
     } catch ( ParserException e ) {
@@ -65,6 +65,7 @@ public class ImportPocketTopoTask extends ImportTask
 
       ArrayList< ParserShot > shots  = parser.getShots();
       long id = insertImportShots( sid, 1, shots ); // start id = 1
+      if ( id < 0 ) return -2L; // failed insert
       // TDLog.Log( TDLog.LOG_PTOPO, "SID " + sid + " inserted shots. return " + id );
 
       if ( parser.mStartFrom != null ) {
@@ -60,6 +60,7 @@ public class ImportSurvexTask extends ImportTask
 
       ArrayList< ParserShot > shots  = parser.getShots();
       long id = insertImportShots( sid, 1, shots ); // start id = 1
+      if ( id < 0 ) return -2L; // failed insert
 
       ArrayList< ParserShot > splays = parser.getSplays();
       app_data.insertImportShots( sid, id, splays );
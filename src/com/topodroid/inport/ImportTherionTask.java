@@ -62,6 +62,7 @@ public class ImportTherionTask extends ImportTask
 
       ArrayList< ParserShot > shots  = parser.getShots();
       long id = insertImportShots( sid, 1, shots ); // start id = 1
+      if ( id < 0 ) return -2L; // failed insert
 
       ArrayList< ParserShot > splays = parser.getSplays();
       insertImportShots( sid, id, splays );
@@ -80,6 +80,7 @@ public class ImportVisualTopoTask extends ImportTask
 
       ArrayList< ParserShot > shots  = parser.getShots();
       long id = insertImportShots( sid, 1, shots ); // start id = 1
+      if ( id < 0 ) return -2L; // failed insert
 
       ArrayList< ParserShot > splays = parser.getSplays();
       insertImportShots( sid, id, splays );
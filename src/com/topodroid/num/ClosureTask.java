@@ -8,6 +8,8 @@
  *  Copyright This software is distributed under GPL-3.0 or later
  *  See the file COPYING.
  * --------------------------------------------------------
+ * All the loops of a data reduction are computed by a single task,
+ * on the same station adjacency (see NumShortpath.closures)
  */
 package com.topodroid.num;
 
@@ -16,132 +18,82 @@ import com.topodroid.utils.TDMath;
 import android.os.AsyncTask;
 
 import java.util.ArrayList;
-import java.util.Stack;
-import java.util.Locale;
+import java.util.List;
 
 class ClosureTask extends AsyncTask< Void, Void, Void >
 {
-  TDNum  num;
-  String format;
-  ArrayList< NumShot > shots;
-  ArrayList< NumShortpath > paths;
-  NumStation sf;
-  NumStation st;
-  float d, b, c;
-  String sfname, stname;
-  double dv, dl, dh;
+  /** loop-closing leg
+   */
+  static class ClosureLoop
+  {
+    NumStation sf;
+    NumStation st;
+    float d;           // leg distance
+    int max_shot;      // number of legs in the network when the leg was met
+    double dv, dl, dh; // closure vertical, 3D and horizontal errors
+
+    /** cstr
+     * @param sf0     FROM station
+     * @param st0     TO station
+     * @param d0      leg distance
+     * @param b       leg azimuth
+     * @param c       leg clino
+     * @param max     number of legs in the network (the loop is closed on these legs)
+     * @note the closure errors are computed with the current coordinates of the two stations
+     */
+    ClosureLoop( NumStation sf0, NumStation st0, float d0, float b, float c, int max )
+    {
+      sf = sf0;
+      st = st0;
+      d  = d0;
+      max_shot = max;
+      dv = Math.abs( sf.v - d * TDMath.sinDd(c) - st.v );  // closure vertical error
+      double h0 = d * Math.abs( TDMath.cosDd(c) );
+      double ds = Math.abs( sf.s - h0 * TDMath.cosDd( b ) - st.s ); // closure south error
+      double de = Math.abs( sf.e + h0 * TDMath.sinDd( b ) - st.e ); // closure east error
+      dh = ds*ds + de*de;
+      dl = Math.sqrt( dh + dv*dv ); // closure 3d error
+      dh = Math.sqrt( dh );         // closure horizontal error
+    }
+  }
+
+  private TDNum  num;
+  private String format;
+  private NumShortpath path;
+  private List< ClosureLoop > loops;
+  private ArrayList< NumClosure > closures;
 
   /** cstr
    * @param num0    data-reduction
-   * @param fmt     format (?)
-   * @param shots0  TODO
-   * @param paths0  list of shortest paths (to be filled)
-   * @param sf0     FROM station
-   * @param st0     TO station
-   * @param d0      distance (of what ?)
-   * @param b0      azimuth
-   * @param c0      clino
+   * @param fmt     closure description format
+   * @param path0   shortest-path engine on the network
+   * @param loops0  loop-closing legs
    */
-  ClosureTask( TDNum num0, String fmt, ArrayList<NumShot> shots0, ArrayList<NumShortpath> paths0, 
-               NumStation sf0, NumStation st0, float d0, float b0, float c0 )
+  ClosureTask( TDNum num0, String fmt, NumShortpath path0, List< ClosureLoop > loops0 )
   {
     num    = num0;
     format = fmt;
-    shots  = shots0;
-    paths  = paths0;
-    sf = sf0;
-    st = st0;
-    d  = d0;
-    b  = b0;
-    c  = c0;
-
-    // initialize fixed values
-    dv = Math.abs( sf.v - d * TDMath.sinDd(c) - st.v );  // closure vertical error
-    double h0 = d * Math.abs( TDMath.cosDd(c) );
-    double ds = Math.abs( sf.s - h0 * TDMath.cosDd( b ) - st.s ); // closure south error
-    double de = Math.abs( sf.e + h0 * TDMath.sinDd( b ) - st.e ); // closure east error
-    dh = ds*ds + de*de;
-    dl = Math.sqrt( dh + dv*dv ); // closure 3d error
-    dh = Math.sqrt( dh );         // closure horizontal error
-    sfname = sf.name;
-    stname = st.name;
+    path   = path0;
+    loops  = loops0;
+    closures = new ArrayList<>();
   }
 
-  private NumShortpath getShortpath( NumStation st )
+  @Override
+  protected Void doInBackground( Void ... v )
   {
-    for ( NumShortpath path : paths ) {
-      if ( path.mStation == st ) return path;
-    }
+    compute();
     return null;
   }
 
   @Override
-  protected Void doInBackground( Void ... v ) 
+  protected void onPostExecute( Void v )
   {
-    compute();
-    return null;
+    num.addClosures( closures );
   }
 
-  void compute()
+  private void compute()
   {
-    // TDLog.v( "shortest path " + sf.name + " " + st.name + " shots " + shots.size() + " stations " + paths.size() );
-    Stack< NumShortpath > stack = new Stack<>();
-    NumShortpath sp = getShortpath( sf );
-    if ( sp == null ) return;
-    sp.resetShortpath( null, 0, 0, 0 ); // clear first shortpath
-    stack.push( sp );
-    while ( ! stack.empty() ) {
-      sp = stack.pop();
-      NumStation s = sp.mStation;
-      for ( NumShot e : shots ) {
-        float len = e.length();
-        if ( e.from == s /* && e.to != null */ ) {
-          NumShortpath etp = getShortpath( e.to );
-          if ( etp != null ) {
-            float d = sp.mDist + len;
-            if ( d < etp.mDist - 0.001f ) { // at least 1 mm shorter
-              // TDLog.v( "LOOP set short dist T " + e.to.name + " : " + d );
-              etp.resetShortpath( sp, sp.mNr+1, d, sp.mDist2 + len*len );
-              stack.push( etp );
-            }
-          }
-        } else if ( e.to == s /* && e.from != null */ ) {
-          NumShortpath efp = getShortpath( e.from );
-          if ( efp != null ) {
-            float d = sp.mDist + len;
-            if ( d < efp.mDist - 0.001f ) { // at least 1 mm shorter
-              // TDLog.v( "LOOP set short dist F " + e.from.name + " : " + d );
-              efp.resetShortpath( sp, sp.mNr+1, d, sp.mDist2 + len*len );
-              // e.from.path = from;
-              stack.push( efp );
-            }
-          }
-        }
-      }
-    }
-    // TDLog.v( "Loop closure done " + sfname + " " + stname );
-    sp = getShortpath( st );
-    if ( sp != null && sp.mNr > 0 ) {
-      int nr = 1 + sp.mNr;                  // loop shots
-      double len  = Math.abs(d) + sp.mDist; // loop length
-      // double len2 = d*d + sp.mDist2;
-      int k  = sp.mNr;                      // safety for bailout
-      StringBuilder sb = new StringBuilder();
-      sb.append( sp.getName() );
-      for ( sp = sp.mFrom; sp != null && k >= 0; sp = sp.mFrom ) {
-        sb.append( "-" );
-        sb.append( sp.getName() );
-        -- k;
-      }
-      // TDLog.v( "Loop " + sb.toString() ); 
-      if ( len > 0 ) {
-        double error = (dl*100) / len;
-        double angle = TDMath.sqrt( nr ) * dl / len * TDMath.RAD2DEG;
-        String description = String.format(Locale.US, format, sfname, stname, nr, dl, len, dh, dv, error, angle );
-        // TDLog.v( "Desc " + description );
-        num.addClosure( new NumClosure( description, sb.toString() ) );
-      }
-    }
+    closures = path.closures( format, loops );
   }
-  
+
 }
@@ -0,0 +1,177 @@
+/* @file LoopBlocks.java
+ *
+ * @author marco corvi
+ * @date oct 2026
+ *
+ * @brief TopoDroid biconnected blocks of the survey network, kept up to date as legs are appended
+ * --------------------------------------------------------
+ *  Copyright This software is distributed under GPL-3.0 or later
+ *  See the file COPYING.
+ * --------------------------------------------------------
+ * The stations are the nodes of a spanning tree rooted at the start station.
+ * Each tree leg belongs to a class of legs: a leg to a new station is a class of its own (a bridge),
+ * and a leg between two stations of the network merges the classes of the tree legs on the tree path
+ * between the two stations, and joins the merged class. The classes with more than one leg are the
+ * biconnected blocks of the network, and the root of a block is its station closest to the start.
+ * The tree legs of a class form a subtree, therefore the tree path is walked by jumping from a station
+ * to the root of the class of its tree leg. The classes are merged the smaller into the larger.
+ */
+package com.topodroid.num;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+
+class LoopBlocks
+{
+  /** station of the spanning tree
+   */
+  private static class Node
+  {
+    final Node parent; // parent station, null for the root
+    final int depth;   // number of tree legs to the root
+    LoopLeastSquares.Block block; // class of the tree leg to the parent
+
+    Node( Node p )
+    {
+      parent = p;
+      depth  = ( p == null )? 0 : p.depth + 1;
+      block  = null;
+    }
+  }
+
+  private final HashMap< NumStation, Node > mNodes = new HashMap<>();
+  private final HashMap< NumShot, LoopLeastSquares.Block > mBlockOf = new HashMap<>(); // class of each leg (possibly merged)
+  private final HashMap< LoopLeastSquares.Block, LoopLeastSquares.Block > mMerged = new HashMap<>(); // class into which a class is merged
+
+  /** cstr: blocks of the legs that are connected to the start station
+   * @param start  start station
+   * @note the legs that are not connected to the start station are not in any block
+   */
+  LoopBlocks( NumStation start )
+  {
+    mNodes.put( start, new Node( null ) );
+    ArrayList< NumStation > stations = new ArrayList<>();
+    stations.add( start );
+    for ( int k = 0; k < stations.size(); ++k ) { // breadth-first spanning tree
+      NumStation sf = stations.get( k );
+      List< NumShot > shots = sf.getAdjacentShots();
+      if ( shots == null ) continue;
+      for ( NumShot sh : shots ) {
+        NumStation st = ( sh.from == sf )? sh.to : sh.from;
+        if ( ! mNodes.containsKey( st ) ) {
+          addTreeLeg( sh, mNodes.get( sf ), st );
+          stations.add( st );
+        }
+      }
+    }
+    for ( NumStation st : stations ) { // the other legs
+      List< NumShot > shots = st.getAdjacentShots();
+      if ( shots != null ) for ( NumShot sh : shots ) add( sh );
+    }
+  }
+
+  /** add a leg to the network
+   * @param sh   leg
+   * @note a leg with no station in the network is not added
+   */
+  void add( NumShot sh )
+  {
+    if ( mBlockOf.containsKey( sh ) ) return;
+    Node n1 = mNodes.get( sh.from );
+    Node n2 = mNodes.get( sh.to );
+    if ( n1 == null ) {
+      if ( n2 != null ) addTreeLeg( sh, n2, sh.from );
+    } else if ( n2 == null ) {
+      addTreeLeg( sh, n1, sh.to );
+    } else if ( n1 != n2 ) { // self-loops are not in blocks
+      addLoopLeg( sh, n1, n2 );
+    }
+  }
+
+  /** @return the block that contains a leg, or null if the leg is not in a loop
+   * @param sh   leg
+   */
+  LoopLeastSquares.Block getBlock( NumShot sh )
+  {
+    LoopLeastSquares.Block block = mBlockOf.get( sh );
+    if ( block == null ) return null;
+    block = find( block );
+    return ( block.shots.size() > 1 )? block : null;
+  }
+
+  /** add a leg to a new station
+   * @param sh   leg
+   * @param nf   node of the station of the leg in the network
+   * @param st   new station
+   */
+  private void addTreeLeg( NumShot sh, Node nf, NumStation st )
+  {
+    Node nt = new Node( nf );
+    NumStation sf = ( sh.from == st )? sh.to : sh.from;
+    nt.block = new LoopLeastSquares.Block( sf );
+    nt.block.shots.add( sh );
+    mNodes.put( st, nt );
+    mBlockOf.put( sh, nt.block );
+  }
+
+  /** add a leg between two stations of the network
+   * @param sh   leg
+   * @param a    node of a station of the leg
+   * @param b    node of the other station of the leg
+   */
+  private void addLoopLeg( NumShot sh, Node a, Node b )
+  {
+    LoopLeastSquares.Block merged = null;
+    while ( a != b ) {
+      if ( a.depth < b.depth ) {
+        Node n = a;
+        a = b;
+        b = n;
+      }
+      if ( a.parent == null ) return; // stations in different trees: should not happen
+      LoopLeastSquares.Block block = find( a.block );
+      NumStation root = block.root; // root before the merge
+      merged = ( merged == null )? block : merge( merged, block );
+      a = mNodes.get( root );
+    }
+    merged.shots.add( sh );
+    mBlockOf.put( sh, merged );
+  }
+
+  /** @return the class into which a class has been merged
+   * @param block  class
+   */
+  private LoopLeastSquares.Block find( LoopLeastSquares.Block block )
+  {
+    LoopLeastSquares.Block ret = block;
+    for ( LoopLeastSquares.Block up = mMerged.get( ret ); up != null; up = mMerged.get( ret ) ) ret = up;
+    while ( block != ret ) { // path compression
+      LoopLeastSquares.Block up = mMerged.get( block );
+      mMerged.put( block, ret );
+      block = up;
+    }
+    return ret;
+  }
+
+  /** @return the merged class
+   * @param b1   first class
+   * @param b2   second class
+   * @note the root of the merged class is the root closer to the start
+   */
+  private LoopLeastSquares.Block merge( LoopLeastSquares.Block b1, LoopLeastSquares.Block b2 )
+  {
+    if ( b1 == b2 ) return b1;
+    NumStation root = ( mNodes.get( b1.root ).depth <= mNodes.get( b2.root ).depth )? b1.root : b2.root;
+    if ( b1.shots.size() < b2.shots.size() ) {
+      LoopLeastSquares.Block b = b1;
+      b1 = b2;
+      b2 = b;
+    }
+    b1.shots.addAll( b2.shots );
+    b1.root = root;
+    mMerged.put( b2, b1 );
+    return b1;
+  }
+
+}
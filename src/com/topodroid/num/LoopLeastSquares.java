@@ -0,0 +1,456 @@
+/* @file LoopLeastSquares.java
+ *
+ * @author marco corvi
+ * @date oct 2026
+ *
+ * @brief TopoDroid loop closure by weighted least squares over the station positions
+ * --------------------------------------------------------
+ *  Copyright This software is distributed under GPL-3.0 or later
+ *  See the file COPYING.
+ * --------------------------------------------------------
+ * Each leg L (from station S1 to station S2) is an observation of the displacement
+ *      X(S2) - X(S1) = D(L)
+ * with weight W(L) = 1 / length(L). The station positions X minimize
+ *      Sum W(L) * | X(S2) - X(S1) - D(L) |^2
+ * The problem splits over the biconnected blocks of the network: the legs that are not
+ * in a block (bridges) are not corrected, and each block is adjusted on its own, with its
+ * root station (the station of the block closest to the start) fixed. Therefore a new leg
+ * that closes a loop requires only the adjustment of the block that contains it.
+ * The normal matrix of a block is the weighted laplacian of the block (without the root):
+ * it is sparse and it is the same for the three coordinates, and it is factored once with SparseLDL.
+ * The compensation eliminates the stations inside the branches of the block, and it applies the branch
+ * corrections with NumBranch.compensateError: each leg gets a share of the branch correction in proportion
+ * to its length, which is the leg-by-leg solution.
+ * The same solution ranks the legs by their leave-one-out misclosure, to find the blunders.
+ */
+package com.topodroid.num;
+
+import com.topodroid.utils.TDMath;
+import com.topodroid.utils.TDLog;
+import com.topodroid.TDX.AverageLeg;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+
+class LoopLeastSquares
+{
+  private static final double MIN_LENGTH = 0.001; // minimum leg length for the weight [m]
+  private static final double MIN_REDUNDANCY = 1.0e-6; // minimum redundancy of a leg in a loop
+
+  /** biconnected block of the network
+   */
+  static class Block
+  {
+    NumStation root;            // station of the block closest to the start station
+    ArrayList< NumShot > shots; // block legs
+    int nrStations;             // number of stations of the block (set by the adjustment)
+
+    Block( NumStation r )
+    {
+      root  = r;
+      shots = new ArrayList<>();
+      nrStations = 0;
+    }
+
+    /** @return the number of independent loops of the block
+     */
+    int loops() { return shots.size() - nrStations + 1; }
+  }
+
+  /** compensate the loop misclosures of a network of legs
+   * @param shots  network legs
+   * @param start  start station
+   * @return the number of independent loops in the network
+   */
+  static int compensate( List< NumShot > shots, NumStation start )
+  {
+    int loops = 0;
+    for ( Block block : makeBlocks( shots, start ) ) {
+      if ( compensateBlock( block ) ) loops += block.loops();
+    }
+    return loops;
+  }
+
+  /** compute the biconnected blocks of the network (Tarjan) that contain loops
+   * @param shots  network legs
+   * @param start  start station (the depth-first search starts at this station)
+   * @return the list of blocks with at least one loop
+   */
+  static ArrayList< Block > makeBlocks( List< NumShot > shots, NumStation start )
+  {
+    ArrayList< Block > blocks = new ArrayList<>();
+    // index the stations: the start station first
+    HashMap< NumStation, Integer > index = new HashMap<>();
+    ArrayList< NumStation > stations = new ArrayList<>();
+    if ( start != null ) {
+      index.put( start, 0 );
+      stations.add( start );
+    }
+    int ns = shots.size();
+    int[] i1 = new int[ ns ];
+    int[] i2 = new int[ ns ];
+    for ( int k = 0; k < ns; ++k ) {
+      NumShot sh = shots.get( k );
+      i1[k] = indexStation( index, stations, sh.from );
+      i2[k] = indexStation( index, stations, sh.to );
+    }
+    int nn = stations.size();
+
+    // station adjacency
+    int[] adj_start = new int[ nn + 1 ];
+    for ( int k = 0; k < ns; ++k ) {
+      ++ adj_start[ i1[k] + 1 ];
+      ++ adj_start[ i2[k] + 1 ];
+    }
+    for ( int k = 0; k < nn; ++k ) adj_start[k+1] += adj_start[k];
+    int[] adj_shot = new int[ adj_start[ nn ] ];
+    int[] pos = new int[ nn ];
+    System.arraycopy( adj_start, 0, pos, 0, nn );
+    for ( int k = 0; k < ns; ++k ) {
+      adj_shot[ pos[ i1[k] ] ++ ] = k;
+      adj_shot[ pos[ i2[k] ] ++ ] = k;
+    }
+
+    // iterative depth-first search
+    int[] disc   = new int[ nn ];  // discovery time (-1 not discovered)
+    int[] low    = new int[ nn ];  // lowest discovery time reachable with one back leg
+    int[] parent = new int[ nn ];  // parent station in the search tree
+    int[] edge   = new int[ nn ];  // leg to the parent station
+    int[] next   = new int[ nn ];  // next adjacency entry to visit
+    int[] stack  = new int[ nn ];  // search stack
+    int[] legs   = new int[ ns ];  // stack of legs
+    int nl = 0;
+    int time = 0;
+    for ( int k = 0; k < nn; ++k ) disc[k] = -1;
+    for ( int r = 0; r < nn; ++r ) {
+      if ( disc[r] >= 0 ) continue;
+      int top = 0;
+      stack[ top++ ] = r;
+      disc[r] = low[r] = time++;
+      parent[r] = -1;
+      edge[r]   = -1;
+      next[r]   = adj_start[r];
+      while ( top > 0 ) {
+        int v = stack[ top-1 ];
+        if ( next[v] < adj_start[v+1] ) {
+          int k = adj_shot[ next[v] ++ ];
+          if ( k == edge[v] ) continue;
+          int w = ( i1[k] == v )? i2[k] : i1[k];
+          if ( disc[w] < 0 ) { // tree leg
+            legs[ nl++ ] = k;
+            disc[w] = low[w] = time++;
+            parent[w] = v;
+            edge[w]   = k;
+            next[w]   = adj_start[w];
+            stack[ top++ ] = w;
+          } else if ( disc[w] < disc[v] ) { // back leg (self-loops are skipped)
+            legs[ nl++ ] = k;
+            if ( disc[w] < low[v] ) low[v] = disc[w];
+          }
+        } else {
+          -- top;
+          int u = parent[v];
+          if ( u < 0 ) continue;
+          if ( low[v] < low[u] ) low[u] = low[v];
+          if ( low[v] >= disc[u] ) { // u is the root of a block: pop its legs
+            int nl0 = nl;
+            while ( legs[ -- nl ] != edge[v] ) { }
+            if ( nl0 - nl > 1 ) { // bridges are skipped
+              Block block = new Block( stations.get( u ) );
+              for ( int j = nl; j < nl0; ++j ) block.shots.add( shots.get( legs[j] ) );
+              blocks.add( block );
+            }
+          }
+        }
+      }
+    }
+    return blocks;
+  }
+
+  /** least-squares solution of a block
+   */
+  private static class Solution
+  {
+    SparseLDL normal;     // factored normal matrix
+    int[] n1, n2;         // unknowns of the leg stations (-1 for the root)
+    double[] w;           // leg weights
+    double[] le, ls, lv;  // measured leg displacements
+    double[] xe, xs, xv;  // station positions (relative to the root)
+
+    /** @return the adjusted displacement of a leg, along a coordinate
+     * @param x   station positions along the coordinate
+     * @param b   leg index
+     */
+    double adjusted( double[] x, int b ) { return ( ( n2[b] >= 0 )? x[ n2[b] ] : 0 ) - ( ( n1[b] >= 0 )? x[ n1[b] ] : 0 ); }
+  }
+
+  /** @return the least-squares solution of a block, or null if the normal matrix is singular
+   * @param block   block
+   * @note the solution uses the measured leg values, the legs are not modified
+   */
+  private static Solution solveBlock( Block block )
+  {
+    Solution sol = new Solution();
+    // index the stations: the root is fixed
+    HashMap< NumStation, Integer > index = new HashMap<>();
+    index.put( block.root, -1 );
+    int bs = block.shots.size();
+    sol.n1 = new int[ bs ];
+    sol.n2 = new int[ bs ];
+    for ( int b = 0; b < bs; ++b ) {
+      NumShot sh = block.shots.get( b );
+      sol.n1[b] = indexUnknown( index, sh.from );
+      sol.n2[b] = indexUnknown( index, sh.to );
+    }
+    int nu = index.size() - 1;
+    block.nrStations = index.size();
+
+    // normal equations
+    SparseLDL normal = new SparseLDL( nu );
+    sol.w  = new double[ bs ];
+    sol.le = new double[ bs ];
+    sol.ls = new double[ bs ];
+    sol.lv = new double[ bs ];
+    sol.xe = new double[ nu ];
+    sol.xs = new double[ nu ];
+    sol.xv = new double[ nu ];
+    for ( int b = 0; b < bs; ++b ) {
+      AverageLeg leg = block.shots.get( b ).measuredLeg();
+      float d = leg.length();
+      float c = leg.clino();
+      float br = leg.bearing();
+      double h = d * Math.abs( TDMath.cosDd( c ) );
+      double v = -d * TDMath.sinDd( c );
+      double s = -h * TDMath.cosDd( br );
+      double e =  h * TDMath.sinDd( br );
+      double w = 1.0 / Math.max( d, MIN_LENGTH );
+      sol.w[b]  = w;
+      sol.le[b] = e;
+      sol.ls[b] = s;
+      sol.lv[b] = v;
+      int u1 = sol.n1[b];
+      int u2 = sol.n2[b];
+      if ( u1 >= 0 ) {
+        normal.addDiagonal( u1, w );
+        sol.xe[u1] -= w * e;
+        sol.xs[u1] -= w * s;
+        sol.xv[u1] -= w * v;
+      }
+      if ( u2 >= 0 ) {
+        normal.addDiagonal( u2, w );
+        sol.xe[u2] += w * e;
+        sol.xs[u2] += w * s;
+        sol.xv[u2] += w * v;
+      }
+      if ( u1 >= 0 && u2 >= 0 ) normal.addOffDiagonal( u1, u2, -w );
+    }
+    if ( ! normal.factor() ) {
+      TDLog.Error("LOOP least squares: singular normal matrix");
+      return null;
+    }
+    normal.solve( sol.xe );
+    normal.solve( sol.xs );
+    normal.solve( sol.xv );
+    sol.normal = normal;
+    return sol;
+  }
+
+  /** compensate the loop misclosures of a block
+   * @param block   block
+   * @return true if successful
+   * @note the block legs are reset to the measured values, and the block is split in branches, the chains
+   *       of legs between the root and the stations with more than two block legs. The branches are the
+   *       observations of the adjustment, and the branch corrections are distributed over the legs with
+   *       NumBranch.compensateError, as the other loop closures do. The stations inside a branch do not
+   *       change the solution: their unknowns can be eliminated, and the branch weight is the inverse of
+   *       its length, the sum of the leg lengths.
+   */
+  static boolean compensateBlock( Block block )
+  {
+    for ( NumShot sh : block.shots ) sh.restore();
+    HashMap< NumStation, ArrayList< NumShot > > legs = new HashMap<>(); // block legs at each station
+    for ( NumShot sh : block.shots ) {
+      addLeg( legs, sh.from, sh );
+      addLeg( legs, sh.to, sh );
+    }
+    block.nrStations = legs.size();
+
+    // branches, from an end station: the root and the stations without two block legs
+    HashMap< NumStation, Integer > index = new HashMap<>();
+    index.put( block.root, -1 );
+    ArrayList< NumBranch > branches = new ArrayList<>();
+    ArrayList< NumStation > ends = new ArrayList<>(); // first and last station of each branch
+    HashSet< NumShot > done = new HashSet<>();
+    for ( NumShot sh : block.shots ) {
+      if ( done.contains( sh ) ) continue;
+      NumStation sf = isBranchEnd( block, legs, sh.from )? sh.from : ( isBranchEnd( block, legs, sh.to )? sh.to : null );
+      if ( sf == null ) continue; // inside a branch: followed from a branch end
+      NumBranch br = new NumBranch( NumBranch.BRANCH_CROSS_CROSS, null );
+      NumStation st = sf;
+      NumShot sh1 = sh;
+      while ( true ) {
+        done.add( sh1 );
+        br.addShot( sh1 );
+        if ( sh1.from == st ) {
+          sh1.mBranchDir = 1;
+          st = sh1.to;
+        } else {
+          sh1.mBranchDir = -1;
+          st = sh1.from;
+        }
+        if ( isBranchEnd( block, legs, st ) ) break;
+        ArrayList< NumShot > next = legs.get( st );
+        sh1 = ( next.get( 0 ) == sh1 )? next.get( 1 ) : next.get( 0 );
+      }
+      branches.add( br );
+      ends.add( sf );
+      ends.add( st );
+      indexUnknown( index, sf );
+      indexUnknown( index, st );
+    }
+
+    // normal equations of the branch ends
+    int nu = index.size() - 1;
+    int bs = branches.size();
+    int[] n1 = new int[ bs ];
+    int[] n2 = new int[ bs ];
+    SparseLDL normal = new SparseLDL( nu );
+    double[] xe = new double[ nu ];
+    double[] xs = new double[ nu ];
+    double[] xv = new double[ nu ];
+    for ( int b = 0; b < bs; ++b ) {
+      NumBranch br = branches.get( b );
+      br.computeError();
+      int u1 = n1[b] = index.get( ends.get( 2*b ) );
+      int u2 = n2[b] = index.get( ends.get( 2*b+1 ) );
+      if ( u1 == u2 ) continue; // branch from a station to itself: no contribution
+      double w = 1.0 / Math.max( br.len, MIN_LENGTH );
+      if ( u1 >= 0 ) {
+        normal.addDiagonal( u1, w );
+        xe[u1] -= w * br.e;
+        xs[u1] -= w * br.s;
+        xv[u1] -= w * br.v;
+      }
+      if ( u2 >= 0 ) {
+        normal.addDiagonal( u2, w );
+        xe[u2] += w * br.e;
+        xs[u2] += w * br.s;
+        xv[u2] += w * br.v;
+      }
+      if ( u1 >= 0 && u2 >= 0 ) normal.addOffDiagonal( u1, u2, -w );
+    }
+    if ( ! normal.factor() ) {
+      TDLog.Error("LOOP least squares: singular normal matrix");
+      return false;
+    }
+    normal.solve( xe );
+    normal.solve( xs );
+    normal.solve( xv );
+
+    // branch corrections: adjusted minus measured displacement
+    for ( int b = 0; b < bs; ++b ) {
+      NumBranch br = branches.get( b );
+      if ( br.len <= 0 ) continue;
+      int u1 = n1[b];
+      int u2 = n2[b];
+      double de = ( ( u2 >= 0 )? xe[u2] : 0 ) - ( ( u1 >= 0 )? xe[u1] : 0 ) - br.e;
+      double ds = ( ( u2 >= 0 )? xs[u2] : 0 ) - ( ( u1 >= 0 )? xs[u1] : 0 ) - br.s;
+      double dv = ( ( u2 >= 0 )? xv[u2] : 0 ) - ( ( u1 >= 0 )? xv[u1] : 0 ) - br.v;
+      br.compensateError( de, ds, dv );
+    }
+    return true;
+  }
+
+  /** add a leg to the legs at a station
+   * @param legs   legs at each station
+   * @param st     station
+   * @param sh     leg
+   */
+  private static void addLeg( HashMap< NumStation, ArrayList< NumShot > > legs, NumStation st, NumShot sh )
+  {
+    ArrayList< NumShot > list = legs.get( st );
+    if ( list == null ) {
+      list = new ArrayList<>();
+      legs.put( st, list );
+    }
+    list.add( sh );
+  }
+
+  /** @return true if a station is a branch end in a block
+   * @param block  block
+   * @param legs   block legs at each station
+   * @param st     station
+   */
+  private static boolean isBranchEnd( Block block, HashMap< NumStation, ArrayList< NumShot > > legs, NumStation st )
+  {
+    return st == block.root || legs.get( st ).size() != 2;
+  }
+
+  /** @return the legs in loops ranked by how much the loop misclosures decrease without them, most suspect first
+   * @param shots  network legs
+   * @param start  start station
+   * @note dropping a leg is a rank-one downdate of the normal matrix (Sherman-Morrison): with residual R,
+   *       weight W, and leverage H = W * a^t N^-1 a (a the incidence vector of the leg), the weighted sum of
+   *       the squared residuals decreases by W |R|^2 / (1-H), and the leg differs by R / (1-H) from the
+   *       displacement predicted by the other legs. The leverage needs only the entries of the inverse
+   *       of the normal matrix on the pattern of its factorization.
+   */
+  static ArrayList< NumBlunder > findBlunders( List< NumShot > shots, NumStation start )
+  {
+    ArrayList< NumBlunder > ret = new ArrayList<>();
+    for ( Block block : makeBlocks( shots, start ) ) {
+      Solution sol = solveBlock( block );
+      if ( sol == null ) continue;
+      sol.normal.invertSelected();
+      int bs = block.shots.size();
+      for ( int b = 0; b < bs; ++b ) {
+        int u1 = sol.n1[b];
+        int u2 = sol.n2[b];
+        double q = 0;
+        if ( u1 >= 0 ) q += sol.normal.inverse( u1, u1 );
+        if ( u2 >= 0 ) q += sol.normal.inverse( u2, u2 );
+        if ( u1 >= 0 && u2 >= 0 ) q -= 2 * sol.normal.inverse( u1, u2 );
+        double r = 1 - sol.w[b] * q; // redundancy of the leg
+        if ( r < MIN_REDUNDANCY ) continue;
+        double re = sol.adjusted( sol.xe, b ) - sol.le[b];
+        double rs = sol.adjusted( sol.xs, b ) - sol.ls[b];
+        double rv = sol.adjusted( sol.xv, b ) - sol.lv[b];
+        double r2 = re*re + rs*rs + rv*rv;
+        ret.add( new NumBlunder( block.shots.get( b ), Math.sqrt( r2 ) / r, sol.w[b] * r2 / r ) );
+      }
+    }
+    Collections.sort( ret );
+    return ret;
+  }
+
+  /** @return the index of a station, adding it to the index if necessary
+   * @param index     station index
+   * @param stations  indexed stations
+   * @param st        station
+   */
+  private static int indexStation( HashMap< NumStation, Integer > index, ArrayList< NumStation > stations, NumStation st )
+  {
+    Integer k = index.get( st );
+    if ( k != null ) return k;
+    index.put( st, stations.size() );
+    stations.add( st );
+    return stations.size() - 1;
+  }
+
+  /** @return the index of the unknown of a station, adding it to the index if necessary
+   * @param index     station index: the fixed station has index -1
+   * @param st        station
+   */
+  private static int indexUnknown( HashMap< NumStation, Integer > index, NumStation st )
+  {
+    Integer k = index.get( st );
+    if ( k != null ) return k;
+    int ret = index.size() - 1;
+    index.put( st, ret );
+    return ret;
+  }
+
+}
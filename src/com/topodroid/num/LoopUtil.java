@@ -94,6 +94,7 @@ class LoopUtil
         if ( A[ i*ne + k ] != 0 ) break;
       }
       for ( ; k<ne; ++k ) {
+        if ( A[ i*ne + k ] == 0 ) continue;
         int cnt = 1;
         for ( int j=i+1; j<nc; ++j ) if ( A[ j*ne + k ] == 0 ) ++cnt;
         if ( cnt == nc - i ) break;
@@ -128,9 +129,11 @@ class LoopUtil
   //   E2 = D^-1 * F
   // and
   //   E1 = A2 * C - (A2*B1) * D^-1 * F
+  // @note the incidence matrix is not modified: the columns are reordered in a copy
   //
   static void correctCycles( int[] A, double[] CE, double[] WE, double[] DE, int ne, int nc )
   {
+    A = A.clone();
     int[] permutation = new int[ ne ];
     independentColumns( A, nc, ne, permutation );
     // print( "Incidence matrix:", A, nc, ne ); 
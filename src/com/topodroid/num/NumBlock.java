@@ -0,0 +1,188 @@
+/* @file NumBlock.java
+ *
+ * @author marco corvi
+ * @date oct 2026
+ *
+ * @brief TopoDroid survey reduction: data of a shot
+ * --------------------------------------------------------
+ *  Copyright This software is distributed under GPL-3.0 or later
+ *  See the file COPYING.
+ * --------------------------------------------------------
+ * The shot is either a data block or a shot of the shot columns.
+ * The reduction reads the shot data from the data block, or from the columns: the data block of a shot
+ * of the columns is made only when it is requested, and it is made once.
+ */
+package com.topodroid.num;
+
+import com.topodroid.utils.TDMath;
+import com.topodroid.TDX.DBlock;
+import com.topodroid.TDX.ShotColumns;
+
+import java.util.ArrayList;
+import java.util.List;
+
+class NumBlock
+{
+  private final ShotColumns mColumns; // shot columns, null for a data block
+  private final int mIndex;           // shot index in the columns
+  private volatile DBlock mBlock;     // data block (made on demand for a shot of the columns)
+  private float mClino;               // clino of a shot of the columns (from the stations depths in diving mode)
+
+  /** cstr
+   * @param blk   data block
+   */
+  NumBlock( DBlock blk )
+  {
+    mColumns = null;
+    mIndex   = -1;
+    mBlock   = blk;
+  }
+
+  /** cstr
+   * @param data  shot columns
+   * @param k     shot index
+   */
+  NumBlock( ShotColumns data, int k )
+  {
+    mColumns = data;
+    mIndex   = k;
+    mBlock   = null;
+    mClino   = data.isDiving()? 0 : data.clino[k];
+  }
+
+  /** @return the shots of a list of data blocks
+   * @param data  data blocks
+   */
+  static List< NumBlock > ofBlocks( List< DBlock > data )
+  {
+    ArrayList< NumBlock > ret = new ArrayList<>( data.size() );
+    for ( DBlock blk : data ) ret.add( new NumBlock( blk ) );
+    return ret;
+  }
+
+  /** @return the shots of the shot columns
+   * @param data  shot columns
+   */
+  static List< NumBlock > ofColumns( ShotColumns data )
+  {
+    ArrayList< NumBlock > ret = new ArrayList<>( data.size );
+    for ( int k = 0; k < data.size; ++k ) ret.add( new NumBlock( data, k ) );
+    return ret;
+  }
+
+  /** @return the data block of the shot
+   * @note the data block of a shot of the columns is made at the first call
+   */
+  DBlock getBlock()
+  {
+    DBlock blk = mBlock;
+    if ( blk == null ) {
+      synchronized ( this ) {
+        blk = mBlock;
+        if ( blk == null ) {
+          blk = mColumns.makeBlock( mIndex );
+          blk.mClino = mClino;
+          mBlock = blk;
+        }
+      }
+    }
+    return blk;
+  }
+
+  /** @return the shot ID
+   */
+  long id() { return ( mColumns == null )? mBlock.mId : mColumns.id[ mIndex ]; }
+
+  /** @return the FROM station, or the empty string (or null for a data block)
+   */
+  String from() { return ( mColumns == null )? mBlock.mFrom : mColumns.getFrom( mIndex ); }
+
+  /** @return the TO station, or the empty string (or null for a data block)
+   */
+  String to() { return ( mColumns == null )? mBlock.mTo : mColumns.getTo( mIndex ); }
+
+  /** @return true if the shot has the FROM station
+   */
+  boolean hasFrom()
+  {
+    if ( mColumns == null ) return mBlock.mFrom != null && mBlock.mFrom.length() > 0;
+    return mColumns.from[ mIndex ] >= 0;
+  }
+
+  /** @return true if the shot has the TO station
+   */
+  boolean hasTo()
+  {
+    if ( mColumns == null ) return mBlock.mTo != null && mBlock.mTo.length() > 0;
+    return mColumns.to[ mIndex ] >= 0;
+  }
+
+  boolean isSplay()     { return ( mColumns == null )? mBlock.isSplay()     : mColumns.isSplay( mIndex ); }
+  boolean isMainLeg()   { return ( mColumns == null )? mBlock.isMainLeg()   : mColumns.isMainLeg( mIndex ); }
+  boolean isBackLeg()   { return ( mColumns == null )? mBlock.isBackLeg()   : mColumns.isBackLeg( mIndex ); }
+  boolean isSecLeg()    { return ( mColumns == null )? mBlock.isSecLeg()    : mColumns.isSecLeg( mIndex ); }
+  boolean isTypeBlank() { return ( mColumns == null )? mBlock.isTypeBlank() : mColumns.isTypeBlank( mIndex ); }
+
+  float length()  { return ( mColumns == null )? mBlock.mLength  : mColumns.length[ mIndex ]; }
+  float bearing() { return ( mColumns == null )? mBlock.mBearing : mColumns.bearing[ mIndex ]; }
+  float clino()   { return ( mColumns == null )? mBlock.mClino   : mClino; }
+
+  /** @return the depth (diving mode)
+   */
+  float depth()
+  {
+    if ( mColumns == null ) return mBlock.mDepth;
+    return mColumns.isDiving()? mColumns.clino[ mIndex ] : 0;
+  }
+
+  int   getIntExtend() { return ( mColumns == null )? mBlock.getIntExtend() : mColumns.extend[ mIndex ]; }
+  float getStretch()   { return ( mColumns == null )? mBlock.getStretch()   : mColumns.stretch[ mIndex ]; }
+  float getReducedExtend() { return DBlock.getReducedExtend( getIntExtend(), getStretch() ); }
+
+  int getReducedFlag() { return ( mColumns == null )? mBlock.getReducedFlag() : DBlock.getReducedFlag( mColumns.flag[ mIndex ] ); }
+
+  boolean isDuplicate() { return ( mColumns == null )? mBlock.isDuplicate() : DBlock.isDuplicate( mColumns.flag[ mIndex ] ); }
+  boolean isSurface()   { return ( mColumns == null )? mBlock.isSurface()   : DBlock.isSurface( mColumns.flag[ mIndex ] ); }
+  boolean isCommented() { return ( mColumns == null )? mBlock.isCommented() : DBlock.isCommented( mColumns.flag[ mIndex ] ); } // FIXME_COMMENTED
+
+  /** set whether the shot disagrees with its siblings
+   * @param multibad   whether the shot disagrees with its siblings
+   * @note a new data block does not disagree: it is not made to clear the flag
+   */
+  void setMultiBad( boolean multibad )
+  {
+    if ( multibad ) {
+      getBlock().setMultiBad( true );
+    } else if ( mBlock != null ) {
+      mBlock.setMultiBad( false );
+    }
+  }
+
+  /** set the clino from the depth of the TO station (diving mode)
+   * @param tdepth   depth of the TO station
+   * @return false if the depth difference exceeds the length
+   */
+  boolean makeClino( float tdepth )
+  {
+    if ( mColumns == null ) return mBlock.makeClino( tdepth );
+    float v = depth() - tdepth;
+    mClino = TDMath.asind( v / length() ); // nan if |v| > length
+    if ( mBlock != null ) mBlock.mClino = mClino;
+    return ( Math.abs(v) <= length() );
+  }
+
+  /** @return the relative angle [in radians] between this shot and another shot (normal mode)
+   * @param b   the other shot
+   */
+  float relativeAngle( NumBlock b ) { return DBlock.relativeAngle( bearing(), clino(), b.bearing(), b.clino() ); }
+
+  /** @return true if this shot is within relative distance from another shot
+   * @param b   the other shot
+   */
+  boolean isRelativeDistance( NumBlock b )
+  {
+    if ( b == null ) return false;
+    return DBlock.isRelativeDistance( length(), bearing(), clino(), depth(), b.length(), b.bearing(), b.clino(), b.depth() );
+  }
+
+}
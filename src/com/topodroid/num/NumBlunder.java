@@ -0,0 +1,44 @@
+/* @file NumBlunder.java
+ *
+ * @author marco corvi
+ * @date oct 2026
+ *
+ * @brief TopoDroid survey reduction: suspect leg of the loop misclosures
+ * --------------------------------------------------------
+ *  Copyright This software is distributed under GPL-3.0 or later
+ *  See the file COPYING.
+ * --------------------------------------------------------
+ */
+package com.topodroid.num;
+
+import java.util.Locale;
+
+public class NumBlunder implements Comparable< NumBlunder >
+{
+  public final NumShot shot;  // leg
+  public final double error;  // difference between the leg and the displacement predicted by the other legs [m]
+  public final double score;  // decrease of the (weighted) loop misclosures without the leg
+
+  /** cstr
+   * @param sh   leg
+   * @param err  leave-one-out error
+   * @param sc   score
+   */
+  NumBlunder( NumShot sh, double err, double sc )
+  {
+    shot  = sh;
+    error = err;
+    score = sc;
+  }
+
+  /** order by decreasing score
+   * @param b   other suspect leg
+   */
+  @Override
+  public int compareTo( NumBlunder b ) { return Double.compare( b.score, score ); }
+
+  /** @return string presentation: leg and error
+   */
+  @Override
+  public String toString() { return String.format( Locale.US, "%s %.2f", shot.toString(), error ); }
+}
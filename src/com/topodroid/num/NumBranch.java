@@ -27,13 +27,13 @@ public class NumBranch
   public static final int BRANCH_LOOP = 4;
  
   int type; // branch type
-  int use;  // tag for loop identification
   NumNode n1;
   NumNode n2;
   public ArrayList< NumShot > shots;
   public double e, s, v;    // east, south, vert closure-error
   public double we, ws, wv; // east, south, vert closure weights
   public double len;        // branch length
+  public int firstDir = 0;  // branch direction of the first shot, as made by TDNum.makeBranches
 
   // void dump( )
   // {
@@ -49,7 +49,6 @@ public class NumBranch
     n1 = n;
     n2 = null;
     shots = new ArrayList<>();
-    use = 0;
     e = 0;
     s = 0;
     v = 0;
@@ -0,0 +1,140 @@
+/* @file NumColumns.java
+ *
+ * @author marco corvi
+ * @date oct 2026
+ *
+ * @brief TopoDroid survey reduction: columnar (array) view of the stations, legs, and splays
+ * --------------------------------------------------------
+ *  Copyright This software is distributed under GPL-3.0 or later
+ *  See the file COPYING.
+ * --------------------------------------------------------
+ * The view is a snapshot of the reduction: it does not change when the reduction changes,
+ * and it can be passed to other threads. Its arrays must not be modified.
+ * The stations are those of the station set, followed by the closure stations (open loops).
+ * Legs and splays refer to their stations by index.
+ */
+package com.topodroid.num;
+
+import com.topodroid.TDX.DBlock;
+
+import java.util.HashMap;
+import java.util.List;
+
+public class NumColumns
+{
+  // stations
+  public final int stationNr;
+  public final String[] name;    // station names
+  public final double[] e;       // station coords: east
+  public final double[] s;       // south
+  public final double[] v;       // vertical (downward)
+  public final double[] h;       // horizontal (profile)
+  public final boolean[] shown;  // whether the station is shown
+
+  // legs
+  public final int legNr;
+  public final int[] legFrom;    // index of the FROM station
+  public final int[] legTo;      // index of the TO station
+  public final boolean[] legIgnoreExtend; // whether the leg is not in the profile
+  public final DBlock[] legBlock; // first data block of the leg
+
+  // splays
+  public final int splayNr;
+  public final int[] splayFrom;  // index of the station of the splay
+  public final float[] splayE;   // splay endpoint coords
+  public final float[] splayS;
+  public final float[] splayV;
+  public final float[] splayH;
+  public final DBlock[] splayBlock; // data block of the splay
+
+  private final NumNameTable mNames; // station names index
+  private final int[] mStationOfName; // first station of each name ID
+
+  /** cstr
+   * @param stations   stations
+   * @param closures   closure stations
+   * @param shots      legs
+   * @param splays     splays
+   */
+  NumColumns( List< NumStation > stations, List< NumStation > closures, List< NumShot > shots, List< NumSplay > splays )
+  {
+    stationNr = stations.size() + closures.size();
+    name  = new String[ stationNr ];
+    e     = new double[ stationNr ];
+    s     = new double[ stationNr ];
+    v     = new double[ stationNr ];
+    h     = new double[ stationNr ];
+    shown = new boolean[ stationNr ];
+    HashMap< NumStation, Integer > index = new HashMap<>();
+    mNames = new NumNameTable( stationNr );
+    mStationOfName = new int[ stationNr ];
+    int k = 0;
+    for ( int j = 0; j < 2; ++j ) {
+      for ( NumStation st : ( j == 0 )? stations : closures ) {
+        index.put( st, k );
+        name[k]  = st.name;
+        e[k]     = st.e;
+        s[k]     = st.s;
+        v[k]     = st.v;
+        h[k]     = st.h;
+        shown[k] = st.show();
+        int nr_names = mNames.size();
+        int id = mNames.intern( st.name );
+        if ( mNames.size() > nr_names ) mStationOfName[id] = k; // first station with the name
+        ++ k;
+      }
+    }
+
+    legNr = shots.size();
+    legFrom  = new int[ legNr ];
+    legTo    = new int[ legNr ];
+    legIgnoreExtend = new boolean[ legNr ];
+    legBlock = new DBlock[ legNr ];
+    k = 0;
+    for ( NumShot sh : shots ) {
+      legFrom[k]  = indexOf( index, sh.from );
+      legTo[k]    = indexOf( index, sh.to );
+      legIgnoreExtend[k] = sh.mIgnoreExtend;
+      legBlock[k] = sh.getFirstBlock();
+      ++ k;
+    }
+
+    splayNr = splays.size();
+    splayFrom  = new int[ splayNr ];
+    splayE     = new float[ splayNr ];
+    splayS     = new float[ splayNr ];
+    splayV     = new float[ splayNr ];
+    splayH     = new float[ splayNr ];
+    splayBlock = new DBlock[ splayNr ];
+    k = 0;
+    for ( NumSplay sp : splays ) {
+      splayFrom[k]  = indexOf( index, sp.from );
+      splayE[k]     = (float)sp.e;
+      splayS[k]     = (float)sp.s;
+      splayV[k]     = (float)sp.v;
+      splayH[k]     = (float)sp.h;
+      splayBlock[k] = sp.getBlock();
+      ++ k;
+    }
+  }
+
+  /** @return the index of a station, or -1 if the station is not in the view
+   * @param index   station index
+   * @param st      station
+   */
+  private static int indexOf( HashMap< NumStation, Integer > index, NumStation st )
+  {
+    Integer k = index.get( st );
+    return ( k == null )? -1 : k;
+  }
+
+  /** @return the index of the (first) station with a given name, or -1 if not found
+   * @param station_name   station name
+   */
+  public int indexOf( String station_name )
+  {
+    int id = mNames.indexOf( station_name );
+    return ( id < 0 )? -1 : mStationOfName[ id ];
+  }
+
+}
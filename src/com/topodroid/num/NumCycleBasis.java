@@ -0,0 +1,370 @@
+/* @file NumCycleBasis.java
+ *
+ * @author marco corvi
+ * @date oct 2026
+ *
+ * @brief TopoDroid survey reduction: cycle bases of the branch graph
+ * --------------------------------------------------------
+ *  Copyright This software is distributed under GPL-3.0 or later
+ *  See the file COPYING.
+ * --------------------------------------------------------
+ * The nodes of the graph are the branch nodes, the edges are the branches.
+ * The independent cycles are as many as the branches not in a spanning forest of the graph.
+ *
+ * Fundamental basis: each branch not in the breadth-first spanning forest, closed by the
+ * path of the forest between its nodes. It takes time linear in the branches (plus the length
+ * of the cycles).
+ *
+ * Minimum basis (Horton): the candidate cycles are, for each node R and each branch X-Y not in
+ * the shortest-path tree of R, the branch closed by the tree paths R-X and R-Y (when these
+ * meet only at R). The candidates are taken by increasing length, and a candidate is kept if
+ * it is independent of the cycles already kept (gaussian elimination over GF(2) of the branch
+ * sets). A basis independent over GF(2) is also independent over the reals.
+ * The shortest-path trees of all the nodes are kept in memory: for large graphs the
+ * fundamental basis is returned instead.
+ */
+package com.topodroid.num;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.PriorityQueue;
+
+class NumCycleBasis
+{
+  private static final int MAX_MINIMUM_NODES = 1000; // maximum number of nodes for the minimum basis
+
+  private final List< NumBranch > mBranches;
+  private final ArrayList< NumNode > mNodes = new ArrayList<>();
+  private final int[] mI1;       // branch first node index (-1 if the branch is not closed)
+  private final int[] mI2;       // branch second node index
+  private final int[] mAdjStart; // branches at node n are mAdjBranch[ mAdjStart[n] .. mAdjStart[n+1] )
+  private final int[] mAdjBranch;
+  private final int[] mMark;     // path marks (to find where two tree paths meet)
+  private int mStamp;
+
+  /** @return the fundamental cycles of a breadth-first spanning forest
+   * @param branches   branches
+   */
+  static ArrayList< NumCycle > makeFundamentalCycles( List< NumBranch > branches )
+  {
+    NumCycleBasis basis = new NumCycleBasis( branches );
+    int[] edge = new int[ basis.mNodes.size() ];
+    boolean[] tree = basis.makeForest( edge );
+    ArrayList< NumCycle > cycles = new ArrayList<>();
+    int[] br = new int[ basis.mNodes.size() + 1 ];
+    int[] nd = new int[ br.length ];
+    for ( int k = 0; k < basis.mI1.length; ++k ) {
+      if ( basis.mI1[k] < 0 || tree[k] ) continue;
+      cycles.add( basis.makeCycle( br, nd, basis.walk( k, edge, br, nd ) ) );
+    }
+    return cycles;
+  }
+
+  /** @return the cycles of a minimum-length basis (Horton)
+   * @param branches   branches, with their lengths
+   */
+  static ArrayList< NumCycle > makeMinimumCycles( List< NumBranch > branches )
+  {
+    NumCycleBasis basis = new NumCycleBasis( branches );
+    int nn = basis.mNodes.size();
+    if ( nn > MAX_MINIMUM_NODES ) return makeFundamentalCycles( branches );
+    int nb = basis.mI1.length;
+
+    // number of independent cycles
+    boolean[] forest = basis.makeForest( new int[ nn ] );
+    int nc = 0;
+    for ( int k = 0; k < nb; ++k ) if ( basis.mI1[k] >= 0 && ! forest[k] ) ++ nc;
+    ArrayList< NumCycle > cycles = new ArrayList<>();
+    if ( nc == 0 ) return cycles;
+
+    // candidate cycles
+    int[][] edges = new int[ nn ][];
+    ArrayList< Candidate > candidates = new ArrayList<>();
+    double[] dist = new double[ nn ];
+    int[] first = new int[ nn ];
+    for ( int r = 0; r < nn; ++r ) {
+      int[] edge = new int[ nn ];
+      basis.makeShortestPathTree( r, edge, dist, first );
+      edges[r] = edge;
+      for ( int k = 0; k < nb; ++k ) {
+        int x = basis.mI1[k];
+        int y = basis.mI2[k];
+        if ( x < 0 || dist[x] < 0 || dist[y] < 0 ) continue;
+        if ( edge[x] == k || edge[y] == k ) continue; // tree branch
+        if ( x == y ) {
+          if ( x != r ) continue; // self-loop: once, at its node
+        } else if ( first[x] == first[y] ) {
+          continue; // the two paths share the first branch
+        }
+        candidates.add( new Candidate( dist[x] + dist[y] + branches.get(k).len, r, k ) );
+      }
+    }
+    Collections.sort( candidates );
+
+    // greedy independent candidates
+    int nw = ( nb + 63 ) / 64;
+    long[][] pivot = new long[ nb ][]; // reduced branch sets, by their lowest branch
+    int[] br = new int[ nn + 1 ];
+    int[] nd = new int[ br.length ];
+    for ( Candidate c : candidates ) {
+      int len = basis.walk( c.branch, edges[ c.root ], br, nd );
+      long[] bits = new long[ nw ];
+      for ( int j = 0; j < len; ++j ) bits[ br[j] >> 6 ] ^= 1L << ( br[j] & 63 );
+      if ( ! reduce( bits, pivot ) ) continue;
+      cycles.add( basis.makeCycle( br, nd, len ) );
+      if ( cycles.size() == nc ) break;
+    }
+    return cycles;
+  }
+
+  /** candidate cycle of the minimum basis
+   */
+  private static class Candidate implements Comparable< Candidate >
+  {
+    double length; // cycle length
+    int root;      // root node of the shortest-path tree
+    int branch;    // branch that closes the cycle
+
+    Candidate( double l, int r, int b )
+    {
+      length = l;
+      root   = r;
+      branch = b;
+    }
+
+    @Override
+    public int compareTo( Candidate c )
+    {
+      if ( length != c.length ) return ( length < c.length )? -1 : 1;
+      if ( root != c.root ) return ( root < c.root )? -1 : 1;
+      return Integer.compare( branch, c.branch );
+    }
+  }
+
+  /** reduce a branch set by the kept sets, and keep it if it is not reduced to empty
+   * @param bits    branch set
+   * @param pivot   kept sets, by their lowest branch
+   * @return true if the set has been kept (it is independent)
+   */
+  private static boolean reduce( long[] bits, long[][] pivot )
+  {
+    for ( int w = 0; w < bits.length; ++w ) {
+      while ( bits[w] != 0 ) {
+        int b = ( w << 6 ) + Long.numberOfTrailingZeros( bits[w] );
+        long[] row = pivot[b];
+        if ( row == null ) {
+          pivot[b] = bits;
+          return true;
+        }
+        for ( int j = w; j < bits.length; ++j ) bits[j] ^= row[j]; // clears bit b, and changes only higher bits
+      }
+    }
+    return false;
+  }
+
+  /** cstr
+   * @param branches   branches
+   */
+  private NumCycleBasis( List< NumBranch > branches )
+  {
+    mBranches = branches;
+    int nb = branches.size();
+    mI1 = new int[ nb ];
+    mI2 = new int[ nb ];
+    HashMap< NumNode, Integer > index = new HashMap<>();
+    for ( int k = 0; k < nb; ++k ) {
+      NumBranch br = branches.get( k );
+      if ( br.n1 == null || br.n2 == null ) {
+        mI1[k] = mI2[k] = -1;
+      } else {
+        mI1[k] = indexNode( index, br.n1 );
+        mI2[k] = indexNode( index, br.n2 );
+      }
+    }
+    int nn = mNodes.size();
+    mAdjStart = new int[ nn + 1 ];
+    for ( int k = 0; k < nb; ++k ) {
+      if ( mI1[k] < 0 ) continue;
+      ++ mAdjStart[ mI1[k] + 1 ];
+      if ( mI2[k] != mI1[k] ) ++ mAdjStart[ mI2[k] + 1 ];
+    }
+    for ( int n = 0; n < nn; ++n ) mAdjStart[n+1] += mAdjStart[n];
+    mAdjBranch = new int[ mAdjStart[ nn ] ];
+    int[] pos = new int[ nn ];
+    System.arraycopy( mAdjStart, 0, pos, 0, nn );
+    for ( int k = 0; k < nb; ++k ) {
+      if ( mI1[k] < 0 ) continue;
+      mAdjBranch[ pos[ mI1[k] ] ++ ] = k;
+      if ( mI2[k] != mI1[k] ) mAdjBranch[ pos[ mI2[k] ] ++ ] = k;
+    }
+    mMark  = new int[ nn ];
+    mStamp = 0;
+  }
+
+  /** @return the index of a node, adding it to the index if necessary
+   * @param index  node index
+   * @param node   node
+   */
+  private int indexNode( HashMap< NumNode, Integer > index, NumNode node )
+  {
+    Integer n = index.get( node );
+    if ( n != null ) return n;
+    index.put( node, mNodes.size() );
+    mNodes.add( node );
+    return mNodes.size() - 1;
+  }
+
+  /** @return the node at the other end of a branch
+   * @param k   branch index
+   * @param n   node index
+   */
+  private int other( int k, int n ) { return ( mI1[k] == n )? mI2[k] : mI1[k]; }
+
+  /** make a breadth-first spanning forest
+   * @param edge   [output] branch to the parent node (-1 for the roots)
+   * @return the flags of the forest branches
+   */
+  private boolean[] makeForest( int[] edge )
+  {
+    int nn = mNodes.size();
+    boolean[] tree = new boolean[ mI1.length ];
+    boolean[] seen = new boolean[ nn ];
+    int[] queue = new int[ nn ];
+    for ( int r = 0; r < nn; ++r ) {
+      if ( seen[r] ) continue;
+      seen[r] = true;
+      edge[r] = -1;
+      int head = 0;
+      int tail = 0;
+      queue[ tail++ ] = r;
+      while ( head < tail ) {
+        int n = queue[ head++ ];
+        for ( int a = mAdjStart[n]; a < mAdjStart[n+1]; ++a ) {
+          int k = mAdjBranch[a];
+          int m = other( k, n );
+          if ( seen[m] ) continue;
+          seen[m] = true;
+          edge[m] = k;
+          tree[k] = true;
+          queue[ tail++ ] = m;
+        }
+      }
+    }
+    return tree;
+  }
+
+  /** shortest-path entry: node and its distance
+   */
+  private static class Step implements Comparable< Step >
+  {
+    double dist;
+    int node;
+
+    Step( double d, int n )
+    {
+      dist = d;
+      node = n;
+    }
+
+    @Override
+    public int compareTo( Step s )
+    {
+      if ( dist != s.dist ) return ( dist < s.dist )? -1 : 1;
+      return Integer.compare( node, s.node );
+    }
+  }
+
+  /** make the shortest-path tree of a node (Dijkstra)
+   * @param r      root node
+   * @param edge   [output] branch to the parent node (-1 for the root and the unreached nodes)
+   * @param dist   [output] distance from the root (-1 for the unreached nodes)
+   * @param first  [output] first branch of the path from the root (-1 for the root)
+   */
+  private void makeShortestPathTree( int r, int[] edge, double[] dist, int[] first )
+  {
+    int nn = mNodes.size();
+    boolean[] done = new boolean[ nn ];
+    for ( int n = 0; n < nn; ++n ) {
+      edge[n]  = -1;
+      dist[n]  = -1;
+      first[n] = -1;
+    }
+    dist[r] = 0;
+    PriorityQueue< Step > queue = new PriorityQueue<>();
+    queue.add( new Step( 0, r ) );
+    while ( ! queue.isEmpty() ) {
+      Step step = queue.poll();
+      int n = step.node;
+      if ( done[n] ) continue;
+      done[n] = true;
+      for ( int a = mAdjStart[n]; a < mAdjStart[n+1]; ++a ) {
+        int k = mAdjBranch[a];
+        int m = other( k, n );
+        if ( done[m] ) continue;
+        double d = dist[n] + mBranches.get( k ).len;
+        if ( dist[m] < 0 || d < dist[m] ) {
+          dist[m]  = d;
+          edge[m]  = k;
+          first[m] = ( n == r )? k : first[n];
+          queue.add( new Step( d, m ) );
+        }
+      }
+    }
+  }
+
+  /** walk the cycle of a branch closed by the tree paths between its nodes:
+   *  from the first node, along the branch, and back on the tree
+   * @param k     branch index
+   * @param edge  tree, branch to the parent node
+   * @param br    [output] branches of the cycle
+   * @param nd    [output] nodes reached by the branches
+   * @return the number of branches of the cycle
+   */
+  private int walk( int k, int[] edge, int[] br, int[] nd )
+  {
+    int x = mI1[k];
+    int y = mI2[k];
+    ++ mStamp;
+    for ( int z = x; ; z = other( edge[z], z ) ) { // mark the path from X to the root
+      mMark[z] = mStamp;
+      if ( edge[z] < 0 ) break;
+    }
+    int len = 0;
+    br[len] = k;
+    nd[len] = y;
+    ++ len;
+    int z = y;
+    for ( ; mMark[z] != mStamp; z = other( edge[z], z ) ) { // from Y up to the meeting node
+      br[len] = edge[z];
+      nd[len] = other( edge[z], z );
+      ++ len;
+    }
+    int meet = z;
+    int start = len;
+    for ( z = x; z != meet; z = other( edge[z], z ) ) { // from X up to the meeting node, reversed below
+      br[len] = edge[z];
+      nd[len] = z;
+      ++ len;
+    }
+    for ( int i = start, j = len - 1; i < j; ++i, --j ) {
+      int t = br[i]; br[i] = br[j]; br[j] = t;
+      t = nd[i]; nd[i] = nd[j]; nd[j] = t;
+    }
+    return len;
+  }
+
+  /** @return the cycle of a walk
+   * @param br    branches of the walk
+   * @param nd    nodes reached by the branches
+   * @param len   number of branches
+   */
+  private NumCycle makeCycle( int[] br, int[] nd, int len )
+  {
+    NumCycle cycle = new NumCycle( len );
+    for ( int j = 0; j < len; ++j ) cycle.addBranch( mBranches.get( br[j] ), mNodes.get( nd[j] ) );
+    return cycle;
+  }
+
+}
@@ -0,0 +1,111 @@
+/* @file NumNameTable.java
+ *
+ * @author marco corvi
+ * @date oct 2026
+ *
+ * @brief TopoDroid survey reduction station names table (interned integer IDs)
+ * --------------------------------------------------------
+ *  Copyright This software is distributed under GPL-3.0 or later
+ *  See the file COPYING.
+ * --------------------------------------------------------
+ * Each name gets the next integer ID, 0, 1, 2, ... The name-to-ID map is an
+ * open-addressing hash table with linear probing (power-of-two capacity, load below 1/2).
+ */
+package com.topodroid.num;
+
+class NumNameTable
+{
+  private String[] mNames;  // names, by ID
+  private int[]    mSlots;  // hash table: ID+1 of the name in the slot, 0 empty
+  private int[]    mHashes; // names hash codes, by ID
+  private int      mSize;   // number of names
+
+  /** cstr
+   * @param capacity  expected number of names
+   */
+  NumNameTable( int capacity )
+  {
+    int cap = 16;
+    while ( cap < 2 * capacity ) cap <<= 1;
+    mSlots  = new int[ cap ];
+    mNames  = new String[ cap / 2 ];
+    mHashes = new int[ cap / 2 ];
+    mSize   = 0;
+  }
+
+  /** @return the number of names
+   */
+  int size() { return mSize; }
+
+  /** @return the name of an ID
+   * @param id   name ID
+   */
+  String getName( int id ) { return mNames[ id ]; }
+
+  /** @return the ID of a name, or -1 if the name is not in the table
+   * @param name   name
+   */
+  int indexOf( String name )
+  {
+    int h = hash( name );
+    int mask = mSlots.length - 1;
+    for ( int k = h & mask; mSlots[k] != 0; k = (k+1) & mask ) {
+      int id = mSlots[k] - 1;
+      if ( mHashes[id] == h && mNames[id].equals( name ) ) return id;
+    }
+    return -1;
+  }
+
+  /** @return the ID of a name, adding the name to the table if necessary
+   * @param name   name
+   */
+  int intern( String name )
+  {
+    int h = hash( name );
+    int mask = mSlots.length - 1;
+    int k = h & mask;
+    for ( ; mSlots[k] != 0; k = (k+1) & mask ) {
+      int id = mSlots[k] - 1;
+      if ( mHashes[id] == h && mNames[id].equals( name ) ) return id;
+    }
+    if ( 2 * ( mSize + 1 ) > mSlots.length ) { // grow and retry
+      grow();
+      return intern( name );
+    }
+    int id = mSize ++;
+    mNames[id]  = name;
+    mHashes[id] = h;
+    mSlots[k]   = id + 1;
+    return id;
+  }
+
+  /** double the capacity of the table
+   */
+  private void grow()
+  {
+    int cap = 2 * mSlots.length;
+    int mask = cap - 1;
+    mSlots = new int[ cap ];
+    String[] names = new String[ cap / 2 ];
+    int[] hashes   = new int[ cap / 2 ];
+    System.arraycopy( mNames,  0, names,  0, mSize );
+    System.arraycopy( mHashes, 0, hashes, 0, mSize );
+    mNames  = names;
+    mHashes = hashes;
+    for ( int id = 0; id < mSize; ++id ) {
+      int k = mHashes[id] & mask;
+      while ( mSlots[k] != 0 ) k = (k+1) & mask;
+      mSlots[k] = id + 1;
+    }
+  }
+
+  /** @return the spread hash code of a name
+   * @param name   name
+   */
+  private static int hash( String name )
+  {
+    int h = name.hashCode();
+    return h ^ ( h >>> 16 );
+  }
+
+}
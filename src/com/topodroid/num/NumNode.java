@@ -19,7 +19,6 @@ class NumNode
   static final int NODE_CROSS = 1;
  
   int type; // node type
-  int use;  // tag for loop identification
   NumStation station; // station of this node
   ArrayList< NumShot > shots; // station shots
   // private ArrayList< NumBranch > branches; // TODO STILL_TO_USE
@@ -33,7 +32,6 @@ class NumNode
     shots.add( st.s1 ); // and set first two shots
     shots.add( st.s2 );
     // branches = new ArrayList<>(); // TODO STILL_TO_USE
-    use = 0;
     e = st.e;
     s = st.s;
     v = st.v;
@@ -10,40 +10,254 @@
  *  Copyright This software is distributed under GPL-3.0 or later
  *  See the file COPYING.
  * --------------------------------------------------------
+ * The station adjacency is built once (compressed arrays) with a snapshot of the leg lengths.
+ * Each search is a Dijkstra with a binary heap. The scratch arrays are shared by the searches:
+ * only the entries touched by a search are reset by the next one.
  */
 package com.topodroid.num;
 
+import com.topodroid.utils.TDMath;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+
 class NumShortpath
 {
-  NumShortpath mFrom; // link to the previous shortpath
-  NumStation mStation;
-  int     mNr;    // number of segments in this short path
-  float   mDist;  // loop closure distance (shortest-path algo)
-  float   mDist2; // loop closure squared distance (shortest-path algo)
-
-  // create a short path - when created the shortpath is unlinked
-  NumShortpath( NumStation station, int n, float d, float d2 )
+  private static final double INFINITY = Double.MAX_VALUE;
+
+  private NumStation[] mStation;      // stations
+  private HashMap< NumStation, Integer > mIndex; // station index
+  private int[]   mAdjStart;  // station adjacency: legs of station k are in [ mAdjStart[k], mAdjStart[k+1] )
+  private int[]   mAdjOther;  // other station of the leg
+  private int[]   mAdjShot;   // index of the leg in the list of shots
+  private float[] mAdjLength; // length of the leg
+
+  // scratch arrays
+  private double[] mDist;  // loop closure distance
+  private double[] mDist2; // loop closure squared distance
+  private int[]    mNr;    // number of segments in the short path
+  private int[]    mFrom;  // previous station in the short path (-1 none)
+  private int[]    mTouched;  // stations touched by the last search
+  private int      mNrTouched;
+  private int[]    mHeap;     // binary heap of stations
+  private int[]    mHeapPos;  // position of stations in the heap (-1 not in the heap)
+  private int      mHeapSize;
+
+  /** cstr
+   * @param stations   network stations
+   * @param shots      network legs (in insertion order)
+   * @note legs with a station not in the list of stations are skipped
+   */
+  NumShortpath( List< NumStation > stations, List< NumShot > shots )
   {
-    mFrom    = null;
-    mStation = station;
-    mNr    = n;
-    mDist  = d;
-    mDist2 = d2;
+    int ns = stations.size();
+    mStation = new NumStation[ ns ];
+    mIndex   = new HashMap<>();
+    for ( int k = 0; k < ns; ++k ) {
+      mStation[k] = stations.get( k );
+      mIndex.put( mStation[k], k );
+    }
+    int nsh = shots.size();
+    int[] i1 = new int[ nsh ];
+    int[] i2 = new int[ nsh ];
+    mAdjStart = new int[ ns + 1 ];
+    for ( int k = 0; k < nsh; ++k ) {
+      NumShot sh = shots.get( k );
+      Integer f = mIndex.get( sh.from );
+      Integer t = mIndex.get( sh.to );
+      i1[k] = ( f == null )? -1 : f;
+      i2[k] = ( t == null )? -1 : t;
+      if ( i1[k] >= 0 && i2[k] >= 0 ) {
+        ++ mAdjStart[ i1[k] + 1 ];
+        ++ mAdjStart[ i2[k] + 1 ];
+      }
+    }
+    for ( int k = 0; k < ns; ++k ) mAdjStart[k+1] += mAdjStart[k];
+    int na = mAdjStart[ ns ];
+    mAdjOther  = new int[ na ];
+    mAdjShot   = new int[ na ];
+    mAdjLength = new float[ na ];
+    int[] pos = new int[ ns ];
+    System.arraycopy( mAdjStart, 0, pos, 0, ns );
+    for ( int k = 0; k < nsh; ++k ) {
+      if ( i1[k] < 0 || i2[k] < 0 ) continue;
+      float len = shots.get( k ).length();
+      int p = pos[ i1[k] ] ++;
+      mAdjOther[p] = i2[k]; mAdjShot[p] = k; mAdjLength[p] = len;
+      p = pos[ i2[k] ] ++;
+      mAdjOther[p] = i1[k]; mAdjShot[p] = k; mAdjLength[p] = len;
+    }
+
+    mDist    = new double[ ns ];
+    mDist2   = new double[ ns ];
+    mNr      = new int[ ns ];
+    mFrom    = new int[ ns ];
+    mTouched = new int[ ns ];
+    mHeap    = new int[ ns ];
+    mHeapPos = new int[ ns ];
+    for ( int k = 0; k < ns; ++k ) {
+      mDist[k] = INFINITY;
+      mFrom[k] = -1;
+      mHeapPos[k] = -1;
+    }
+    mNrTouched = 0;
+    mHeapSize  = 0;
   }
 
-  // get the name of the station
-  String getName() { return (mStation == null)? "--" : mStation.name; }
+  /** @return the index of a station, or -1 if the station is not in the network
+   * @param st   station
+   */
+  int indexOf( NumStation st )
+  {
+    Integer k = mIndex.get( st );
+    return ( k == null )? -1 : k;
+  }
+
+  /** @return the closure descriptions of the loops
+   * @param format  closure description format
+   * @param loops   loop-closing legs
+   * @note this class does not depend on android: the closures are computed here for ClosureTask, and for
+   *       the reductions that compute them at once
+   */
+  ArrayList< NumClosure > closures( String format, List< ClosureTask.ClosureLoop > loops )
+  {
+    ArrayList< NumClosure > ret = new ArrayList<>();
+    for ( ClosureTask.ClosureLoop loop : loops ) {
+      int s1 = indexOf( loop.sf );
+      int s2 = indexOf( loop.st );
+      if ( ! search( s1, s2, loop.max_shot ) ) continue;
+      int nr = 1 + getNr( s2 );                       // loop shots
+      double len  = Math.abs( loop.d ) + getDist( s2 ); // loop length
+      if ( len > 0 ) {
+        double error = (loop.dl*100) / len;
+        double angle = TDMath.sqrt( nr ) * loop.dl / len * TDMath.RAD2DEG;
+        String description = String.format(Locale.US, format, loop.sf.name, loop.st.name, nr, loop.dl, len, loop.dh, loop.dv, error, angle );
+        // TDLog.v( "Desc " + description );
+        ret.add( new NumClosure( description, getPath( s2 ) ) );
+      }
+    }
+    return ret;
+  }
 
-  // reset the values of this short-path
-  // @param from previous link
-  // @param n   number of segments
-  // @param d   length = sum of segment lengths
-  // @param d2  sum of segment square lengths
-  void resetShortpath( NumShortpath from, int n, float d, float d2 )
+  /** compute the shortest path between two stations
+   * @param s1        index of the first station
+   * @param s2        index of the second station
+   * @param max_shot  number of legs to use (only the legs with index lower than this)
+   * @return true if a path has been found
+   * @note the legs between the two stations are not used
+   */
+  boolean search( int s1, int s2, int max_shot )
   {
-    mFrom  = from;
-    mNr    = n;
-    mDist  = d;
-    mDist2 = d2;
+    for ( int k = 0; k < mNrTouched; ++k ) { // reset the scratch values of the previous search
+      int t = mTouched[k];
+      mDist[t] = INFINITY;
+      mFrom[t] = -1;
+      mHeapPos[t] = -1;
+    }
+    mNrTouched = 0;
+    mHeapSize  = 0;
+    if ( s1 < 0 || s2 < 0 || s1 == s2 ) return false;
+
+    setDist( s1, -1, 0, 0, 0 );
+    while ( mHeapSize > 0 ) {
+      int s = pop();
+      if ( s == s2 ) return true;
+      for ( int a = mAdjStart[s]; a < mAdjStart[s+1]; ++a ) {
+        if ( mAdjShot[a] >= max_shot ) continue;
+        int t = mAdjOther[a];
+        if ( ( s == s1 && t == s2 ) || ( s == s2 && t == s1 ) ) continue;
+        double len = mAdjLength[a];
+        double d = mDist[s] + len;
+        if ( d < mDist[t] ) setDist( t, s, mNr[s] + 1, d, mDist2[s] + len*len );
+      }
+    }
+    return false;
   }
+
+  /** @return the length of the path to a station of the last search
+   * @param s   station index
+   */
+  double getDist( int s ) { return mDist[s]; }
+
+  /** @return the number of segments of the path to a station of the last search
+   * @param s   station index
+   */
+  int getNr( int s ) { return mNr[s]; }
+
+  /** @return the station sequence of the path to a station of the last search, eg, "st-s2-s1-sf"
+   * @param s   station index
+   */
+  String getPath( int s )
+  {
+    StringBuilder sb = new StringBuilder();
+    sb.append( mStation[s].name );
+    int k = mNr[s]; // safety for bailout
+    for ( s = mFrom[s]; s >= 0 && k >= 0; s = mFrom[s] ) {
+      sb.append( "-" );
+      sb.append( mStation[s].name );
+      -- k;
+    }
+    return sb.toString();
+  }
+
+  // ------------------------------------------------------------
+  // binary heap
+
+  /** set the path values of a station, and insert it in the heap or move it up
+   * @param s     station index
+   * @param from  previous station index
+   * @param nr    number of segments
+   * @param d     length = sum of segment lengths
+   * @param d2    sum of segment square lengths
+   */
+  private void setDist( int s, int from, int nr, double d, double d2 )
+  {
+    if ( mDist[s] == INFINITY ) mTouched[ mNrTouched++ ] = s;
+    mDist[s]  = d;
+    mDist2[s] = d2;
+    mNr[s]    = nr;
+    mFrom[s]  = from;
+    int p = mHeapPos[s];
+    if ( p < 0 ) {
+      p = mHeapSize ++;
+    }
+    while ( p > 0 ) { // sift up
+      int q = (p-1)/2;
+      int sq = mHeap[q];
+      if ( mDist[sq] <= d ) break;
+      mHeap[p] = sq;
+      mHeapPos[sq] = p;
+      p = q;
+    }
+    mHeap[p] = s;
+    mHeapPos[s] = p;
+  }
+
+  /** @return the station with the shortest distance, removed from the heap
+   */
+  private int pop()
+  {
+    int ret = mHeap[0];
+    mHeapPos[ret] = -2; // done
+    int s = mHeap[ -- mHeapSize ];
+    if ( mHeapSize > 0 ) {
+      double d = mDist[s];
+      int p = 0;
+      for ( ; ; ) { // sift down
+        int q = 2*p + 1;
+        if ( q >= mHeapSize ) break;
+        if ( q+1 < mHeapSize && mDist[ mHeap[q+1] ] < mDist[ mHeap[q] ] ) ++q;
+        if ( mDist[ mHeap[q] ] >= d ) break;
+        mHeap[p] = mHeap[q];
+        mHeapPos[ mHeap[p] ] = p;
+        p = q;
+      }
+      mHeap[p] = s;
+      mHeapPos[s] = p;
+    }
+    return ret;
+  }
+
 }
@@ -23,8 +23,8 @@ public class NumShot
   public final NumStation from;
   public final NumStation to;
 
-  final DBlock firstBlock;
-  final ArrayList< DBlock > blocks;
+  final NumBlock firstBlock;
+  final ArrayList< NumBlock > blocks;
 
   public int mBranchDir; // branch direction
   public int mDirection; // direction of the block (1 same, -1 opposite)
@@ -47,14 +47,42 @@ public class NumShot
   // reset the average leg values
   void reset( float d, float b, float c ) { mAvgLeg.set( d, b, c ); }
 
-  public DBlock getFirstBlock() { return firstBlock; /* blocks.get(0); */ }
+  // restore the average leg values from the shot blocks (undo the loop compensation)
+  void restore()
+  {
+    setLeg( mAvgLeg );
+  }
+
+  // @return the average leg values of the shot blocks (without the loop compensation)
+  AverageLeg measuredLeg()
+  {
+    AverageLeg leg = new AverageLeg( mAvgLeg.mDecl );
+    setLeg( leg );
+    return leg;
+  }
+
+  // set an average leg to the values of the shot blocks
+  private void setLeg( AverageLeg leg )
+  {
+    NumBlock blk = blocks.get( 0 );
+    leg.set( blk.length(), blk.bearing(), blk.clino() );
+    for ( int k = 1; k < blocks.size(); ++k ) {
+      blk = blocks.get( k );
+      leg.add( blk.length(), blk.bearing(), blk.clino() );
+    }
+  }
+
+  /** @return the data block of the first shot
+   * @note the data block is made if the reduction has been computed from the shot columns
+   */
+  public DBlock getFirstBlock() { return firstBlock.getBlock(); /* blocks.get(0); */ }
 
   public float getReducedExtend() { return firstBlock.getReducedExtend(); }
   public int getReducedFlag()     { return firstBlock.getReducedFlag(); }
 
   /** @return the shot comment string
    */
-  public String getComment()      { return firstBlock.mComment; }
+  public String getComment()      { return firstBlock.getBlock().mComment; }
 
   /** set whether the shot belongs to a bad loop
    * @param bad_loop whether the shot belongs to a bad loop
@@ -65,7 +93,7 @@ public class NumShot
    */
   public boolean isBadLoop() { return mBadLoop; }
 
-  NumShot( NumStation f, NumStation t, DBlock blk, int dir, float anomaly, float decl )
+  NumShot( NumStation f, NumStation t, NumBlock blk, int dir, float anomaly, float decl )
   {
     from = f;
     to   = t;
@@ -82,13 +110,13 @@ public class NumShot
     // mBearing = blk.mBearing;
     // mClino   = blk.mClino;
     mAvgLeg  = new AverageLeg( decl );
-    mAvgLeg.set( blk );
+    mAvgLeg.set( blk.length(), blk.bearing(), blk.clino() );
     mAnomaly = anomaly;
     // mExtend  = blk.getIntExtend();
     firstBlock = blk;
   }
 
-  void addBlock( DBlock blk )
+  void addBlock( NumBlock blk )
   {
     int n = blocks.size();
     blocks.add( blk );
@@ -96,13 +124,13 @@ public class NumShot
       // mLength  = blk.mLength;
       // mBearing = blk.mBearing;
       // mClino   = mClino;
-      mAvgLeg.set( blk );
+      mAvgLeg.set( blk.length(), blk.bearing(), blk.clino() );
     } else { // this is not exactly the average vector, but is close enough
       // mLength = (mLength * n + blk.mLength) / (n+1);
       // mClino  = (mClino * n + blk.mClino) / (n+1);
       // float b = TDUtil.around( blk.mBearing, mBearing );
       // mBearing = (mBearing * n  + b ) / (n+1);
-      mAvgLeg.add( blk );
+      mAvgLeg.add( blk.length(), blk.bearing(), blk.clino() );
     }
     // FIXME DIRECTION
     // if ( mDirection == -1 ) {
@@ -19,13 +19,18 @@ import com.topodroid.TDX.DBlock;
 public class NumSplay extends NumSurveyPoint
 {
   public final NumStation from;
-  private DBlock mBlock;
+  private final NumBlock mBlock;
   private float  mDecl;
   private float  mCosine;
 
   /** @return the data block
+   * @note the data block is made if the reduction has been computed from the shot columns
    */
-  public DBlock getBlock() { return mBlock; }
+  public DBlock getBlock() { return mBlock.getBlock(); }
+
+  /** @return the shot data
+   */
+  NumBlock getNumBlock() { return mBlock; }
 
   /** @return the cosine that the splay makes with the reference leg
    */
@@ -37,7 +42,7 @@ public class NumSplay extends NumSurveyPoint
 
   /** @return the comment of the data block
    */
-  public String getComment()  { return mBlock.mComment; }
+  public String getComment()  { return mBlock.getBlock().mComment; }
 
   /** cstr
    * @param f    FROM station
@@ -45,10 +50,10 @@ public class NumSplay extends NumSurveyPoint
    * @param b    splay azimuth
    * @param c    splay clino
    * @param cosine cosine with the reference leg (for the extended profile)
-   * @param blk  splay data block
+   * @param blk  splay shot data
    * @param decl magnetic declination
    */
-  NumSplay( NumStation f, float d, float b, float c, float cosine, DBlock blk, float decl )
+  NumSplay( NumStation f, float d, float b, float c, float cosine, NumBlock blk, float decl )
   {
     from = f;
     v = from.v - d * TDMath.sind( c );
@@ -17,10 +17,12 @@ import com.topodroid.common.ExtendType;
 
 
 import java.util.ArrayList;
+import java.util.List;
 
 public class NumStation extends NumSurveyPoint
 {
   public String name;  // station name
+  int mId;             // ID of the name (set by the station set)
   public boolean mDuplicate; // whether this is a duplicate station
 
   private boolean mHas3DCoords; // whether the station has got coords after loop-closure
@@ -55,10 +57,14 @@ public class NumStation extends NumSurveyPoint
 
   private ArrayList< NumAzimuth > mLegs; // ordered list of legs at the shot (used to compute extends)
 
+  private ArrayList< NumShot >  mAdjacentShots;  // legs at the station, in the order of the list of shots (null if none)
+  private ArrayList< NumSplay > mAdjacentSplays; // splays at the station, in the order of the list of splays (null if none)
+
   public NumStation( String id )
   {
     super();
     name = id;
+    mId  = -1;
     mDuplicate = false;
     mHas3DCoords = false;
     mHasExtend = true;
@@ -78,6 +84,7 @@ public class NumStation extends NumSurveyPoint
 
     // TDLog.Log( TDLog.LOC_NUM, "NumStation cstr " + id + " from " + from + " (extend " + extend + ")" );
     name = id;
+    mId  = -1;
     v = from.v - d * TDMath.sinDd( c );
     double h0 = d * Math.abs( TDMath.cosDd( c ) );
     // assert( extend <= 2 ); // 2020-07-29 PREREQ
@@ -98,6 +105,40 @@ public class NumStation extends NumSurveyPoint
     // TDLog.v( "NumStation cstr " + id + " from " + from.name + " has coords " + mHasExtend + " " + from.mHasExtend );
   }
 
+  /** add a leg to the station adjacency
+   * @param sh   leg
+   */
+  void addAdjacentShot( NumShot sh )
+  {
+    if ( mAdjacentShots == null ) mAdjacentShots = new ArrayList<>();
+    mAdjacentShots.add( sh );
+  }
+
+  /** add a splay to the station adjacency
+   * @param sp   splay
+   */
+  void addAdjacentSplay( NumSplay sp )
+  {
+    if ( mAdjacentSplays == null ) mAdjacentSplays = new ArrayList<>();
+    mAdjacentSplays.add( sp );
+  }
+
+  /** remove a splay from the station adjacency
+   * @param sp   splay
+   */
+  void removeAdjacentSplay( NumSplay sp )
+  {
+    if ( mAdjacentSplays != null ) mAdjacentSplays.remove( sp );
+  }
+
+  /** @return the legs at the station (null if none)
+   */
+  List< NumShot > getAdjacentShots() { return mAdjacentShots; }
+
+  /** @return the splays at the station (null if none)
+   */
+  List< NumSplay > getAdjacentSplays() { return mAdjacentSplays; }
+
   // azimuth [degrees]
   // extend  [-1,0,+1]
   void addAzimuth( float azimuth, float extend ) 
@@ -0,0 +1,234 @@
+/* @file NumStationGrid.java
+ *
+ * @author marco corvi
+ * @date oct 2026
+ *
+ * @brief TopoDroid survey stations spatial index (uniform grid) for a projection
+ * --------------------------------------------------------
+ *  Copyright This software is distributed under GPL-3.0 or later
+ *  See the file COPYING.
+ * --------------------------------------------------------
+ * The grid cells are squares, sized to hold about one station each. The stations of a cell
+ * are stored contiguously (compressed arrays), in the order of the station list, so that
+ * the ties are resolved as in a linear scan of the list.
+ * Nearest-station queries visit the cells by rings around the cell of the query point, and
+ * stop when the unvisited rings are farther than the best station found.
+ */
+package com.topodroid.num;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+class NumStationGrid
+{
+  private static final int MAX_CELL = 1 << 24; // limit of the cell indices of a query point
+
+  private NumStation[] mStation; // indexed stations
+  private double[] mX;        // station projected coords
+  private double[] mY;
+  private double mX0, mY0;    // grid origin (lower corner)
+  private double mCell;       // cell side
+  private int mNx, mNy;       // number of cells
+  private int[] mCellStart;   // stations of cell k are in [ mCellStart[k], mCellStart[k+1] )
+  private int[] mCellItem;    // station indices
+
+  /** cstr
+   * @param stations   stations
+   * @param profile    whether to use the profile coords (h,v) instead of the plan coords (e,s)
+   */
+  NumStationGrid( List< NumStation > stations, boolean profile )
+  {
+    int n = stations.size();
+    mStation = new NumStation[ n ];
+    mX = new double[ n ];
+    mY = new double[ n ];
+    double x1 = 0, x2 = 0, y1 = 0, y2 = 0;
+    for ( int k = 0; k < n; ++k ) {
+      NumStation st = stations.get( k );
+      mStation[k] = st;
+      mX[k] = profile ? st.h : st.e;
+      mY[k] = profile ? st.v : st.s;
+      if ( k == 0 ) {
+        x1 = x2 = mX[k];
+        y1 = y2 = mY[k];
+      } else {
+        if ( mX[k] < x1 ) x1 = mX[k]; else if ( mX[k] > x2 ) x2 = mX[k];
+        if ( mY[k] < y1 ) y1 = mY[k]; else if ( mY[k] > y2 ) y2 = mY[k];
+      }
+    }
+    double w = x2 - x1;
+    double h = y2 - y1;
+    mCell = Math.max( Math.sqrt( w * h / Math.max( 1, n ) ), Math.max( w, h ) / Math.max( 1, n ) );
+    if ( ! ( mCell > 0.001 ) ) mCell = 1.0; // also NaN
+    mX0 = x1;
+    mY0 = y1;
+    mNx = 1 + (int)( w / mCell );
+    mNy = 1 + (int)( h / mCell );
+
+    // counting sort of the stations by cell
+    int nc = mNx * mNy;
+    int[] cell = new int[ n ];
+    mCellStart = new int[ nc + 1 ];
+    for ( int k = 0; k < n; ++k ) {
+      cell[k] = clampX( cellX( mX[k] ) ) + mNx * clampY( cellY( mY[k] ) );
+      ++ mCellStart[ cell[k] + 1 ];
+    }
+    for ( int c = 0; c < nc; ++c ) mCellStart[c+1] += mCellStart[c];
+    int[] pos = new int[ nc ];
+    System.arraycopy( mCellStart, 0, pos, 0, nc );
+    mCellItem = new int[ n ];
+    for ( int k = 0; k < n; ++k ) mCellItem[ pos[ cell[k] ] ++ ] = k;
+  }
+
+  /** @return the number of indexed stations
+   */
+  int size() { return mStation.length; }
+
+  /** @return the station closest to a point, or null
+   * @param x      X coord of the point
+   * @param y      Y coord of the point
+   * @param max_d2 squared maximum distance (exclusive)
+   */
+  NumStation nearest( double x, double y, double max_d2 )
+  {
+    List< NumStation > ret = nearest( x, y, 1, max_d2 );
+    return ret.isEmpty() ? null : ret.get( 0 );
+  }
+
+  /** k-nearest query: the best stations found, by increasing distance
+   */
+  private class Query
+  {
+    double x, y;      // query point
+    double max_d2;    // squared maximum distance (exclusive)
+    int kk;           // maximum number of stations
+    int nb;           // number of stations found
+    int[]    best;    // best stations
+    double[] best_d2; // squared distances of the best stations
+
+    Query( double x0, double y0, int k0, double d2 )
+    {
+      x = x0;
+      y = y0;
+      kk = k0;
+      max_d2 = d2;
+      nb = 0;
+      best    = new int[ kk ];
+      best_d2 = new double[ kk ];
+    }
+
+    /** @return true if the unvisited stations, farther than a distance, cannot be among the best
+     * @param bound   distance
+     */
+    boolean done( double bound )
+    {
+      double b2 = bound * bound;
+      return b2 >= max_d2 || ( nb == kk && b2 > best_d2[ nb-1 ] );
+    }
+
+    /** check the stations of a cell
+     * @param i   cell X index
+     * @param j   cell Y index
+     */
+    void scan( int i, int j )
+    {
+      if ( i < 0 || i >= mNx || j < 0 || j >= mNy ) return;
+      int c = i + mNx * j;
+      for ( int p = mCellStart[c]; p < mCellStart[c+1]; ++p ) {
+        int k = mCellItem[p];
+        double dx = mX[k] - x;
+        double dy = mY[k] - y;
+        double d2 = dx*dx + dy*dy;
+        if ( d2 >= max_d2 ) continue;
+        if ( nb == kk && ! less( d2, k, best_d2[nb-1], best[nb-1] ) ) continue;
+        int q = ( nb < kk )? nb ++ : nb - 1; // insertion in the sorted list
+        while ( q > 0 && less( d2, k, best_d2[q-1], best[q-1] ) ) {
+          best[q] = best[q-1];
+          best_d2[q] = best_d2[q-1];
+          -- q;
+        }
+        best[q] = k;
+        best_d2[q] = d2;
+      }
+    }
+  }
+
+  /** @return the k stations closest to a point, by increasing distance
+   * @param x      X coord of the point
+   * @param y      Y coord of the point
+   * @param kk     maximum number of stations
+   * @param max_d2 squared maximum distance (exclusive)
+   */
+  List< NumStation > nearest( double x, double y, int kk, double max_d2 )
+  {
+    ArrayList< NumStation > ret = new ArrayList<>();
+    if ( kk <= 0 || mStation.length == 0 ) return ret;
+    Query query = new Query( x, y, kk, max_d2 );
+    int ix = cellX( x );
+    int iy = cellY( y );
+    int r0 = Math.max( Math.max( -ix, ix - mNx + 1 ), Math.max( -iy, iy - mNy + 1 ) ); // first ring that meets the grid
+    int r1 = Math.max( Math.max( ix, mNx - 1 - ix ), Math.max( iy, mNy - 1 - iy ) ); // last ring that meets the grid
+    for ( int r = Math.max( 0, r0 ); r <= r1; ++r ) {
+      if ( query.done( ( r > 0 )? ( r - 1 ) * mCell : 0 ) ) break; // the stations of the ring are farther than (r-1) cells
+      int i1 = Math.max( 0, ix - r );
+      int i2 = Math.min( mNx - 1, ix + r );
+      for ( int i = i1; i <= i2; ++i ) {
+        if ( i == ix - r || i == ix + r ) { // left and right columns of the ring
+          int j2 = Math.min( mNy - 1, iy + r );
+          for ( int j = Math.max( 0, iy - r ); j <= j2; ++j ) query.scan( i, j );
+        } else { // top and bottom cells of the ring
+          query.scan( i, iy - r );
+          if ( r > 0 ) query.scan( i, iy + r );
+        }
+      }
+    }
+    for ( int q = 0; q < query.nb; ++q ) ret.add( mStation[ query.best[q] ] );
+    return ret;
+  }
+
+  /** @return the stations within a distance from a point, in the order of the station list
+   * @param x      X coord of the point
+   * @param y      Y coord of the point
+   * @param radius distance
+   */
+  List< NumStation > within( double x, double y, double radius )
+  {
+    ArrayList< NumStation > ret = new ArrayList<>();
+    if ( mStation.length == 0 || radius < 0 ) return ret;
+    double r2 = radius * radius;
+    int i1 = clampX( cellX( x - radius ) );
+    int i2 = clampX( cellX( x + radius ) );
+    int j1 = clampY( cellY( y - radius ) );
+    int j2 = clampY( cellY( y + radius ) );
+    ArrayList< Integer > found = new ArrayList<>();
+    for ( int j = j1; j <= j2; ++j ) {
+      for ( int i = i1; i <= i2; ++i ) {
+        int c = i + mNx * j;
+        for ( int p = mCellStart[c]; p < mCellStart[c+1]; ++p ) {
+          int k = mCellItem[p];
+          double dx = mX[k] - x;
+          double dy = mY[k] - y;
+          if ( dx*dx + dy*dy <= r2 ) found.add( k );
+        }
+      }
+    }
+    Collections.sort( found );
+    for ( Integer k : found ) ret.add( mStation[k] );
+    return ret;
+  }
+
+  /** @return true if station k1 at squared distance d1 comes before station k2 at squared distance d2
+   */
+  private static boolean less( double d1, int k1, double d2, int k2 )
+  {
+    return d1 < d2 || ( d1 == d2 && k1 < k2 );
+  }
+
+  // cell index of a coord (outside the grid, limited to MAX_CELL), and clamped to the grid
+  private int cellX( double x ) { return (int)Math.max( -MAX_CELL, Math.min( MAX_CELL, Math.floor( ( x - mX0 ) / mCell ) ) ); }
+  private int cellY( double y ) { return (int)Math.max( -MAX_CELL, Math.min( MAX_CELL, Math.floor( ( y - mY0 ) / mCell ) ) ); }
+  private int clampX( int i ) { return ( i < 0 )? 0 : ( i >= mNx )? mNx - 1 : i; }
+  private int clampY( int j ) { return ( j < 0 )? 0 : ( j >= mNy )? mNy - 1 : j; }
+
+}
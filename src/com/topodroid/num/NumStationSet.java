@@ -3,11 +3,13 @@
  * @author marco corvi
  * @date jan 2013
  *
- * @brief TopoDroid survey stations container (RB-tree)
+ * @brief TopoDroid survey stations container (hash table of the station names)
  * --------------------------------------------------------
  *  Copyright This software is distributed under GPL-3.0 or later
  *  See the file COPYING.
  * --------------------------------------------------------
+ * The station names are interned (NumNameTable): a station is stored at the ID of its name,
+ * and the names of the legs can be looked up once, and then used by ID.
  */
 package com.topodroid.num;
 
@@ -19,377 +21,164 @@ import java.util.ArrayList;
 
 class NumStationSet
 {
-// -------------------------------------------------------------
-  static final private boolean BLACK = true;
-  static final private boolean RED = false;
+  private ArrayList< NumStation > mStations; // stations, in insertion order
+  private NumNameTable mNames;               // station names table
+  private NumStation[] mById;                // stations by name ID (null if no station with that name)
+  private NumStationGrid mPlanIndex = null;    // spatial index of the plan coords (built on demand)
+  private NumStationGrid mProfileIndex = null; // spatial index of the profile coords (built on demand)
 
-
-  static private int compare( String s1, String s2 )
+  NumStationSet() 
   { 
-    int l1 = s1.length();
-    int l2 = s2.length();
-    int kk = Math.min(l1, l2);
-    for ( int k=0; k < kk; ++k ) {
-      if ( s1.charAt(k) < s2.charAt(k) ) return -1;
-      if ( s1.charAt(k) > s2.charAt(k) ) return +1;
-    }
-    if ( l1 < l2 ) return -1;
-    if ( l1 > l2 ) return +1;
-    return 0;
+    mStations = new ArrayList<>();
+    mNames = new NumNameTable( 64 );
+    mById  = new NumStation[ 64 ];
   }
 
-  // stations are put on a list 
-  // but they have references for the parent and the left/right children (that form an RB tree)
-  //
-  private static class NumStationNode
-  {
-    NumStationNode parent;
-    NumStationNode left;
-    NumStationNode right;
-    boolean color;
-    NumStation value;
-
-    NumStationNode( NumStation v )
-    {
-      parent = null;
-      left = null;
-      right = null;
-      color = RED;
-      value = v;
-    }
-
-    // void dump( int indent )
-    // {
-    //   for ( int k = indent; k > 0; --k ) {
-    //     System.out.print( "  ");
-    //   }
-    //   System.out.println( toString() );
-    //   if ( left  != null ) { System.out.print("L: "); left.dump( indent+1 ); }
-    //   if ( right != null ) { System.out.print("R: "); right.dump( indent+1 ); }
-    // }
-
-    // public String toString() { return value + ( color ? "b" : "r"); }
-
-    // boolean checkRB()
-    // {
-    //   if ( ! color ) {
-    //     return ( left == null ) || ( left.color && left.checkRB() ) &&
-    //            ( right == null ) || ( right.color && right.checkRB() );
-    //   } else {
-    //     return ( left == null ) || ( left.checkRB() ) &&
-    //            ( right == null ) || ( right.checkRB() );
-    //   }
-    // }
-
-    // int pathLength()
-    // {
-    //   int left_length = ( left == null )? 0 : ( left.pathLength() + ( left.color? 1 : 0 ));
-    //   int right_length = ( right == null )? 0 : ( right.pathLength() + ( right.color? 1 : 0 ));
-    //   return ( left_length > right_length )? left_length : right_length;
-    // }
-
-    // boolean checkPath()
-    // {
-    //   int left_length = ( left == null )? 0 : ( left.pathLength() + ( left.color? 1 : 0 ));
-    //   int right_length = ( right == null )? 0 : ( right.pathLength() + ( right.color? 1 : 0 ));
-    //   if ( left_length != right_length ) return false;
-    //   return ( left == null || left.checkPath() ) && ( right == null || right.checkPath() );
-    // }
-
-    NumStation get( String name )
-    {
-      int c = compare( value.name, name );
-      // TDLog.v( value.name + " get " + name + " " + c + " left " + ((left==null)? "null" : left.value.name) +
-      //          " right " + ((right==null)? "null" : right.value.name ) );
-
-      if ( c == 0 ) return value;
-      if ( c < 0 ) return ( left == null )? null : left.get( name );
-      return ( right == null )? null : right.get( name );
-    }
-
-
-    // initialize the subtree at this node with a distance value "p" (supposedly large)
-    void initShortPathDist( ArrayList<NumShortpath> paths, float p ) 
-    { 
-      // value.mShortpathDist = new NumShortpath( 0, p, 0 );
-      paths.add( new NumShortpath( value, 0, p, 0 ) );
-      if ( left  != null ) left.initShortPathDist( paths, p );
-      if ( right != null ) right.initShortPathDist( paths, p );
-    }
-
-    // used to reset the flag "has 3D Coords" to stations in a station set
-    void reset3DCoords( )
-    {
-      value.clearHas3DCoords( );
-      if ( left  != null ) left.reset3DCoords( );
-      if ( right != null ) right.reset3DCoords( );
-    }
-
-    void setAzimuths()
-    {
-      value.setAzimuths();
-      if ( left  != null ) left.setAzimuths();
-      if ( right != null ) right.setAzimuths();
-    }
-
-    /* traverse the tree and put on the stack all the NuMStation that have parent st
-     * @param st    hiding station
-     * @param dh    variation of "hidden" field
-     * @param stack changed stations [output]
-     */
-    void updateHidden( NumStation st, int dh, Stack<NumStation> stack )
-    {
-      if ( value.mParent == st ) {
-	// TDLog.v( "hide station " + value.name );
-        value.mHidden += dh;
-        stack.push( value );
-      // } else {
-      // TDLog.v( "show station " + value.name );
-      }
-      if ( left != null ) left.updateHidden( st, dh, stack );
-      if ( right != null ) right.updateHidden( st, dh, stack );
-    }
+  private static final double MAX_CLOSEST_DIST2 = 16000000; // max 100 m 
 
+  /** @return the station closest to a point in a projection, or null
+   * @param type   projection (plot type)
+   * @param x      X coord of the point
+   * @param y      Y coord of the point
+   */
+  NumStation getClosestStation( long type, double x, double y ) 
+  {
+    NumStationGrid index = getIndex( type );
+    return ( index == null )? null : index.nearest( x, y, MAX_CLOSEST_DIST2 );
   }
 
-  private ArrayList< NumStation > mStations;
-  private NumStationNode mRoot; // tree root
+  /** @return the stations closest to a point in a projection, by increasing distance
+   * @param type   projection (plot type)
+   * @param x      X coord of the point
+   * @param y      Y coord of the point
+   * @param k      maximum number of stations
+   */
+  List< NumStation > getClosestStations( long type, double x, double y, int k ) 
+  {
+    NumStationGrid index = getIndex( type );
+    return ( index == null )? new ArrayList< NumStation >() : index.nearest( x, y, k, MAX_CLOSEST_DIST2 );
+  }
 
-  NumStationSet() 
-  { 
-    mRoot = null;
-    mStations = new ArrayList<>();
+  /** @return the stations within a distance from a point in a projection
+   * @param type   projection (plot type)
+   * @param x      X coord of the point
+   * @param y      Y coord of the point
+   * @param r      distance
+   */
+  List< NumStation > getStationsWithin( long type, double x, double y, double r ) 
+  {
+    NumStationGrid index = getIndex( type );
+    return ( index == null )? new ArrayList< NumStation >() : index.within( x, y, r );
   }
 
-  NumStation getClosestStation( long type, double x, double y ) 
+  /** @return the spatial index of a projection, built if necessary
+   * @param type   projection (plot type): plan or profile
+   */
+  private synchronized NumStationGrid getIndex( long type )
   {
-    NumStation ret = null;
-    double dist2 = 16000000; // max 100 m 
     if ( type == PlotType.PLOT_PLAN ) {
-      for ( NumStation st : mStations ) {
-        double d2 = (st.e-x)*(st.e-x) + (st.s-y)*(st.s-y);
-        if ( d2 < dist2 ) {
-          dist2 = d2;
-          ret = st;
-        }
-      }
+      if ( mPlanIndex == null ) mPlanIndex = new NumStationGrid( mStations, false );
+      return mPlanIndex;
     } else if ( PlotType.isProfile( type ) ) {
-      for ( NumStation st : mStations ) {
-        double d2 = (st.h-x)*(st.h-x) + (st.v-y)*(st.v-y);
-        if ( d2 < dist2 ) {
-          dist2 = d2;
-          ret = st;
-        }
-      }
+      if ( mProfileIndex == null ) mProfileIndex = new NumStationGrid( mStations, true );
+      return mProfileIndex;
     }
-    return ret;
+    return null;
   }
-  
-  // initialize the tree with a distance value "p" (supposedly large)
-  void initShortestPath( ArrayList<NumShortpath> paths, float p ) 
+
+  /** drop the spatial indices - must be called when the stations are moved
+   */
+  synchronized void invalidateIndex()
   {
-    if ( mRoot == null ) return;
-    mRoot.initShortPathDist( paths, p );
+    mPlanIndex    = null;
+    mProfileIndex = null;
   }
-
-  // reset the flag "has 3D Coords" in the stations of this set
+  
+  // used to reset the flag "has 3D Coords" to stations in a station set
   void reset3DCoords( ) 
   {
-    if ( mRoot != null ) mRoot.reset3DCoords( );
+    for ( NumStation st : mStations ) st.clearHas3DCoords( );
   }
 
   void setAzimuths( )
   {
-    if ( mRoot != null ) mRoot.setAzimuths();
+    for ( NumStation st : mStations ) st.setAzimuths();
   }
 
+  /* put on the stack all the NumStation that have parent st
+   * @param st    hiding station
+   * @param dh    variation of "hidden" field
+   * @param stack changed stations [output]
+   */
   void updateHidden( NumStation st, int dh, Stack<NumStation> stack )
   {
-    if ( mRoot != null ) mRoot.updateHidden( st, dh, stack );
+    for ( NumStation value : mStations ) {
+      if ( value.mParent == st ) {
+        value.mHidden += dh;
+        stack.push( value );
+      }
+    }
   }
 
   int size() { return mStations.size(); }
 
   List< NumStation > getStations() { return mStations; }
 
+  /** add a station
+   * @param v   station
+   * @return true if the station has been added, false if there is already a station with the same name
+   * @note the station gets the ID of its name also if it is not added
+   */
   boolean addStation( NumStation v )
   {
-    // TDLog.v( "add station " + v.name + " root " + ((mRoot != null)? mRoot.value.name : "null") );
-    boolean ret = true;
-    NumStationNode n = new NumStationNode( v );
-    if ( mRoot == null ) {
-      mRoot = n;
-      mRoot.color = BLACK;
-    } else {
-      for ( NumStationNode n0 = mRoot; ; ) {
-        int c = compare( n0.value.name, v.name );
-        if ( c < 0 ) {
-          if ( n0.left == null ) {
-            n0.left = n;
-            n.parent = n0;
-            break;
-          } else {
-            n0 = n0.left;
-          }
-        } else if ( c > 0 
-                  //  || ( c == 0 && TDSetting.mLoopClosure == TDSetting.LOOP_NONE ) 
-                  ) {
-          if ( n0.right == null ) {
-            n0.right = n;
-            n.parent = n0;
-            break;
-          } else {
-            n0 = n0.right;
-          }
-        } else { 
-          // TDLog.v( "Double insertion of station " + v.name );
-          ret = false;
-          break;
-        }
-      }
-      // re-balance
-      if ( ret ) insert_case1( n );
-    }
-    if ( ret ) mStations.add( v );
-    // TDLog.v( "added station " + v.name + " root " + mRoot.value.name );
-    return ret;
-  }
-
-  NumStation getStation( String name ) 
-  {
-    // TDLog.v( "stations set size " + size() );
-    return ( mRoot == null )? null : mRoot.get( name );
-  }
-
-  // -----------------------------------------------------
-  // private helper methods
-  //
-  private void insert_case1( NumStationNode n ) 
-  {
-    if ( n.parent == null ) {
-      n.color = BLACK;
-    } else {
-      insert_case2( n );
-    }
-  }
-
-  // n.parent != null
-  private void insert_case2( NumStationNode n ) 
-  {
-    if ( n.parent.color ) return; // isBlack( n.parent )
-    insert_case3( n );
-  }
-
-  // n.parent != null && n.parent RED
-  private void insert_case3( NumStationNode n )
-  {
-    NumStationNode u = uncle( n );
-    if ( /* u != null && */ isRed( u ) ) {
-      n.parent.color = BLACK;
-      u.color = BLACK;
-      NumStationNode g = grandparent( n );
-      g.color = RED;
-      insert_case1( g );
-    } else {
-      insert_case4( n );
+    int id = getNameId( v.name );
+    if ( id < 0 ) { // no name
+      mStations.add( v );
+      invalidateIndex();
+      return true;
     }
-  }
-
-  // n.parent == g.left && n = n.parent.right ( n.parent RED )
-  // or symmetric
-  private void insert_case4( NumStationNode n )
-  {
-    NumStationNode p = n.parent;
-    NumStationNode g = p.parent;
-    if ( isRight( n ) && isLeft( p ) ) { // rotate_left( n, p, g );
-      n.parent = g;
-      if ( g != null ) {
-        g.left = n;
-      } else {
-        mRoot = n;
-      }
-      if ( n.left != null ) n.left.parent = p;
-      p.right = n.left;
-      p.parent = n;
-      n.left  = p;
-
-      n = n.left; // continue with n.left
-    } else if ( isLeft( n ) && isRight( p ) ) { // rotate_right( n, p, g );
-      n.parent = g;
-      if ( g != null ) {
-        g.right = n;
-      } else {
-        mRoot = n;
-      }
-      if ( n.right != null ) n.right.parent = p;
-      p.left  = n.right;
-      p.parent = n;
-      n.right = p;
-
-      n = n.right; // continue with n.right
+    if ( id >= mById.length ) {
+      NumStation[] by_id = new NumStation[ 2 * mNames.size() ];
+      System.arraycopy( mById, 0, by_id, 0, mById.length );
+      mById = by_id;
     }
-    insert_case5( n );
-  }
-
-  // n.parent RED but n.uncle BLACK
-  private void insert_case5( NumStationNode n )
-  {
-    NumStationNode g = grandparent( n );
-    NumStationNode p = n.parent;
-    p.color = BLACK;
-    g.color = RED;
-    NumStationNode gp = g.parent;
-    if ( gp != null ) {
-      if ( g == gp.left ) {
-	gp.left = p;
-      } else {
-	gp.right = p;
-      }
-    } else {
-      mRoot = p;
-    }
-    p.parent = gp;
-    if ( isLeft( n ) ) { // rotate_right( n.parent, g, g.parent );
-      // assert( p == g.left );
-      g.left = p.right;
-      if ( p.right != null ) p.right.parent = g;
-      p.right = g;
-      g.parent = p;
-    } else { // rotate_left( n.parent, g, g.parent );
-      // assert( p == g.right );
-      g.right = p.left;
-      if ( p.left != null ) p.left.parent = g;
-      p.left = g;
-      g.parent = p;
+    v.mId = id;
+    if ( mById[id] != null ) {
+      // TDLog.v( "Double insertion of station " + v.name );
+      return false;
     }
+    mById[id] = v;
+    mStations.add( v );
+    invalidateIndex();
+    return true;
   }
 
-  private NumStationNode grandparent( NumStationNode n )
+  /** @return the station with a given name, or null
+   * @param name   station name
+   */
+  NumStation getStation( String name ) 
   {
-    return ( n != null && n.parent != null )?  n.parent.parent : null;
+    if ( name == null ) return null;
+    int id = mNames.indexOf( name );
+    return ( id < 0 )? null : getStation( id );
   }
 
-  private NumStationNode uncle( NumStationNode n ) 
+  /** @return the station with a given name ID, or null
+   * @param id   station name ID
+   */
+  NumStation getStation( int id ) 
   {
-    NumStationNode p = n.parent;
-    if ( p == null ) return null;
-    NumStationNode g = p.parent;
-    if ( g == null ) return null;
-    return ( p == g.left )? g.right : g.left;
+    return ( id < 0 || id >= mById.length )? null : mById[id];
   }
 
-  private boolean isBlack( NumStationNode n ) { return ( n == null ) || n.color; }
-  private boolean isRed( NumStationNode n ) { return ( n != null ) && (! n.color ); }
+  /** @return the ID of a station name (the name is added to the table of names if necessary), -1 for null name
+   * @param name   station name
+   */
+  int getNameId( String name ) { return ( name == null )? -1 : mNames.intern( name ); }
 
-  // prerequisite n.parent != null
-  private boolean isLeft( NumStationNode n ) { return ( n == n.parent.left ); }
-  private boolean isRight( NumStationNode n ) { return ( n == n.parent.right ); }
+  /** @return the ID of a station name, or -1 if the name is not in the table
+   * @param name   station name
+   */
+  int indexOfName( String name ) { return ( name == null )? -1 : mNames.indexOf( name ); }
 
-  // boolean check()
-  // {
-  //   if ( isRed(mRoot) ) return false;
-  //   if ( mRoot != null && ! mRoot.checkRB() ) return false;
-  //   if ( mRoot != null && ! mRoot.checkPath() ) return false;
-  //   return true;
-  // }
 }
@@ -0,0 +1,223 @@
+/* @file SparseLDL.java
+ *
+ * @author marco corvi
+ * @date oct 2026
+ *
+ * @brief TopoDroid sparse symmetric matrix with LDLt factorization
+ * --------------------------------------------------------
+ *  Copyright This software is distributed under GPL-3.0 or later
+ *  See the file COPYING.
+ * --------------------------------------------------------
+ * The matrix is factored by right-looking gaussian elimination in minimum-degree order
+ * (fill-reducing ordering). The elimination graph is kept explicitly, so the pattern of
+ * the columns of L is the set of neighbors of the node when it is eliminated.
+ * No pivoting is done: the matrix must be symmetric positive definite.
+ * The entries of the inverse on the pattern of L (and the diagonal) can be computed from the
+ * factorization (Takahashi equations), in reverse elimination order: the pattern of a column
+ * is a clique of the elimination graph, therefore its entries are among those already computed.
+ */
+package com.topodroid.num;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.PriorityQueue;
+
+class SparseLDL
+{
+  private int mSize;
+  private double[] mDiag;                         // diagonal (before factorization: A, after: D)
+  private ArrayList< HashMap< Integer, Double > > mRows; // off-diagonal entries (elimination graph)
+
+  private int[] mOrder;       // elimination order: node eliminated at each step
+  private int[][] mColIdx;    // L column row-indices
+  private double[][] mColVal; // L column values
+  private int[] mRank;        // elimination step of each node
+  private double[] mInvDiag;  // inverse diagonal entries
+  private double[][] mInvCol; // inverse entries on the pattern of the L columns
+
+  /** cstr: zero matrix
+   * @param n   matrix size
+   */
+  SparseLDL( int n )
+  {
+    mSize = n;
+    mDiag = new double[ n ];
+    mRows = new ArrayList<>( n );
+    for ( int k = 0; k < n; ++k ) mRows.add( new HashMap< Integer, Double >() );
+    mOrder  = null;
+    mColIdx = null;
+    mColVal = null;
+    mRank   = null;
+    mInvDiag = null;
+    mInvCol  = null;
+  }
+
+  /** @return the size of the matrix
+   */
+  int size() { return mSize; }
+
+  /** add a value to the diagonal entry
+   * @param i   row-column index
+   * @param a   value
+   */
+  void addDiagonal( int i, double a ) { mDiag[i] += a; }
+
+  /** add a value to a pair of symmetric off-diagonal entries
+   * @param i   row index
+   * @param j   column index (must differ from i)
+   * @param a   value
+   */
+  void addOffDiagonal( int i, int j, double a )
+  {
+    addEntry( mRows.get( i ), j, a );
+    addEntry( mRows.get( j ), i, a );
+  }
+
+  /** add a value to a row entry
+   * @param row  matrix row
+   * @param j    column index
+   * @param a    value
+   */
+  private static void addEntry( HashMap< Integer, Double > row, int j, double a )
+  {
+    Double b = row.get( j );
+    row.put( j, ( b == null )? a : b + a );
+  }
+
+  /** entry of the priority queue of the minimum-degree ordering
+   */
+  private static class Degree implements Comparable< Degree >
+  {
+    final int node;
+    final int degree;
+
+    Degree( int n, int d ) { node = n; degree = d; }
+
+    @Override
+    public int compareTo( Degree d ) { return ( degree != d.degree )? degree - d.degree : node - d.node; }
+  }
+
+  /** compute the LDLt factorization
+   * @return true if successful, false if the matrix is not positive definite
+   * @note after the factorization the matrix entries are lost
+   */
+  boolean factor()
+  {
+    int n = mSize;
+    mOrder  = new int[ n ];
+    mColIdx = new int[ n ][];
+    mColVal = new double[ n ][];
+    boolean[] eliminated = new boolean[ n ];
+    PriorityQueue< Degree > queue = new PriorityQueue<>( Math.max( 1, n ) );
+    for ( int k = 0; k < n; ++k ) queue.add( new Degree( k, mRows.get( k ).size() ) );
+
+    for ( int step = 0; step < n; ++step ) {
+      Degree deg = queue.poll();
+      while ( eliminated[ deg.node ] || deg.degree != mRows.get( deg.node ).size() ) deg = queue.poll(); // skip stale entries
+      int p = deg.node;
+      eliminated[ p ] = true;
+      mOrder[ step ] = p;
+      double d = mDiag[ p ];
+      if ( ! ( d > 0 ) ) return false;
+
+      HashMap< Integer, Double > row = mRows.get( p );
+      int m = row.size();
+      int[]    idx = new int[ m ];
+      double[] val = new double[ m ];
+      int k = 0;
+      for ( Map.Entry< Integer, Double > e : row.entrySet() ) {
+        idx[ k ] = e.getKey();
+        val[ k ] = e.getValue();
+        ++ k;
+      }
+      for ( int i = 0; i < m; ++i ) { // update the remaining matrix (Schur complement)
+        HashMap< Integer, Double > row_i = mRows.get( idx[i] );
+        row_i.remove( p );
+        double li = val[ i ] / d;
+        mDiag[ idx[i] ] -= li * val[ i ];
+        for ( int j = 0; j < m; ++j ) {
+          if ( j != i ) addEntry( row_i, idx[j], - li * val[ j ] );
+        }
+      }
+      for ( int i = 0; i < m; ++i ) {
+        val[ i ] /= d;
+        queue.add( new Degree( idx[i], mRows.get( idx[i] ).size() ) );
+      }
+      mColIdx[ p ] = idx;
+      mColVal[ p ] = val;
+      row.clear();
+    }
+    mRows = null;
+    return true;
+  }
+
+  /** solve the linear system A x = b - the matrix must have been factored
+   * @param b   right-hand side, overwritten with the solution
+   */
+  void solve( double[] b )
+  {
+    int n = mSize;
+    for ( int k = 0; k < n; ++k ) { // forward substitution: L y = b
+      int p = mOrder[ k ];
+      double y = b[ p ];
+      int[]    idx = mColIdx[ p ];
+      double[] val = mColVal[ p ];
+      for ( int i = 0; i < idx.length; ++i ) b[ idx[i] ] -= val[ i ] * y;
+    }
+    for ( int p = 0; p < n; ++p ) b[ p ] /= mDiag[ p ]; // diagonal: D z = y
+    for ( int k = n-1; k >= 0; --k ) { // backward substitution: Lt x = z
+      int p = mOrder[ k ];
+      double x = b[ p ];
+      int[]    idx = mColIdx[ p ];
+      double[] val = mColVal[ p ];
+      for ( int i = 0; i < idx.length; ++i ) x -= val[ i ] * b[ idx[i] ];
+      b[ p ] = x;
+    }
+  }
+
+  /** compute the entries of the inverse matrix on the pattern of the factorization
+   * - the matrix must have been factored
+   */
+  void invertSelected()
+  {
+    int n = mSize;
+    mRank = new int[ n ];
+    for ( int k = 0; k < n; ++k ) mRank[ mOrder[k] ] = k;
+    mInvDiag = new double[ n ];
+    mInvCol  = new double[ n ][];
+    for ( int k = n-1; k >= 0; --k ) {
+      int p = mOrder[ k ];
+      int[]    idx = mColIdx[ p ];
+      double[] val = mColVal[ p ];
+      int m = idx.length;
+      double[] inv = new double[ m ];
+      for ( int a = 0; a < m; ++a ) {
+        double z = 0;
+        for ( int b = 0; b < m; ++b ) z -= val[ b ] * inverse( idx[b], idx[a] );
+        inv[ a ] = z;
+      }
+      double z = 1.0 / mDiag[ p ];
+      for ( int a = 0; a < m; ++a ) z -= val[ a ] * inv[ a ];
+      mInvDiag[ p ] = z;
+      mInvCol[ p ]  = inv;
+    }
+  }
+
+  /** @return an entry of the inverse matrix - the selected inverse must have been computed
+   * @param i   row index
+   * @param j   column index
+   * @note the entry is zero if it is not on the pattern of the factorization
+   */
+  double inverse( int i, int j )
+  {
+    if ( i == j ) return mInvDiag[ i ];
+    if ( mRank[ i ] > mRank[ j ] ) { int t = i; i = j; j = t; } // i is eliminated first
+    int[] idx = mColIdx[ i ];
+    for ( int a = 0; a < idx.length; ++a ) {
+      if ( idx[ a ] == j ) return mInvCol[ i ][ a ];
+    }
+    return 0;
+  }
+
+}
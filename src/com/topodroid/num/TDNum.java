@@ -18,6 +18,7 @@ import com.topodroid.prefs.TDSetting;
 
 import com.topodroid.TDX.TDInstance;
 import com.topodroid.TDX.DBlock;
+import com.topodroid.TDX.ShotColumns;
 import com.topodroid.TDX.StationPolicy;
 import com.topodroid.TDX.SurveyInfo;
 
@@ -26,6 +27,15 @@ import java.util.List;
 import java.util.Stack;
 // import java.util.Locale;
 import java.util.HashMap;
+import java.util.Map;
+import java.util.HashSet;
+import java.util.ArrayDeque;
+import java.util.PriorityQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 public class TDNum
 {
@@ -47,7 +57,29 @@ public class TDNum
     surveyExtend   = true;
     nrCompensatedLoops = 0;
     nrInaccurateLoops  = 0;
-    surveyAttached = computeNum( data, start, loop_fmt );
+    surveyAttached = computeNum( NumBlock.ofBlocks( data ), start, loop_fmt );
+    setStationsHide( hide );
+    setStationsBarr( view );
+  }
+
+  /** cstr: create the numerical centerline from the shot columns
+   * @param data     survey data
+   * @param start    start station
+   * @param view     barriers list
+   * @param hide     hiding list
+   * @param decl     magnetic declination
+   * @param loop_fmt loop closure report format
+   * @note the data blocks of the shots are made only when they are requested
+   *       the loop closures are computed before the constructor returns, so that the reduction can be made read-only
+   */
+  public TDNum( ShotColumns data, String start, String view, String hide, float decl, String loop_fmt )
+  {
+    mClosuresNow = true;
+    mDecl = decl;
+    surveyExtend   = true;
+    nrCompensatedLoops = 0;
+    nrInaccurateLoops  = 0;
+    surveyAttached = computeNum( NumBlock.ofColumns( data ), start, loop_fmt );
     setStationsHide( hide );
     setStationsBarr( view );
   }
@@ -156,9 +188,9 @@ public class TDNum
   {
     int size = ts.blocks.size();
     for ( int i = 0; i < size; ++i ) {
-      DBlock blk1 = ts.blocks.get(i);
+      NumBlock blk1 = ts.blocks.get(i);
       for ( int j = i+1; j < size; ++j ) {
-        DBlock blk2 = ts.blocks.get(j);
+        NumBlock blk2 = ts.blocks.get(j);
         double e = blk1.relativeAngle( blk2 );
         mInLegErrSum0 += 1;
         mInLegErrSum1 += e;
@@ -284,6 +316,8 @@ public class TDNum
   private ArrayList< NumStation > mClosureStations;
   private ArrayList< NumShot >    mShots;
   private ArrayList< NumSplay >   mSplays;
+  private HashMap< Long, NumSplay > mSplayOfBlock; // splays by data-block ID
+  private NumColumns mColumns = null; // columnar view (null if out of date)
   private ArrayList< NumClosure > mClosures;
   private ArrayList< NumNode >    mNodes;
   private ArrayList< DBlock >     mUnattachedShots;
@@ -303,15 +337,43 @@ public class TDNum
   public List< DBlock >     getUnattached() { return mUnattachedShots; }
   public List< NumCycle >   getBadLoops() { return mBadLoops; }
 
+  /** @return the columnar view of the stations, legs and splays
+   * @note the view is a snapshot: it is made again after the reduction has changed
+   *       (append data, recenter, hidden or barrier stations), but not after the station coords
+   *       have been changed from outside
+   */
+  public NumColumns getColumns()
+  {
+    synchronized( mShots ) {
+      NumColumns columns = mColumns;
+      if ( columns == null ) {
+        columns = new NumColumns( mStations.getStations(), mClosureStations, mShots, mSplays );
+        mColumns = columns;
+      }
+      return columns;
+    }
+  }
+
+  /** @return the legs in loops, most suspect first: ranked by how much the loop misclosures decrease without them
+   * @note the loops are closed unless the loop-closure policy is "none"
+   */
+  public List< NumBlunder > getBlunders()
+  {
+    synchronized( mShots ) {
+      return LoopLeastSquares.findBlunders( mShots, mStartStation );
+    }
+  }
+
   /** @return the list of splays at a given station
    * @param st    station
    */
   public List< NumSplay >   getSplaysAt( NumStation st )
   {
     ArrayList< NumSplay > ret = new ArrayList<>();
-    for ( NumSplay splay : mSplays ) {
-      if ( splay.getBlock().isSplay() && st == splay.from ) {
-        ret.add( splay );
+    List< NumSplay > splays = st.getAdjacentSplays();
+    if ( splays != null ) {
+      for ( NumSplay splay : splays ) {
+        if ( splay.getNumBlock().isSplay() ) ret.add( splay );
       }
     }
     return ret;
@@ -322,11 +384,7 @@ public class TDNum
    */
   public NumSplay getSplayOf( DBlock blk )
   {
-    long bid = blk.mId;
-    for ( NumSplay splay : mSplays ) {
-      if ( splay.getBlock().mId == bid ) return splay;
-    }
-    return null;
+    return mSplayOfBlock.get( blk.mId );
   }
 
   /** drop the last splay
@@ -334,8 +392,10 @@ public class TDNum
    */
   public void dropLastSplay()
   {
+    checkWritable();
+    mColumns = null;
     int sz = mSplays.size();
-    if ( sz > 0 ) mSplays.remove( sz - 1 );
+    if ( sz > 0 ) unlinkSplay( mSplays.remove( sz - 1 ) );
   }
 
   /** @return the last splay
@@ -368,10 +428,13 @@ public class TDNum
   {
     ArrayList< NumShot > ret = new ArrayList<>();
     synchronized( mShots ) {
-      for ( NumShot shot : mShots ) {
-        if ( ( shot.from == st && shot.to   != except ) 
-          || ( shot.to   == st && shot.from != except ) ) {
-          ret.add( shot );
+      List< NumShot > shots = st.getAdjacentShots();
+      if ( shots != null ) {
+        for ( NumShot shot : shots ) {
+          if ( ( shot.from == st && shot.to   != except ) 
+            || ( shot.to   == st && shot.from != except ) ) {
+            ret.add( shot );
+          }
         }
       }
     }
@@ -385,6 +448,22 @@ public class TDNum
    */
   public NumStation getClosestStation( long type, double x, double y ) { return mStations.getClosestStation( type, x, y ); }
 
+  /** @return the stations closest to a 2D point (x,y), by increasing distance
+   * @param type   plot type
+   * @param x      point X coord
+   * @param y      point Y coord
+   * @param k      maximum number of stations
+   */
+  public List< NumStation > getClosestStations( long type, double x, double y, int k ) { return mStations.getClosestStations( type, x, y, k ); }
+
+  /** @return the stations within a distance from a 2D point (x,y)
+   * @param type   plot type
+   * @param x      point X coord
+   * @param y      point Y coord
+   * @param r      distance
+   */
+  public List< NumStation > getStationsWithin( long type, double x, double y, double r ) { return mStations.getStationsWithin( type, x, y, r ); }
+
   /** set a station either hidden or shown
    * @param name   station name
    * @param hide   whether to hide or show: +1 to hide, -1 to show
@@ -398,9 +477,11 @@ public class TDNum
    */
   public void setStationHidden( String name, int hide )
   {
+    checkWritable();
     // TDLog.v( "Set Station Hidden: " + hide );
     NumStation st = getStation( name );
     if ( st == null ) return;
+    mColumns = null;
     st.mBarrierAndHidden = ( st.mHidden == -1 && hide == 1 );
     st.mHidden += hide;
     // TDLog.v( "station " + st.name + " hide " + st.mHidden );
@@ -432,9 +513,11 @@ public class TDNum
    */
   public void setStationBarrier( String name, int barrier )
   {
+    checkWritable();
     // TDLog.v( "Set Station barrier: " + barrier );
     NumStation st = getStation( name );
     if ( st == null ) return;
+    mColumns = null;
     st.mBarrierAndHidden = ( st.mHidden == 1 && barrier == 1 );
     st.mHidden -= barrier;
     barrier *= 2;
@@ -517,12 +600,13 @@ public class TDNum
    */
   public NumShot getShot( String s1, String s2 )
   {
-    if ( s1 == null || s2 == null ) return null;
+    int id1 = mStations.indexOfName( s1 );
+    int id2 = mStations.indexOfName( s2 );
+    if ( id1 < 0 || id2 < 0 ) return null;
     NumShot ret = null;
     synchronized( mShots ) {
       for (NumShot sh : mShots ) {
-        if ( s1.equals( sh.from.name ) && s2.equals( sh.to.name ) ) { ret = sh; break; }
-        if ( s2.equals( sh.from.name ) && s1.equals( sh.to.name ) ) { ret = sh; break; }
+        if ( ( id1 == sh.from.mId && id2 == sh.to.mId ) || ( id2 == sh.from.mId && id1 == sh.to.mId ) ) { ret = sh; break; }
       }
     }
     return ret;
@@ -553,12 +637,14 @@ public class TDNum
    */
   private int hasShot( String s1, String s2 )
   {
-    if ( s1 == null || s2 == null ) return 0;
+    int id1 = mStations.indexOfName( s1 );
+    int id2 = mStations.indexOfName( s2 );
+    if ( id1 < 0 || id2 < 0 ) return 0;
     int dir = 0;
     synchronized( mShots ) {
       for (NumShot sh : mShots ) {
-        if ( s1.equals( sh.from.name ) && s2.equals( sh.to.name ) ) { dir =  sh.mDirection; break; }
-        if ( s2.equals( sh.from.name ) && s1.equals( sh.to.name ) ) { dir = -sh.mDirection; break; }
+        if ( id1 == sh.from.mId && id2 == sh.to.mId ) { dir =  sh.mDirection; break; }
+        if ( id2 == sh.from.mId && id1 == sh.to.mId ) { dir = -sh.mDirection; break; }
       }
     }
     return dir;
@@ -595,23 +681,32 @@ public class TDNum
 
   private TriSplay     mLastSplay;
   private TriShot      mLastLeg;      // last leg
+  private boolean      mMovedStations = false; // whether the last appended data have moved existing stations
+  private LoopBlocks   mLoopBlocks = null;     // blocks of the network, made at the first appended loop-closing leg (least squares)
+
+  /** @return true if the last appended data have moved existing stations (loop closure)
+   */
+  public boolean hasMovedStations() { return mMovedStations; }
 
   /** insert a new shot into the survey
    * @param blk       new shot
    * @param leg       ???
    * @param loop_fmt  loop closure report format
    * @return true if the shot has been appended
-   * @note the new shot is assumed not to close any loop
+   * @note with least-squares loop closure, a new leg that closes a loop is compensated in place (see hasMovedStations)
    */
   public boolean appendData( DBlock blk, DBlock leg, String loop_fmt )
   {
+    checkWritable();
+    mMovedStations = false;
     if ( blk == null ) return false;
     mBuffer.put( blk );
+    mColumns = null;
 
     if ( leg != null && mLastSplay != null ) {
       // TDLog.v( "num got_leg ");
       removeSplay( mLastSplay );
-      appendLeg( mLastSplay.block, leg, loop_fmt );
+      appendLeg( mLastSplay.block.getBlock(), leg, loop_fmt );
       mLastSplay = null;
     } else {
       if ( blk.isSplay() ) {
@@ -622,10 +717,10 @@ public class TDNum
         mLastLeg = null;  // clear last-leg
         TriSplay splay = null;
         if ( blk.mFrom != null && blk.mFrom.length() > 0 ) { // normal splay
-          splay = new TriSplay( blk, blk.mFrom, blk.getIntExtend(), +1 );
+          splay = new TriSplay( new NumBlock( blk ), blk.mFrom, blk.getIntExtend(), +1 );
           mLastSplay = splay;
         } else if ( blk.mTo != null && blk.mTo.length() > 0 ) { // reversed splay
-          splay = new TriSplay( blk, blk.mTo, blk.getIntExtend(), -1 );
+          splay = new TriSplay( new NumBlock( blk ), blk.mTo, blk.getIntExtend(), -1 );
           mLastSplay = splay;
         }
         // TDLog.v( "num append SPLAY " + blk.mId + " splays " + mSplays.size() );
@@ -658,7 +753,7 @@ public class TDNum
   {
     if ( leg.isMainLeg() ) {
       // TDLog.v( "num append with leg " + leg.mId + " <" + leg.mFrom + "-" + leg.mTo + ">" );
-      mLastLeg = new TriShot( leg, leg.mFrom, leg.mTo, leg.getIntExtend(), leg.getStretch(), +1 );
+      mLastLeg = new TriShot( new NumBlock( leg ), leg.mFrom, leg.mTo, leg.getIntExtend(), leg.getStretch(), +1 );
       mLastLeg.duplicate = ( leg.isDuplicate() );
       mLastLeg.surface   = ( leg.isSurface() );
       mLastLeg.commented = ( leg.isCommented() ); // FIXME_COMMENTED
@@ -668,7 +763,7 @@ public class TDNum
       computeInLegError();
     } else if ( leg.isBackLeg() ) {
       // TDLog.v( "num append with backleg " + leg.mId + " <" + leg.mFrom + "-" + leg.mTo + ">" );
-      mLastLeg = new TriShot( leg, leg.mFrom, leg.mTo, leg.getIntExtend(), leg.getStretch(), +1 );
+      mLastLeg = new TriShot( new NumBlock( leg ), leg.mFrom, leg.mTo, leg.getIntExtend(), leg.getStretch(), +1 );
       mLastLeg.duplicate = true;
       mLastLeg.surface   = ( leg.isSurface() );
       mLastLeg.commented = false;
@@ -682,13 +777,60 @@ public class TDNum
     }
     DBlock blk1 = mBuffer.get();
     for ( ; blk1 != null && blk1 != blk; blk1 = mBuffer.get() ) {
-      mLastLeg.addBlock( blk1 );
+      mLastLeg.addBlock( new NumBlock( blk1 ) );
     }
     insertLeg( mLastLeg, loop_fmt );
+    mStations.invalidateIndex(); // a leg with several blocks can move its TO station
     return true;
   }
 
-  void addClosure( NumClosure closure ) { mClosures.add( closure ); }
+  /** add the loop closures computed by the closure task
+   * @param closures   loop closures
+   */
+  void addClosures( List< NumClosure > closures )
+  {
+    checkWritable();
+    mClosures.addAll( closures );
+  }
+
+  /** compute the loop closures
+   * @param fmt    closure description format
+   * @param loops  loop-closing legs
+   * @note the closures are computed at once if the reduction is to be shared, by a closure task in background otherwise
+   */
+  private void runClosures( String fmt, List< ClosureTask.ClosureLoop > loops )
+  {
+    NumShortpath path = new NumShortpath( mStations.getStations(), mShots );
+    if ( mClosuresNow ) {
+      addClosures( path.closures( fmt, loops ) );
+    } else {
+      ( new ClosureTask( this, fmt, path, loops ) ).execute();
+    }
+  }
+
+  // ------------------------------------------------------
+  // READ-ONLY REDUCTION
+
+  private boolean mClosuresNow = false; // whether to compute the loop closures at once
+  private volatile boolean mReadOnly = false; // whether the reduction is read-only
+
+  /** make the reduction read-only
+   * @note a reduction is made read-only when it is shared (by the reduction cache): the mutators throw
+   *       IllegalStateException. The public fields and the station coords are not checked.
+   */
+  public void setReadOnly() { mReadOnly = true; }
+
+  /** @return true if the reduction is read-only
+   */
+  public boolean isReadOnly() { return mReadOnly; }
+
+  /** check that the reduction can be modified
+   * @throws IllegalStateException if the reduction is read-only
+   */
+  private void checkWritable()
+  {
+    if ( mReadOnly ) throw new IllegalStateException( "TDNum: read-only reduction" );
+  }
 
   /** insert a leg shot
    * @param ts       leg shot
@@ -708,16 +850,16 @@ public class TDNum
       if ( st != null ) { // loop-closure -: need the loop length to compute the fractional closure error
         // do close loop also on duplicate shots
         if ( shot_fmt != null ) {
-          ArrayList< NumShot > shots = getShortestPathShots( sf, st );
-          ArrayList< NumShortpath > paths = new ArrayList<>();
-          mStations.initShortestPath( paths, 1000000.0f );
-          (new ClosureTask( this, shot_fmt, shots, paths, sf, st, ts.d(), ts.b(), ts.c() )).execute();
+          ArrayList< ClosureTask.ClosureLoop > loops = new ArrayList<>();
+          loops.add( new ClosureTask.ClosureLoop( sf, st, ts.d(), ts.b(), ts.c(), mShots.size() ) );
+          runClosures( shot_fmt, loops );
         }
         if ( /* TDSetting.mAutoStations || */ TDSetting.mLoopClosure == TDSetting.LOOP_NONE ) { // do not close loop
           addOpenLoopShot( sf, ts, iext, aext, fext, anomaly ); // keep loop open: new station( id=ts.to, from=sf, ... )
         } else { // TDLog.v( "close loop at " + sf.name + " " + st.name );
           NumShot sh = makeShotFromTmp( sf, st, ts, 0, sf.mAnomaly, mDecl ); 
           addShotToStations( sh, sf, st );
+          if ( TDSetting.mLoopClosure == TDSetting.LOOP_LEAST_SQUARES ) compensateNewLoop( sh );
         }
         // float length = ts.d();
         // if ( iext == 0 ) length = TDMath.sqrt( length*length - ts.h()*ts.h() );
@@ -734,6 +876,76 @@ public class TDNum
     }
   }
 
+  /** adjust the block of the network that contains a new loop-closing leg (least squares loop closure),
+   * and move in place the stations of the block, the stations hanging from them, and their splays
+   * @param sh   loop-closing leg
+   * @note the other blocks are independent of the new leg, therefore the result is the same as
+   *       the loop compensation of the whole network
+   */
+  private void compensateNewLoop( NumShot sh )
+  {
+    LoopLeastSquares.Block block;
+    synchronized( mShots ) {
+      if ( mLoopBlocks == null ) mLoopBlocks = new LoopBlocks( mStartStation ); // then kept up to date by addShotToStations
+      block = mLoopBlocks.getBlock( sh );
+    }
+    if ( block == null || ! LoopLeastSquares.compensateBlock( block ) ) return;
+    ++ nrCompensatedLoops;
+
+    // move the stations: the root of the block is fixed, the block is left only through its stations
+    HashSet< NumShot > block_shots = new HashSet<>( block.shots );
+    HashMap< NumStation, NumSurveyPoint > moved = new HashMap<>(); // old positions of the moved stations
+    ArrayDeque< NumStation > queue = new ArrayDeque<>();
+    ArrayList< NumShot > shots = new ArrayList<>();
+    queue.add( block.root );
+    while ( ! queue.isEmpty() ) {
+      NumStation sf = queue.poll();
+      getStationShots( sf, shots );
+      for ( NumShot sh1 : shots ) {
+        if ( sf == block.root && ! block_shots.contains( sh1 ) ) continue;
+        NumStation st = ( sh1.from == sf )? sh1.to : sh1.from;
+        if ( st == block.root || moved.containsKey( st ) ) continue;
+        NumSurveyPoint old = new NumSurveyPoint();
+        old.e = st.e;
+        old.s = st.s;
+        old.v = st.v;
+        moved.put( st, old );
+        setCoordsFromShot( st, sf, sh1, ( sh1.from == sf )? sh1.length() : - sh1.length() );
+        updateBBox( st );
+        queue.add( st );
+      }
+    }
+    for ( Map.Entry< NumStation, NumSurveyPoint > entry : moved.entrySet() ) {
+      NumStation st = entry.getKey();
+      List< NumSplay > splays = st.getAdjacentSplays();
+      if ( splays == null ) continue;
+      NumSurveyPoint old = entry.getValue();
+      for ( NumSplay sp : splays ) {
+        sp.e += st.e - old.e;
+        sp.s += st.s - old.s;
+        sp.v += st.v - old.v;
+        updateBBox( sp );
+      }
+    }
+    mMovedStations = moved.size() > 0;
+    mStations.invalidateIndex();
+  }
+
+  /** fill a list with the legs at a station
+   * @param st     station
+   * @param shots  list of legs (output)
+   */
+  private static void getStationShots( NumStation st, ArrayList< NumShot > shots )
+  {
+    shots.clear();
+    if ( st.node != null ) { // the node has all the station legs
+      shots.addAll( st.node.shots );
+    } else {
+      if ( st.s1 != null ) shots.add( st.s1 );
+      if ( st.s2 != null ) shots.add( st.s2 );
+    }
+  }
+
   /** make a NumShot from a temporary shot
    * @param sf    from station
    * @param st    to station
@@ -744,11 +956,11 @@ public class TDNum
     if ( ts.reversed != 1 ) {
       TDLog.Error( "making shot from reversed temp " + sf.name + " " + st.name );
     }
-    DBlock blk = ts.getFirstBlock();
+    // NumBlock blk = ts.getFirstBlock();
     // TDLog.v( "make shot " + sf.name + "-" + st.name + " blocks " + ts.blocks.size() + " E " + blk.getIntExtend() + " S " + blk.getStretch() );
     // NumShot sh = new NumShot( sf, st, ts.getFirstBlock(), 1, anomaly, mDecl ); // FIXME DIRECTION
     NumShot sh = new NumShot( sf, st, ts.getFirstBlock(), direction, anomaly, mDecl );
-    ArrayList< DBlock > blks = ts.getBlocks();
+    ArrayList< NumBlock > blks = ts.getBlocks();
     for ( int k = 1; k < blks.size(); ++k ) {
       sh.addBlock( blks.get(k) );
     }
@@ -760,37 +972,39 @@ public class TDNum
     if ( ts.reversed != 1 ) {
       TDLog.Error( "making shot from reversed temp " + sf.name + " " + st.name );
     }
-    DBlock blk = ts.getFirstBlock();
+    // NumBlock blk = ts.getFirstBlock();
     // TDLog.v( "make shot " + sf.name + "-" + st.name + " blocks " + ts.blocks.size() + " E " + blk.getIntExtend() + " S " + blk.getStretch() );
     // NumShot sh = new NumShot( sf, st, ts.getFirstBlock(), 1, anomaly, mDecl ); // FIXME DIRECTION
     NumShot sh = new NumShot( sf, st, ts.getFirstBlock(), direction, anomaly, mDecl );
-    ArrayList< DBlock > blks = ts.getBlocks();
+    ArrayList< NumBlock > blks = ts.getBlocks();
     for ( int k = 1; k < blks.size(); ++k ) {
       sh.addBlock( blks.get(k) );
     }
     return sh;
   }
 
-  /** initialize the list of shots and splays from the list of survey data
+  /** initialize the list of shots and splays from the survey data
    * @param data     survey data
    * @param shots    (temporary) legs
    * @param splays   (temporary) splays
    * @note mLastLeg remains after the shots have been initialized
    */
-  private void initShots( List< DBlock > data, List< TriShot > shots, List< TriSplay > splays )
+  private void initShots( List< NumBlock > data, List< TriShot > shots, List< TriSplay > splays )
   {
+    if ( TDInstance.datamode == SurveyInfo.DATAMODE_DIVING ) setDivingClino( data ); // preprocess: convert diving-mode data to normal form
+
     mLastLeg = null;
-    for ( DBlock blk : data ) {
+    for ( NumBlock blk : data ) {
       // TDLog.v( "NUM blk type " + blk.mType );
       if ( blk.isSplay() ) {
         mLastLeg = null;  // clear last-leg
-        if ( blk.mFrom != null && blk.mFrom.length() > 0 ) { // normal splay
-          splays.add( new TriSplay( blk, blk.mFrom, blk.getIntExtend(), +1 ) );
-        } else if ( blk.mTo != null && blk.mTo.length() > 0 ) { // reversed splay
-          splays.add( new TriSplay( blk, blk.mTo, blk.getIntExtend(), -1 ) );
+        if ( blk.hasFrom() ) { // normal splay
+          splays.add( new TriSplay( blk, blk.from(), blk.getIntExtend(), +1 ) );
+        } else if ( blk.hasTo() ) { // reversed splay
+          splays.add( new TriSplay( blk, blk.to(), blk.getIntExtend(), -1 ) );
         }
       } else if ( blk.isMainLeg() ) {
-        mLastLeg = new TriShot( blk, blk.mFrom, blk.mTo, blk.getIntExtend(), blk.getStretch(), +1 );
+        mLastLeg = new TriShot( blk, blk.from(), blk.to(), blk.getIntExtend(), blk.getStretch(), +1 );
         mLastLeg.duplicate = ( blk.isDuplicate() );
         mLastLeg.surface   = ( blk.isSurface() );
         mLastLeg.commented = ( blk.isCommented() ); // FIXME_COMMENTED
@@ -798,7 +1012,7 @@ public class TDNum
         if ( blk.getIntExtend() > 1 ) surveyExtend = false;
         shots.add( mLastLeg );
       } else if ( blk.isBackLeg() ) {
-        mLastLeg = new TriShot( blk, blk.mFrom, blk.mTo, blk.getIntExtend(), blk.getStretch(), +1 );
+        mLastLeg = new TriShot( blk, blk.from(), blk.to(), blk.getIntExtend(), blk.getStretch(), +1 );
         mLastLeg.duplicate = true;
         mLastLeg.surface   = ( blk.isSurface() );
         mLastLeg.commented = false;
@@ -817,42 +1031,186 @@ public class TDNum
     }
   }
 
+  /** @return the key of an unordered pair of station name IDs
+   * @param a   first station ID
+   * @param b   second station ID
+   */
+  private static long stationPair( int a, int b )
+  {
+    return ( a <= b )? ( ((long)a << 32) | ( b & 0xffffffffL ) ) : ( ((long)b << 32) | ( a & 0xffffffffL ) );
+  }
+
+  /** @return true if a temporary leg can be attached to the network in a pass of the data reduction
+   * @param ts     temporary leg
+   * @param pass   data reduction pass: the first pass skips the legs without regular extend
+   */
+  private static boolean canAttach( TriShot ts, int pass )
+  {
+    if ( ts.used || ts.backshot != 0 ) return false;                  // skip used and siblings
+    return pass > 0 || DBlock.getIntExtend( ts.extend ) <= 1;         // first pass skip non-extended
+  }
+
+  /** @return the station-legs adjacency (compressed): the legs at station ID i are adj[1][ adj[0][i] .. adj[0][i+1]-1 ]
+   * @param shots  temporary legs - the legs must have the IDs of their station names
+   * @param nn     number of station IDs
+   * @note a self-loop leg is listed once
+   */
+  private static int[][] makeAdjacency( List< TriShot > shots, int nn )
+  {
+    int ns = shots.size();
+    int[] adj_start = new int[ nn + 1 ];
+    for ( TriShot sh : shots ) {
+      if ( sh.fromId >= 0 ) ++ adj_start[ sh.fromId + 1 ];
+      if ( sh.toId >= 0 && sh.toId != sh.fromId ) ++ adj_start[ sh.toId + 1 ];
+    }
+    for ( int k = 0; k < nn; ++k ) adj_start[k+1] += adj_start[k];
+    int[] adj_shot = new int[ adj_start[ nn ] ];
+    int[] pos = new int[ nn ];
+    System.arraycopy( adj_start, 0, pos, 0, nn );
+    for ( int k = 0; k < ns; ++k ) {
+      TriShot sh = shots.get( k );
+      if ( sh.fromId >= 0 ) adj_shot[ pos[ sh.fromId ] ++ ] = k;
+      if ( sh.toId >= 0 && sh.toId != sh.fromId ) adj_shot[ pos[ sh.toId ] ++ ] = k;
+    }
+    return new int[][] { adj_start, adj_shot };
+  }
+
+  /** chain the legs between the same two stations (siblings) and set their backshot sign
+   * @param tmpshots   temporary legs - siblings are removed from the list unless magnetic anomaly is enabled
+   * @return the number of siblings left in the list
+   * @note the legs must have the IDs of their station names
+   * @note the chains are built with a single pass over the legs indexed by the (unordered) station pair,
+   *       and the siblings are removed with a single compaction of the list
+   */
+  private int makeSiblings( List< TriShot > tmpshots )
+  {
+    HashMap< Long, TriShot > heads = new HashMap<>(); // first leg of each chain
+    HashMap< Long, TriShot > tails = new HashMap<>(); // last sibling of each chain
+    for ( TriShot ts : tmpshots ) {
+      Long pair = stationPair( ts.fromId, ts.toId );
+      TriShot ts0 = heads.get( pair );
+      if ( ts0 == null ) {
+        heads.put( pair, ts );
+        tails.put( pair, ts );
+      } else {
+        tails.put( pair, ts ).sibling = ts;
+        ts.backshot = ( ts0.fromId == ts.fromId && ts0.toId == ts.toId )? 1 : -1; // positive or negative sibling
+      }
+    }
+
+    boolean anomaly = StationPolicy.doMagAnomaly();
+    int nrSiblings = 0;
+    int kk = 0; // compacted list size
+    int sz = tmpshots.size();
+    for ( int k = 0; k < sz; ++k ) {
+      TriShot ts0 = tmpshots.get( k );
+      if ( ts0.backshot != 0 ) { // sibling
+        if ( ! anomaly ) continue; // remove sibling
+        ++ nrSiblings;
+      } else if ( ts0.sibling != null ) {
+        checkSiblings( ts0, anomaly );
+        if ( ! anomaly ) ts0.sibling = null;
+      }
+      addToInLegError( ts0 );
+      tmpshots.set( kk++, ts0 );
+    }
+    if ( kk < sz ) tmpshots.subList( kk, sz ).clear();
+    return nrSiblings;
+  }
+
+  /** check the agreement of a leg with its siblings, and set the leg multi-bad if they disagree
+   * @param ts0      leg (head of the chain of siblings)
+   * @param anomaly  whether magnetic anomaly compensation is enabled
+   */
+  private void checkSiblings( TriShot ts0, boolean anomaly )
+  {
+    NumBlock blk0 = ts0.getFirstBlock();
+    float dmax = 0.0f;
+    float cc = TDMath.cosd( blk0.clino() );
+    float sc = TDMath.sind( blk0.clino() );
+    float cb = TDMath.cosd( blk0.bearing() + mDecl ); 
+    float sb = TDMath.sind( blk0.bearing() + mDecl ); 
+    TDVector v1 = new TDVector( blk0.length() * cc * sb, blk0.length() * cc * cb, blk0.length() * sc );
+    for ( TriShot ts1 = ts0.sibling; ts1 != null; ts1 = ts1.sibling ) {
+      NumBlock blk1 = ts1.getFirstBlock();
+      cc = TDMath.cosd( blk1.clino() );
+      sc = TDMath.sind( blk1.clino() );
+      cb = TDMath.cosd( blk1.bearing() + mDecl ); 
+      sb = TDMath.sind( blk1.bearing() + mDecl ); 
+      TDVector v2 = new TDVector( blk1.length() * cc * sb, blk1.length() * cc * cb, blk1.length() * sc );
+      float d = ( ( ts1.backshot == -1 )? v1.plus(v2) : v1.minus(v2) ).Length();
+      d = d/blk0.length() + d/blk1.length(); 
+      if ( d > dmax ) dmax = d;
+    }
+    if ( ( ! anomaly ) && ( dmax > TDSetting.mCloseDistance ) ) {
+      blk0.setMultiBad( true );
+    }
+  }
+
   /** survey data reduction 
    * @param data   shot list
    * @param start  start station
    * @param path_fmt path report format
    * @return true if all shots are attached
    */
-  private boolean computeNum( List< DBlock > data, String start, String path_fmt )
+  private boolean computeNum( List< NumBlock > data, String start, String path_fmt )
   {
-    if ( TDInstance.datamode == SurveyInfo.DATAMODE_DIVING ) { // preprocess: convert diving-mode data to normal form
-      HashMap< String, Float > depths = new HashMap< String, Float >();
-      for ( DBlock blk : data ) { // prepare stations depths
-	if ( blk.mFrom != null && blk.mFrom.length() > 0 && blk.mTo != null && blk.mTo.length() > 0 ) {
-          // TDLog.v( blk.mFrom + " depth " + blk.mDepth );
-          // depths.putIfAbsent( blk.mFrom, new Float( blk.mDepth ) );
-          if ( ! depths.containsKey(blk.mFrom) ) depths.put( blk.mFrom, Float.valueOf( blk.mDepth ) );
-        }
+    List< TriShot > tmpshots   = new ArrayList<>();
+    List< TriSplay > tmpsplays = new ArrayList<>();
+    initShots( data, tmpshots, tmpsplays );
+    return computeNum( tmpshots, tmpsplays, start, path_fmt );
+  }
+
+  /** convert diving-mode data to normal form: set the clino of the data blocks from the stations depths
+   * @param data   shot list
+   */
+  public static void makeDivingClino( List< DBlock > data )
+  {
+    setDivingClino( NumBlock.ofBlocks( data ) );
+  }
+
+  /** convert diving-mode data to normal form: set the clino of the shots from the stations depths
+   * @param data   shot list
+   */
+  private static void setDivingClino( List< NumBlock > data )
+  {
+    HashMap< String, Float > depths = new HashMap< String, Float >();
+    for ( NumBlock blk : data ) { // prepare stations depths
+      if ( blk.hasFrom() && blk.hasTo() ) {
+        // TDLog.v( blk.from() + " depth " + blk.depth() );
+        // depths.putIfAbsent( blk.from(), new Float( blk.depth() ) );
+        if ( ! depths.containsKey( blk.from() ) ) depths.put( blk.from(), Float.valueOf( blk.depth() ) );
       }
-      // boolean depth_error = false;
-      // String error = TDString.EMPTY;
-      for ( DBlock blk : data ) { // set dblock clino
-	if ( blk.mTo != null && blk.mTo.length() > 0 && depths.containsKey( blk.mTo ) ) {
-          float tdepth = depths.get( blk.mTo ).floatValue();
-	  if ( ! blk.makeClino( tdepth ) ) {
-	    // depth_error = true;
-	    TDLog.Error("Failed make clino: " +  blk.mFrom + "-" + blk.mTo + " (" + tdepth + ") " );
-	  }
+    }
+    // boolean depth_error = false;
+    // String error = TDString.EMPTY;
+    for ( NumBlock blk : data ) { // set shot clino
+      if ( blk.hasTo() && depths.containsKey( blk.to() ) ) {
+        float tdepth = depths.get( blk.to() ).floatValue();
+        if ( ! blk.makeClino( tdepth ) ) {
+          // depth_error = true;
+          TDLog.Error("Failed make clino: " +  blk.from() + "-" + blk.to() + " (" + tdepth + ") " );
         }
       }
-      // if ( depth_error ) {
-      //   TDToast.make( R.string.depth_error );
-      // }
     }
+    // if ( depth_error ) {
+    //   TDToast.make( R.string.depth_error );
+    // }
+  }
 
+  /** survey data reduction 
+   * @param tmpshots   temporary legs
+   * @param tmpsplays  temporary splays
+   * @param start  start station
+   * @param path_fmt path report format
+   * @return true if all shots are attached
+   */
+  private boolean computeNum( List< TriShot > tmpshots, List< TriSplay > tmpsplays, String start, String path_fmt )
+  {
     resetBBox();
     resetStats();
     mStartStation = null;
+    mLoopBlocks   = null;
     int nrSiblings = 0;
 
     // long millis_start = System.currentTimeMillis();
@@ -861,17 +1219,20 @@ public class TDNum
     mClosureStations = new ArrayList<>();
     mShots    = new ArrayList<>();
     mSplays   = new ArrayList<>();
+    mSplayOfBlock = new HashMap<>();
+    mColumns  = null;
     mClosures = new ArrayList<>();
     mNodes    = new ArrayList<>();
     mUnattachedShots = new ArrayList<>();
     mBadLoops = new ArrayList<>();
 
-    List< TriShot > tmpshots   = new ArrayList<>();
-    List< TriSplay > tmpsplays = new ArrayList<>();
-
-    initShots( data, tmpshots, tmpsplays );
     // TDLog.Log( TDLog.LOG_NUM, "data " + data.size() + " shots " + tmpshots.size() + " splays " + tmpsplays.size() );
 
+    for ( TriShot tsh : tmpshots ) { // the trilateration and the reduction look up the stations by ID
+      tsh.fromId = mStations.getNameId( tsh.from );
+      tsh.toId   = mStations.getNameId( tsh.to );
+    }
+
     if ( TDSetting.mLoopClosure == TDSetting.LOOP_TRIANGLES ) {
       makeTrilateration( tmpshots );
     }
@@ -883,73 +1244,7 @@ public class TDNum
       tsh.getFirstBlock().setMultiBad( false );
     }
 
-    for ( int i = 0; i < tmpshots.size(); ++i ) {
-      TriShot ts0 = tmpshots.get( i );
-      addToInLegError( ts0 );
-      if ( ts0.backshot != 0 ) continue; // skip siblings
-
-      DBlock blk0 = ts0.getFirstBlock();
-      // (1) check if ts0 has siblings
-      String from = ts0.from;
-      String to   = ts0.to;
-      // if ( from == null || to == null ) continue; // FIXME
-      TriShot ts1 = ts0; // last sibling (head = the shot itself)
-      for ( int j=i+1; j < tmpshots.size(); ++j ) {
-        TriShot ts2 = tmpshots.get( j );
-        if ( from.equals( ts2.from ) && to.equals( ts2.to ) ) { // TDLog.v( "chain a positive sibling" );
-          ts1.sibling = ts2;
-          ts1 = ts2;
-          ts2.backshot = 1;
-	  ++ nrSiblings;
-        } else if ( from.equals( ts2.to ) && to.equals( ts2.from ) ) { // TDLog.v( "chain a negative sibling" );
-          ts1.sibling = ts2;
-          ts1 = ts2;
-          ts2.backshot = -1;
-	  ++ nrSiblings;
-        }
-      }
-
-      if ( ts0.sibling != null ) { // TDLog.v( "check sibling shots agreement" );
-        float dmax = 0.0f;
-        float cc = TDMath.cosd( blk0.mClino );
-        float sc = TDMath.sind( blk0.mClino );
-        float cb = TDMath.cosd( blk0.mBearing + mDecl ); 
-        float sb = TDMath.sind( blk0.mBearing + mDecl ); 
-        TDVector v1 = new TDVector( blk0.mLength * cc * sb, blk0.mLength * cc * cb, blk0.mLength * sc );
-        ts1 = ts0.sibling;
-        while ( ts1 != null ) {
-          DBlock blk1 = ts1.getFirstBlock();
-          cc = TDMath.cosd( blk1.mClino );
-          sc = TDMath.sind( blk1.mClino );
-          cb = TDMath.cosd( blk1.mBearing + mDecl ); 
-          sb = TDMath.sind( blk1.mBearing + mDecl ); 
-          TDVector v2 = new TDVector( blk1.mLength * cc * sb, blk1.mLength * cc * cb, blk1.mLength * sc );
-          float d = ( ( ts1.backshot == -1 )? v1.plus(v2) : v1.minus(v2) ).Length();
-          d = d/blk0.mLength + d/blk1.mLength; 
-          if ( d > dmax ) dmax = d;
-          ts1 = ts1.sibling;
-        }
-        if ( ( ! StationPolicy.doMagAnomaly() ) && ( dmax > TDSetting.mCloseDistance ) ) {
-          blk0.setMultiBad( true );
-        }
-        
-        if ( ! StationPolicy.doMagAnomaly() ) { // (3) remove siblings
-          ts1 = ts0.sibling;
-          while ( ts1 != null ) { // TDLog.v( "NUM removing sibling " + ts1.from + "-" + ts1.to + " : " + nrSiblings );
-            -- nrSiblings;
-            TriShot ts2 = ts1.sibling;
-            tmpshots.remove( ts1 );
-            ts1 = ts2;
-          }
-          ts0.sibling = null;
-        // } else {
-        //   for ( ts1 = ts0.sibling; ts1 != null; ts1 = ts1.sibling ) {
-        //     assert ( ts1.backshot != 0 );
-        //     // TDLog.v( from + "-" + to  + " zero backshot sibling " + ts1.from + "-" + ts1.to );
-        //   }
-        }
-      }
-    }
+    nrSiblings = makeSiblings( tmpshots );
 
     // TDLog.v( "compute leg error ...");
     computeInLegError();
@@ -958,75 +1253,110 @@ public class TDNum
     mStartStation = new NumStation( start );
     mStartStation.setHasExtend( true );
     mStations.addStation( mStartStation );
+    ArrayList< ClosureTask.ClosureLoop > loops = ( path_fmt != null )? new ArrayList< ClosureTask.ClosureLoop >() : null;
 
     // two-pass data reduction
     // first-pass all shots with regular extends
     // second-pass any leftover shot
+    // each pass sweeps the shot list until no more shots can be attached: the sweeps are driven by
+    // a worklist - a shot enters the worklist when one of its stations is created, and it is attached
+    // in the current sweep if it follows the last attached shot in the list, otherwise in the next sweep
+    int ns = tmpshots.size();
+    int nn = mStartStation.mId + 1; // number of station IDs
+    for ( TriShot ts : tmpshots ) nn = Math.max( nn, Math.max( ts.fromId, ts.toId ) + 1 );
+    int[][] adjacency = makeAdjacency( tmpshots, nn );
+    int[] adj_start = adjacency[0];
+    int[] adj_shot  = adjacency[1];
+    boolean[] queued = new boolean[ ns ];                  // whether the shot has entered the worklist
+    PriorityQueue< Integer > sweep = new PriorityQueue<>(); // shots to attach in the current sweep
+    PriorityQueue< Integer > later = new PriorityQueue<>(); // shots to attach in the next sweep
     for ( int pass = 0; pass < 2; ++ pass ) {
       // TDLog.Log( TDLog.LOG_NUM, "data reduction pass " + pass );
-      boolean repeat = true;
-      while ( repeat ) {
-        repeat = false;
-        for ( TriShot ts : tmpshots ) {
-          if ( ts.used || ts.backshot != 0 ) continue;                  // skip used and siblings
-          if ( pass == 0 && DBlock.getIntExtend(ts.extend) > 1 ) continue; // first pass skip non-extended
-
-          // float anomaly = 0;
-          // if ( StationPolicy.doMagAnomaly() ) {
-          //   anomaly = compensateMagneticAnomaly( ts, anomaly );
-          // } 
-          float anomaly = StationPolicy.doMagAnomaly() ? compensateMagneticAnomaly( ts ) : 0;
-
-          // try to see if any temp-shot station is on the list of stations
-          NumStation sf = getStation( ts.from );
-          NumStation st = getStation( ts.to );
-
-          int  iext = DBlock.getIntExtend( ts.extend ); // integer extend
-          float fext = DBlock.getReducedExtend( ts.extend, ts.stretch ); // float extend - used for station coords
-          float aext = fext; // station azimuth extends
-          if ( sf != null ) {
-            sf.addAzimuth( ts.b(), aext );
-            if ( st != null ) { // loop-closure -: need the loop length to compute the fractional closure error
-              // do close loop also on duplicate shots
-	      if ( path_fmt != null ) {
-                ArrayList< NumShot > shots = getShortestPathShots( sf, st );
-                ArrayList< NumShortpath > paths = new ArrayList<>();
-                mStations.initShortestPath( paths, 1000000.0f );
-                (new ClosureTask( this, path_fmt, shots, paths, sf, st, ts.d(), ts.b(), ts.c() )).execute();
-              }
-              if ( /* TDSetting.mAutoStations || */ TDSetting.mLoopClosure == TDSetting.LOOP_NONE ) { // do not close loop
-                addOpenLoopShot( sf, ts, iext, aext, fext, anomaly ); // keep loop open: new station( id=ts.to, from=sf, ... )
-              } else { // TDLog.v( "close loop at " + sf.name + " " + st.name );
-                NumShot sh = makeShotFromTmp( sf, st, ts, 0, sf.mAnomaly, mDecl ); 
-                addShotToStations( sh, sf, st );
-              }
-              // float length = ts.d();
-	      // if ( iext == 0 ) length = TDMath.sqrt( length*length - ts.h()*ts.h() );
-              addToStats( ts.duplicate, ts.surface, ts.d(), ((iext == 0)? Math.abs(ts.v()) : ts.d()), ts.h() );
-              ts.used = true;
-              repeat = true;
+      for ( int k = 0; k < ns; ++ k ) { // shots that can be attached at the start of the pass
+        TriShot ts = tmpshots.get( k );
+        if ( queued[k] || ! canAttach( ts, pass ) ) continue;
+        if ( mStations.getStation( ts.fromId ) != null || mStations.getStation( ts.toId ) != null ) {
+          queued[k] = true;
+          sweep.add( k );
+        }
+      }
+      while ( ! sweep.isEmpty() || ! later.isEmpty() ) {
+        if ( sweep.isEmpty() ) { // next sweep
+          PriorityQueue< Integer > tmp = sweep;
+          sweep = later;
+          later = tmp;
+        }
+        int k = sweep.poll();
+        TriShot ts = tmpshots.get( k );
+
+        // try to see if any temp-shot station is on the list of stations
+        NumStation sf = mStations.getStation( ts.fromId );
+        NumStation st = mStations.getStation( ts.toId );
+        int new_id = ( sf == null )? ts.fromId : ( st == null )? ts.toId : -1; // ID of the station created by the shot
+
+        // float anomaly = 0;
+        // if ( StationPolicy.doMagAnomaly() ) {
+        //   anomaly = compensateMagneticAnomaly( ts, anomaly );
+        // } 
+        float anomaly = StationPolicy.doMagAnomaly() ? compensateMagneticAnomaly( ts ) : 0;
+
+        int  iext = DBlock.getIntExtend( ts.extend ); // integer extend
+        float fext = DBlock.getReducedExtend( ts.extend, ts.stretch ); // float extend - used for station coords
+        float aext = fext; // station azimuth extends
+        if ( sf != null ) {
+          sf.addAzimuth( ts.b(), aext );
+          if ( st != null ) { // loop-closure -: need the loop length to compute the fractional closure error
+            // do close loop also on duplicate shots
+	    if ( loops != null ) { // the loop is closed on the legs already in the network
+              loops.add( new ClosureTask.ClosureLoop( sf, st, ts.d(), ts.b(), ts.c(), mShots.size() ) );
             }
-            else // st null || st isBarrier
-            { // forward shot: from --> to
-              addForwardShot( sf, ts, iext, aext, fext, anomaly );
-              ts.used = true;
-              repeat = true;
+            if ( /* TDSetting.mAutoStations || */ TDSetting.mLoopClosure == TDSetting.LOOP_NONE ) { // do not close loop
+              addOpenLoopShot( sf, ts, iext, aext, fext, anomaly ); // keep loop open: new station( id=ts.to, from=sf, ... )
+            } else { // TDLog.v( "close loop at " + sf.name + " " + st.name );
+              NumShot sh = makeShotFromTmp( sf, st, ts, 0, sf.mAnomaly, mDecl ); 
+              addShotToStations( sh, sf, st );
             }
+            // float length = ts.d();
+	    // if ( iext == 0 ) length = TDMath.sqrt( length*length - ts.h()*ts.h() );
+            addToStats( ts.duplicate, ts.surface, ts.d(), ((iext == 0)? Math.abs(ts.v()) : ts.d()), ts.h() );
+            ts.used = true;
           }
-          else if ( st != null ) 
-          { // sf == null: reversed shot only difference is '-' sign in new NumStation, and the new station is sf
-            addReversedShot( st, ts, iext, aext, fext, anomaly );
+          else // st null || st isBarrier
+          { // forward shot: from --> to
+            addForwardShot( sf, ts, iext, aext, fext, anomaly );
             ts.used = true;
-            repeat = true;
+          }
+        }
+        else // st != null
+        { // sf == null: reversed shot only difference is '-' sign in new NumStation, and the new station is sf
+          addReversedShot( st, ts, iext, aext, fext, anomaly );
+          ts.used = true;
+        }
+
+        if ( new_id >= 0 ) { // the shots at the new station can be attached
+          for ( int q = adj_start[ new_id ]; q < adj_start[ new_id + 1 ]; ++ q ) {
+            int j = adj_shot[q];
+            if ( queued[j] || ! canAttach( tmpshots.get( j ), pass ) ) continue;
+            queued[j] = true;
+            if ( j > k ) {
+              sweep.add( j );
+            } else {
+              later.add( j );
+            }
           }
         }
       }
     }
 
+    if ( loops != null && loops.size() > 0 ) { // loop closure errors: a single task for all the loops
+      runClosures( path_fmt, loops );
+    }
+
     // ---------------------------------- LOOP CLOSURE -------------------------------
     if ( TDSetting.mLoopClosure == TDSetting.LOOP_CYCLES
       || TDSetting.mLoopClosure == TDSetting.LOOP_WEIGHTED 
-      || TDSetting.mLoopClosure == TDSetting.LOOP_SELECTIVE ) {
+      || TDSetting.mLoopClosure == TDSetting.LOOP_SELECTIVE
+      || TDSetting.mLoopClosure == TDSetting.LOOP_LEAST_SQUARES ) {
       // TDLog.v( "NUM loop closure compensation " + TDSetting.mLoopClosure );
       compensateLoopClosure( mNodes, mShots );
   
@@ -1047,31 +1377,15 @@ public class TDNum
             if ( sh2.mUsed ) continue;
             NumStation s1 = sh2.from;
             NumStation s2 = sh2.to;
-            float c2 = sh2.clino();
-            float b2 = sh2.bearing(); // 20200503 bearing() already has declination; was + mDecl;
             if ( s1.has3DCoords() && ! s2.has3DCoords() ) { // reset s2 values from the shot
               // float d = sh2.length() * sh2.mDirection; // FIXME DIRECTION
-              float d = sh2.length();
-              double v = - d * TDMath.sinDd( c2 );
-              double h =   d * TDMath.cosDd( c2 );
-              double e =   h * TDMath.sinDd( b2 );
-              double s = - h * TDMath.cosDd( b2 );
-              s2.e = s1.e + e;
-              s2.s = s1.s + s;
-              s2.v = s1.v + v;
+              setCoordsFromShot( s2, s1, sh2, sh2.length() );
               s2.setHas3DCoords( );
               sh2.mUsed = true;
               repeat = true;
             } else if ( s2.has3DCoords() && ! s1.has3DCoords() ) { // reset s1 values from the shot
               // float d = - sh2.length() * sh2.mDirection; // FIXME DIRECTION
-              float d = - sh2.length();
-              double v = - d * TDMath.sinDd( c2 );
-              double h =   d * TDMath.cosDd( c2 );
-              double e =   h * TDMath.sinDd( b2 );
-              double s = - h * TDMath.cosDd( b2 );
-              s1.e = s2.e + e;
-              s1.s = s2.s + s;
-              s1.v = s2.v + v;
+              setCoordsFromShot( s1, s2, sh2, - sh2.length() );
               s1.setHas3DCoords( );
               sh2.mUsed = true;
               repeat = true;
@@ -1079,6 +1393,7 @@ public class TDNum
           }
         }
       }
+      mStations.invalidateIndex();
     }
 
     // ---------------------------------- INSERT SPLAYS -------------------------------
@@ -1094,8 +1409,8 @@ public class TDNum
     for ( TriShot ts : tmpshots ) {
       if ( ! ts.used ) {
         // TDLog.v( "unattached shot " + ts.from + " " + ts.to + " id " + ts.blocks.get(0).mId );
-        mUnattachedShots.add( ts.blocks.get(0) );
-        mUnattachedLength += ts.blocks.get(0).mLength;
+        mUnattachedShots.add( ts.getFirstBlock().getBlock() );
+        mUnattachedLength += ts.getFirstBlock().length();
       }
     }
     // TDLog.Log( TDLog.LOG_NUM, "unattached shot length " + mUnattachedLength );
@@ -1105,6 +1420,25 @@ public class TDNum
 
 
 
+  /** set the 3D coords of a station from those of another station and a shot (after loop compensation)
+   * @param st    station
+   * @param sf    other station
+   * @param sh    shot between the two stations
+   * @param d     shot length, negative if the shot goes from st to sf
+   */
+  private static void setCoordsFromShot( NumStation st, NumStation sf, NumShot sh, float d )
+  {
+    float c = sh.clino();
+    float b = sh.bearing(); // 20200503 bearing() already has declination; was + mDecl;
+    double v = - d * TDMath.sinDd( c );
+    double h =   d * TDMath.cosDd( c );
+    double e =   h * TDMath.sinDd( b );
+    double s = - h * TDMath.cosDd( b );
+    st.e = sf.e + e;
+    st.s = sf.s + s;
+    st.v = sf.v + v;
+  }
+
   /** insert a reversed shot
    * @param sf    station to which the shot is attached (FROM station of the shot)
    * @param ts    shot
@@ -1187,7 +1521,11 @@ public class TDNum
     NumStation st = getStation( ts.from );
     if ( st != null ) {
       float cosine = st.computeExtend( ts.b( mDecl ), ts.extend );
-      mSplays.add( new NumSplay( st, ts.d(), ts.b( 0 ), ts.c(), cosine, ts.block, mDecl ) );
+      NumSplay sp = new NumSplay( st, ts.d(), ts.b( 0 ), ts.c(), cosine, ts.block, mDecl );
+      mSplays.add( sp );
+      st.addAdjacentSplay( sp );
+      Long bid = ts.block.id();
+      if ( ! mSplayOfBlock.containsKey( bid ) ) mSplayOfBlock.put( bid, sp );
       return true;
     }
     return false;
@@ -1199,14 +1537,25 @@ public class TDNum
     int sz = mSplays.size() - 1;
     for ( int k = sz; k >= 0; --k ) {
       NumSplay sp = mSplays.get( k );
-      if ( sp.getBlock() == ts.block ) {
-        // TDLog.v( "removing splay " + sz + " for " + ts.block.mId );
+      if ( sp.getNumBlock() == ts.block ) {
+        // TDLog.v( "removing splay " + sz + " for " + ts.block.id() );
         mSplays.remove( k );
+        unlinkSplay( sp );
         break;
       }
     }
   }
 
+  /** remove a splay, already dropped from the list of splays, from its station and from the block map
+   * @param sp   splay
+   */
+  private void unlinkSplay( NumSplay sp )
+  {
+    sp.from.removeAdjacentSplay( sp );
+    Long bid = sp.getNumBlock().id();
+    if ( mSplayOfBlock.get( bid ) == sp ) mSplayOfBlock.remove( bid );
+  }
+
   /** add a shot to a station (possibly forwarded to the station's node)
    *  a station usually has two shots, s1 and s2, at most
    *  if it has more than two shots, the additional shots are kept on a node
@@ -1241,6 +1590,9 @@ public class TDNum
     addShotToStation( sh, st2 );
     synchronized ( mShots ) {
       mShots.add( sh );
+      sh.from.addAdjacentShot( sh );
+      if ( sh.to != sh.from ) sh.to.addAdjacentShot( sh );
+      if ( mLoopBlocks != null ) mLoopBlocks.add( sh );
     }
   }
  
@@ -1303,146 +1655,6 @@ public class TDNum
   // =============================================================================
   // LOOP CLOSURE-ERROR COMPENSATION
 
-  /** a cycle step: a branch from a node
-   */
-  static class NumStep
-  { 
-    NumBranch b; // branch of this step
-    NumNode n;   // ???
-    int k;       // index of steps on the same cycle
-  
-    NumStep( NumBranch b0, NumNode n0, int k0 )
-    {
-      b = b0;
-      n = n0;
-      k = k0;
-    }
-  }
-
-  /** LIFO stack of steps
-   * the stack is implemented as a fixed-size array - this is ok because small stacks can be expected
-   */
-  class NumStack
-  {
-    int pos; // number of items on the stack 
-    int max;
-    NumStep[] data;
-   
-    /** cstr
-     * @param m  max stack size 
-     */
-    NumStack( int m )
-    {
-      max = m;
-      pos = 0;
-      data = new NumStep[max];
-    }
-
-    /** @return the number of items on the stack
-     */
-    int size() { return pos; }
-
-    void push( NumStep step )
-    {
-      data[pos] = step;
-      step.b.use = 1;
-      step.n.use = 1;
-      ++ pos;
-    }
-
-    /** @return the item on the top of the stack (or null if the stack is empty)
-     */
-    NumStep top() { return ( pos > 0 )? data[pos-1] : null; }
-
-    /** @return true if the stack is empty
-     */
-    boolean empty() { return pos == 0; }
-  
-    /** remove the top item from the stack
-     */
-    void pop() { if ( pos > 0 ) { --pos; } }
-  }
-
-  /** build a cycle
-   * @param stack   stack of cycle steps
-   * @return the cycle made of the branches of the steps in the stack
-   */
-  private NumCycle buildCycle( NumStack stack )
-  {
-    int sz = stack.size();
-    NumCycle cycle = new NumCycle( sz );
-    for (int k=0; k<sz; ++k ) {
-      cycle.addBranch( stack.data[k].b, stack.data[k].n );
-    }
-    return cycle;
-  }
-
-  /** identifies independent cycles from the set of branches
-   * @return list of independent cycles
-   * @param branches   list of branches
-   *
-   * checked with C++ test, however it seems that it can generate ANR (6.0.33 Android-11)
-   */
-  private ArrayList< NumCycle > makeIndependentCycles( ArrayList< NumBranch > branches ) 
-  {
-    ArrayList< NumCycle > cycles = new ArrayList<>();
-    int bs = branches.size();
-    // StringBuilder sb = new StringBuilder();
-    // for ( int k0 = 0; k0 < bs; ++k0 ) {
-    //   NumBranch b0 = branches.get(k0);
-    //   sb.append( b0.n1.station.name );
-    //   sb.append( "-" );
-    //   sb.append( b0.n2.station.name );
-    //   sb.append( "  " );
-    // }
-    // TDLog.v( sb.toString() );
-    
-    NumStack stack = new NumStack( bs );
-    for ( int k0 = 0; k0 < bs; ++k0 ) {
-      NumBranch b0 = branches.get(k0);
-      if ( b0.use == 2 ) continue;
-      NumNode n0 = b0.n1; // start-node for the cycle
-      b0.use = 1;         // start-branch is used
-      n0.use = 0;         // but start-node is not used
-      stack.push( new NumStep(b0, b0.n2, k0 ) ); // step with b0 to the second node (k0 = where start scan branches
-      while ( ! stack.empty() ) {
-        NumStep s1 = stack.top();
-        NumNode n1 = s1.n;
-        s1.k ++;
-        int k1 = s1.k;
-        if ( n1 == n0 ) {
-          cycles.add( buildCycle( stack ) );
-          // TDLog.v( "found cycle " + cycles.size() + " at " + n1.station.name );
-          s1.b.use = 2; // mark the last edge as no more usable
-          s1.n.use = 0;
-          stack.pop();
-        } else {
-          int k2 = s1.k;
-          for ( ; k2<bs; ++k2 ) {
-            NumBranch b2 = branches.get(k2);
-            if ( b2.use != 0 ) continue;
-            NumNode n2 = b2.otherNode( n1 );
-            if ( n2 != null && n2.use == 0 ) {
-              b2.use = 1;
-              n2.use = 1;
-              stack.push( new NumStep( b2, n2, k0 ) );
-              s1.k = k2;
-              break;
-            }
-          }
-          if ( k2 == bs ) {
-            s1.b.use = 0;
-            s1.n.use = 0;
-            stack.pop();
-          }
-        }
-      }
-      b0.use = 2;
-      // n0.use = 2;
-    }
-    return cycles;
-  }
-
   /** make the single loops
    * @param branches     survey branches
    * @param shots        survey shots
@@ -1532,10 +1744,31 @@ public class TDNum
 
   /** make branches from this num nodes
    * @param also_cross_end     whether to include branches to end-points
+   * @note the branches of the shots are restored afterwards, so that a shared reduction is not modified:
+   *       the branch direction of the first shot is kept in the branch
    */
   public ArrayList< NumBranch > makeBranches( boolean also_cross_end ) 
   {
-    return makeBranches( mNodes, also_cross_end );
+    synchronized( mShots ) {
+      int n = mShots.size();
+      NumBranch[] branch = new NumBranch[ n ];
+      int[] dir = new int[ n ];
+      for ( int k = 0; k < n; ++k ) {
+        NumShot sh = mShots.get( k );
+        branch[k] = sh.branch;
+        dir[k]    = sh.mBranchDir;
+      }
+      ArrayList< NumBranch > branches = makeBranches( mNodes, also_cross_end );
+      for ( NumBranch br : branches ) {
+        if ( br.shots.size() > 0 ) br.firstDir = br.shots.get( 0 ).mBranchDir;
+      }
+      for ( int k = 0; k < n; ++k ) {
+        NumShot sh = mShots.get( k );
+        sh.branch     = branch[k];
+        sh.mBranchDir = dir[k];
+      }
+      return branches;
+    }
   }
   
   /** from the list of nodes make the branches of type cross-cross
@@ -1651,24 +1884,32 @@ public class TDNum
   // Then the closure error of C(i) is distributed among the branches with the weight,
   //    dB'(j) = w(B(j)) * dB(j)
   //
+  // The independent cycles are the fundamental cycles of a spanning forest of the branch graph;
+  // the selective policy uses a minimum-length basis instead (see NumCycleBasis).
+  //
+  // Least squares (LOOP_LEAST_SQUARES) does not use the cycles: the branch ends are adjusted with
+  // the branches as observations, block by block, and the branch corrections are distributed with
+  // NumBranch.compensateError (see LoopLeastSquares).
+  //
   private void compensateLoopClosure( ArrayList< NumNode > nodes, ArrayList< NumShot > shots )
   {
+    if ( TDSetting.mLoopClosure == TDSetting.LOOP_LEAST_SQUARES ) { // sparse least squares over the branches of each block: no cycles
+      nrCompensatedLoops = LoopLeastSquares.compensate( shots, mStartStation );
+      return;
+    }
+
     ArrayList< NumBranch > branches = makeBranches( nodes, false );
 
     ArrayList< NumBranch > singleBranches = new ArrayList<>();
     makeSingleLoops( singleBranches, shots ); // check all shots without branch
     compensateSingleLoops( singleBranches );
 
-    ArrayList< NumCycle > cycles = makeIndependentCycles( branches );
-    // This is not necessary as the cycles are already independent
-    // if ( TDSetting.mLoopClosure == ? ) {
-    //   indep_cycles = new ArrayList<>(); // independent cycles
-    //   for ( NumCycle cycle : cycles ) {
-    //     if ( ! cycle.isBranchCovered( indep_cycles ) ) {
-    //       indep_cycles.add( cycle );
-    //     }
-    //   }
-    // }
+    for ( NumBranch branch : branches ) { // compute branches errors and lengths
+      branch.computeError();
+    }
+    // the selective policy checks the shortest cycles, that localize the bad loops
+    ArrayList< NumCycle > cycles = ( TDSetting.mLoopClosure == TDSetting.LOOP_SELECTIVE )?
+      NumCycleBasis.makeMinimumCycles( branches ) : NumCycleBasis.makeFundamentalCycles( branches );
 
     int ls = cycles.size();
     int bs = branches.size();
@@ -1676,9 +1917,6 @@ public class TDNum
     double[] CE = new double[ ls ]; // closure errors : mLoopClosure = NEW
     double[] CS = new double[ ls ];
     double[] CV = new double[ ls ];
-    for ( NumBranch branch : branches ) { // compute branches and cycles errors
-      branch.computeError();
-    }
     for (int y=0; y<ls; ++y ) {  // cycle closure errors
       NumCycle cy = cycles.get(y);
       cy.computeError();
@@ -1689,9 +1927,8 @@ public class TDNum
 
     // ArrayList< NumCycle > indep_cycles; // 2022-09-23 replaced with cycles
 
-    if ( TDSetting.mLoopClosure == TDSetting.LOOP_SELECTIVE ) { // find the basis of loops with smallest error
+    if ( TDSetting.mLoopClosure == TDSetting.LOOP_SELECTIVE ) { // drop the cycles of the minimum basis with large error
       // TDLog.v("LOOP selective policy");
-      // FIXME only up to composition of three cycles are considered
       ArrayList< NumCycle > tmp_cycles = new ArrayList<>();
       for ( int k1 = 0; k1 < ls; ++k1 ) {
         NumCycle c1 = cycles.get( k1 );
@@ -1819,98 +2056,126 @@ public class TDNum
   // TRILATERATION 
 
   /** correct temporary shots using trilateration
-   * @param shots temporary shot list
+   * @param shots temporary shot list - the shots must have the IDs of their station names
+   * @note a cluster starts with the first shot not in a cluster, and grows by the stations
+   *       that are connected to it by at least two shots (triangles); it gets all the shots
+   *       between its stations. Each station keeps the serial of the last cluster that has
+   *       reached it, so that a cluster is grown in time linear in the shots of its stations.
    */
   private void makeTrilateration( List< TriShot > shots )
   {
     ArrayList< TriCluster > clusters = new ArrayList<>();
-    for ( TriShot sh : shots ) sh.cluster = null;
-    boolean repeat = true;
-    while ( repeat ) {
-      repeat = false;
-      for ( TriShot sh : shots ) {
-        if ( sh.cluster != null ) continue;
-        repeat = true;
-        TriCluster cl = new TriCluster();
-        clusters.add( cl );
-        cl.addTmpShot( sh );
-        cl.addStation( sh.from );
+    int nn = 0; // number of station IDs
+    for ( TriShot sh : shots ) {
+      sh.cluster = null;
+      nn = Math.max( nn, Math.max( sh.fromId, sh.toId ) + 1 );
+    }
+    int[][] adjacency = makeAdjacency( shots, nn ); // station adjacency
+    int[] adj_start = adjacency[0];
+    int[] adj_shot  = adjacency[1];
+
+    int[] member = new int[ nn ]; // serial of the last cluster of the station
+    int[] count  = new int[ nn ]; // number of shots to the stations of the cluster
+    int[] tag    = new int[ nn ]; // serial of the cluster of the count
+    int[] queue  = new int[ nn ];
+    int serial = 0;
+    for ( TriShot sh : shots ) {
+      if ( sh.cluster != null ) continue;
+      ++ serial;
+      TriCluster cl = new TriCluster();
+      clusters.add( cl );
+      cl.addTmpShot( sh );
+      int head = 0;
+      int tail = 0;
+      member[ sh.fromId ] = serial;
+      cl.addStation( sh.from );
+      queue[ tail++ ] = sh.fromId;
+      if ( sh.toId != sh.fromId ) {
+        member[ sh.toId ] = serial;
         cl.addStation( sh.to );
-        // recursively populate the cluster
-        boolean repeat2 = true;
-        while ( repeat2 ) {
-          repeat2 = false;
-          int ns = shots.size();
-          for ( int n1 = 0; n1 < ns; ++n1 ) { // stations
-            TriShot sh1 = shots.get(n1);
-            if ( sh1.cluster != null ) continue;
-            if ( cl.containsStation( sh1.from ) ) {
-              if ( cl.containsStation( sh1.to ) ) {
-                cl.addTmpShot( sh1 );
-              } else {
-                boolean added = false;
-                for ( int n2 = n1+1; n2 < ns; ++n2 ) {
-                  TriShot sh2 = shots.get(n2);
-                  if ( sh2.cluster != null ) continue;
-                  if ( ( sh1.to.equals( sh2.from ) && cl.containsStation( sh2.to ) ) ||
-                       ( sh1.to.equals( sh2.to ) && cl.containsStation( sh2.from ) ) ) {
-                    cl.addTmpShot( sh2 );
-                    added = true;
-                  }
-                }
-                if ( added ) {
-                  cl.addStation( sh1.to );
-                  cl.addTmpShot( sh1 );
-                  repeat2 = true;
-                }
-              }
-            } else if ( cl.containsStation( sh1.to ) ) {
-              boolean added = false;
-              for ( int n2 = n1+1; n2 < ns; ++n2 ) {
-                TriShot sh2 = shots.get(n2);
-                if ( sh2.cluster != null ) continue;
-                if ( ( sh1.from.equals( sh2.from ) && cl.containsStation( sh2.to ) ) ||
-                     ( sh1.from.equals( sh2.to ) && cl.containsStation( sh2.from ) ) ) {
-                  cl.addTmpShot( sh2 );
-                  added = true;
-                }
-              }
-              if ( added ) {
-                cl.addStation( sh1.from );
-                cl.addTmpShot( sh1 );
-                repeat2 = true;
-              }
+        queue[ tail++ ] = sh.toId;
+      }
+      // populate the cluster
+      while ( head < tail ) {
+        int i = queue[ head++ ];
+        for ( int q = adj_start[i]; q < adj_start[i+1]; ++q ) {
+          TriShot sh1 = shots.get( adj_shot[q] );
+          if ( sh1.cluster != null ) continue;
+          int j = ( sh1.fromId == i )? sh1.toId : sh1.fromId;
+          if ( member[j] == serial ) { // shot between two stations of the cluster
+            cl.addTmpShot( sh1 );
+          } else {
+            if ( tag[j] != serial ) {
+              tag[j]   = serial;
+              count[j] = 0;
             }
-          }         
-          for ( TriShot sh1 : shots ) { // shots (should not be needed)
-            if ( sh1.cluster != null ) continue;
-            if ( cl.containsStation( sh1.from ) && cl.containsStation( sh1.to ) ) {
-              cl.addTmpShot( sh1 );
+            if ( ++ count[j] == 2 ) { // the station joins the cluster, and gets its shots when it is dequeued
+              member[j] = serial;
+              cl.addStation( ( sh1.fromId == j )? sh1.from : sh1.to );
+              queue[ tail++ ] = j;
             }
           }
         }
       }
     }
-    // apply trilateration with recursive minimization
-    for ( TriCluster cl : clusters ) {
-      if ( cl.nrStations() > 2 ) {
-        Trilateration trilateration = new Trilateration( cl );
-        // use trilateration.points and legs
-        for ( TriLeg leg : trilateration.legs ) {
-          TriPoint p1 = leg.pi;
-          TriPoint p2 = leg.pj;
-          // compute azimuth (p2-p1)
-          double dx = p2.x - p1.x; // east
-          double dy = p2.y - p1.y; // north
-          double a = Math.atan2( dx, dy ) * 180 / Math.PI;
-          if ( a < 0 ) a += 360;
-          TDLog.v("TRI leg " + p1.name + " " + p2.name + " angle " + a );
-          leg.shot.mAvgLeg.mDecl = (float)(a - leg.a); // per shot declination
+
+    // apply trilateration with least-squares minimization
+    ArrayList< TriCluster > solve = new ArrayList<>();
+    for ( TriCluster cl : clusters ) if ( cl.nrStations() > 2 ) solve.add( cl );
+    for ( Trilateration trilateration : solveTrilaterations( solve ) ) {
+      // use trilateration.points and legs
+      for ( TriLeg leg : trilateration.legs ) {
+        TriPoint p1 = leg.pi;
+        TriPoint p2 = leg.pj;
+        // compute azimuth (p2-p1)
+        double dx = p2.x - p1.x; // east
+        double dy = p2.y - p1.y; // north
+        double a = Math.atan2( dx, dy ) * 180 / Math.PI;
+        if ( a < 0 ) a += 360;
+        // TDLog.v("TRI leg " + p1.name + " " + p2.name + " angle " + a );
+        leg.shot.mAvgLeg.mDecl = (float)(a - leg.a); // per shot declination
+      }
+    }
+  }
+
+  /** @return the trilaterations of a list of clusters
+   * @param clusters  clusters
+   * @note the clusters are independent, and several clusters are solved concurrently
+   */
+  private static List< Trilateration > solveTrilaterations( List< TriCluster > clusters )
+  {
+    ArrayList< Trilateration > ret = new ArrayList<>();
+    int nt = Math.min( clusters.size(), Runtime.getRuntime().availableProcessors() );
+    if ( nt <= 1 ) {
+      for ( TriCluster cl : clusters ) ret.add( new Trilateration( cl ) );
+      return ret;
+    }
+    ExecutorService executor = Executors.newFixedThreadPool( nt );
+    try {
+      ArrayList< Future< Trilateration > > futures = new ArrayList<>();
+      for ( final TriCluster cl : clusters ) {
+        futures.add( executor.submit( new Callable< Trilateration >() {
+          @Override public Trilateration call() { return new Trilateration( cl ); }
+        } ) );
+      }
+      for ( int k = 0; k < clusters.size(); ++k ) {
+        try {
+          ret.add( futures.get( k ).get() );
+        } catch ( ExecutionException e ) {
+          TDLog.Error("TRI cluster failure " + e.getMessage() );
+        } catch ( InterruptedException e ) {
+          TDLog.Error("TRI interrupted " + e.getMessage() );
+          Thread.currentThread().interrupt();
+          break;
         }
       }
+    } finally {
+      executor.shutdownNow();
     }
+    return ret;
   }
 
+
   // ------------------------------------------------------------------------------
   // ALGORITHMS
 
@@ -1933,27 +2198,12 @@ public class TDNum
     return new TDVector( (float)( st1.e + (st2.e-st1.e)*s ), (float)( st1.s + (st2.s-st1.s)*s ), (float)( st1.v + ( st2.v - st1.v)*s ) );
   }
 
-  /** @return the list of legs of the shortest path between two stations
-   * @param s1    first station 
-   * @param s2    second station 
-   */
-  private ArrayList<NumShot> getShortestPathShots( NumStation s1, NumStation s2 )
-  {
-    ArrayList< NumShot > ret = new ArrayList<>();
-    for ( NumShot e : mShots ) {
-      if ( e.from == null || e.to == null ) continue;
-      if ( e.from == s1   && e.to == s2   ) continue;
-      if ( e.from == s2   && e.to == s1   ) continue;
-      ret.add( e );
-    }
-    return ret;
-  }
-
   /** recenter the survey about the middle
    * @note used only by the projection dialog
    */
   public void recenter()
   {
+    mColumns = null;
     double ec = (mEmin + mEmax)/2;
     double sc = (mSmin + mSmax)/2;
     double vc = (mVmin + mVmax)/2;
@@ -1974,6 +2224,7 @@ public class TDNum
       sp.v -= vc;
       // sp.h -= hc;
     }
+    mStations.invalidateIndex();
     mEmin = - de;
     mEmax =   de;
     mSmin = - ds;
@@ -43,20 +43,7 @@ class TriCluster
 
   /** add a station to the cluster
    * @param st   station (name)
+   * @note the caller must not add a station twice
    */
-  void addStation( String st )
-  {
-    if ( ! containsStation( st ) ) stations.add( st );
-  }
-
-  /** @return true if the cluster contains the given station
-   * @param st  given station (name)
-   */
-  boolean containsStation( String st )
-  {
-    if ( st == null ) return true;
-    for ( String s : stations ) if ( st.equals(s) ) return true;
-    return false;
-  }
+  void addStation( String st ) { stations.add( st ); }
 }
-
@@ -16,7 +16,7 @@ class TriPoint
   String name;
   // int n;      // nr legs with this point
   double x, y;   // coords x = East, y = North
-  double dx, dy; // coords variations
+  int index;     // point index in the trilateration
   boolean used;  // work flag
 
   /** cstr
@@ -27,8 +27,7 @@ class TriPoint
     name = n;
     x  = 0;
     y  = 0;
-    dx = 0;
-    dy = 0;
+    index = -1;
     used = false;
   }
 }
@@ -14,7 +14,6 @@ package com.topodroid.num;
 import com.topodroid.utils.TDMath;
 import com.topodroid.TDX.TDInstance;
 import com.topodroid.TDX.AverageLeg;
-import com.topodroid.TDX.DBlock;
 import com.topodroid.TDX.SurveyInfo;
 
 import java.util.ArrayList;
@@ -26,6 +25,8 @@ class TriShot
   boolean used;
   String from;
   String to;
+  int fromId; // IDs of the station names (-1 unset)
+  int toId;
   int extend;
   float stretch;
   int reversed;  // -1 reversed, +1 normal
@@ -36,7 +37,7 @@ class TriShot
   boolean commented;
   int     backshot; // 0 forward, +1 sibling forward, -1 sibling backshot
   TriShot sibling;  // sibling shot with same stations
-  ArrayList< DBlock > blocks;
+  ArrayList< NumBlock > blocks;
   AverageLeg mAvgLeg;
   TriCluster cluster;
 
@@ -46,18 +47,20 @@ class TriShot
   // }
 
   /** cstr
-   * @param blk   DBlock
+   * @param blk   shot data
    * @param f     FROM station
    * @param t     TO station
    * @param e     extend
    * @param s     stretch
    * @param r     ???
    */
-  TriShot( DBlock blk, String f, String t, int e, float s, int r )
+  TriShot( NumBlock blk, String f, String t, int e, float s, int r )
   { 
     used = false;
     from = f;
     to   = t;
+    fromId = -1;
+    toId   = -1;
     extend  = e;
     stretch = s;
     reversed = r;
@@ -69,7 +72,7 @@ class TriShot
     blocks = new ArrayList<>();
     blocks.add( blk );
     mAvgLeg = new AverageLeg( 0.0f ); // temporary shot do not consider declination
-    mAvgLeg.set( blk );
+    mAvgLeg.set( blk.length(), blk.bearing(), blk.clino() );
     cluster = null;
   }
 
@@ -80,15 +83,15 @@ class TriShot
   int   getIntExtend()   { return extend; }
   float getFloatExtend() { return extend + stretch; }
 
-  void addBlock( DBlock blk )
+  void addBlock( NumBlock blk )
   {
     blocks.add( blk );
-    mAvgLeg.add( blk );
+    mAvgLeg.add( blk.length(), blk.bearing(), blk.clino() );
   }
 
-  DBlock getFirstBlock( ) { return blocks.get(0); }
+  NumBlock getFirstBlock( ) { return blocks.get(0); }
 
-  ArrayList< DBlock > getBlocks() { return blocks; }
+  ArrayList< NumBlock > getBlocks() { return blocks; }
 
   /** get the temp-shot distance
    * note if the temp-shot is reversed the distance is negative
@@ -12,7 +12,6 @@
 package com.topodroid.num;
 
 import com.topodroid.utils.TDMath;
-import com.topodroid.TDX.DBlock;
 
 class TriSplay
 {
@@ -22,9 +21,9 @@ class TriSplay
   int reversed;  // -1 reversed, +1 normal // PRIVATE
                         // NOTE splay temp-shot can be reversed - leg temp-shot are always normal
                         // this is checked only in makeShotFromTmp to detect errors
-  DBlock block;
+  NumBlock block;
 
-  TriSplay( DBlock blk, String f, int e, int r )
+  TriSplay( NumBlock blk, String f, int e, int r )
   { 
     used = false;
     from = f;
@@ -33,14 +32,14 @@ class TriSplay
     block = blk;
   }
 
-  float d() { return block.mLength; }
+  float d() { return block.length(); }
 
   float b( float decl )
   {
-    if ( reversed == 1 ) return block.mBearing + decl ;
+    if ( reversed == 1 ) return block.bearing() + decl ;
     // float ret = block.mBearing + decl + 180; if ( ret >= 360 ) ret -= 360;
-    return TDMath.add180( block.mBearing + decl );
+    return TDMath.add180( block.bearing() + decl );
   }
 
-  float c() { return reversed * block.mClino; }
+  float c() { return reversed * block.clino(); }
 }
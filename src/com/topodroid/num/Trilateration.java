@@ -8,31 +8,37 @@
  *  Copyright This software is distributed under GPL-3.0 or later
  *  See the file COPYING.
  * --------------------------------------------------------
+ * The points of a cluster are placed in the horizontal plane so that the distances of the
+ * legs match the horizontal lengths. The first point is fixed, and the others minimize
+ *      Sum ( d(Pi,Pj) - d(L) )^2
+ * by Levenberg-Marquardt: each step solves the sparse damped normal equations
+ *      ( J^t J + lambda I ) dP = - J^t R
+ * with SparseLDL (the unknowns are the coords of the points, two per point).
+ * The distances do not fix the rotation around the first point: the points are finally
+ * rotated to the length-weighted mean of the differences between leg bearings and azimuths.
  */
 package com.topodroid.num;
 
-import com.topodroid.math.Point2D;
-import com.topodroid.utils.TDLog;
+// import com.topodroid.utils.TDLog;
 
 import java.util.ArrayList;
-// import java.util.List;
+import java.util.Arrays;
+import java.util.HashMap;
 
 class Trilateration
 {
+  private static final int    ITER_MAX   = 50;     // max iterations
+  private static final double EPS_STEP   = 1.0e-6; // convergence: max coord step [m]
+  private static final double EPS_LENGTH = 1.0e-9; // minimum point distance for the derivatives [m]
+  private static final double LAMBDA_START = 1.0e-3; // damping
+  private static final double LAMBDA_MIN   = 1.0e-9;
+  private static final double LAMBDA_MAX   = 1.0e12;
+
   ArrayList< TriLeg > legs;
   private ArrayList< TriPoint > points;
   private double error;
   private int iter;
 
-  /** @return a point
-   * @param n   point name
-   */
-  private TriPoint getPoint( String n )
-  {
-    for ( TriPoint p : points ) if ( n.equals(p.name) ) return p;
-    return null;
-  }
-
   double getError() { return error; }
 
   int getIterations() { return iter; }
@@ -46,199 +52,260 @@ class Trilateration
     points = new ArrayList<>();
 
     // populate
+    HashMap< String, TriPoint > index = new HashMap<>();
     for ( String n : cl.stations ) {
-      points.add( new TriPoint( n ) );
+      TriPoint p = new TriPoint( n );
+      p.index = points.size();
+      points.add( p );
+      index.put( n, p );
     }
     for ( TriShot sh : cl.shots ) {
-      TriPoint p1 = getPoint( sh.from );
-      TriPoint p2 = getPoint( sh.to );
+      TriPoint p1 = index.get( sh.from );
+      TriPoint p2 = index.get( sh.to );
       legs.add( new TriLeg( sh, p1, p2 ) );
     } 
     // initialize points
     initialize();
     // and minimize
-    error = minimize1( 0.01, 0.10, 100 );
+    minimize();
+    rotate();
+    error = computeError();
+    // TDLog.v( "TRI points " + points.size() + " legs " + legs.size() + " error " + error + " iter " + iter );
   }
 
+  /** place the points using the legs of a spanning tree (breadth-first from the first point)
+   */
   private void initialize()
   {
-    double d, a;
-    boolean repeat = true;
-    legs.get(0).pi.used = true;
-    while ( repeat ) {
-      repeat = false;
-      for ( TriLeg leg : legs ) {
-        if ( ! leg.used ) {
-          TriPoint pi = leg.pi;
-          TriPoint pj = leg.pj;
-          d = leg.d;
-          a = leg.a * Math.PI / 180.0;
-          if ( pi.used && ! pj.used ) {
-            pj.used = true;
-            pj.x = pi.x + d * Math.sin( a );
-            pj.y = pi.y + d * Math.cos( a );
-            // TDLog.v("TRI point " + pi.name + " -> " + pj.name + " x " + pj.x + " y " + pj.y + " angle [deg] " + leg.a );
-            leg.used = true;
-            repeat = true;
-          } else if ( pj.used && ! pi.used ) {
-            pi.used = true;
-            pi.x = pj.x - d * Math.sin( a );
-            pi.y = pj.y - d * Math.cos( a );
-            // TDLog.v("TRI point " + pj.name + " -> " + pi.name + " x " + pi.x + " y " + pi.y + " angle [deg] " + leg.a );
-            leg.used = true;
-            repeat = true;
-          }
-	  }
-      }
+    int np = points.size();
+    int nl = legs.size();
+    // point adjacency
+    int[] adj_start = new int[ np + 1 ];
+    for ( TriLeg leg : legs ) {
+      ++ adj_start[ leg.pi.index + 1 ];
+      ++ adj_start[ leg.pj.index + 1 ];
+    }
+    for ( int k = 0; k < np; ++k ) adj_start[k+1] += adj_start[k];
+    int[] adj_leg = new int[ adj_start[ np ] ];
+    int[] pos = new int[ np ];
+    System.arraycopy( adj_start, 0, pos, 0, np );
+    for ( int k = 0; k < nl; ++k ) {
+      TriLeg leg = legs.get( k );
+      adj_leg[ pos[ leg.pi.index ] ++ ] = k;
+      adj_leg[ pos[ leg.pj.index ] ++ ] = k;
     }
-  }
 
-  private void clearPointsDelta() 
-  {
-    for ( TriPoint p : points ) { p.dx = p.dy = 0; }
+    int[] queue = new int[ np ];
+    int head = 0;
+    int tail = 0;
+    TriPoint p0 = legs.get(0).pi;
+    p0.used = true;
+    queue[ tail++ ] = p0.index;
+    while ( head < tail ) {
+      int i = queue[ head++ ];
+      for ( int q = adj_start[i]; q < adj_start[i+1]; ++q ) {
+        TriLeg leg = legs.get( adj_leg[q] );
+        if ( leg.used ) continue;
+        TriPoint pi = leg.pi;
+        TriPoint pj = leg.pj;
+        double d = leg.d;
+        double a = leg.a * Math.PI / 180.0;
+        if ( pi.used && ! pj.used ) {
+          pj.used = true;
+          pj.x = pi.x + d * Math.sin( a );
+          pj.y = pi.y + d * Math.cos( a );
+          leg.used = true;
+          queue[ tail++ ] = pj.index;
+        } else if ( pj.used && ! pi.used ) {
+          pi.used = true;
+          pi.x = pj.x - d * Math.sin( a );
+          pi.y = pj.y - d * Math.cos( a );
+          leg.used = true;
+          queue[ tail++ ] = pi.index;
+        }
+      }
+    }
   }
 
-  private void addPointsDelta( double delta )
+  /** rotate the points around the first point so that the leg azimuths fit the leg bearings
+   */
+  private void rotate()
   {
+    double c = 0;
+    double sn = 0;
+    for ( TriLeg l : legs ) { // weighted mean of the angle differences (bearing - azimuth)
+      double dx = l.pj.x - l.pi.x;
+      double dy = l.pj.y - l.pi.y;
+      double d1 = Math.sqrt( dx*dx + dy*dy );
+      if ( d1 < EPS_LENGTH ) continue;
+      double da = l.a * Math.PI / 180.0 - Math.atan2( dx, dy );
+      c  += d1 * Math.cos( da );
+      sn += d1 * Math.sin( da );
+    }
+    if ( c == 0 && sn == 0 ) return;
+    double r  = Math.sqrt( c*c + sn*sn );
+    double cr = c / r;  // cosine of the (clockwise) rotation
+    double sr = sn / r; // sine
+    TriPoint p0 = legs.get(0).pi;
     for ( TriPoint p : points ) {
-      p.x += p.dx * delta;
-      p.y += p.dy * delta;
+      double x = p.x - p0.x;
+      double y = p.y - p0.y;
+      p.x = p0.x + x * cr + y * sr;
+      p.y = p0.y - x * sr + y * cr;
     }
   }
 
+  /** @return the distance between two points
+   * @param p1   first point
+   * @param p2   second point
+   */
   private double distance1( TriPoint p1, TriPoint p2 )
   {
     return Math.sqrt( (p1.x - p2.x) * (p1.x - p2.x) + (p1.y - p2.y) * (p1.y - p2.y) );
   }
 
-  // private double computeError2( )
-  // {
-  //   double error = 0;
-  //   for ( TriLeg l : legs ) {
-  //     double d = ( distance1( l.pi, l.pj ) - l.d );
-  //     error += d * d;
-  //   }
-  //   return error;
-  // }
-
-  private double computeError1( int n_pts )
+  /** @return the sum of the absolute misfits of the legs: Sum | d(pi,pj) - leg.d |
+   */
+  private double computeError()
   {
-    double error = 0;
-    for ( int i=0; i<n_pts; ++i ) {
-      TriPoint pi = points.get(i);
-      for ( int j=i+1; j<n_pts; ++j ) {
-        TriPoint pj = points.get(j);
-        double d1 = distance1( pi, pj );
-        for ( TriLeg l : legs ) {
-          if ( ( l.pi == pi && l.pj == pj ) || ( l.pi == pj && l.pj == pi ) ) { 
-            error += Math.abs( d1 - l.d ); 
-          }
-        }
-      }
-    }
-    return error;
+    double ret = 0;
+    for ( TriLeg l : legs ) ret += Math.abs( distance1( l.pi, l.pj ) - l.d );
+    return ret;
   }
 
+  /** @return the sum of the squared misfits of the legs: Sum ( d(pi,pj) - leg.d )^2
+   */
+  private double computeError2()
+  {
+    double ret = 0;
+    for ( TriLeg l : legs ) {
+      double r = distance1( l.pi, l.pj ) - l.d;
+      ret += r * r;
+    }
+    return ret;
+  }
 
-
-  // eps: error for one point [m] 0.001
-  // delta: initial delta [m] 0.10
-  // iter_max: max iterations 100000
-  //
-  // Error Fct = Sum ( d(pi,pj) - leg.d )^2
-  // double minimize2( double eps, double delta, int iter_max )
-  // {
-  //   eps *= points.size(); // 1 mm per point
-  //   double err0 = computeError2();
-  //   int n_pts = points.size();
-  //   for ( iter =0 ; iter < iter_max; ++ iter ) {
-  //     double err3, e;
-  //     for ( int m=1; m<n_pts; ++m ) { // compute derivatives D Error / DPx
-  //       TriPoint p = points.get( m );
-  //       if ( m > 1 ) {
-  //         p.x += delta;
-  // 	  e = err0 - computeError2();
-  //         p.x -= delta;
-  // 	  p.dx = e / ( 1 + e * e );
-  //       }
-  //       p.y += delta;
-  //       e = err0 - computeError2();
-  //       p.y -= delta;
-  //       p.dy = e / ( 1 + e * e );
-  //     }
-  //     addPointsDelta( delta );
-  //     err3 = computeError2();
-  //     if ( err3 >= err0 ) {
-  //       addPointsDelta( -delta );
-  //       delta = delta / 2;
-  //     } else {
-  //       err0 = err3;
-  //     }
-  //     clearPointsDelta();
-  //     if ( err0 < eps || delta < 0.00000001 ) break;
-  //   }
-  //   return err0;
-  // }
-
-  // Error Fct = Sum | d(pi,pj) - leg.d |
-  private double minimize1( double eps, double delta, int iter_max )
+  /** minimize the squared misfits of the legs (Levenberg-Marquardt)
+   * @note the point of the first leg is fixed
+   */
+  private void minimize()
   {
-    int n_pts = points.size();
-    eps *= n_pts; // 1 mm per point
-    double err0 = computeError1( n_pts );
-    // TDLog.v( "initial error " + err0 );
-    Point2D[] dp = new Point2D[ n_pts ]; // gradient of points (x,y)
-    for ( TriPoint p : points ) TDLog.v("TRI p " + p.name + " x " + p.x + " y " + p.y );
-    for ( iter =0 ; iter < iter_max; ++ iter ) {
-      // TDLog.v("TRI iter " + iter );
-      for ( int i=0; i<n_pts; ++i ) {
-        TriPoint pi = points.get(i);
-        double dx = 0;
-        double dy = 0;
-        for ( TriLeg l : legs ) {
-          TriPoint pj = ( l.pi == pi )? l.pj : ( l.pj == pi )? l.pi : null;
-          if ( pj != null ) {
-            double d1 = distance1( pi, pj );
-            if ( d1 > eps ) {
-              if ( d1 < l.d ) { // sgn = -1: must enlarge (pi,pj)
-                dx += ( pi.x - pj.x ) / d1; // if ( xi < xj ) dx < 0 therefore xi moves left
-                dy += ( pi.y - pj.y ) / d1; // if ( x1 > xj ) dx > 0 therefore xi moves right
-              } else if ( d1 > l.d ) { // sgn = +1
-                dx -= ( pi.x - pj.x ) / d1;
-                dy -= ( pi.y - pj.y ) / d1;
-              }
-            }
-          }
+    TriPoint p0 = legs.get(0).pi;
+    int np = points.size();
+    int nu = 2 * ( np - 1 );
+    iter = 0;
+    if ( nu <= 0 ) return;
+    int[] unknown = new int[ np ]; // first unknown of each point (-1 fixed)
+    for ( int k = 0, u = 0; k < np; ++k ) {
+      if ( points.get(k) == p0 ) {
+        unknown[k] = -1;
+      } else {
+        unknown[k] = u;
+        u += 2;
+      }
+    }
+    double[] x0 = new double[ np ];
+    double[] y0 = new double[ np ];
+    double[] g  = new double[ nu ];
+    double[] delta = new double[ nu ];
+    double err0 = computeError2();
+    double lambda = LAMBDA_START;
+    boolean done = false;
+    for ( iter = 0; iter < ITER_MAX && ! done; ++iter ) {
+      for ( int k = 0; k < np; ++k ) {
+        x0[k] = points.get(k).x;
+        y0[k] = points.get(k).y;
+      }
+      SparseLDL normal = makeNormal( unknown, nu, g );
+      // damped steps: the damping is increased until the misfit decreases
+      done = true;
+      while ( lambda < LAMBDA_MAX ) {
+        if ( normal == null ) normal = makeNormal( unknown, nu, null );
+        for ( int u = 0; u < nu; ++u ) normal.addDiagonal( u, lambda );
+        boolean ok = normal.factor();
+        if ( ok ) {
+          for ( int u = 0; u < nu; ++u ) delta[u] = -g[u];
+          normal.solve( delta );
+        }
+        normal = null;
+        if ( ! ok ) {
+          lambda *= 10;
+          continue;
+        }
+        double step = 0;
+        for ( int k = 0; k < np; ++k ) {
+          int u = unknown[k];
+          if ( u < 0 ) continue;
+          TriPoint p = points.get(k);
+          p.x = x0[k] + delta[u];
+          p.y = y0[k] + delta[u+1];
+          step = Math.max( step, Math.max( Math.abs( delta[u] ), Math.abs( delta[u+1] ) ) );
         }
-        dp[i] = new Point2D( (float)dx, (float)dy );
-      }      
-      for ( int i=0; i<n_pts; ++i ) { // gradient descent
-        TriPoint p = points.get( i );
-        p.x += dp[i].x * delta;
-        p.y += dp[i].y * delta;
-      }   
-      for ( int k=0; k<2; ++k ) {
-        double err3 = computeError1( n_pts );
-        // TDLog.v( "error " + err3 );
-        if ( err3 >= err0 ) {
-          delta /= 2;
-          for ( int i=0; i<n_pts; ++i ) {
-            TriPoint p = points.get( i );
-            p.x -= dp[i].x * delta;
-            p.y -= dp[i].y * delta;
-          }      
-        } else {
+        double err3 = computeError2();
+        if ( err3 <= err0 ) { // accept the step
           err0 = err3;
+          lambda = Math.max( lambda / 10, LAMBDA_MIN );
+          done = ( step < EPS_STEP );
           break;
         }
+        for ( int k = 0; k < np; ++k ) { // reject the step
+          TriPoint p = points.get(k);
+          p.x = x0[k];
+          p.y = y0[k];
+        }
+        if ( step < EPS_STEP ) break; // no smaller step can improve
+        lambda *= 10;
       }
-      // for ( TriPoint p : points ) TDLog.v("TRI p " + p.name + " x " + p.x + " y " + p.y );
-      if ( err0 < eps || delta < 0.000001 ) break;
     }
-    // TDLog.v( "minimize error " + err0 + " iter " + iter + " final delta " + delta );
-    for ( TriPoint p : points ) TDLog.v("TRI p " + p.name + " x " + p.x + " y " + p.y );
-    return err0;
+    // TDLog.v( "TRI minimize error " + err0 + " iter " + iter + " lambda " + lambda );
   }
 
-}
+  /** @return the normal matrix J^t J at the current points
+   * @param unknown   first unknown of each point (-1 fixed): the unknowns of a point are its X and Y coords
+   * @param nu        number of unknowns
+   * @param g         gradient J^t R (output, if not null)
+   */
+  private SparseLDL makeNormal( int[] unknown, int nu, double[] g )
+  {
+    SparseLDL normal = new SparseLDL( nu );
+    if ( g != null ) Arrays.fill( g, 0 );
+    for ( TriLeg l : legs ) {
+      int ui = unknown[ l.pi.index ];
+      int uj = unknown[ l.pj.index ];
+      if ( ui == uj ) continue; // self-loop
+      double dx = l.pi.x - l.pj.x;
+      double dy = l.pi.y - l.pj.y;
+      double d1 = Math.sqrt( dx*dx + dy*dy );
+      if ( d1 < EPS_LENGTH ) continue;
+      double ux = dx / d1; // derivative of the distance wrt pi (opposite wrt pj)
+      double uy = dy / d1;
+      double r  = d1 - l.d;
+      if ( ui >= 0 ) {
+        normal.addDiagonal( ui,   ux*ux );
+        normal.addDiagonal( ui+1, uy*uy );
+        normal.addOffDiagonal( ui, ui+1, ux*uy );
+        if ( g != null ) {
+          g[ui]   += ux * r;
+          g[ui+1] += uy * r;
+        }
+      }
+      if ( uj >= 0 ) {
+        normal.addDiagonal( uj,   ux*ux );
+        normal.addDiagonal( uj+1, uy*uy );
+        normal.addOffDiagonal( uj, uj+1, ux*uy );
+        if ( g != null ) {
+          g[uj]   -= ux * r;
+          g[uj+1] -= uy * r;
+        }
+      }
+      if ( ui >= 0 && uj >= 0 ) {
+        normal.addOffDiagonal( ui,   uj,   -ux*ux );
+        normal.addOffDiagonal( ui+1, uj+1, -uy*uy );
+        normal.addOffDiagonal( ui,   uj+1, -ux*uy );
+        normal.addOffDiagonal( ui+1, uj,   -ux*uy );
+      }
+    }
+    return normal;
+  }
 
+}
@@ -1380,7 +1380,7 @@ public class TDPrefKey
     "DISTOX_BACKSHOT",        // using DistoX in backshot mode
     "DISTOX_BEDDING",         // splays bed plane interpolation
     "DISTOX_WITH_SENSORS",    // using sensors
-    "DISTOX_LOOP_CLOSURE_VALUE", // loop compensation: 0 no, 1 yes, 2 weighted, 3 selective, 4 triangle
+    "DISTOX_LOOP_CLOSURE_VALUE", // loop compensation (6 modes): 0 no, 1 normal, 4 weighted, 5 selective, 3 triangles, 6 least squares
     "DISTOX_LOOP_THRESHOLD",     // selective loop compensation threshold [%]
     // "DISTOX_DIST_TOLERANCE",  // ratio of distance tolerance to angle tolerance
     // "DISTOX_SPLAY_ACTIVE",    // attach splays to active station, if defined
@@ -32,6 +32,7 @@ import com.topodroid.TDX.DrawingWindow;
 import com.topodroid.TDX.DistoXStationName;
 import com.topodroid.TDX.StationPolicy;
 import com.topodroid.TDX.SurveyInfo;
+import com.topodroid.TDX.TDNumCache;
 import com.topodroid.TDX.TDToast;
 import com.topodroid.TDX.TopoGL;
 import com.topodroid.TDX.GlRenderer;
@@ -415,7 +416,8 @@ public class TDSetting
   public static final int LOOP_TRIANGLES  = 3;
   public static final int LOOP_WEIGHTED   = 4;
   public static final int LOOP_SELECTIVE  = 5;
-  public static int mLoopClosure = LOOP_NONE;      // loop closure: 0 none, 1 normal, 3 triangles
+  public static final int LOOP_LEAST_SQUARES = 6;
+  public static int mLoopClosure = LOOP_NONE;      // loop closure: 0 none, 1 normal, 3 triangles, 4 weighted, 5 selective, 6 least squares
   public static float mLoopThr = 1.0f; // selective compensation threshold [%]
   
   public static final  String UNIT_LENGTH         = "meters";
@@ -748,7 +750,7 @@ public class TDSetting
     mLoopClosure = loop_closure;
     if ( mLoopClosure == LOOP_CYCLES || mLoopClosure == LOOP_WEIGHTED ) {
       if ( ! TDLevel.overAdvanced ) mLoopClosure = LOOP_NONE;
-    } else if ( mLoopClosure == LOOP_TRIANGLES || mLoopClosure == LOOP_SELECTIVE ) {
+    } else if ( mLoopClosure == LOOP_TRIANGLES || mLoopClosure == LOOP_SELECTIVE || mLoopClosure == LOOP_LEAST_SQUARES ) {
       if ( ! TDLevel.overExpert ) mLoopClosure = LOOP_NONE;
     }
   }
@@ -1315,6 +1317,7 @@ public class TDSetting
   public static String updatePreference( TDPrefHelper hlp, int cat, String k, String v )
   {
     // TDLog.v("update pref " + k + " val " + v );
+    TDNumCache.clear(); // the survey reduction depends on several settings
     switch ( cat ) {
       case TDPrefCat.PREF_CATEGORY_ALL:    return updatePrefMain( hlp, k, v );
       case TDPrefCat.PREF_CATEGORY_SURVEY: return updatePrefSurvey( hlp, k, v );
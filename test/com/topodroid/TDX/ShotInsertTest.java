@@ -0,0 +1,177 @@
+/* @file ShotInsertTest.java
+ *
+ * @author marco corvi
+ * @date oct 2026
+ *
+ * @brief TopoDroid test of the multi-row insert of the imported shots
+ * --------------------------------------------------------
+ *  Copyright This software is distributed under GPL-3.0 or later
+ *  See the file COPYING.
+ * --------------------------------------------------------
+ * The statements record the bound values, and the inserted rows are checked column by column.
+ */
+package com.topodroid.TDX;
+
+import com.topodroid.inport.ParserShot;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Test;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class ShotInsertTest
+{
+  private static final long SID    = 7;
+  private static final long ID0    = 100;
+  private static final long MILLIS = 1234567L;
+  private static final long COLOR  = 0x123456L;
+  private static final int  SKIP   = 3; // shots before the inserted ones
+
+  private static final Object NOT_BOUND = new Object();
+
+  /** statement that records the bound values, and the rows at each insert
+   */
+  private static class RecordingStatement implements ShotInsert.Statement
+  {
+    final String sql;
+    final Object[] values;
+    final List< Object[] > rows; // inserted rows, shared by the statements
+
+    RecordingStatement( String sql, List< Object[] > rows )
+    {
+      this.sql  = sql;
+      this.rows = rows;
+      int nr = 0;
+      for ( int k = 0; k < sql.length(); ++k ) if ( sql.charAt( k ) == '?' ) ++ nr;
+      values = new Object[ nr ];
+      Arrays.fill( values, NOT_BOUND );
+    }
+
+    private void bind( int pos, Object value )
+    {
+      assertTrue( "position " + pos + " out of 1.." + values.length, pos >= 1 && pos <= values.length );
+      values[ pos - 1 ] = value;
+    }
+
+    @Override public void bindLong( int pos, long value ) { bind( pos, Long.valueOf( value ) ); }
+    @Override public void bindDouble( int pos, double value ) { bind( pos, Double.valueOf( value ) ); }
+    @Override public void bindText( int pos, String value ) { bind( pos, value ); }
+
+    @Override public void executeInsert()
+    {
+      int nc = ShotInsert.COLUMNS.length;
+      assertEquals( 0, values.length % nc );
+      for ( int k = 0; k < values.length; k += nc ) {
+        Object[] row = Arrays.copyOfRange( values, k, k + nc );
+        for ( int c = 0; c < nc; ++c ) {
+          if ( row[c] == NOT_BOUND ) fail( "row " + rows.size() + " column " + ShotInsert.COLUMNS[c] + " not bound" );
+        }
+        rows.add( row );
+      }
+      Arrays.fill( values, NOT_BOUND ); // a stale value is reported as not bound
+    }
+  }
+
+  /** @return the i-th imported shot
+   * @param i   shot index
+   */
+  private static ParserShot makeShot( int i )
+  {
+    return new ParserShot( "f" + i, ( i % 3 == 0 )? null : "t" + i,
+                           1.0f + i, 2.0f + i, 3.0f - i, 4.0f + i, i % 3 - 1, i % 4,
+                           i % 5 == 1, i % 5 == 2, false, ( i % 2 == 0 )? null : "c" + i );
+  }
+
+  /** @return the expected value of a column of the i-th inserted shot
+   * @param column  column name
+   * @param i       shot index
+   */
+  private static Object expected( String column, int i )
+  {
+    ParserShot s = makeShot( i );
+    switch ( column ) {
+      case "surveyId":     return Long.valueOf( SID );
+      case "id":           return Long.valueOf( ID0 + i - SKIP );
+      case "fStation":     return s.from;
+      case "tStation":     return s.to;
+      case "distance":     return Double.valueOf( s.len );
+      case "bearing":      return Double.valueOf( s.ber );
+      case "clino":        return Double.valueOf( s.cln );
+      case "roll":         return Double.valueOf( s.rol );
+      case "acceleration": return Double.valueOf( 0.0 );
+      case "magnetic":     return Double.valueOf( 0.0 );
+      case "dip":          return Double.valueOf( 0.0 );
+      case "extend":       return Long.valueOf( s.extend );
+      case "flag":         return Long.valueOf( s.duplicate ? DBlock.FLAG_DUPLICATE : s.surface ? DBlock.FLAG_SURFACE : 0 );
+      case "leg":          return Long.valueOf( s.leg );
+      case "status":       return Long.valueOf( 0 );
+      case "comment":      return s.comment;
+      case "type":         return Long.valueOf( 0 );
+      case "millis":       return Long.valueOf( MILLIS );
+      case "color":        return Long.valueOf( COLOR );
+      case "stretch":      return Double.valueOf( 0.0 );
+      case "address":      return "";
+    }
+    fail( "unexpected column " + column );
+    return null;
+  }
+
+  /** insert nr shots, after SKIP shots, and check every column of every row
+   * @param nr   number of inserted shots
+   */
+  private static void checkInsert( int nr )
+  {
+    ArrayList< ParserShot > shots = new ArrayList<>();
+    for ( int i = 0; i < SKIP + nr; ++i ) shots.add( makeShot( i ) );
+
+    List< Object[] > rows = new ArrayList<>();
+    int tail = nr % ShotInsert.BATCH;
+    RecordingStatement batch = ( nr >= ShotInsert.BATCH )? new RecordingStatement( ShotInsert.sql( ShotInsert.BATCH ), rows ) : null;
+    RecordingStatement last  = ( tail > 0 )? new RecordingStatement( ShotInsert.sql( tail ), rows ) : null;
+    ShotInsert.insertImportShots( batch, last, SID, ID0, shots, SKIP, SKIP + nr, MILLIS, COLOR );
+
+    assertEquals( "rows of " + nr + " shots", nr, rows.size() );
+    for ( int r = 0; r < nr; ++r ) {
+      Object[] row = rows.get( r );
+      for ( int c = 0; c < ShotInsert.COLUMNS.length; ++c ) {
+        String column = ShotInsert.COLUMNS[c];
+        assertEquals( nr + " shots: row " + r + " column " + column, expected( column, SKIP + r ), row[c] );
+      }
+    }
+  }
+
+  @Test
+  public void testSql()
+  {
+    String sql = ShotInsert.sql( 1 );
+    String columns = sql.substring( sql.indexOf( '(' ) + 1, sql.indexOf( ')' ) ).trim();
+    assertEquals( Arrays.asList( ShotInsert.COLUMNS ), Arrays.asList( columns.split( ",\\s*" ) ) );
+    for ( int nr : new int[] { 1, 2, ShotInsert.BATCH } ) {
+      String s = ShotInsert.sql( nr );
+      int q = 0;
+      for ( int k = 0; k < s.length(); ++k ) if ( s.charAt( k ) == '?' ) ++ q;
+      assertEquals( nr * ShotInsert.COLUMNS.length, q );
+    }
+    assertTrue( ShotInsert.BATCH * ShotInsert.COLUMNS.length <= 999 ); // SQLite max number of variables
+  }
+
+  @Test
+  public void testShots() // the shots have the flags and the null values
+  {
+    assertEquals( Long.valueOf( DBlock.FLAG_DUPLICATE ), expected( "flag", 1 ) );
+    assertEquals( Long.valueOf( DBlock.FLAG_SURFACE ), expected( "flag", 2 ) );
+    assertNull( expected( "tStation", 3 ) );
+  }
+
+  @Test public void testInsert0()  { checkInsert(  0 ); }
+  @Test public void testInsert1()  { checkInsert(  1 ); }
+  @Test public void testInsert31() { checkInsert( 31 ); }
+  @Test public void testInsert32() { checkInsert( 32 ); }
+  @Test public void testInsert33() { checkInsert( 33 ); }
+  @Test public void testInsert65() { checkInsert( 65 ); }
+}
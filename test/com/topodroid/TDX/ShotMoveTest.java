@@ -0,0 +1,291 @@
+/* @file ShotMoveTest.java
+ *
+ * @author marco corvi
+ * @date oct 2026
+ *
+ * @brief TopoDroid test of the move of the shots to another survey (survey split and merge)
+ * --------------------------------------------------------
+ *  Copyright This software is distributed under GPL-3.0 or later
+ *  See the file COPYING.
+ * --------------------------------------------------------
+ * The tables are kept in memory, and each move does what the UPDATE of the table does. Each row has a tag,
+ * and after the move every sensor, photo and audio must refer to the shot with the same tag as before.
+ */
+package com.topodroid.TDX;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+public class ShotMoveTest
+{
+  private static final long OLD_SID = 1;
+  private static final long SID     = 2;
+
+  /** table row
+   */
+  private static class Row
+  {
+    long sid;
+    long id;
+    long shotId;     // referred shot (sensors, photos, audios)
+    String from, to; // shot stations
+    String station;  // station (fixeds, stations, plots)
+    final String tag;
+
+    Row( String tag ) { this.tag = tag; }
+  }
+
+  /** survey tables in memory
+   */
+  private static class MemoryTables implements ShotMove.Tables
+  {
+    final HashMap< String, ArrayList< Row > > tables = new HashMap<>();
+
+    MemoryTables()
+    {
+      for ( String table : new String[] { ShotMove.SHOTS, ShotMove.SENSORS, ShotMove.PHOTOS, ShotMove.AUDIOS } ) {
+        tables.put( table, new ArrayList< Row >() );
+      }
+      for ( String table : ShotMove.STATION_TABLES ) tables.put( table, new ArrayList< Row >() );
+    }
+
+    List< Row > rows( String table ) { return tables.get( table ); }
+
+    Row addShot( long sid, long id, String from, String to )
+    {
+      Row row = new Row( "shot " + sid + "." + id );
+      row.sid  = sid;
+      row.id   = id;
+      row.from = from;
+      row.to   = to;
+      rows( ShotMove.SHOTS ).add( row );
+      return row;
+    }
+
+    Row addShotRow( String table, long sid, long id, long shot_id )
+    {
+      Row row = new Row( table + " " + sid + "." + id );
+      row.sid    = sid;
+      row.id     = id;
+      row.shotId = shot_id;
+      rows( table ).add( row );
+      return row;
+    }
+
+    Row addStationRow( String table, long sid, String station )
+    {
+      Row row = new Row( table + " " + sid + "." + station );
+      row.sid     = sid;
+      row.station = station;
+      rows( table ).add( row );
+      return row;
+    }
+
+    Row shot( long sid, long id )
+    {
+      for ( Row row : rows( ShotMove.SHOTS ) ) if ( row.sid == sid && row.id == id ) return row;
+      return null;
+    }
+
+    @Override public long maxId( String table, long sid )
+    {
+      long ret = 1;
+      for ( Row row : rows( table ) ) if ( row.sid == sid && row.id >= ret ) ret = row.id + 1;
+      return ret;
+    }
+
+    @Override public long minId( String table, long sid, long id )
+    {
+      long ret = -1;
+      for ( Row row : rows( table ) ) {
+        if ( row.sid == sid && row.shotId >= id && ( ret < 0 || row.id < ret ) ) ret = row.id;
+      }
+      return ret;
+    }
+
+    @Override public void moveStationRows( String table, String column, long old_sid, long old_id, long sid )
+    {
+      HashSet< String > stations = new HashSet<>();
+      for ( Row row : rows( ShotMove.SHOTS ) ) {
+        if ( row.sid != old_sid || row.id < old_id ) continue;
+        if ( row.from.length() > 0 ) stations.add( row.from );
+        if ( row.to.length() > 0 ) stations.add( row.to );
+      }
+      for ( Row row : rows( table ) ) if ( row.sid == old_sid && stations.contains( row.station ) ) row.sid = sid;
+    }
+
+    @Override public void moveShotRows( String table, long old_sid, long old_id, long sid, long offset, long shot_offset )
+    {
+      for ( Row row : rows( table ) ) {
+        if ( row.sid != old_sid || row.shotId < old_id ) continue;
+        row.sid = sid;
+        row.id += offset;
+        row.shotId += shot_offset;
+      }
+    }
+
+    @Override public void moveShots( long old_sid, long old_id, long sid, long offset )
+    {
+      for ( Row row : rows( ShotMove.SHOTS ) ) {
+        if ( row.sid != old_sid || row.id < old_id ) continue;
+        row.sid = sid;
+        row.id += offset;
+      }
+    }
+
+    /** @return the tag of the shot referred by each sensor, photo and audio
+     */
+    HashMap< String, String > references()
+    {
+      HashMap< String, String > ret = new HashMap<>();
+      for ( String table : new String[] { ShotMove.SENSORS, ShotMove.PHOTOS, ShotMove.AUDIOS } ) {
+        for ( Row row : rows( table ) ) {
+          Row shot = shot( row.sid, row.shotId );
+          assertNotNull( row.tag + " refers to no shot", shot );
+          ret.put( row.tag, shot.tag );
+        }
+      }
+      return ret;
+    }
+
+    /** check that the IDs of the rows of each survey are distinct
+     */
+    void checkIds()
+    {
+      for ( String table : new String[] { ShotMove.SHOTS, ShotMove.SENSORS, ShotMove.PHOTOS, ShotMove.AUDIOS } ) {
+        HashSet< String > ids = new HashSet<>();
+        for ( Row row : rows( table ) ) assertTrue( table + " ID clash " + row.sid + "." + row.id, ids.add( row.sid + "." + row.id ) );
+      }
+    }
+  }
+
+  /** move the shots and check that the references are kept
+   * @param tables    survey tables
+   * @param old_id    ID of the first moved shot
+   * @param stations  whether to move the rows at the stations of the moved shots
+   * @return the move
+   */
+  private static ShotMove checkMove( MemoryTables tables, long old_id, boolean stations )
+  {
+    HashMap< String, String > refs = tables.references();
+    HashMap< String, Long > sids = new HashMap<>(); // survey of the shots, by tag
+    for ( Row row : tables.rows( ShotMove.SHOTS ) ) sids.put( row.tag, ( row.sid == OLD_SID && row.id >= old_id )? SID : row.sid );
+    long max_id = tables.maxId( ShotMove.SHOTS, SID );
+
+    ShotMove move = new ShotMove( tables, OLD_SID, old_id, SID );
+    move.move( tables, stations );
+
+    tables.checkIds();
+    assertEquals( refs, tables.references() );
+    for ( Row row : tables.rows( ShotMove.SHOTS ) ) {
+      assertEquals( row.tag, (long)sids.get( row.tag ), row.sid );
+      if ( row.tag.startsWith( "shot " + OLD_SID + "." ) && row.sid == SID ) assertTrue( row.tag, row.id >= max_id ); // after the target shots
+    }
+    return move;
+  }
+
+  /** fill a survey with a line of shots, with a splay at each station
+   * @param tables   survey tables
+   * @param sid      survey ID
+   * @param prefix   station names prefix
+   * @param nr       number of legs
+   */
+  private static void makeSurvey( MemoryTables tables, long sid, String prefix, int nr )
+  {
+    long id = 1;
+    for ( int k = 0; k < nr; ++k ) {
+      tables.addShot( sid, id++, prefix + k, prefix + (k+1) );
+      tables.addShot( sid, id++, prefix + (k+1), "" );
+    }
+  }
+
+  @Test
+  public void testSplit() // split at station 5: the rows at station 5 go with the moved shots
+  {
+    MemoryTables tables = new MemoryTables();
+    makeSurvey( tables, OLD_SID, "", 10 ); // leg 4-5 has ID 9, leg 5-6 has ID 11
+    tables.addShotRow( ShotMove.PHOTOS,  OLD_SID, 1, 3 );
+    tables.addShotRow( ShotMove.PHOTOS,  OLD_SID, 2, 12 );
+    tables.addShotRow( ShotMove.PHOTOS,  OLD_SID, 3, 20 );
+    tables.addShotRow( ShotMove.AUDIOS,  OLD_SID, 1, 11 );
+    tables.addShotRow( ShotMove.AUDIOS,  OLD_SID, 2, 4 );
+    tables.addShotRow( ShotMove.SENSORS, OLD_SID, 1, 15 );
+    Row fixed0 = tables.addStationRow( "fixeds", OLD_SID, "0" );
+    Row fixed5 = tables.addStationRow( "fixeds", OLD_SID, "5" );
+    Row station4 = tables.addStationRow( "stations", OLD_SID, "4" );
+    Row station5 = tables.addStationRow( "stations", OLD_SID, "5" );
+    Row plot0 = tables.addStationRow( "plots", OLD_SID, "0" );
+    Row plot5 = tables.addStationRow( "plots", OLD_SID, "5" );
+    Row plot8 = tables.addStationRow( "plots", OLD_SID, "8" );
+    tables.addShot( SID, 1, "", "" ); // the new survey has a blank shot
+
+    ShotMove move = checkMove( tables, 11, true );
+    assertEquals( -9, move.shotOffset );
+    assertEquals( "leg 5-6", "5", tables.shot( SID, 2 ).from );
+    assertEquals( "leg 4-5", "5", tables.shot( OLD_SID, 9 ).to );
+    assertEquals( OLD_SID, fixed0.sid );
+    assertEquals( SID, fixed5.sid );
+    assertEquals( OLD_SID, station4.sid );
+    assertEquals( SID, station5.sid );
+    assertEquals( OLD_SID, plot0.sid );
+    assertEquals( SID, plot5.sid );
+    assertEquals( SID, plot8.sid );
+  }
+
+  @Test
+  public void testMerge() // the sensor, photo and audio IDs of the moved shots clash with those of the target survey
+  {
+    MemoryTables tables = new MemoryTables();
+    makeSurvey( tables, OLD_SID, "a", 6 );
+    makeSurvey( tables, SID, "b", 4 );
+    for ( long id = 1; id <= 3; ++id ) {
+      tables.addShotRow( ShotMove.PHOTOS,  OLD_SID, id, 2*id );
+      tables.addShotRow( ShotMove.AUDIOS,  OLD_SID, id, 2*id + 1 );
+      tables.addShotRow( ShotMove.SENSORS, OLD_SID, id + 5, id );
+      tables.addShotRow( ShotMove.PHOTOS,  SID, id, id );
+      tables.addShotRow( ShotMove.AUDIOS,  SID, id, id + 2 );
+      tables.addShotRow( ShotMove.SENSORS, SID, id, id + 4 );
+    }
+    Row fixed = tables.addStationRow( "fixeds", OLD_SID, "a0" );
+
+    ShotMove move = checkMove( tables, 1, false );
+    assertEquals( 8, move.shotOffset );
+    assertEquals( 3, move.photoOffset );
+    assertEquals( 3, move.audioOffset );
+    assertEquals( 0, move.sensorOffset ); // the moved sensors have IDs after those of the target survey
+    assertEquals( OLD_SID, fixed.sid ); // not moved by a merge
+    assertEquals( 1, tables.maxId( ShotMove.SHOTS, OLD_SID ) ); // no shot left
+  }
+
+  @Test
+  public void testRandomMoves()
+  {
+    for ( long seed = 0; seed < 100; ++seed ) {
+      Random r = new Random( seed );
+      MemoryTables tables = new MemoryTables();
+      long[] nr = new long[ 3 ];
+      for ( long sid = OLD_SID; sid <= SID; ++sid ) {
+        nr[ (int)sid ] = r.nextInt( 20 );
+        long id = 1;
+        for ( long k = 1; k <= nr[ (int)sid ]; ++k ) {
+          id += r.nextInt( 3 ); // deleted shots leave gaps
+          tables.addShot( sid, id, "s" + r.nextInt( 10 ), ( r.nextBoolean() )? "s" + r.nextInt( 10 ) : "" );
+          for ( String table : new String[] { ShotMove.SENSORS, ShotMove.PHOTOS, ShotMove.AUDIOS } ) {
+            if ( r.nextInt( 3 ) == 0 ) tables.addShotRow( table, sid, 1 + r.nextInt( 30 ) + 30 * tables.rows( table ).size(), id );
+          }
+          ++ id;
+        }
+      }
+      for ( String table : ShotMove.STATION_TABLES ) tables.addStationRow( table, OLD_SID, "s" + r.nextInt( 10 ) );
+      checkMove( tables, 1 + r.nextInt( 30 ), r.nextBoolean() );
+    }
+  }
+}
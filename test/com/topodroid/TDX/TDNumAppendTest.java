@@ -0,0 +1,175 @@
+/* @file TDNumAppendTest.java
+ *
+ * @author marco corvi
+ * @date oct 2026
+ *
+ * @brief TopoDroid test of the least-squares loop closure of the appended legs
+ * --------------------------------------------------------
+ *  Copyright This software is distributed under GPL-3.0 or later
+ *  See the file COPYING.
+ * --------------------------------------------------------
+ * The shots of random surveys are appended one by one, as the sketch window does (a leg arrives as a splay,
+ * then the splay is replaced by the leg), and the stations and the splays are compared with the reduction
+ * of the whole survey.
+ */
+package com.topodroid.TDX;
+
+import com.topodroid.num.TDNum;
+import com.topodroid.num.NumStation;
+import com.topodroid.num.NumSplay;
+import com.topodroid.prefs.TDSetting;
+import com.topodroid.common.LegType;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+public class TDNumAppendTest
+{
+  private static final double EPS = 1.0e-3; // coordinates tolerance [m]
+
+  private int mLoopClosure;
+  private int mDatamode;
+
+  @Before
+  public void setUp()
+  {
+    mLoopClosure = TDSetting.mLoopClosure;
+    mDatamode    = TDInstance.datamode;
+    TDSetting.mLoopClosure = TDSetting.LOOP_LEAST_SQUARES;
+    TDInstance.datamode    = SurveyInfo.DATAMODE_NORMAL;
+  }
+
+  @After
+  public void tearDown()
+  {
+    TDSetting.mLoopClosure = mLoopClosure;
+    TDInstance.datamode    = mDatamode;
+  }
+
+  /** @return a shot
+   * @param id     shot ID
+   * @param from   FROM station
+   * @param to     TO station, empty for a splay
+   * @param r      random generator
+   */
+  private static DBlock makeShot( long id, String from, String to, Random r )
+  {
+    DBlock blk = new DBlock();
+    blk.setId( id, 1 );
+    blk.setBlockName( from, to );
+    blk.setBlockType( LegType.NORMAL );
+    blk.mLength  = 1 + r.nextFloat() * 10;
+    blk.mBearing = r.nextFloat() * 360;
+    blk.mClino   = -60 + r.nextFloat() * 120;
+    blk.mComment = "";
+    blk.setExtend( r.nextInt( 3 ) - 1, 0 );
+    blk.resetFlag( 0 );
+    return blk;
+  }
+
+  /** @return the shots of a random survey: legs to new stations, loop-closing legs and splays
+   * @param r      random generator
+   * @param nr     number of shots
+   * @note the legs have distinct pairs of stations: the appended legs are not checked for siblings
+   */
+  private static List< DBlock > makeSurvey( Random r, int nr )
+  {
+    ArrayList< DBlock > ret = new ArrayList<>();
+    HashSet< String > pairs = new HashSet<>();
+    int ns = 2;
+    ret.add( makeShot( 1, "0", "1", r ) );
+    pairs.add( "0-1" );
+    for ( long id = 2; id <= nr; ++id ) {
+      int kind = r.nextInt( 6 );
+      int from = r.nextInt( ns );
+      if ( kind < 4 ) { // one leg in two to an existing station
+        int to = ( kind < 2 )? ns : r.nextInt( ns );
+        if ( to == from || pairs.contains( from + "-" + to ) || pairs.contains( to + "-" + from ) ) to = ns;
+        if ( to == ns ) ++ ns;
+        pairs.add( from + "-" + to );
+        ret.add( makeShot( id, Integer.toString( from ), Integer.toString( to ), r ) );
+      } else {
+        ret.add( makeShot( id, Integer.toString( from ), "", r ) );
+      }
+    }
+    return ret;
+  }
+
+  /** append the shots to the reduction of the first shots, and compare with the reduction of all the shots
+   * @param seed   random seed
+   * @param nr0    number of the first shots
+   * @return the number of appended legs that have moved the stations
+   */
+  private static int checkAppend( long seed, int nr0 )
+  {
+    List< DBlock > data = makeSurvey( new Random( seed ), 80 );
+    TDNum num = new TDNum( new ArrayList<>( data.subList( 0, nr0 ) ), "0", null, null, 0, null );
+    int moved = 0;
+    for ( DBlock blk : data.subList( nr0, data.size() ) ) {
+      if ( blk.isSplay() ) {
+        assertTrue( num.appendData( blk, null, null ) );
+      } else { // the leg arrives as a splay
+        DBlock splay = new DBlock();
+        splay.setId( blk.mId, 1 );
+        splay.setBlockName( blk.mFrom, "" );
+        splay.setBlockType( LegType.NORMAL );
+        splay.mLength  = blk.mLength;
+        splay.mBearing = blk.mBearing;
+        splay.mClino   = blk.mClino;
+        splay.mComment = "";
+        assertTrue( num.appendData( splay, null, null ) );
+        assertTrue( num.appendData( splay, blk, null ) );
+        if ( num.hasMovedStations() ) ++ moved;
+      }
+    }
+    TDNum full = new TDNum( data, "0", null, null, 0, null );
+
+    String msg = "seed " + seed + " first " + nr0;
+    assertEquals( msg, full.stationsNr(), num.stationsNr() );
+    assertEquals( msg, full.shotsNr(),    num.shotsNr() );
+    assertEquals( msg, full.splaysNr(),   num.splaysNr() );
+    for ( NumStation st : full.getStations() ) {
+      NumStation st1 = num.getStation( st.name );
+      assertNotNull( msg + " station " + st.name, st1 );
+      assertEquals( msg + " station " + st.name, st.e, st1.e, EPS );
+      assertEquals( msg + " station " + st.name, st.s, st1.s, EPS );
+      assertEquals( msg + " station " + st.name, st.v, st1.v, EPS );
+    }
+    HashMap< Long, NumSplay > splays = new HashMap<>();
+    for ( NumSplay sp : num.getSplays() ) splays.put( sp.getBlock().mId, sp );
+    for ( NumSplay sp : full.getSplays() ) {
+      NumSplay sp1 = splays.get( sp.getBlock().mId );
+      assertNotNull( msg + " splay " + sp.getBlock().mId, sp1 );
+      assertEquals( msg + " splay " + sp.getBlock().mId, sp.e, sp1.e, EPS );
+      assertEquals( msg + " splay " + sp.getBlock().mId, sp.s, sp1.s, EPS );
+      assertEquals( msg + " splay " + sp.getBlock().mId, sp.v, sp1.v, EPS );
+    }
+    return moved;
+  }
+
+  @Test
+  public void testAppendAll() // the blocks are made at the first loop-closing leg
+  {
+    int moved = 0;
+    for ( long seed = 0; seed < 20; ++seed ) moved += checkAppend( seed, 1 );
+    assertTrue( moved > 0 );
+  }
+
+  @Test
+  public void testAppendToLoops() // the blocks are made on a network with loops
+  {
+    int moved = 0;
+    for ( long seed = 0; seed < 20; ++seed ) moved += checkAppend( seed, 30 );
+    assertTrue( moved > 0 );
+  }
+}
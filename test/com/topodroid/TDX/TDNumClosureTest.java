@@ -0,0 +1,222 @@
+/* @file TDNumClosureTest.java
+ *
+ * @author marco corvi
+ * @date oct 2026
+ *
+ * @brief TopoDroid test of the loop closure errors of the survey reduction
+ * --------------------------------------------------------
+ *  Copyright This software is distributed under GPL-3.0 or later
+ *  See the file COPYING.
+ * --------------------------------------------------------
+ * Each loop-closing leg is closed on the shortest path through the legs already in the network, the legs
+ * between its two stations excepted. The closures are compared with the paths found by relaxing all the
+ * legs until no distance changes, as the closure task did before the shared search, and with the closure
+ * errors of the station positions when the leg is met.
+ */
+package com.topodroid.TDX;
+
+import com.topodroid.num.TDNum;
+import com.topodroid.num.NumClosure;
+import com.topodroid.prefs.TDSetting;
+import com.topodroid.common.LegType;
+import com.topodroid.utils.TDMath;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class TDNumClosureTest
+{
+  private static final String LOOP_FMT = "%s %s %d %.6f %.6f"; // FROM, TO, number of legs, closure error, loop length
+  private static final double EPS = 1.0e-3; // lengths tolerance [m]
+
+  private int mLoopClosure;
+  private int mDatamode;
+  private boolean mMagAnomaly;
+
+  @Before
+  public void setUp()
+  {
+    mLoopClosure = TDSetting.mLoopClosure;
+    mDatamode    = TDInstance.datamode;
+    mMagAnomaly  = StationPolicy.mMagAnomaly;
+    TDSetting.mLoopClosure = TDSetting.LOOP_CYCLES;
+    TDInstance.datamode    = SurveyInfo.DATAMODE_NORMAL;
+    StationPolicy.mMagAnomaly = false;
+  }
+
+  @After
+  public void tearDown()
+  {
+    TDSetting.mLoopClosure = mLoopClosure;
+    TDInstance.datamode    = mDatamode;
+    StationPolicy.mMagAnomaly = mMagAnomaly;
+  }
+
+  /** survey leg
+   */
+  private static class Leg
+  {
+    final String from, to;
+    final float d, b, c;
+
+    Leg( String from, String to, Random r )
+    {
+      this.from = from;
+      this.to   = to;
+      d = 1 + r.nextFloat() * 10;
+      b = r.nextFloat() * 360;
+      c = -60 + r.nextFloat() * 120;
+    }
+
+    /** @return the displacement of the leg (east, south, vertical)
+     */
+    double[] vector()
+    {
+      double h = d * TDMath.cosDd( c );
+      return new double[] { h * TDMath.sinDd( b ), - h * TDMath.cosDd( b ), - d * TDMath.sinDd( c ) };
+    }
+  }
+
+  /** @return the legs of a random survey: each leg starts at a station already surveyed
+   * @param r      random generator
+   * @param nr     number of legs
+   * @note the legs have distinct pairs of stations, and are attached to the network in their order
+   */
+  private static List< Leg > makeSurvey( Random r, int nr )
+  {
+    ArrayList< Leg > ret = new ArrayList<>();
+    HashSet< String > pairs = new HashSet<>();
+    int ns = 1;
+    for ( int k = 0; k < nr; ++k ) {
+      int from = r.nextInt( ns );
+      int to = ( r.nextInt( 3 ) == 0 )? r.nextInt( ns ) : ns;
+      if ( to == from || pairs.contains( from + "-" + to ) || pairs.contains( to + "-" + from ) ) to = ns;
+      if ( to == ns ) ++ ns;
+      pairs.add( from + "-" + to );
+      ret.add( new Leg( Integer.toString( from ), Integer.toString( to ), r ) );
+    }
+    return ret;
+  }
+
+  /** @return the shot columns of the legs
+   * @param legs   survey legs
+   */
+  private static ShotColumns makeColumns( List< Leg > legs )
+  {
+    ShotColumns cols = new ShotColumns( 1, legs.size(), false );
+    for ( int k = 0; k < legs.size(); ++k ) {
+      Leg leg = legs.get( k );
+      cols.id[k]      = k + 1;
+      cols.length[k]  = leg.d;
+      cols.bearing[k] = leg.b;
+      cols.clino[k]   = leg.c;
+      cols.extend[k]  = 1;
+      cols.stretch[k] = 0;
+      cols.flag[k]    = 0;
+      cols.setStations( k, leg.from, leg.to, LegType.NORMAL );
+      cols.setExtra( k, "", 0, 0, 0, 0, 0, 0 );
+    }
+    return cols;
+  }
+
+  /** expected loop closure
+   */
+  private static class Closure
+  {
+    String from, to;
+    int nr;        // number of legs of the loop
+    double error;  // closure error
+    double length; // loop length
+    String path;   // station sequence of the path, from the TO station to the FROM station
+  }
+
+  /** @return the expected loop closures
+   * @param legs   survey legs
+   */
+  private static List< Closure > closures( List< Leg > legs )
+  {
+    ArrayList< Closure > ret = new ArrayList<>();
+    HashMap< String, double[] > pos = new HashMap<>(); // station positions, before the loops are compensated
+    pos.put( "0", new double[] { 0, 0, 0 } );
+    for ( int k = 0; k < legs.size(); ++k ) {
+      Leg leg = legs.get( k );
+      double[] p = pos.get( leg.from );
+      double[] v = leg.vector();
+      double[] q = new double[] { p[0] + v[0], p[1] + v[1], p[2] + v[2] };
+      if ( ! pos.containsKey( leg.to ) ) {
+        pos.put( leg.to, q );
+        continue;
+      }
+      double[] t = pos.get( leg.to );
+      HashMap< String, Double > dist = new HashMap<>();
+      HashMap< String, Integer > nr  = new HashMap<>();
+      HashMap< String, String > prev = new HashMap<>();
+      dist.put( leg.from, 0.0 );
+      nr.put( leg.from, 0 );
+      for ( boolean changed = true; changed; ) { // relax the previous legs until no distance changes
+        changed = false;
+        for ( Leg e : legs.subList( 0, k ) ) {
+          if ( ( e.from.equals( leg.from ) && e.to.equals( leg.to ) ) || ( e.from.equals( leg.to ) && e.to.equals( leg.from ) ) ) continue;
+          for ( int dir = 0; dir < 2; ++dir ) {
+            String s1 = ( dir == 0 )? e.from : e.to;
+            String s2 = ( dir == 0 )? e.to : e.from;
+            Double d1 = dist.get( s1 );
+            Double d2 = dist.get( s2 );
+            if ( d1 != null && ( d2 == null || d1 + e.d < d2 ) ) {
+              dist.put( s2, d1 + e.d );
+              nr.put( s2, nr.get( s1 ) + 1 );
+              prev.put( s2, s1 );
+              changed = true;
+            }
+          }
+        }
+      }
+      Closure c = new Closure();
+      c.from   = leg.from;
+      c.to     = leg.to;
+      c.nr     = 1 + nr.get( leg.to );
+      c.error  = Math.sqrt( ( q[0] - t[0] ) * ( q[0] - t[0] ) + ( q[1] - t[1] ) * ( q[1] - t[1] ) + ( q[2] - t[2] ) * ( q[2] - t[2] ) );
+      c.length = leg.d + dist.get( leg.to );
+      StringBuilder sb = new StringBuilder( leg.to );
+      for ( String s = prev.get( leg.to ); s != null; s = prev.get( s ) ) sb.append( "-" ).append( s );
+      c.path = sb.toString();
+      ret.add( c );
+    }
+    return ret;
+  }
+
+  @Test
+  public void testClosures()
+  {
+    int loops = 0;
+    for ( long seed = 0; seed < 20; ++seed ) {
+      List< Leg > legs = makeSurvey( new Random( seed ), 60 );
+      TDNum num = new TDNum( makeColumns( legs ), "0", null, null, 0, LOOP_FMT );
+      List< Closure > expected = closures( legs );
+      List< NumClosure > actual = num.getClosures();
+      assertEquals( "seed " + seed, expected.size(), actual.size() );
+      for ( int k = 0; k < expected.size(); ++k ) {
+        Closure c = expected.get( k );
+        String msg = "seed " + seed + " loop " + c.from + "-" + c.to;
+        String[] vals = actual.get( k ).getDescription().split( " " );
+        assertEquals( msg, c.from, vals[0] );
+        assertEquals( msg, c.to,   vals[1] );
+        assertEquals( msg, c.nr,   Integer.parseInt( vals[2] ) );
+        assertEquals( msg, c.error,  Double.parseDouble( vals[3] ), EPS );
+        assertEquals( msg, c.length, Double.parseDouble( vals[4] ), EPS );
+        assertEquals( msg, c.path, actual.get( k ).getLoop() );
+      }
+      loops += expected.size();
+    }
+    assertTrue( loops > 0 );
+  }
+}
@@ -0,0 +1,230 @@
+/* @file TDNumLeastSquaresTest.java
+ *
+ * @author marco corvi
+ * @date oct 2026
+ *
+ * @brief TopoDroid test of the least-squares loop closure
+ * --------------------------------------------------------
+ *  Copyright This software is distributed under GPL-3.0 or later
+ *  See the file COPYING.
+ * --------------------------------------------------------
+ * The reduction adjusts the branches of the network, and distributes the branch corrections over
+ * the legs. The stations are compared with the leg-by-leg weighted least-squares solution, computed
+ * here with the dense normal equations of all the stations, and with the cycle loop closure
+ * on the networks where the two closures agree.
+ */
+package com.topodroid.TDX;
+
+import com.topodroid.num.TDNum;
+import com.topodroid.num.NumStation;
+import com.topodroid.prefs.TDSetting;
+import com.topodroid.common.LegType;
+import com.topodroid.utils.TDMath;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+public class TDNumLeastSquaresTest
+{
+  private static final double EPS = 1.0e-3; // coordinates tolerance [m]
+
+  private int mLoopClosure;
+  private int mDatamode;
+
+  @Before
+  public void setUp()
+  {
+    mLoopClosure = TDSetting.mLoopClosure;
+    mDatamode    = TDInstance.datamode;
+    TDSetting.mLoopClosure = TDSetting.LOOP_LEAST_SQUARES;
+    TDInstance.datamode    = SurveyInfo.DATAMODE_NORMAL;
+  }
+
+  @After
+  public void tearDown()
+  {
+    TDSetting.mLoopClosure = mLoopClosure;
+    TDInstance.datamode    = mDatamode;
+  }
+
+  /** @return a leg
+   * @param id     shot ID
+   * @param from   FROM station
+   * @param to     TO station
+   * @param r      random generator
+   */
+  private static DBlock makeLeg( long id, String from, String to, Random r )
+  {
+    DBlock blk = new DBlock();
+    blk.setId( id, 1 );
+    blk.setBlockName( from, to );
+    blk.setBlockType( LegType.NORMAL );
+    blk.mLength  = 1 + r.nextFloat() * 10;
+    blk.mBearing = r.nextFloat() * 360;
+    blk.mClino   = -60 + r.nextFloat() * 120;
+    blk.mComment = "";
+    blk.setExtend( 1, 0 );
+    blk.resetFlag( 0 );
+    return blk;
+  }
+
+  /** @return the legs of a random survey: legs to new stations, and loop-closing legs
+   * @param r      random generator
+   * @param nr     number of legs
+   * @note the legs have distinct pairs of stations
+   */
+  private static List< DBlock > makeSurvey( Random r, int nr )
+  {
+    ArrayList< DBlock > ret = new ArrayList<>();
+    HashSet< String > pairs = new HashSet<>();
+    int ns = 1;
+    for ( long id = 1; id <= nr; ++id ) {
+      int from = r.nextInt( ns );
+      int to = ( r.nextInt( 3 ) == 0 )? r.nextInt( ns ) : ns;
+      if ( to == from || pairs.contains( from + "-" + to ) || pairs.contains( to + "-" + from ) ) to = ns;
+      if ( to == ns ) ++ ns;
+      pairs.add( from + "-" + to );
+      ret.add( makeLeg( id, Integer.toString( from ), Integer.toString( to ), r ) );
+    }
+    return ret;
+  }
+
+  /** @return the station positions of the leg-by-leg least-squares solution, with the start station fixed
+   * @param legs   survey legs
+   * @param start  start station
+   * @note each leg observes the displacement between its stations, with weight the inverse of its length
+   */
+  private static HashMap< String, double[] > solveLegs( List< DBlock > legs, String start )
+  {
+    HashMap< String, Integer > index = new HashMap<>();
+    ArrayList< String > names = new ArrayList<>();
+    for ( DBlock blk : legs ) {
+      for ( String name : new String[] { blk.mFrom, blk.mTo } ) {
+        if ( ! name.equals( start ) && ! index.containsKey( name ) ) {
+          index.put( name, names.size() );
+          names.add( name );
+        }
+      }
+    }
+    int n = names.size();
+    double[][] a = new double[ n ][ n + 3 ]; // normal matrix and right-hand sides
+    for ( DBlock blk : legs ) {
+      double h = blk.mLength * TDMath.cosDd( blk.mClino );
+      double[] d = { h * TDMath.sinDd( blk.mBearing ), - h * TDMath.cosDd( blk.mBearing ), - blk.mLength * TDMath.sinDd( blk.mClino ) };
+      double w = 1.0 / blk.mLength;
+      Integer i1 = index.get( blk.mFrom );
+      Integer i2 = index.get( blk.mTo );
+      if ( i1 != null ) {
+        a[i1][i1] += w;
+        for ( int k = 0; k < 3; ++k ) a[i1][n+k] -= w * d[k];
+      }
+      if ( i2 != null ) {
+        a[i2][i2] += w;
+        for ( int k = 0; k < 3; ++k ) a[i2][n+k] += w * d[k];
+      }
+      if ( i1 != null && i2 != null ) {
+        a[i1][i2] -= w;
+        a[i2][i1] -= w;
+      }
+    }
+    for ( int p = 0; p < n; ++p ) { // gaussian elimination (the normal matrix is positive definite)
+      for ( int i = p+1; i < n; ++i ) {
+        if ( a[i][p] == 0 ) continue;
+        double f = a[i][p] / a[p][p];
+        for ( int j = p; j < n+3; ++j ) a[i][j] -= f * a[p][j];
+      }
+    }
+    HashMap< String, double[] > ret = new HashMap<>();
+    double[][] x = new double[ n ][ 3 ];
+    for ( int p = n-1; p >= 0; --p ) {
+      for ( int k = 0; k < 3; ++k ) {
+        double y = a[p][n+k];
+        for ( int j = p+1; j < n; ++j ) y -= a[p][j] * x[j][k];
+        x[p][k] = y / a[p][p];
+      }
+      ret.put( names.get( p ), x[p] );
+    }
+    ret.put( start, new double[] { 0, 0, 0 } );
+    return ret;
+  }
+
+  @Test
+  public void testLegSolution()
+  {
+    int loops = 0;
+    for ( long seed = 0; seed < 20; ++seed ) {
+      List< DBlock > legs = makeSurvey( new Random( seed ), 60 );
+      TDNum num = new TDNum( new ArrayList<>( legs ), "0", null, null, 0, null );
+      loops += num.nrCompensatedLoops;
+      HashMap< String, double[] > expected = solveLegs( legs, "0" );
+      assertEquals( "seed " + seed, expected.size(), num.stationsNr() );
+      for ( String name : expected.keySet() ) {
+        String msg = "seed " + seed + " station " + name;
+        NumStation st = num.getStation( name );
+        assertNotNull( msg, st );
+        double[] x = expected.get( name );
+        assertEquals( msg, x[0], st.e, EPS );
+        assertEquals( msg, x[1], st.s, EPS );
+        assertEquals( msg, x[2], st.v, EPS );
+      }
+    }
+    assertTrue( loops > 0 );
+  }
+
+  /** @return the station positions of a reduction, by station name
+   * @param legs   survey legs
+   * @param mode   loop closure mode
+   */
+  private static HashMap< String, double[] > reduce( List< DBlock > legs, int mode )
+  {
+    TDSetting.mLoopClosure = mode;
+    TDNum num = new TDNum( new ArrayList<>( legs ), "0", null, null, 0, null );
+    HashMap< String, double[] > ret = new HashMap<>();
+    for ( NumStation st : num.getStations() ) ret.put( st.name, new double[] { st.e, st.s, st.v } );
+    return ret;
+  }
+
+  /** check that the least-squares closure and the cycle closure give the same stations
+   * @param msg    message
+   * @param legs   survey legs
+   */
+  private static void checkCycles( String msg, List< DBlock > legs )
+  {
+    HashMap< String, double[] > expected = reduce( legs, TDSetting.LOOP_CYCLES );
+    HashMap< String, double[] > actual   = reduce( legs, TDSetting.LOOP_LEAST_SQUARES );
+    assertEquals( msg, expected.size(), actual.size() );
+    for ( String name : expected.keySet() ) {
+      double[] x = expected.get( name );
+      double[] y = actual.get( name );
+      assertNotNull( msg + " station " + name, y );
+      for ( int k = 0; k < 3; ++k ) assertEquals( msg + " station " + name, x[k], y[k], EPS );
+    }
+  }
+
+  @Test
+  public void testCycleClosure() // the networks without loops, and a ring through the start station
+  {
+    for ( long seed = 0; seed < 20; ++seed ) {
+      Random r = new Random( seed );
+      ArrayList< DBlock > tree = new ArrayList<>();
+      for ( int k = 1; k <= 40; ++k ) tree.add( makeLeg( k, Integer.toString( r.nextInt( k ) ), Integer.toString( k ), r ) );
+      checkCycles( "tree seed " + seed, tree );
+
+      ArrayList< DBlock > ring = new ArrayList<>();
+      int nr = 3 + r.nextInt( 20 );
+      for ( int k = 1; k < nr; ++k ) ring.add( makeLeg( k, Integer.toString( k-1 ), Integer.toString( k ), r ) );
+      ring.add( makeLeg( nr, Integer.toString( nr-1 ), "0", r ) );
+      checkCycles( "ring seed " + seed, ring );
+    }
+  }
+}
@@ -0,0 +1,151 @@
+/* @file TDNumReadOnlyTest.java
+ *
+ * @author marco corvi
+ * @date oct 2026
+ *
+ * @brief TopoDroid test of the read-only survey reduction, as shared by the reduction cache
+ * --------------------------------------------------------
+ *  Copyright This software is distributed under GPL-3.0 or later
+ *  See the file COPYING.
+ * --------------------------------------------------------
+ * The reduction is made as the cache makes it (from the shot columns, then read-only), and every
+ * mutator must fail without changing the reduction.
+ */
+package com.topodroid.TDX;
+
+import com.topodroid.num.TDNum;
+import com.topodroid.num.NumStation;
+import com.topodroid.prefs.TDSetting;
+import com.topodroid.common.LegType;
+
+import java.util.HashMap;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class TDNumReadOnlyTest
+{
+  private static final String LOOP_FMT = "%s-%s %d %.2f %.2f %.2f %.2f %.2f %.2f";
+
+  private int mLoopClosure;
+  private int mDatamode;
+
+  @Before
+  public void setUp()
+  {
+    mLoopClosure = TDSetting.mLoopClosure;
+    mDatamode    = TDInstance.datamode;
+    TDSetting.mLoopClosure = TDSetting.LOOP_LEAST_SQUARES;
+    TDInstance.datamode    = SurveyInfo.DATAMODE_NORMAL;
+  }
+
+  @After
+  public void tearDown()
+  {
+    TDSetting.mLoopClosure = mLoopClosure;
+    TDInstance.datamode    = mDatamode;
+  }
+
+  /** @return the shot columns of a square loop 0-1-2-3-0 with a splay at each station
+   */
+  private static ShotColumns makeColumns()
+  {
+    String[] from = { "0", "0", "1", "1", "2", "2", "3", "3" };
+    String[] to   = { "1", "",  "2", "",  "3", "",  "0", "" };
+    float[]  ber  = { 0, 45, 90, 135, 180, 225, 271, 315 };
+    ShotColumns cols = new ShotColumns( 1, from.length, false );
+    for ( int k = 0; k < from.length; ++k ) {
+      cols.id[k]      = k + 1;
+      cols.length[k]  = ( to[k].length() > 0 )? 10.0f : 2.0f;
+      cols.bearing[k] = ber[k];
+      cols.clino[k]   = ( k == 2 )? 3.0f : 0.0f;
+      cols.extend[k]  = 1;
+      cols.stretch[k] = 0;
+      cols.flag[k]    = 0;
+      cols.setStations( k, from[k], to[k], LegType.NORMAL );
+      cols.setExtra( k, "", 0, 0, 0, 0, 0, 0 );
+    }
+    return cols;
+  }
+
+  /** @return the station coords of a reduction, by station name
+   * @param num   reduction
+   */
+  private static HashMap< String, double[] > coords( TDNum num )
+  {
+    HashMap< String, double[] > ret = new HashMap<>();
+    for ( NumStation st : num.getStations() ) ret.put( st.name, new double[] { st.e, st.s, st.v, st.mHidden } );
+    return ret;
+  }
+
+  /** check that a mutator fails
+   * @param name      mutator name
+   * @param mutator   mutator call
+   */
+  private static void checkFails( String name, Runnable mutator )
+  {
+    try {
+      mutator.run();
+      fail( name + " on a read-only reduction" );
+    } catch ( IllegalStateException e ) {
+      // expected
+    }
+  }
+
+  @Test
+  public void testMutatorsFail()
+  {
+    final TDNum num = new TDNum( makeColumns(), "0", null, null, 0, LOOP_FMT );
+    assertFalse( num.isReadOnly() );
+    num.setReadOnly();
+    assertTrue( num.isReadOnly() );
+    HashMap< String, double[] > before = coords( num );
+    int splays = num.splaysNr();
+    int loops  = num.loopNr();
+
+    final DBlock blk = new DBlock();
+    blk.setId( 9, 1 );
+    blk.setBlockName( "3", "" );
+    blk.setBlockType( LegType.NORMAL );
+    blk.mLength  = 2;
+    blk.mComment = "";
+    checkFails( "appendData", new Runnable() { public void run() { num.appendData( blk, null, LOOP_FMT ); } } );
+    checkFails( "dropLastSplay", new Runnable() { public void run() { num.dropLastSplay(); } } );
+    checkFails( "setStationHidden", new Runnable() { public void run() { num.setStationHidden( "2", 1 ); } } );
+    checkFails( "setStationBarrier", new Runnable() { public void run() { num.setStationBarrier( "2", 1 ); } } );
+
+    assertEquals( "splays", splays, num.splaysNr() );
+    assertEquals( "loops", loops, num.loopNr() );
+    HashMap< String, double[] > after = coords( num );
+    assertEquals( "stations", before.size(), after.size() );
+    for ( String name : before.keySet() ) {
+      double[] c0 = before.get( name );
+      double[] c1 = after.get( name );
+      for ( int k = 0; k < c0.length; ++k ) assertEquals( "station " + name, c0[k], c1[k], 0.0 );
+    }
+  }
+
+  @Test
+  public void testClosuresBeforeReadOnly() // the loop closures of a shared reduction are added by its constructor
+  {
+    TDNum num = new TDNum( makeColumns(), "0", null, null, 0, LOOP_FMT );
+    num.setReadOnly();
+    assertEquals( "loops", 1, num.loopNr() );
+  }
+
+  @Test
+  public void testPrivateReduction() // a private reduction can be modified
+  {
+    TDNum num = new TDNum( makeColumns(), "0", null, null, 0, LOOP_FMT );
+    num.setStationHidden( "2", 1 );
+    assertTrue( num.getStation( "2" ).hidden() );
+    num.dropLastSplay();
+    assertEquals( "splays", 3, num.splaysNr() );
+  }
+
+}
@@ -0,0 +1,208 @@
+/* @file TDNumSiblingTest.java
+ *
+ * @author marco corvi
+ * @date oct 2026
+ *
+ * @brief TopoDroid test of the sibling and backsight legs of the survey reduction
+ * --------------------------------------------------------
+ *  Copyright This software is distributed under GPL-3.0 or later
+ *  See the file COPYING.
+ * --------------------------------------------------------
+ * The legs between the same two stations are chained to the first of them, forward or reversed (backsight).
+ * The first leg of a chain is multi-bad if the legs of the chain disagree, and the siblings are not in the network.
+ * The random surveys repeat their legs, forward and reversed, some of them with a blunder, and in shuffled order.
+ */
+package com.topodroid.TDX;
+
+import com.topodroid.num.TDNum;
+import com.topodroid.num.NumStation;
+import com.topodroid.prefs.TDSetting;
+import com.topodroid.common.LegType;
+import com.topodroid.utils.TDMath;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+public class TDNumSiblingTest
+{
+  private static final double EPS = 0.02; // coordinates tolerance [m]: the siblings differ by at most 1 cm
+
+  private int mLoopClosure;
+  private int mDatamode;
+  private boolean mMagAnomaly;
+
+  @Before
+  public void setUp()
+  {
+    mLoopClosure = TDSetting.mLoopClosure;
+    mDatamode    = TDInstance.datamode;
+    mMagAnomaly  = StationPolicy.mMagAnomaly;
+    TDSetting.mLoopClosure = TDSetting.LOOP_NONE;
+    TDInstance.datamode    = SurveyInfo.DATAMODE_NORMAL;
+    StationPolicy.mMagAnomaly = false;
+  }
+
+  @After
+  public void tearDown()
+  {
+    TDSetting.mLoopClosure = mLoopClosure;
+    TDInstance.datamode    = mDatamode;
+    StationPolicy.mMagAnomaly = mMagAnomaly;
+  }
+
+  /** true leg of the survey
+   */
+  private static class Leg
+  {
+    final String from, to;
+    final float d, b, c;
+
+    Leg( String from, String to, Random r )
+    {
+      this.from = from;
+      this.to   = to;
+      d = 5 + r.nextFloat() * 5;
+      b = r.nextFloat() * 360;
+      c = -60 + r.nextFloat() * 120;
+    }
+  }
+
+  /** @return a shot of a leg
+   * @param id       shot ID
+   * @param leg      leg
+   * @param reversed whether the shot is a backsight
+   * @param blunder  whether the shot length has a blunder
+   * @param r        random generator, for the measure noise
+   */
+  private static DBlock makeShot( long id, Leg leg, boolean reversed, boolean blunder, Random r )
+  {
+    DBlock blk = new DBlock();
+    blk.setId( id, 1 );
+    blk.setBlockType( LegType.NORMAL );
+    blk.mLength = leg.d + ( blunder? 3 : 0 ) + 0.002f * r.nextFloat();
+    if ( reversed ) {
+      blk.setBlockName( leg.to, leg.from );
+      blk.mBearing = ( leg.b + 180 ) % 360;
+      blk.mClino   = - leg.c;
+    } else {
+      blk.setBlockName( leg.from, leg.to );
+      blk.mBearing = leg.b;
+      blk.mClino   = leg.c;
+    }
+    blk.mBearing += 0.02f * r.nextFloat();
+    blk.mClino   += 0.02f * r.nextFloat();
+    blk.mComment = "";
+    blk.setExtend( 1, 0 );
+    blk.resetFlag( 0 );
+    return blk;
+  }
+
+  /** @return the expected station positions
+   * @param legs   survey legs (a tree from station "0")
+   */
+  private static HashMap< String, double[] > positions( List< Leg > legs )
+  {
+    HashMap< String, double[] > ret = new HashMap<>();
+    ret.put( "0", new double[] { 0, 0, 0 } );
+    for ( Leg leg : legs ) {
+      double[] p = ret.get( leg.from );
+      double h = leg.d * TDMath.cosDd( leg.c );
+      ret.put( leg.to, new double[] { p[0] + h * TDMath.sinDd( leg.b ), p[1] - h * TDMath.cosDd( leg.b ), p[2] - leg.d * TDMath.sinDd( leg.c ) } );
+    }
+    return ret;
+  }
+
+  /** reduce a random survey with repeated legs, and check the siblings
+   * @param seed   random seed
+   */
+  private static void checkSiblings( long seed )
+  {
+    Random r = new Random( seed );
+    ArrayList< Leg > legs = new ArrayList<>();
+    for ( int k = 1; k <= 40; ++k ) legs.add( new Leg( Integer.toString( r.nextInt( k ) ), Integer.toString( k ), r ) );
+
+    ArrayList< ArrayList< DBlock > > chains = new ArrayList<>(); // shots of each leg
+    HashSet< DBlock > blunders = new HashSet<>();
+    ArrayList< DBlock > data = new ArrayList<>();
+    long id = 1;
+    for ( Leg leg : legs ) {
+      ArrayList< DBlock > chain = new ArrayList<>();
+      int nr = 1 + ( ( r.nextInt( 3 ) == 0 )? r.nextInt( 4 ) : 0 );
+      for ( int k = 0; k < nr; ++k ) {
+        boolean blunder = nr > 1 && r.nextInt( 6 ) == 0;
+        DBlock blk = makeShot( id++, leg, r.nextBoolean(), blunder, r );
+        if ( blunder ) blunders.add( blk );
+        chain.add( blk );
+      }
+      chains.add( chain );
+      data.addAll( chain );
+    }
+    Collections.shuffle( data, r );
+    TDNum num = new TDNum( new ArrayList<>( data ), "0", null, null, 0, null );
+    String msg = "seed " + seed;
+    assertEquals( msg, legs.size() + 1, num.stationsNr() );
+    assertEquals( msg, legs.size(),     num.shotsNr() );
+    for ( ArrayList< DBlock > chain : chains ) {
+      DBlock first = null; // first shot of the chain in the data
+      for ( DBlock blk : data ) {
+        if ( chain.contains( blk ) && first == null ) first = blk;
+      }
+      int nr_blunders = 0;
+      for ( DBlock blk : chain ) if ( blunders.contains( blk ) ) ++ nr_blunders;
+      boolean bad = nr_blunders > 0 && nr_blunders < chain.size(); // the chain disagrees
+      for ( DBlock blk : chain ) {
+        assertEquals( msg + " shot " + blk.mId + " multi-bad", blk == first && bad, blk.isMultiBad() );
+      }
+    }
+    HashMap< String, double[] > expected = positions( legs );
+    for ( int k = 0; k < legs.size(); ++k ) {
+      Leg leg = legs.get( k );
+      boolean blunder = false;
+      for ( DBlock blk : chains.get( k ) ) blunder |= blunders.contains( blk );
+      if ( blunder ) return; // the next stations are displaced
+      NumStation st = num.getStation( leg.to );
+      assertNotNull( msg + " station " + leg.to, st );
+      double[] p = expected.get( leg.to );
+      assertEquals( msg + " station " + leg.to, p[0], st.e, EPS );
+      assertEquals( msg + " station " + leg.to, p[1], st.s, EPS );
+      assertEquals( msg + " station " + leg.to, p[2], st.v, EPS );
+    }
+  }
+
+  @Test
+  public void testSiblings()
+  {
+    for ( long seed = 0; seed < 50; ++seed ) checkSiblings( seed );
+  }
+
+  @Test
+  public void testBacksight() // a leg and its backsight make one leg, a blunder makes the first one multi-bad
+  {
+    Random r = new Random( 1 );
+    Leg leg = new Leg( "0", "1", r );
+    ArrayList< DBlock > data = new ArrayList<>();
+    data.add( makeShot( 1, leg, true, false, r ) );
+    data.add( makeShot( 2, leg, false, false, r ) );
+    data.add( makeShot( 3, leg, true, false, r ) );
+    TDNum num = new TDNum( new ArrayList<>( data ), "0", null, null, 0, null );
+    assertEquals( 1, num.shotsNr() );
+    for ( DBlock blk : data ) assertTrue( ! blk.isMultiBad() );
+
+    data.add( makeShot( 4, leg, false, true, r ) );
+    num = new TDNum( new ArrayList<>( data ), "0", null, null, 0, null );
+    assertEquals( 1, num.shotsNr() );
+    assertTrue( data.get( 0 ).isMultiBad() );
+    for ( DBlock blk : data.subList( 1, data.size() ) ) assertTrue( ! blk.isMultiBad() );
+  }
+}
@@ -0,0 +1,235 @@
+/* @file TDNumStationGridTest.java
+ *
+ * @author marco corvi
+ * @date oct 2026
+ *
+ * @brief TopoDroid test of the closest-station queries of the survey reduction
+ * --------------------------------------------------------
+ *  Copyright This software is distributed under GPL-3.0 or later
+ *  See the file COPYING.
+ * --------------------------------------------------------
+ * The queries use the spatial index of the stations. They are compared with the scan of all the stations,
+ * as the closest-station query did before the index: the closest station is the first one in the list
+ * among those at the same distance, and it is within 100 m.
+ */
+package com.topodroid.TDX;
+
+import com.topodroid.num.TDNum;
+import com.topodroid.num.NumStation;
+import com.topodroid.prefs.TDSetting;
+import com.topodroid.common.LegType;
+import com.topodroid.common.PlotType;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class TDNumStationGridTest
+{
+  private static final double MAX_DIST2 = 16000000; // closest-station squared distance cutoff
+
+  private int mLoopClosure;
+  private int mDatamode;
+
+  @Before
+  public void setUp()
+  {
+    mLoopClosure = TDSetting.mLoopClosure;
+    mDatamode    = TDInstance.datamode;
+    TDSetting.mLoopClosure = TDSetting.LOOP_NONE;
+    TDInstance.datamode    = SurveyInfo.DATAMODE_NORMAL;
+  }
+
+  @After
+  public void tearDown()
+  {
+    TDSetting.mLoopClosure = mLoopClosure;
+    TDInstance.datamode    = mDatamode;
+  }
+
+  /** @return a leg
+   * @param id     shot ID
+   * @param from   FROM station
+   * @param to     TO station
+   * @param d      length
+   * @param b      azimuth
+   * @param c      clino
+   */
+  private static DBlock makeLeg( long id, String from, String to, float d, float b, float c )
+  {
+    DBlock blk = new DBlock();
+    blk.setId( id, 1 );
+    blk.setBlockName( from, to );
+    blk.setBlockType( LegType.NORMAL );
+    blk.mLength  = d;
+    blk.mBearing = b;
+    blk.mClino   = c;
+    blk.mComment = "";
+    blk.setExtend( 1, 0 );
+    blk.resetFlag( 0 );
+    return blk;
+  }
+
+  /** @return the X coord of a station in a projection
+   * @param st    station
+   * @param type  projection
+   */
+  private static double x( NumStation st, long type ) { return ( type == PlotType.PLOT_PLAN )? st.e : st.h; }
+
+  /** @return the Y coord of a station in a projection
+   * @param st    station
+   * @param type  projection
+   */
+  private static double y( NumStation st, long type ) { return ( type == PlotType.PLOT_PLAN )? st.s : st.v; }
+
+  /** @return the squared distance of a station from a point in a projection
+   */
+  private static double dist2( NumStation st, long type, double x0, double y0 )
+  {
+    double dx = x( st, type ) - x0;
+    double dy = y( st, type ) - y0;
+    return dx*dx + dy*dy;
+  }
+
+  /** @return the stations closest to a point, by increasing distance, scanning all the stations
+   * @param stations  stations
+   * @param type      projection
+   * @param x0        X coord of the point
+   * @param y0        Y coord of the point
+   * @param k         maximum number of stations
+   */
+  private static List< NumStation > scanClosest( List< NumStation > stations, long type, double x0, double y0, int k )
+  {
+    ArrayList< NumStation > ret = new ArrayList<>();
+    ArrayList< NumStation > left = new ArrayList<>( stations );
+    while ( ret.size() < k ) {
+      NumStation best = null;
+      double best_d2 = MAX_DIST2;
+      for ( NumStation st : left ) {
+        double d2 = dist2( st, type, x0, y0 );
+        if ( d2 < best_d2 ) {
+          best_d2 = d2;
+          best = st;
+        }
+      }
+      if ( best == null ) break;
+      ret.add( best );
+      left.remove( best );
+    }
+    return ret;
+  }
+
+  /** @return the stations within a distance from a point, scanning all the stations
+   */
+  private static List< NumStation > scanWithin( List< NumStation > stations, long type, double x0, double y0, double r )
+  {
+    ArrayList< NumStation > ret = new ArrayList<>();
+    for ( NumStation st : stations ) if ( dist2( st, type, x0, y0 ) <= r*r ) ret.add( st );
+    return ret;
+  }
+
+  /** check the queries at a point
+   * @param msg   message
+   * @param num   reduction
+   * @param type  projection
+   * @param x0    X coord of the point
+   * @param y0    Y coord of the point
+   */
+  private static void checkQueries( String msg, TDNum num, long type, double x0, double y0 )
+  {
+    List< NumStation > stations = num.getStations();
+    List< NumStation > closest = scanClosest( stations, type, x0, y0, 5 );
+    assertSame( msg, closest.isEmpty() ? null : closest.get( 0 ), num.getClosestStation( type, x0, y0 ) );
+    assertEquals( msg, closest, num.getClosestStations( type, x0, y0, 5 ) );
+    assertEquals( msg, scanWithin( stations, type, x0, y0, 15 ), num.getStationsWithin( type, x0, y0, 15 ) );
+  }
+
+  @Test
+  public void testRandomSurveys() // random points, station points, and points far from the stations
+  {
+    long[] types = { PlotType.PLOT_PLAN, PlotType.PLOT_EXTENDED };
+    for ( long seed = 0; seed < 20; ++seed ) {
+      Random r = new Random( seed );
+      ArrayList< DBlock > legs = new ArrayList<>();
+      int nr = 1 + r.nextInt( 200 );
+      for ( int k = 1; k <= nr; ++k ) {
+        legs.add( makeLeg( k, Integer.toString( r.nextInt( k ) ), Integer.toString( k ), 1 + r.nextFloat() * 10, r.nextFloat() * 360, -60 + r.nextFloat() * 120 ) );
+      }
+      TDNum num = new TDNum( legs, "0", null, null, 0, null );
+      for ( long type : types ) {
+        String msg = "seed " + seed + " type " + type;
+        for ( int q = 0; q < 50; ++q ) {
+          NumStation st = num.getStations().get( r.nextInt( num.stationsNr() ) );
+          checkQueries( msg, num, type, x( st, type ), y( st, type ) );
+          checkQueries( msg, num, type, x( st, type ) + r.nextGaussian() * 5, y( st, type ) + r.nextGaussian() * 5 );
+          checkQueries( msg, num, type, r.nextGaussian() * 200, r.nextGaussian() * 200 );
+        }
+      }
+    }
+  }
+
+  @Test
+  public void testEqualDistances() // stations at the same position: the first one in the list is the closest
+  {
+    Random r = new Random( 1 );
+    ArrayList< DBlock > legs = new ArrayList<>();
+    for ( int k = 1; k <= 60; k += 2 ) { // pairs of equal legs from the same station: the two stations coincide
+      String from = Integer.toString( ( k == 1 )? 0 : r.nextInt( k ) );
+      float d = 1 + r.nextFloat() * 10;
+      float b = r.nextFloat() * 360;
+      float c = -60 + r.nextFloat() * 120;
+      legs.add( makeLeg( k,   from, Integer.toString( k ),   d, b, c ) );
+      legs.add( makeLeg( k+1, from, Integer.toString( k+1 ), d, b, c ) );
+    }
+    TDNum num = new TDNum( legs, "0", null, null, 0, null );
+    int ties = 0;
+    for ( int q = 0; q < 200; ++q ) {
+      double x0 = r.nextGaussian() * 20;
+      double y0 = r.nextGaussian() * 20;
+      List< NumStation > closest = scanClosest( num.getStations(), PlotType.PLOT_PLAN, x0, y0, 2 );
+      if ( closest.size() == 2 && dist2( closest.get( 0 ), PlotType.PLOT_PLAN, x0, y0 ) == dist2( closest.get( 1 ), PlotType.PLOT_PLAN, x0, y0 ) ) ++ ties;
+      checkQueries( "point " + x0 + " " + y0, num, PlotType.PLOT_PLAN, x0, y0 );
+    }
+    assertTrue( ties > 0 );
+  }
+
+  @Test
+  public void testAppend() // the index follows the stations added to the reduction
+  {
+    ArrayList< DBlock > legs = new ArrayList<>();
+    legs.add( makeLeg( 1, "0", "1", 10, 0, 0 ) );
+    TDNum num = new TDNum( legs, "0", null, null, 0, null );
+    assertEquals( "1", num.getClosestStation( PlotType.PLOT_PLAN, 0, -20 ).name );
+    DBlock splay = makeLeg( 2, "1", "", 10, 0, 0 ); // a leg is appended as a splay turned into a leg
+    assertTrue( num.appendData( splay, null, null ) );
+    assertTrue( num.appendData( splay, makeLeg( 2, "1", "2", 10, 0, 0 ), null ) );
+    assertEquals( "2", num.getClosestStation( PlotType.PLOT_PLAN, 0, -20 ).name );
+    checkQueries( "append", num, PlotType.PLOT_PLAN, 0, -14 );
+  }
+
+  @Test
+  public void testMovedStations() // the index follows the stations moved by an appended loop and by the recenter
+  {
+    Random r = new Random( 2 );
+    ArrayList< DBlock > legs = new ArrayList<>();
+    for ( int k = 1; k <= 20; ++k ) {
+      legs.add( makeLeg( k, Integer.toString( k-1 ), Integer.toString( k ), 5 + r.nextFloat() * 5, 18 * k + r.nextFloat() * 5, -10 + r.nextFloat() * 20 ) );
+    }
+    TDSetting.mLoopClosure = TDSetting.LOOP_LEAST_SQUARES;
+    TDNum num = new TDNum( legs, "0", null, null, 0, null );
+    checkQueries( "ring", num, PlotType.PLOT_PLAN, 0, 0 );
+    DBlock splay = makeLeg( 21, "20", "", 5, 0, 0 );
+    assertTrue( num.appendData( splay, null, null ) );
+    assertTrue( num.appendData( splay, makeLeg( 21, "20", "0", 5, 0, 0 ), null ) ); // closes the ring: the stations move
+    for ( int q = 0; q < 50; ++q ) checkQueries( "loop", num, PlotType.PLOT_PLAN, r.nextGaussian() * 20, r.nextGaussian() * 20 );
+    num.recenter();
+    for ( int q = 0; q < 50; ++q ) checkQueries( "recenter", num, PlotType.PLOT_PLAN, r.nextGaussian() * 20, r.nextGaussian() * 20 );
+  }
+}
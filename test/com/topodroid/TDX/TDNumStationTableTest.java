@@ -0,0 +1,205 @@
+/* @file TDNumStationTableTest.java
+ *
+ * @author marco corvi
+ * @date oct 2026
+ *
+ * @brief TopoDroid test of the station table of the survey reduction
+ * --------------------------------------------------------
+ *  Copyright This software is distributed under GPL-3.0 or later
+ *  See the file COPYING.
+ * --------------------------------------------------------
+ * The stations and the legs are looked up by name with strings that are not those of the data, and the
+ * results are compared with the scan of the lists of the reduction. The loop-closing legs are kept open,
+ * so that their TO stations are not in the table but have the name of a station in it.
+ * The hidden and barrier stations are compared with the walk of the survey tree.
+ */
+package com.topodroid.TDX;
+
+import com.topodroid.num.TDNum;
+import com.topodroid.num.NumStation;
+import com.topodroid.num.NumShot;
+import com.topodroid.prefs.TDSetting;
+import com.topodroid.common.LegType;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class TDNumStationTableTest
+{
+  private static final String[] PREFIX = { "", "1.", "a", "A-", "station_" }; // station name prefixes
+
+  private int mLoopClosure;
+  private int mDatamode;
+
+  @Before
+  public void setUp()
+  {
+    mLoopClosure = TDSetting.mLoopClosure;
+    mDatamode    = TDInstance.datamode;
+    TDSetting.mLoopClosure = TDSetting.LOOP_NONE;
+    TDInstance.datamode    = SurveyInfo.DATAMODE_NORMAL;
+  }
+
+  @After
+  public void tearDown()
+  {
+    TDSetting.mLoopClosure = mLoopClosure;
+    TDInstance.datamode    = mDatamode;
+  }
+
+  /** @return a shot
+   * @param id     shot ID
+   * @param from   FROM station
+   * @param to     TO station, empty for a splay
+   * @param r      random generator
+   */
+  private static DBlock makeShot( long id, String from, String to, Random r )
+  {
+    DBlock blk = new DBlock();
+    blk.setId( id, 1 );
+    blk.setBlockName( from, to );
+    blk.setBlockType( LegType.NORMAL );
+    blk.mLength  = 1 + r.nextFloat() * 10;
+    blk.mBearing = r.nextFloat() * 360;
+    blk.mClino   = -60 + r.nextFloat() * 120;
+    blk.mComment = "";
+    blk.setExtend( 1, 0 );
+    blk.resetFlag( 0 );
+    return blk;
+  }
+
+  /** random survey: a tree of legs, with splays and open loops
+   */
+  private static class Survey
+  {
+    final ArrayList< DBlock > data = new ArrayList<>();
+    final ArrayList< String > names = new ArrayList<>();        // station names, in survey order
+    final HashMap< String, String > parent = new HashMap<>();   // parent station in the survey tree
+
+    Survey( Random r, int nr )
+    {
+      names.add( "0" );
+      long id = 1;
+      for ( int k = 1; k <= nr; ++k ) {
+        String from = names.get( r.nextInt( names.size() ) );
+        String to = PREFIX[ r.nextInt( PREFIX.length ) ] + k;
+        data.add( makeShot( id++, from, to, r ) );
+        names.add( to );
+        parent.put( to, from );
+        if ( r.nextInt( 3 ) == 0 ) data.add( makeShot( id++, to, "", r ) );
+        if ( r.nextInt( 8 ) == 0 ) data.add( makeShot( id++, to, names.get( r.nextInt( names.size() - 1 ) ), r ) ); // open loop
+      }
+    }
+
+    /** @return the first leg between two stations, and whether it goes from the first to the second
+     * @param s1  first station
+     * @param s2  second station
+     */
+    int direction( String s1, String s2 )
+    {
+      for ( DBlock blk : data ) {
+        if ( blk.mFrom.equals( s1 ) && blk.mTo.equals( s2 ) ) return 1;
+        if ( blk.mFrom.equals( s2 ) && blk.mTo.equals( s1 ) ) return -1;
+      }
+      return 0;
+    }
+  }
+
+  @Test
+  public void testLookups()
+  {
+    for ( long seed = 0; seed < 10; ++seed ) {
+      Random r = new Random( seed );
+      Survey survey = new Survey( r, 300 );
+      TDNum num = new TDNum( new ArrayList<>( survey.data ), "0", null, null, 0, null );
+      String msg = "seed " + seed;
+      assertEquals( msg, survey.names.size(), num.stationsNr() );
+      for ( NumStation st : num.getStations() ) {
+        assertSame( msg + " station " + st.name, st, num.getStation( new String( st.name.toCharArray() ) ) );
+      }
+      for ( String name : new String[] { "", "x", "00", "1.", "a0", "station_" + 1000 } ) {
+        assertNull( msg + " station " + name, num.getStation( name ) );
+      }
+      assertNull( msg, num.getStation( null ) );
+
+      List< NumShot > shots = num.getShots();
+      for ( int q = 0; q < 500; ++q ) {
+        String s1 = new String( survey.names.get( r.nextInt( survey.names.size() ) ).toCharArray() );
+        String s2 = new String( survey.names.get( r.nextInt( survey.names.size() ) ).toCharArray() );
+        if ( q % 2 == 0 ) { // the two stations of a leg
+          DBlock blk = survey.data.get( r.nextInt( survey.data.size() ) );
+          if ( blk.mTo.length() == 0 ) continue;
+          s1 = new String( blk.mFrom.toCharArray() );
+          s2 = new String( blk.mTo.toCharArray() );
+          if ( r.nextBoolean() ) { String s = s1; s1 = s2; s2 = s; }
+        }
+        NumShot expected = null;
+        for ( NumShot sh : shots ) {
+          if ( ( sh.from.name.equals( s1 ) && sh.to.name.equals( s2 ) ) || ( sh.from.name.equals( s2 ) && sh.to.name.equals( s1 ) ) ) {
+            expected = sh;
+            break;
+          }
+        }
+        String m = msg + " shot " + s1 + "-" + s2;
+        assertSame( m, expected, num.getShot( s1, s2 ) );
+        int dir = survey.direction( s1, s2 );
+        assertEquals( m, dir != 0, expected != null );
+        if ( dir == 0 ) {
+          assertEquals( m, 0, num.canBarrierHidden( s1, s2 ) );
+        } else {
+          assertTrue( m, num.canBarrierHidden( s1, s2 ) != 0 );
+        }
+      }
+    }
+  }
+
+  @Test
+  public void testHiddenBarrier()
+  {
+    for ( long seed = 0; seed < 10; ++seed ) {
+      Random r = new Random( seed );
+      Survey survey = new Survey( r, 100 );
+      TDNum num = new TDNum( new ArrayList<>( survey.data ), "0", null, null, 0, null );
+      HashMap< String, Integer > hidden = new HashMap<>(); // expected hidden counters
+      for ( String name : survey.names ) hidden.put( name, 0 );
+      for ( int q = 0; q < 20; ++q ) {
+        String name = survey.names.get( r.nextInt( survey.names.size() ) );
+        int value = r.nextBoolean() ? 1 : -1;
+        if ( r.nextBoolean() ) { // hide: the station, and its ancestors twice
+          num.setStationHidden( new String( name.toCharArray() ), value );
+          hidden.put( name, hidden.get( name ) + value );
+          for ( String s = survey.parent.get( name ); s != null; s = survey.parent.get( s ) ) {
+            hidden.put( s, Math.max( 0, hidden.get( s ) + 2 * value ) );
+          }
+        } else { // barrier: the station, and its descendants twice
+          num.setStationBarrier( new String( name.toCharArray() ), value );
+          hidden.put( name, hidden.get( name ) - value );
+          for ( String s : survey.names ) {
+            for ( String p = survey.parent.get( s ); p != null; p = survey.parent.get( p ) ) {
+              if ( p.equals( name ) ) {
+                hidden.put( s, hidden.get( s ) - 2 * value );
+                break;
+              }
+            }
+          }
+        }
+        for ( String s : survey.names ) {
+          NumStation st = num.getStation( s );
+          assertNotNull( s, st );
+          assertEquals( "seed " + seed + " step " + q + " station " + s, (int)hidden.get( s ), st.mHidden );
+        }
+      }
+    }
+  }
+}
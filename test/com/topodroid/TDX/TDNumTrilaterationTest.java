@@ -0,0 +1,270 @@
+/* @file TDNumTrilaterationTest.java
+ *
+ * @author marco corvi
+ * @date oct 2026
+ *
+ * @brief TopoDroid test of the triangles loop closure (trilateration) of the survey reduction
+ * --------------------------------------------------------
+ *  Copyright This software is distributed under GPL-3.0 or later
+ *  See the file COPYING.
+ * --------------------------------------------------------
+ * The surveys are strips of triangles: each station after the first two has legs to the two previous ones.
+ * The trilateration fits the horizontal lengths of the legs, and corrects the azimuths of the legs.
+ * With exact lengths the horizontal distances between the stations of a strip are those of the true
+ * stations, whatever the azimuth errors; with exact azimuths the stations are the true ones.
+ * Two strips with only one station in common are two clusters, each one with its own rotation.
+ * The surveys without triangles are reduced as without loop closure.
+ */
+package com.topodroid.TDX;
+
+import com.topodroid.num.TDNum;
+import com.topodroid.num.NumStation;
+import com.topodroid.prefs.TDSetting;
+import com.topodroid.common.LegType;
+import com.topodroid.utils.TDMath;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+public class TDNumTrilaterationTest
+{
+  private static final double EPS = 0.001; // coordinates tolerance [m]
+
+  private int mLoopClosure;
+  private int mDatamode;
+  private boolean mMagAnomaly;
+
+  @Before
+  public void setUp()
+  {
+    mLoopClosure = TDSetting.mLoopClosure;
+    mDatamode    = TDInstance.datamode;
+    mMagAnomaly  = StationPolicy.mMagAnomaly;
+    TDSetting.mLoopClosure = TDSetting.LOOP_TRIANGLES;
+    TDInstance.datamode    = SurveyInfo.DATAMODE_NORMAL;
+    StationPolicy.mMagAnomaly = false;
+  }
+
+  @After
+  public void tearDown()
+  {
+    TDSetting.mLoopClosure = mLoopClosure;
+    TDInstance.datamode    = mDatamode;
+    StationPolicy.mMagAnomaly = mMagAnomaly;
+  }
+
+  /** strips of triangles, with the true station positions
+   */
+  private static class Survey
+  {
+    final ArrayList< DBlock > data = new ArrayList<>();
+    final HashMap< String, double[] > pos = new HashMap<>(); // true station positions (east, south, vertical)
+    double offset = 0; // systematic azimuth error [degrees]
+    private long id = 1;
+
+    Survey()
+    {
+      pos.put( "0", new double[] { 0, 0, 0 } );
+    }
+
+    /** add a strip of triangles
+     * @param prefix  station names prefix
+     * @param start   first station of the strip (already in the survey)
+     * @param nr      number of stations after the first
+     * @param r       random generator
+     * @param noise   azimuth error [degrees]
+     * @return the stations of the strip
+     */
+    List< String > addStrip( String prefix, String start, int nr, Random r, double noise )
+    {
+      ArrayList< String > names = new ArrayList<>();
+      names.add( start );
+      double[] p0 = pos.get( start );
+      double dir = r.nextDouble() * 2 * Math.PI; // strip direction
+      for ( int k = 1; k <= nr; ++k ) {
+        String name = prefix + k;
+        double along = 3 * k + r.nextDouble();
+        double side  = ( k % 2 == 0 )? 0 : 4 + r.nextDouble();
+        double[] p = new double[] {
+          p0[0] + along * Math.sin( dir ) + side * Math.cos( dir ),
+          p0[1] - along * Math.cos( dir ) + side * Math.sin( dir ),
+          p0[2] + r.nextDouble() * 2 - 1 };
+        pos.put( name, p );
+        names.add( name );
+        data.add( makeLeg( names.get( k-1 ), name, r, noise ) );
+        if ( k >= 2 ) data.add( makeLeg( names.get( k-2 ), name, r, noise ) );
+      }
+      return names;
+    }
+
+    /** @return the leg between two stations, with exact length and clino
+     * @param from   FROM station
+     * @param to     TO station
+     * @param r      random generator
+     * @param noise  azimuth error [degrees]
+     */
+    private DBlock makeLeg( String from, String to, Random r, double noise )
+    {
+      double[] p1 = pos.get( from );
+      double[] p2 = pos.get( to );
+      double de = p2[0] - p1[0];
+      double ds = p2[1] - p1[1];
+      double dv = p2[2] - p1[2];
+      double h  = Math.sqrt( de*de + ds*ds );
+      double b  = Math.atan2( de, -ds ) * TDMath.RAD2DEG + offset + ( 2 * r.nextDouble() - 1 ) * noise;
+      DBlock blk = new DBlock();
+      blk.setId( id++, 1 );
+      blk.setBlockName( from, to );
+      blk.setBlockType( LegType.NORMAL );
+      blk.mLength  = (float)Math.sqrt( h*h + dv*dv );
+      blk.mBearing = (float)( ( b + 360 ) % 360 );
+      blk.mClino   = (float)( - Math.atan2( dv, h ) * TDMath.RAD2DEG );
+      blk.mComment = "";
+      blk.setExtend( 1, 0 );
+      blk.resetFlag( 0 );
+      return blk;
+    }
+  }
+
+  /** check the horizontal distances between the stations of a strip
+   * @param msg     message
+   * @param num     reduction
+   * @param survey  survey
+   * @param names   stations of the strip
+   */
+  private static void checkDistances( String msg, TDNum num, Survey survey, List< String > names )
+  {
+    for ( int i = 0; i < names.size(); ++i ) {
+      NumStation s1 = num.getStation( names.get( i ) );
+      assertNotNull( msg + " station " + names.get( i ), s1 );
+      double[] p1 = survey.pos.get( names.get( i ) );
+      for ( int j = i+1; j < names.size(); ++j ) {
+        NumStation s2 = num.getStation( names.get( j ) );
+        double[] p2 = survey.pos.get( names.get( j ) );
+        double expected = Math.sqrt( ( p2[0] - p1[0] ) * ( p2[0] - p1[0] ) + ( p2[1] - p1[1] ) * ( p2[1] - p1[1] ) );
+        double actual   = Math.sqrt( ( s2.e - s1.e ) * ( s2.e - s1.e ) + ( s2.s - s1.s ) * ( s2.s - s1.s ) );
+        assertEquals( msg + " distance " + names.get( i ) + "-" + names.get( j ), expected, actual, EPS );
+      }
+    }
+  }
+
+  /** check the station positions
+   * @param msg     message
+   * @param num     reduction
+   * @param survey  survey
+   */
+  private static void checkPositions( String msg, TDNum num, Survey survey )
+  {
+    assertEquals( msg, survey.pos.size(), num.stationsNr() );
+    for ( String name : survey.pos.keySet() ) {
+      NumStation st = num.getStation( name );
+      assertNotNull( msg + " station " + name, st );
+      double[] p = survey.pos.get( name );
+      assertEquals( msg + " station " + name, p[0], st.e, EPS );
+      assertEquals( msg + " station " + name, p[1], st.s, EPS );
+      assertEquals( msg + " station " + name, p[2], st.v, EPS );
+    }
+  }
+
+  @Test
+  public void testExactStrips() // the trilateration keeps the true stations
+  {
+    for ( long seed = 0; seed < 10; ++seed ) {
+      Random r = new Random( seed );
+      Survey survey = new Survey();
+      List< String > strip = survey.addStrip( "a", "0", 3 + r.nextInt( 30 ), r, 0 );
+      survey.addStrip( "b", strip.get( strip.size() - 1 ), 3 + r.nextInt( 30 ), r, 0 );
+      TDNum num = new TDNum( survey.data, "0", null, null, 0, null );
+      checkPositions( "seed " + seed, num, survey );
+    }
+  }
+
+  @Test
+  public void testAzimuthErrors() // the trilateration fits the lengths: the azimuth errors do not change the strip shape
+  {
+    int changed = 0;
+    for ( long seed = 0; seed < 10; ++seed ) {
+      Random r = new Random( seed );
+      Survey survey = new Survey();
+      List< String > strip = survey.addStrip( "a", "0", 3 + r.nextInt( 30 ), r, 2.0 );
+      TDNum num = new TDNum( survey.data, "0", null, null, 0, null );
+      checkDistances( "seed " + seed, num, survey, strip );
+
+      TDSetting.mLoopClosure = TDSetting.LOOP_NONE; // without the trilateration the azimuth errors change the shape
+      num = new TDNum( survey.data, "0", null, null, 0, null );
+      TDSetting.mLoopClosure = TDSetting.LOOP_TRIANGLES;
+      try {
+        checkDistances( "seed " + seed, num, survey, strip );
+      } catch ( AssertionError e ) {
+        ++ changed;
+      }
+    }
+    assertTrue( changed > 0 );
+  }
+
+  @Test
+  public void testClusters() // strips with one station in common, and separate strips solved concurrently
+  {
+    for ( long seed = 0; seed < 10; ++seed ) {
+      Random r = new Random( seed );
+      Survey survey = new Survey();
+      ArrayList< List< String > > strips = new ArrayList<>();
+      List< String > exact = survey.addStrip( "a", "0", 3 + r.nextInt( 10 ), r, 0 );
+      survey.offset = 3.0; // the other strips are rotated: the exact strip is not
+      strips.add( survey.addStrip( "b", "0", 3 + r.nextInt( 10 ), r, 1.0 ) );
+      for ( int k = 0; k < 4; ++k ) { // a strip from the last station of the previous one
+        String prefix = "c" + k + ".";
+        List< String > last = strips.get( strips.size() - 1 );
+        String start = last.get( last.size() - 1 );
+        List< String > strip = survey.addStrip( prefix, start, 3 + r.nextInt( 10 ), r, 1.0 );
+        strips.add( strip );
+      }
+      TDNum num = new TDNum( survey.data, "0", null, null, 0, null );
+      assertEquals( "seed " + seed, survey.pos.size(), num.stationsNr() );
+      for ( List< String > strip : strips ) checkDistances( "seed " + seed, num, survey, strip );
+      for ( String name : exact ) {
+        NumStation st = num.getStation( name );
+        double[] p = survey.pos.get( name );
+        assertEquals( "seed " + seed + " station " + name, p[0], st.e, EPS );
+        assertEquals( "seed " + seed + " station " + name, p[1], st.s, EPS );
+      }
+    }
+  }
+
+  @Test
+  public void testTrees() // no triangles: the stations are those of the reduction without loop closure
+  {
+    for ( long seed = 0; seed < 10; ++seed ) {
+      Random r = new Random( seed );
+      Survey survey = new Survey();
+      for ( int k = 1; k <= 40; ++k ) {
+        String from = ( k == 1 )? "0" : Integer.toString( 1 + r.nextInt( k-1 ) );
+        String to   = Integer.toString( k );
+        double[] p = survey.pos.get( from );
+        survey.pos.put( to, new double[] { p[0] + r.nextGaussian() * 5, p[1] + r.nextGaussian() * 5, p[2] + r.nextGaussian() } );
+        survey.data.add( survey.makeLeg( from, to, r, 2.0 ) );
+      }
+      TDNum num = new TDNum( survey.data, "0", null, null, 0, null );
+      TDSetting.mLoopClosure = TDSetting.LOOP_NONE;
+      TDNum expected = new TDNum( survey.data, "0", null, null, 0, null );
+      TDSetting.mLoopClosure = TDSetting.LOOP_TRIANGLES;
+      assertEquals( "seed " + seed, expected.stationsNr(), num.stationsNr() );
+      for ( NumStation st : expected.getStations() ) {
+        NumStation st1 = num.getStation( st.name );
+        assertNotNull( "seed " + seed + " station " + st.name, st1 );
+        assertEquals( "seed " + seed + " station " + st.name, st.e, st1.e, 0.0 );
+        assertEquals( "seed " + seed + " station " + st.name, st.s, st1.s, 0.0 );
+        assertEquals( "seed " + seed + " station " + st.name, st.v, st1.v, 0.0 );
+      }
+    }
+  }
+}